@@ -0,0 +1,130 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * A minimal benchmark harness measuring the average time of an operation in nanoseconds.
+ * <br>Every benchmark is warmed up first, then measured in several iterations of a fixed duration, the result is the
+ * mean and standard deviation over the iterations.
+ * <br>NOTE: Results of the operations are folded into a sink so the JIT can't remove them as dead code
+ */
+public abstract class Benchmark {
+
+	/** Folded results of all operations, see {@link #consume(Object)} */
+	private static volatile int sink;
+
+	/** The name printed in the results */
+	protected final String name;
+	/** Whether {@link #prepare()} has to be called before every operation (the time spent in it is not measured) */
+	protected final boolean prepareEach;
+
+	/**
+	 * Create a benchmark
+	 * @param name the name printed in the results
+	 * @param prepareEach whether {@link #prepare()} is called before every operation or only once before measuring
+	 */
+	public Benchmark(String name, boolean prepareEach) {
+		this.name = name;
+		this.prepareEach = prepareEach;
+	}
+
+	/**
+	 * Create a benchmark that is only prepared once
+	 * @param name the name printed in the results
+	 */
+	public Benchmark(String name) {
+		this(name, false);
+	}
+
+	/**
+	 * Prepare the state the operation works on, not measured
+	 * @throws Exception something went wrong
+	 */
+	public void prepare() throws Exception {}
+
+	/**
+	 * The measured operation
+	 * @return a result that is consumed so the operation can't be optimized away
+	 * @throws Exception something went wrong
+	 */
+	public abstract Object run() throws Exception;
+
+	/**
+	 * Return the name of this benchmark
+	 * @return the name printed in the results
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Fold a result into the sink
+	 * @param result the result of an operation
+	 */
+	protected static void consume(Object result) {
+		if(result != null)
+			sink ^= result.hashCode();
+	}
+
+	/**
+	 * Measure this benchmark
+	 * @param warmups the amount of iterations that are run but not measured
+	 * @param iterations the amount of measured iterations
+	 * @param iterationMillis the minimum duration of every iteration in milliseconds
+	 * @return the average nanoseconds per operation of every measured iteration
+	 * @throws Exception the benchmark failed
+	 */
+	public double[] measure(int warmups, int iterations, long iterationMillis) throws Exception {
+		if(!prepareEach) prepare();
+		for(int i=0;i<warmups;i++)
+			iteration(iterationMillis);
+		double[] results = new double[iterations];
+		for(int i=0;i<iterations;i++)
+			results[i] = iteration(iterationMillis);
+		return results;
+	}
+
+	/**
+	 * Run the operation repeatedly for at least the given duration
+	 * @param iterationMillis the minimum duration in milliseconds
+	 * @return the average nanoseconds per operation
+	 * @throws Exception the benchmark failed
+	 */
+	private double iteration(long iterationMillis) throws Exception {
+		long limit = iterationMillis * 1000000L;
+		long measured = 0;
+		long operations = 0;
+		long start = System.nanoTime();
+		while(System.nanoTime() - start < limit) {
+			if(prepareEach) {
+				prepare();
+				long begin = System.nanoTime();
+				consume(run());
+				measured += System.nanoTime() - begin;
+			}else {
+				long begin = System.nanoTime();
+				consume(run());
+				measured += System.nanoTime() - begin;
+			}
+			operations++;
+		}
+		return measured / (double) operations;
+	}
+
+	/**
+	 * Format the results of a measurement
+	 * @param results the average nanoseconds per operation of every iteration
+	 * @return a line containing the name, mean, standard deviation and minimum
+	 */
+	public String format(double[] results) {
+		double mean = 0;
+		for(double r:results) mean += r;
+		mean /= results.length;
+		double deviation = 0;
+		for(double r:results) deviation += (r-mean)*(r-mean);
+		deviation = Math.sqrt(deviation / Math.max(results.length-1, 1));
+		double[] sorted = Arrays.copyOf(results, results.length);
+		Arrays.sort(sorted);
+		return String.format("%-40s %15.1f ns/op  +- %12.1f  (min %15.1f)", name, mean, deviation, sorted[0]);
+	}
+}
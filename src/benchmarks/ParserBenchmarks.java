@@ -0,0 +1,554 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.location.SectionSearcher;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.payload.ModifyPE;
+import pusty.f0xpe.payload.ModifyPE.EditableImportTable;
+import pusty.f0xpe.payload.ModifyPE.NewSection;
+import pusty.f0xpe.pe.DescriptorException;
+import pusty.f0xpe.pe.DescriptorExport;
+import pusty.f0xpe.pe.DescriptorSecurity;
+import pusty.f0xpe.pe.DescriptorResource.IMAGE_RESOURCE_DIRECTORY;
+import pusty.f0xpe.pe.DescriptorResource.IMAGE_RESOURCE_DIRECTORY_ENTRY;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
+import pusty.f0xpe.pe.ImportFingerprint;
+import pusty.f0xpe.pe.ImportIndex;
+import pusty.f0xpe.pe.ImportIndex.PostingList;
+import pusty.f0xpe.pe.ImportFingerprint.FingerprintCache;
+import pusty.f0xpe.pe.PEChecksum;
+import pusty.f0xpe.pe.ParseCache;
+
+/**
+ * Benchmarks of the parser and modification hot paths on synthetic inputs (see {@link GeneratePE}).
+ * <br>Usage: ParserBenchmarks [filter] [iterations] [milliseconds per iteration] [forks]
+ * <br>Only benchmarks whose name contains the filter (or equals it if it starts with '=') are run, every result is the
+ * mean time per operation over all measured iterations.
+ * <br>Every benchmark runs in its own JVM (with the same class path and JVM options) so the JIT profile and the heap
+ * of one benchmark don't affect the next, with 0 forks all benchmarks run in this JVM.
+ */
+public class ParserBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		String filter = args.length > 0 ? args[0] : "";
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+		int forks = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+		final byte[] small = new GeneratePE().setSeed(1).generate();
+		final byte[] small64 = new GeneratePE().set64bit(true).setSeed(1).generate();
+		final byte[] sections100 = new GeneratePE().setSections(100).setSeed(2).generate();
+		final byte[] imports5000 = new GeneratePE().setImports(50, 100).setCodeSize(0x40000).setSeed(3).generate();
+		final byte[] deepResources = new GeneratePE().setResources(6, 4, 16).setSeed(4).generate();
+		final byte[] exports5000 = new GeneratePE().setExports(5000, 16).setSeed(5).generate();
+		final byte[] relocations = new GeneratePE().setImports(50, 100).setCodeSize(0x40000).setRelocations(true).setSeed(6).generate();
+		final byte[] functions10000 = new GeneratePE().set64bit(true).setCodeSize(0x100000).setFunctions(10000).setSeed(7).generate();
+
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(create("create/small", small));
+		benchmarks.add(create("create/small64", small64));
+		benchmarks.add(create("create/sections100", sections100));
+		benchmarks.add(create("create/imports5000", imports5000));
+		benchmarks.add(create("create/deepResources", deepResources));
+		benchmarks.add(parseDirectories("parseDirectories/small", small));
+		benchmarks.add(parseDirectories("parseDirectories/imports5000", imports5000));
+		benchmarks.add(parseDirectories("parseDirectories/deepResources", deepResources));
+		benchmarks.add(rva2offset("rva2offset/small", small));
+		benchmarks.add(rva2offset("rva2offset/sections100", sections100));
+		benchmarks.add(search("SectionSearcher.search/small", small));
+		benchmarks.add(search("SectionSearcher.search/imports5000", imports5000));
+		benchmarks.add(injectSection("ModifyPE.injectSection/small", small));
+		benchmarks.add(injectSection("ModifyPE.injectSection/imports5000", imports5000));
+		benchmarks.add(injectSections("ModifyPE.injectSections/small", small));
+		benchmarks.add(injectSections("ModifyPE.injectSections/imports5000", imports5000));
+		benchmarks.add(importNames("EditableImportTable.fromReader/imports5000", imports5000));
+		benchmarks.add(writeTable("EditableImportTable.writeTable/small", small));
+		benchmarks.add(writeTable("EditableImportTable.writeTable/imports5000", imports5000));
+		benchmarks.add(resources("DescriptorResource.traverse/small", small));
+		benchmarks.add(resources("DescriptorResource.traverse/deepResources", deepResources));
+		benchmarks.add(resourceData("DescriptorResource.getData/deepResources", deepResources));
+		benchmarks.add(exports("DescriptorExport.getFunctionRVA/exports5000", exports5000, false));
+		benchmarks.add(exports("DescriptorExport.getFunctionRVA/exports5000/indexed", exports5000, true));
+		benchmarks.add(rebase("ModifyPE.rebase/relocations", relocations));
+		benchmarks.add(functions("DescriptorException.findFunction/functions10000", functions10000));
+		benchmarks.add(checksum("PEChecksum.compute/imports5000", imports5000));
+		benchmarks.add(checksum("PEChecksum.compute/functions10000", functions10000));
+		benchmarks.add(checksumUpdate("PEChecksum.update/functions10000", functions10000));
+		benchmarks.add(digest("DescriptorSecurity.digest/imports5000", imports5000));
+		benchmarks.add(profile("SectionProfile.profile/sections100", sections100));
+		benchmarks.add(profile("SectionProfile.profile/functions10000", functions10000));
+		benchmarks.add(fingerprint("ImportFingerprint.of/imports5000", imports5000, false));
+		benchmarks.add(fingerprint("ImportFingerprint.of/imports5000/cached", imports5000, true));
+		benchmarks.add(parseCache("ParseCache.get/imports5000/mapped", imports5000, false));
+		benchmarks.add(parseCache("ParseCache.get/imports5000/summary", imports5000, true));
+		benchmarks.add(indexAdd("ImportIndex.add/imports5000", imports5000));
+		benchmarks.add(indexAnd("ImportIndex.and/1M"));
+		benchmarks.add(indexOr("ImportIndex.or/1M"));
+
+		for(Benchmark benchmark:benchmarks) {
+			if(filter.startsWith("=") ? !benchmark.getName().equals(filter.substring(1)) : !benchmark.getName().contains(filter))
+				continue;
+			if(forks > 0) {
+				for(int i=0;i<forks;i++)
+					fork(benchmark.getName(), iterations, millis);
+				continue;
+			}
+			double[] results = benchmark.measure(Math.max(iterations/2, 1), iterations, millis);
+			System.out.println(benchmark.format(results));
+		}
+	}
+
+	/**
+	 * Run one benchmark in a new JVM and wait for it, the results are printed by the new JVM
+	 * @param name the name of the benchmark
+	 * @param iterations the amount of measured iterations
+	 * @param millis the minimum duration of every iteration in milliseconds
+	 * @throws Exception the JVM couldn't be started or the benchmark failed
+	 */
+	private static void fork(String name, int iterations, long millis) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ParserBenchmarks.class.getName());
+		command.add("=" + name);
+		command.add(String.valueOf(iterations));
+		command.add(String.valueOf(millis));
+		command.add("0");
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		if(process.waitFor() != 0)
+			throw new Exception("Benchmark "+name+" failed with exit code "+process.exitValue());
+	}
+
+	/** Parse a whole file */
+	private static Benchmark create(String name, final byte[] file) {
+		return new Benchmark(name) {
+			@Override
+			public Object run() throws Exception {
+				return ExecutableReader.create(new ExecutableStream(file));
+			}
+		};
+	}
+
+	/** Parse the data directories of a file whose headers are already parsed */
+	private static Benchmark parseDirectories(String name, final byte[] file) {
+		return new Benchmark(name, true) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file), true);
+			}
+			@Override
+			public Object run() throws Exception {
+				reader.getOptionalHeader().parseDirectories();
+				return reader.getOptionalHeader().getImportDescriptor();
+			}
+		};
+	}
+
+	/** Translate 1024 random RVAs within the image */
+	private static Benchmark rva2offset(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			int[] rvas;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+				Random random = new Random(1);
+				rvas = new int[1024];
+				for(int i=0;i<rvas.length;i++)
+					rvas[i] = random.nextInt(reader.getOptionalHeader().getSizeOfImage());
+			}
+			@Override
+			public Object run() throws Exception {
+				int sum = 0;
+				for(int rva:rvas)
+					sum += reader.rva2offset(rva);
+				return sum;
+			}
+		};
+	}
+
+	/** Search all code caves */
+	private static Benchmark search(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return new SectionSearcher(SectionSearcher.MODE_RISKY).search(reader);
+			}
+		};
+	}
+
+	/** Inject a section into a freshly parsed file */
+	private static Benchmark injectSection(String name, final byte[] file) {
+		return new Benchmark(name, true) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file.clone()));
+			}
+			@Override
+			public Object run() throws Exception {
+				return ModifyPE.injectSection(reader, ".bench", 0x2000, IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA);
+			}
+		};
+	}
+
+	/** Inject a code and a data section at once into a freshly parsed file */
+	private static Benchmark injectSections(String name, final byte[] file) {
+		return new Benchmark(name, true) {
+			ExecutableReader reader;
+			ArrayList<NewSection> sections;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file.clone()));
+				sections = new ArrayList<NewSection>();
+				sections.add(new NewSection(".bench", 0x2000, IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE));
+				sections.add(new NewSection(".dbench", 0x2000, IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA));
+			}
+			@Override
+			public Object run() throws Exception {
+				return ModifyPE.injectSections(reader, sections);
+			}
+		};
+	}
+
+	/** Read the names of all imports of a parsed file */
+	private static Benchmark importNames(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return EditableImportTable.fromReader(reader);
+			}
+		};
+	}
+
+	/** Move the import table of a freshly parsed file into a new section, replacing all references to it */
+	private static Benchmark writeTable(String name, final byte[] file) {
+		return new Benchmark(name, true) {
+			ExecutableReader reader;
+			EditableImportTable table;
+			int position;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file.clone()));
+				table = EditableImportTable.fromReader(reader);
+				int sec = ModifyPE.injectSection(reader, ".bench", table.getTableSize(reader), IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA);
+				position = reader.getSectionHeader()[sec].getPointerToRawData();
+			}
+			@Override
+			public Object run() throws Exception {
+				return table.writeTable(reader, position, true);
+			}
+		};
+	}
+
+	/** Walk the whole resource tree and sum up the sizes of all resources */
+	private static Benchmark resources(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return traverse(reader.getOptionalHeader().getResourceDescriptor().getRoot());
+			}
+		};
+	}
+
+	/** Copy the data of all resources onto the heap */
+	private static Benchmark resourceData(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return extract(reader.getOptionalHeader().getResourceDescriptor().getRoot());
+			}
+		};
+	}
+
+	/** Look up 1024 random export names */
+	private static Benchmark exports(String name, final byte[] file, final boolean indexed) {
+		return new Benchmark(name) {
+			DescriptorExport exports;
+			String[] names;
+			@Override
+			public void prepare() throws Exception {
+				exports = ExecutableReader.create(new ExecutableStream(file)).getOptionalHeader().getExportDescriptor();
+				if(indexed) exports.buildIndex();
+				Random random = new Random(1);
+				names = new String[1024];
+				for(int i=0;i<names.length;i++)
+					names[i] = exports.getName(random.nextInt(exports.getNumberOfNames()));
+			}
+			@Override
+			public Object run() throws Exception {
+				int sum = 0;
+				for(String name:names)
+					sum += exports.getFunctionRVA(name);
+				return sum;
+			}
+		};
+	}
+
+	/** Move a parsed file back and forth between two image bases */
+	private static Benchmark rebase(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			boolean moved;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file.clone()));
+			}
+			@Override
+			public Object run() throws Exception {
+				moved = !moved;
+				return ModifyPE.rebase(reader, moved ? 0x10000000L : 0x400000L);
+			}
+		};
+	}
+
+	/** Look up the functions containing 1024 random RVAs within the code section */
+	private static Benchmark functions(String name, final byte[] file) {
+		return new Benchmark(name) {
+			DescriptorException exceptions;
+			int[] rvas;
+			@Override
+			public void prepare() throws Exception {
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(file));
+				exceptions = reader.getOptionalHeader().getExceptionDescriptor();
+				IMAGE_SECTION_HEADER code = reader.getSectionHeader()[0];
+				Random random = new Random(1);
+				rvas = new int[1024];
+				for(int i=0;i<rvas.length;i++)
+					rvas[i] = code.getVirtualAddress() + random.nextInt(code.getSizeOfRawData());
+			}
+			@Override
+			public Object run() throws Exception {
+				int sum = 0;
+				for(int rva:rvas)
+					sum += exceptions.findFunction(rva);
+				return sum;
+			}
+		};
+	}
+
+	/** Compute the checksum of a whole file */
+	private static Benchmark checksum(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return PEChecksum.compute(reader);
+			}
+		};
+	}
+
+	/** Patch a value within the code section and update the checksum of the file */
+	private static Benchmark checksumUpdate(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			int position;
+			int value;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file.clone()));
+				ModifyPE.updateCheckSum(reader);
+				position = reader.getSectionHeader()[0].getPointerToRawData() + 0x100;
+			}
+			@Override
+			public Object run() throws Exception {
+				reader.getStream().setInt(position, value++);
+				return ModifyPE.updateCheckSum(reader);
+			}
+		};
+	}
+
+	/** Compute the SHA-256 Authenticode digest of a file */
+	private static Benchmark digest(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return DescriptorSecurity.digest(reader, "SHA-256");
+			}
+		};
+	}
+
+	/** Hash and profile the entropy of all sections of a file */
+	private static Benchmark profile(String name, final byte[] file) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+			}
+			@Override
+			public Object run() throws Exception {
+				return reader.profileSections(new String[] {"MD5", "SHA-256"}, 0x400);
+			}
+		};
+	}
+
+	/** Fingerprint the imports of a file, either computed every time or found in a cache by the import table */
+	private static Benchmark fingerprint(String name, final byte[] file, final boolean cached) {
+		return new Benchmark(name) {
+			ExecutableReader reader;
+			FingerprintCache cache;
+			@Override
+			public void prepare() throws Exception {
+				reader = ExecutableReader.create(new ExecutableStream(file));
+				cache = cached ? new FingerprintCache(16, 1 << 20) : null;
+			}
+			@Override
+			public Object run() throws Exception {
+				return ImportFingerprint.of(reader, cache);
+			}
+		};
+	}
+
+	/** Add the imports of a file to an empty index */
+	private static Benchmark indexAdd(String name, final byte[] file) {
+		return new Benchmark(name, true) {
+			ExecutableReader reader;
+			ImportIndex index;
+			@Override
+			public void prepare() throws Exception {
+				if(reader == null)
+					reader = ExecutableReader.create(new ExecutableStream(file));
+				index = new ImportIndex();
+			}
+			@Override
+			public Object run() throws Exception {
+				return index.add("file", reader);
+			}
+		};
+	}
+
+	/** Return a posting list of 1M files, each file is contained with the given probability */
+	private static PostingList postings(double density, long seed) {
+		Random random = new Random(seed);
+		PostingList list = new PostingList();
+		for(int i=0;i<1000000;i++)
+			if(random.nextDouble() < density)
+				list.add(i);
+		return list;
+	}
+
+	/** Intersect a common import (30% of 1M files) with two rare ones (2% and 0.1%) */
+	private static Benchmark indexAnd(String name) {
+		return new Benchmark(name) {
+			PostingList[] lists;
+			@Override
+			public void prepare() throws Exception {
+				lists = new PostingList[] {postings(0.3, 1), postings(0.02, 2), postings(0.001, 3)};
+			}
+			@Override
+			public Object run() throws Exception {
+				return ImportIndex.and(lists);
+			}
+		};
+	}
+
+	/** Unite a common import (30% of 1M files) with a rare one (2%) */
+	private static Benchmark indexOr(String name) {
+		return new Benchmark(name) {
+			PostingList[] lists;
+			@Override
+			public void prepare() throws Exception {
+				lists = new PostingList[] {postings(0.3, 1), postings(0.02, 2)};
+			}
+			@Override
+			public Object run() throws Exception {
+				return ImportIndex.or(lists);
+			}
+		};
+	}
+
+	/** Parse a file from disk, either mapping the file itself or the summary of it stored in a parse cache */
+	private static Benchmark parseCache(String name, final byte[] file, final boolean summary) {
+		return new Benchmark(name) {
+			File directory;
+			File input;
+			ParseCache cache;
+			byte[] hash;
+			@Override
+			public void prepare() throws Exception {
+				directory = Files.createTempDirectory("f0xpe").toFile();
+				input = new File(directory, "input.exe");
+				Files.write(input.toPath(), file);
+				hash = MessageDigest.getInstance("SHA-256").digest(file);
+				cache = new ParseCache(directory);
+				cache.load(input, hash);
+				File summary = cache.getSummaryFile(hash, file.length);
+				//deleted in reverse order on exit
+				directory.deleteOnExit();
+				summary.getParentFile().deleteOnExit();
+				summary.deleteOnExit();
+				input.deleteOnExit();
+			}
+			@Override
+			public Object run() throws Exception {
+				if(summary)
+					return cache.get(hash, file.length);
+				return ExecutableReader.create(input, ExecutableStream.LOAD_MAPPED_READ_ONLY);
+			}
+		};
+	}
+
+	private static long extract(IMAGE_RESOURCE_DIRECTORY dir) throws Exception {
+		long hash = 0;
+		for(IMAGE_RESOURCE_DIRECTORY_ENTRY entry:dir.getEntires()) {
+			if(entry.isDirectory())
+				hash += extract(entry.getDir());
+			else
+				hash += entry.getData().getData().length;
+		}
+		return hash;
+	}
+
+	private static long traverse(IMAGE_RESOURCE_DIRECTORY dir) {
+		long size = 0;
+		for(IMAGE_RESOURCE_DIRECTORY_ENTRY entry:dir.getEntires()) {
+			if(entry.isDirectory())
+				size += traverse(entry.getDir());
+			else
+				size += entry.getData().getSize() + entry.getID();
+		}
+		return size;
+	}
+}
@@ -8,8 +8,10 @@ import pusty.f0xpe.location.MemorySection;
 import pusty.f0xpe.payload.EditablePayload;
 import pusty.f0xpe.payload.ModifyPE;
 import pusty.f0xpe.payload.Payload;
+import pusty.f0xpe.payload.ReferencePatcher;
 import pusty.f0xpe.payload.ModifyPE.EditableImportEntry;
 import pusty.f0xpe.payload.ModifyPE.EditableImportTable;
+import pusty.f0xpe.payload.ModifyPE.NewSection;
 import pusty.f0xpe.pe.DescriptorImport;
 import pusty.f0xpe.pe.ExecutableReader;
 import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32;
@@ -38,12 +40,15 @@ public class ExamplePacker {
 			}
 		}
 		
-		//Inject a new code and data section
-		int code_section = ModifyPE.injectSection(reader, ".boot", 0x2024,
+		//Inject a new code and data section at once
+		ArrayList<NewSection> boot_sections = new ArrayList<NewSection>();
+		boot_sections.add(new NewSection(".boot", 0x2024,
 				IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE
-						| IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_EXECUTE);
-		int data_section = ModifyPE.injectSection(reader, ".dboot", 0x2024,
-				IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA);
+						| IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_EXECUTE));
+		boot_sections.add(new NewSection(".dboot", 0x2024,
+				IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA));
+		int code_section = ModifyPE.injectSections(reader, boot_sections);
+		int data_section = code_section + 1;
 		
 		
 		//create a copy of the import table
@@ -92,10 +97,10 @@ public class ExamplePacker {
 		encryptSection(reader, ".rdata", crypter, code_section, 0xAAAAAAAA, 0xBBBBBBBB, 0);
 		// XORING
 
-		ModifyPE.replaceInt(reader, crypter, new MemorySection(reader.getSectionHeader()[code_section]),
-				0xAAAAAAAA, addressOfLoadLibrary);
-		ModifyPE.replaceInt(reader, crypter, new MemorySection(reader.getSectionHeader()[code_section]),
-				0xBBBBBBBB, addressOfGetProcAddress);
+		ModifyPE.replace(reader, crypter, new MemorySection(reader.getSectionHeader()[code_section]),
+				new ReferencePatcher(ReferencePatcher.WIDTH_32)
+				.add(0xAAAAAAAA, addressOfLoadLibrary)
+				.add(0xBBBBBBBB, addressOfGetProcAddress));
 
 		int writingOffset = ModifyPE.searchInt(reader, crypter,
 				new MemorySection(reader.getSectionHeader()[code_section]), 0x90909090);
@@ -119,10 +124,10 @@ public class ExamplePacker {
 			 */
 			int thunk_addr = copy_import.offset_thunk;
 			thunk_addr += reader.getOptionalHeader().getImageBase(); // need to add support for reloc
-			int dll_addr = reader.offset2rva(reader.getStream().getIndex()).getAddr32();
+			int dll_addr = reader.offset2rva32(reader.getStream().getIndex());
 			dll_addr += reader.getOptionalHeader().getImageBase();// need to add support for reloc
 			reader.getStream().writeString(copy_import.dll);
-			int proc_addr = reader.offset2rva(reader.getStream().getIndex()).getAddr32();
+			int proc_addr = reader.offset2rva32(reader.getStream().getIndex());
 			proc_addr += reader.getOptionalHeader().getImageBase();// need to add support for reloc
 			if (copy_import.imp != null)
 				reader.getStream().writeString(copy_import.imp);
@@ -226,7 +231,7 @@ public class ExamplePacker {
 
 		int start_memory = reader.getSectionHeader()[reader.getSectionHeader().length - 1].getPointerToRawData()
 				+ reader.getSectionHeader()[reader.getSectionHeader().length - 1].getSizeOfRawData();
-		for (int i = start_memory; i < reader.getStream().getData().length; i++)
+		for (int i = start_memory; i < reader.getStream().getSize(); i++)
 			reader.getStream().setByte(i, (byte) 0x00);
 
 		reader.save(new File("output.exe"));
@@ -0,0 +1,88 @@
+package pusty.f0xpe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only CharSequence over single byte characters (ISO-8859-1) in a buffer, e.g. a string within an ExecutableStream.
+ * <br>Nothing is copied or decoded until {@link #toString()} is called, so comparing names against known strings doesn't
+ * allocate a String for every name.
+ * <br>NOTE: The content changes with the underlying data
+ */
+public final class AsciiSequence implements CharSequence {
+
+	/** The characters of this sequence, one byte each */
+	private final ByteBuffer data;
+
+	/**
+	 * Create a sequence over the remaining bytes of a buffer
+	 * @param data the buffer containing the characters, its position and limit are not modified
+	 */
+	public AsciiSequence(ByteBuffer data) {
+		this.data = data.slice();
+	}
+
+	@Override
+	public int length() {
+		return data.limit();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (data.get(index) & 0xFF);
+	}
+
+	@Override
+	public AsciiSequence subSequence(int start, int end) {
+		if(start < 0 || end > length() || start > end) throw new IndexOutOfBoundsException();
+		ByteBuffer view = data.duplicate();
+		view.limit(end);
+		view.position(start);
+		return new AsciiSequence(view);
+	}
+
+	/**
+	 * Compare the characters of this sequence to another sequence
+	 * @param other the sequence to compare to
+	 * @return if both sequences contain the same characters
+	 */
+	public boolean contentEquals(CharSequence other) {
+		int length = length();
+		if(other.length() != length) return false;
+		for(int i=0;i<length;i++)
+			if(charAt(i) != other.charAt(i)) return false;
+		return true;
+	}
+
+	/**
+	 * Compare the characters of this sequence to another sequence ignoring the case of ASCII letters
+	 * @param other the sequence to compare to
+	 * @return if both sequences contain the same characters apart from their case
+	 */
+	public boolean equalsIgnoreCase(CharSequence other) {
+		int length = length();
+		if(other.length() != length) return false;
+		for(int i=0;i<length;i++) {
+			char a = charAt(i);
+			char b = other.charAt(i);
+			if(a != b && toLower(a) != toLower(b)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Convert an ASCII letter to lower case
+	 * @param c the character to convert
+	 * @return the lower case letter, other characters are returned unchanged
+	 */
+	private static char toLower(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	@Override
+	public String toString() {
+		byte[] bytes = new byte[length()];
+		data.duplicate().get(bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
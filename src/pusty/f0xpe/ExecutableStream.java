@@ -1,37 +1,77 @@
 package pusty.f0xpe;
 
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  *  This is a class for reading binary data properly from an input stream by buffering it and referencing in it with a pointer.
+ *  <br>The data is either a buffered array or a memory mapped file, both are accessed through the same functions.
+ *  <br>Partial streams only contain some blocks of the data (e.g. a summary of a file), accessing the other blocks fails.
+ *  <br>The positional get and set functions don't use the pointer, every thread has its own pointer so
+ *  one stream can be read from multiple threads at once (writing is NOT THREAD SAFE).
+ *  <br>Functions moving the data to new storage (ensureCapacity, insert, remove) count as writes, other threads may only read the stream again after they returned and the threads synchronized with the
+ *  writer (e.g. by handing the stream over through a lock, a volatile field or a thread start).
  */
 public class ExecutableStream {
 
-	/** The immutable data of this stream */
-	private final byte[] inputData;
-	/** The current index within the data */
+	/** Fully buffer the file onto the heap */
+	public static final int LOAD_BUFFERED = 0;
+	/** Map the file read-only, writing to the stream fails */
+	public static final int LOAD_MAPPED_READ_ONLY = 1;
+	/** Map the file copy-on-write, changes stay private to the stream and never reach the file */
+	public static final int LOAD_MAPPED_COPY_ON_WRITE = 2;
+	
+	/** The largest size of the data buffered from a stream, larger arrays can't be allocated by every VM */
+	private static final int MAX_BUFFERED_SIZE = Integer.MAX_VALUE - 8;
+	
+	/** The size of the blocks modifications are tracked in, see trackModifications */
+	public static final int MODIFIED_BLOCK_SIZE = 0x1000;
+
+	/** The data of this stream in little endian order, either a wrapped array or a mapped file
+	 * <br>NOTE: Replaced when the storage moves (ensureCapacity, insert), not volatile as it is read on every
+	 * access, so moving the storage counts as a write and must not run while other threads read */
+	private ByteBuffer inputData;
+	/** Whether writing to the data is forbidden */
+	private final boolean readOnly;
+	/** The current index within the data of the thread that created this stream */
 	private int inputIndex;
+	/** One bit for every block written to since the last takeModified, null if modifications aren't tracked */
+	private BitSet modified;
+	/** One bit for every block accessed since trackReads, null if reads aren't tracked */
+	private BitSet accessed;
+	/** For partial streams the position of every block of MODIFIED_BLOCK_SIZE bytes within the data, -1 if not present */
+	private final int[] blocks;
+	/** For partial streams the size of the whole data, the data itself only contains the present blocks */
+	private final int partialSize;
+	/** The thread that uses inputIndex as its pointer */
+	private final Thread owner = Thread.currentThread();
+	/** The current index within the data of all other threads */
+	private final ThreadLocal<int[]> foreignIndex = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
 	
 	/**
 	 * Create a new stream for reading and writing binary data in different formats based on a stream
+	 * <br>NOTE: Only supports streams up to the size of 2GB, like files
 	 * @param is the stream to fully buffer and work with
+	 * @throws IOException the stream is larger than an array can hold
 	 */
-	public ExecutableStream(InputStream is) {
-		int available = 0;
-		try {
-			available = is.available();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		inputData = new byte[available];
-		try {
-			is.read(inputData); //this is fast, wow
-		}catch(IOException e) {
-			e.printStackTrace();
-		}
-		inputIndex = 0;
+	public ExecutableStream(InputStream is) throws IOException {
+		this(readFully(is));
 	}
 
 	/**
@@ -39,16 +79,211 @@ public class ExecutableStream {
 	 * @param data the array this stream reads from and writes to
 	 */
 	public ExecutableStream(byte[] data) {
-		inputData = data;
+		inputData = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		readOnly = false;
+		inputIndex = 0;
+		blocks = null;
+		partialSize = 0;
+	}
+	
+	/**
+	 * Create a new stream for reading and writing binary data in different formats based on a buffer (e.g. a mapped file)
+	 * <br>The stream starts at the current position of the buffer and ends at its limit, the buffer itself is not modified
+	 * @param buffer the buffer this stream reads from and writes to
+	 */
+	public ExecutableStream(ByteBuffer buffer) {
+		inputData = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		readOnly = buffer.isReadOnly();
 		inputIndex = 0;
+		blocks = null;
+		partialSize = 0;
+	}
+	
+	/**
+	 * Create a new read-only partial stream only containing some blocks of MODIFIED_BLOCK_SIZE bytes of the data
+	 * <br>Accessing any other block throws an IOException, getData and getBuffer throw an UnsupportedOperationException
+	 * as they need the whole data
+	 * @param packed the present blocks in ascending order without gaps, starting at the current position of the buffer
+	 * (the last block of the data may be shorter)
+	 * @param size the size of the whole data
+	 * @param present one bit for every present block
+	 * @throws IOException the size of the packed blocks doesn't match the present blocks
+	 */
+	public ExecutableStream(ByteBuffer packed, int size, BitSet present) throws IOException {
+		inputData = packed.slice().order(ByteOrder.LITTLE_ENDIAN);
+		readOnly = true;
+		inputIndex = 0;
+		blocks = new int[(size + MODIFIED_BLOCK_SIZE - 1) / MODIFIED_BLOCK_SIZE];
+		partialSize = size;
+		int position = 0;
+		for(int i=0;i<blocks.length;i++) {
+			if(!present.get(i)) {
+				blocks[i] = -1;
+				continue;
+			}
+			blocks[i] = position;
+			position += Math.min(MODIFIED_BLOCK_SIZE, size - i * MODIFIED_BLOCK_SIZE);
+		}
+		if(position != inputData.limit() || present.length() > blocks.length)
+			throw new IOException("The packed blocks don't match the present blocks");
+	}
+	
+	/**
+	 * Create a new stream based on a file
+	 * <br>NOTE: Copy-on-write mappings need a writable file, read-only files are buffered instead
+	 * @param file the file to load
+	 * @param mode how to load the file, see LOAD_* constants for further information
+	 * @return the stream containing the file
+	 * @throws IOException the file couldn't be read or is too large to be mapped
+	 */
+	public static ExecutableStream fromFile(File file, int mode) throws IOException {
+		if(mode == LOAD_MAPPED_COPY_ON_WRITE && !file.canWrite())
+			mode = LOAD_BUFFERED;
+		if(mode == LOAD_BUFFERED) {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				return new ExecutableStream(fis);
+			} finally {
+				fis.close();
+			}
+		}
+		FileChannel channel;
+		if(mode == LOAD_MAPPED_COPY_ON_WRITE) //private mappings need a channel opened for writing, the file itself stays untouched
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		else
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File is too large to be mapped: "+file);
+			//the mapping stays valid after the channel is closed
+			return new ExecutableStream(channel.map(mode == LOAD_MAPPED_COPY_ON_WRITE ? MapMode.PRIVATE : MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Read a stream until its end into an array
+	 * @param is the stream to read
+	 * @return the read data, possibly incomplete if reading failed
+	 * @throws IOException the stream is larger than MAX_BUFFERED_SIZE
+	 */
+	private static byte[] readFully(InputStream is) throws IOException {
+		byte[] data = new byte[0];
+		int length = 0;
+		boolean tooLarge = false;
+		try {
+			data = new byte[Math.min(Math.max(is.available(), 0), MAX_BUFFERED_SIZE)]; //only a guess, keep reading until the stream ends
+			while(true) {
+				if(length == data.length) {
+					int next = is.read();
+					if(next == -1) break;
+					if(length == MAX_BUFFERED_SIZE) {
+						tooLarge = true;
+						break;
+					}
+					//double the size without overflowing
+					data = Arrays.copyOf(data, (int) Math.min(Math.max(data.length*2L, 0x1000), MAX_BUFFERED_SIZE));
+					data[length++] = (byte)next;
+				}
+				int read = is.read(data, length, data.length-length);
+				if(read == -1) break;
+				length += read;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if(tooLarge)
+			throw new IOException("Stream is larger than "+MAX_BUFFERED_SIZE+" bytes, only executables up to 2GB are supported");
+		if(length != data.length)
+			data = Arrays.copyOf(data, length);
+		return data;
 	}
 	
 	/**
 	 * Returns the buffered data
+	 * <br>NOTE: Only heap streams without spare capacity return their own array, mapped streams and streams with spare
+	 * capacity return a copy every call (changes to it don't reach the stream), the storage of the stream never moves
 	 * @return the data buffered from the input stream
 	 */
 	public byte[] getData() {
-		return inputData;
+		if(blocks != null) throw new UnsupportedOperationException("Partial streams don't contain the whole data");
+		ByteBuffer data = inputData;
+		if(data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.limit())
+			return data.array();
+		byte[] copy = new byte[data.limit()];
+		ByteBuffer view = data.duplicate();
+		view.rewind();
+		view.get(copy);
+		return copy;
+	}
+	
+	/**
+	 * Returns a little endian view of the data without copying it, read-only if the stream is
+	 * @return a buffer sharing its content with this stream positioned at the start of the data
+	 */
+	public ByteBuffer getBuffer() {
+		if(blocks != null) throw new UnsupportedOperationException("Partial streams don't contain the whole data");
+		ByteBuffer view = readOnly ? inputData.asReadOnlyBuffer() : inputData.duplicate();
+		view.rewind();
+		return view.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Returns a read-only little endian view of a range of the data without copying it
+	 * <br>The view can be handed to NIO channels directly, e.g. to write a range to a file
+	 * <br>NOTE: Views aren't updated if the data is moved to new storage (insert, remove, ensureCapacity)
+	 * @param offset the offset of the first byte of the range
+	 * @param length the amount of bytes in the range
+	 * @return a buffer sharing its content with this stream, positioned at 0 with the length as its limit
+	 * @throws IOException the range is out of bounds
+	 */
+	public ByteBuffer getView(int offset, int length) throws IOException {
+		if(length < 0) throw new EOFException();
+		ByteBuffer data = inputData;
+		int position = checkBounds(data, offset, length);
+		ByteBuffer view = data.asReadOnlyBuffer();
+		view.limit(position+length);
+		view.position(position);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Returns whether this stream is backed by a memory mapped file
+	 * @return if the data is mapped instead of buffered
+	 */
+	public boolean isMapped() {
+		return inputData.isDirect();
+	}
+	
+	/**
+	 * Returns whether this stream only contains some blocks of the data
+	 * @return if this is a partial stream
+	 */
+	public boolean isPartial() {
+		return blocks != null;
+	}
+	
+	/**
+	 * Returns whether a range of the data can be accessed, partial streams only contain some blocks
+	 * @param offset the offset of the first byte of the range
+	 * @param length the amount of bytes in the range
+	 * @return if the range is within the data and all of its blocks are present
+	 */
+	public boolean isPresent(int offset, int length) {
+		if(offset < 0 || length < 0 || offset > getSize() - length) return false;
+		if(blocks == null || length == 0) return true;
+		for(int i=offset/MODIFIED_BLOCK_SIZE;i<=(offset+length-1)/MODIFIED_BLOCK_SIZE;i++)
+			if(blocks[i] == -1) return false;
+		return true;
+	}
+	
+	/**
+	 * Returns whether writing to this stream is forbidden
+	 * @return if this stream is read-only
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
 	}
 	
 	/**
@@ -56,14 +291,181 @@ public class ExecutableStream {
 	 * @return the length of the buffer from the input stream
 	 */
 	public int getSize() {
-		return inputData.length;
+		if(blocks != null) return partialSize;
+		return inputData.limit();
+	}
+	
+	/**
+	 * Returns the amount of bytes the data can grow to without being copied again
+	 * @return the size of the storage backing the data
+	 */
+	public int getCapacity() {
+		if(blocks != null) return partialSize;
+		return inputData.capacity();
+	}
+	
+	/**
+	 * Make sure the data can grow to a given size without being copied again
+	 * <br>NOTE: Mapped streams are copied onto the heap and detached from the file
+	 * @param capacity the minimum size of the storage backing the data
+	 * @throws IOException the stream is read-only
+	 */
+	public synchronized void ensureCapacity(int capacity) throws IOException {
+		if(readOnly) throw new IOException("Stream is read-only");
+		if(inputData.hasArray() && inputData.arrayOffset() == 0 && inputData.capacity() >= capacity)
+			return;
+		int size = inputData.limit();
+		//grow by half of the current size so repeated inserts only copy the data a logarithmic amount of times
+		int grown = (int) Math.min(Integer.MAX_VALUE, Math.max((long) capacity, size + (size >> 1)));
+		ByteBuffer data = ByteBuffer.allocate(grown).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer view = inputData.duplicate();
+		view.rewind();
+		data.put(view);
+		data.flip();
+		inputData = data;
+	}
+	
+	/**
+	 * Insert a range of zero bytes into the data, everything at and after the offset moves up by the length
+	 * <br>Only the data after the offset is moved, the storage grows geometrically so inserting multiple times doesn't
+	 * copy the whole data every time
+	 * <br>NOTE: Offsets stored by parsed objects are not adjusted, see ExecutableReader.insert for that
+	 * @param offset the offset to insert the bytes at
+	 * @param length the amount of bytes to insert
+	 * @throws IOException the offset is out of bounds or the stream is read-only
+	 */
+	public synchronized void insert(int offset, int length) throws IOException {
+		int size = inputData.limit();
+		if(offset < 0 || offset > size || length < 0 || size > Integer.MAX_VALUE - length) throw new EOFException();
+		if(length == 0) return;
+		ensureCapacity(size + length);
+		byte[] data = inputData.array();
+		System.arraycopy(data, offset, data, offset+length, size-offset);
+		Arrays.fill(data, offset, offset+length, (byte)0);
+		inputData.limit(size + length);
+		markModified(offset, size + length - offset);
+	}
+	
+	/**
+	 * Remove a range of bytes from the data, everything after the range moves down by the length
+	 * <br>The storage is kept so growing the data again afterwards doesn't need to copy it
+	 * <br>NOTE: Offsets stored by parsed objects are not adjusted, see ExecutableReader.remove for that
+	 * @param offset the offset of the first byte to remove
+	 * @param length the amount of bytes to remove
+	 * @throws IOException the range is out of bounds or the stream is read-only
+	 */
+	public synchronized void remove(int offset, int length) throws IOException {
+		int size = inputData.limit();
+		if(offset < 0 || length < 0 || offset > size - length) throw new EOFException();
+		if(length == 0) return;
+		ensureCapacity(size);
+		byte[] data = inputData.array();
+		System.arraycopy(data, offset+length, data, offset, size-offset-length);
+		Arrays.fill(data, size-length, size, (byte)0);
+		inputData.limit(size - length);
+		markModified(offset, size - offset);
+	}
+	
+	/**
+	 * Start recording which blocks of MODIFIED_BLOCK_SIZE bytes are written to, e.g. to update a checksum incrementally
+	 * <br>All writes through this stream and inserting or removing bytes are recorded, writes into the array of
+	 * getData or the buffer of getBuffer have to be reported with markModified
+	 */
+	public synchronized void trackModifications() {
+		if(modified == null)
+			modified = new BitSet();
+	}
+	
+	/**
+	 * Returns whether writes to this stream are recorded
+	 * @return if trackModifications was called
+	 */
+	public boolean isTrackingModifications() {
+		return modified != null;
+	}
+	
+	/**
+	 * Record that a range of the data was modified, does nothing if modifications aren't tracked
+	 * @param offset the offset of the first modified byte
+	 * @param length the amount of modified bytes
+	 */
+	public void markModified(int offset, int length) {
+		BitSet blocks = modified;
+		if(blocks == null || length <= 0) return;
+		blocks.set(offset / MODIFIED_BLOCK_SIZE, (int) (((long) offset + length - 1) / MODIFIED_BLOCK_SIZE) + 1);
+	}
+	
+	/**
+	 * Return the blocks modified since the last call and start recording anew
+	 * @return one bit for every modified block of MODIFIED_BLOCK_SIZE bytes, null if modifications aren't tracked
+	 */
+	public synchronized BitSet takeModified() {
+		BitSet blocks = modified;
+		if(blocks != null)
+			modified = new BitSet();
+		return blocks;
+	}
+	
+	/**
+	 * Start recording which blocks of MODIFIED_BLOCK_SIZE bytes are accessed, e.g. to find out which parts of a file
+	 * parsing depends on
+	 * <br>All reads and writes through this stream and the structures laid out with the readAddr functions are recorded,
+	 * reads from the array of getData or the buffer of getBuffer have to be reported with markRead
+	 * <br>NOTE: Recording is not thread safe, only one thread should access the stream meanwhile
+	 */
+	public synchronized void trackReads() {
+		if(accessed == null)
+			accessed = new BitSet();
+	}
+	
+	/**
+	 * Returns whether accesses to this stream are recorded
+	 * @return if trackReads was called and recording wasn't stopped yet
+	 */
+	public boolean isTrackingReads() {
+		return accessed != null;
+	}
+	
+	/**
+	 * Record that a range of the data was accessed, does nothing if reads aren't tracked
+	 * @param offset the offset of the first accessed byte
+	 * @param length the amount of accessed bytes
+	 */
+	public void markRead(int offset, int length) {
+		BitSet blocks = accessed;
+		if(blocks == null || length <= 0 || offset < 0) return;
+		blocks.set(offset / MODIFIED_BLOCK_SIZE, (int) (((long) offset + length - 1) / MODIFIED_BLOCK_SIZE) + 1);
+	}
+	
+	/**
+	 * Stop recording accesses
+	 * @return one bit for every accessed block of MODIFIED_BLOCK_SIZE bytes, null if reads weren't tracked
+	 */
+	public synchronized BitSet stopTrackingReads() {
+		BitSet blocks = accessed;
+		accessed = null;
+		return blocks;
 	}
 	
 	/**
 	 * Reset the pointer within the buffer to the beginning
 	 */
 	public void reset() {
-		inputIndex = 0;
+		setIndex(0);
+	}
+	
+	/**
+	 * Return the current pointer and move it up
+	 * @param size the amount of bytes to move the pointer by
+	 * @return the offset within the buffer before moving
+	 * @throws IOException tried to move out of bounds
+	 */
+	private int advance(int size) throws IOException {
+		int temp = getIndex();
+		setIndex(temp+size);
+		if(temp+size > getSize()) throw new EOFException();
+		if(accessed != null) markRead(temp, size);
+		return temp;
 	}
 	
 	/**
@@ -72,10 +474,7 @@ public class ExecutableStream {
 	 * @throws IOException tried to move out of bounds
 	 */
 	public int readAddrShort() throws IOException {
-		int temp = inputIndex;
-		inputIndex=inputIndex+2;
-		if(inputIndex > inputData.length) throw new EOFException();
-        return temp;
+		return advance(2);
 	}
 	
 	/**
@@ -84,10 +483,7 @@ public class ExecutableStream {
 	 * @throws IOException tried to move out of bounds
 	 */
 	public int readAddrInt() throws IOException {
-		int temp = inputIndex;
-		inputIndex=inputIndex+4;
-		if(inputIndex > inputData.length) throw new EOFException();
-        return temp;
+		return advance(4);
 	}
 	
 	/**
@@ -96,10 +492,7 @@ public class ExecutableStream {
 	 * @throws IOException tried to move out of bounds
 	 */
 	public int readAddrLong() throws IOException {
-		int temp = inputIndex;
-		inputIndex=inputIndex+8;
-		if(inputIndex > inputData.length) throw new EOFException();
-        return temp;
+		return advance(8);
 	}
 	
 	/**
@@ -108,10 +501,7 @@ public class ExecutableStream {
 	 * @throws IOException tried to move out of bounds
 	 */
 	public int readAddrChar() throws IOException {
-		int temp = inputIndex;
-		inputIndex=inputIndex+2;
-		if(inputIndex > inputData.length) throw new EOFException();
-        return temp;
+		return advance(2);
 	}
 
 	/**
@@ -120,26 +510,28 @@ public class ExecutableStream {
 	 * @throws IOException tried to move out of bounds
 	 */
 	public int readAddrByte() throws IOException {
-		int temp = inputIndex;
-		inputIndex=inputIndex+1;
-		if(inputIndex > inputData.length) throw new EOFException();
-        return temp;
+		return advance(1);
 	}
 	
 	/**
-	 * Set the pointer within the buffered data
+	 * Set the pointer of the current thread within the buffered data
 	 * @param index the offset to point at
 	 */
 	public void setIndex(int index) {
-		inputIndex = index;
+		if(Thread.currentThread() == owner)
+			inputIndex = index;
+		else
+			foreignIndex.get()[0] = index;
 	}
 	
 	/**
-	 * Get the current pointer within the buffered data
+	 * Get the current pointer of the current thread within the buffered data
 	 * @return the offset within the data
 	 */
 	public int getIndex() {
-		return inputIndex;
+		if(Thread.currentThread() == owner)
+			return inputIndex;
+		return foreignIndex.get()[0];
 	}
 	
 	/**
@@ -148,9 +540,9 @@ public class ExecutableStream {
 	 * @throws IOException tried to read out of bounds
 	 */
 	public int read() throws IOException {
-		int value = inputData[inputIndex]&0xFF;
-		inputIndex++;
-		if(inputIndex > inputData.length) throw new EOFException();
+		int index = getIndex();
+		int value = getByte(index)&0xFF;
+		setIndex(index+1);
 		return value;
 	}
 	
@@ -160,126 +552,266 @@ public class ExecutableStream {
 	 * @throws IOException tried to write out of bounds
 	 */
 	public void write(int v) throws IOException {
-		inputData[inputIndex] = (byte) (v&0xFF);
-		inputIndex++;
-		if(inputIndex > inputData.length) throw new EOFException();
+		int index = getIndex();
+		setByte(index, (byte) v);
+		setIndex(index+1);
+	}
+	
+	/**
+	 * Check whether an access of a given size at an address is within the data
+	 * @param data the current storage of the data, read once by the caller
+	 * @param addr the address to access
+	 * @param size the amount of bytes to access
+	 * @return the position of the address within the buffer of the data, differs from the address in partial streams
+	 * @throws IOException tried to access out of bounds or blocks not present in a partial stream
+	 */
+	private int checkBounds(ByteBuffer data, int addr, int size) throws IOException {
+		if(addr < 0 || addr > (blocks == null ? data.limit() : partialSize) - size) throw new EOFException();
+		if(accessed != null) markRead(addr, size);
+		if(blocks == null) return addr;
+		int block = addr / MODIFIED_BLOCK_SIZE;
+		if(block == blocks.length) return data.limit(); //empty access at the end
+		int last = size == 0 ? block : (addr+size-1) / MODIFIED_BLOCK_SIZE;
+		for(int i=block;i<=last;i++)
+			if(blocks[i] == -1) throw new IOException("Block at 0x"+Integer.toHexString(i*MODIFIED_BLOCK_SIZE)+" isn't present in the partial stream");
+		//present blocks following each other are packed without gaps, so only the first block has to be located
+		return blocks[block] + addr % MODIFIED_BLOCK_SIZE;
 	}
 	
 	/**
-	 * Read 2 bytes at the current offset of the pointer within the buffer and move the pointer up
+	 * Return the current storage of the data, for reading it without copying within this package
+	 * <br>NOTE: Read the storage once and locate addresses within it with {@link #locate(ByteBuffer, int, int)}
+	 * @return the buffer of the data, only absolute reads are allowed
+	 */
+	ByteBuffer storage() {
+		return inputData;
+	}
+	
+	/**
+	 * Check whether a read of a given size at an address is within the data and locate it within the storage
+	 * @param data the storage of the data, see {@link #storage()}
+	 * @param addr the address to read from
+	 * @param size the amount of bytes to read
+	 * @return the position of the address within the storage
+	 * @throws IOException tried to read out of bounds
+	 */
+	int locate(ByteBuffer data, int addr, int size) throws IOException {
+		return checkBounds(data, addr, size);
+	}
+	
+	/**
+	 * Check whether a write of a given size at an address is allowed
+	 * @param data the current storage of the data, read once by the caller
+	 * @param addr the address to write to
+	 * @param size the amount of bytes to write
+	 * @return the position of the address within the buffer of the data
+	 * @throws IOException tried to write out of bounds or into a read-only stream
+	 */
+	private int checkWrite(ByteBuffer data, int addr, int size) throws IOException {
+		if(readOnly) throw new IOException("Stream is read-only");
+		int position = checkBounds(data, addr, size);
+		if(modified != null) markModified(addr, size);
+		return position;
+	}
+	
+	/**
+	 * Read 2 bytes at the given address
+	 * @param addr the address to read from
 	 * @return the read bytes as a short
 	 * @throws IOException tried to read out of bounds
 	 */
 	public short getShort(int addr) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-        int ch1 = read();
-        int ch2 = read();
-        inputIndex=temp;
-        return (short)((ch2 << 8) + (ch1 << 0));
+		ByteBuffer data = inputData;
+		return data.getShort(checkBounds(data, addr, 2));
 	}
 	
 	/**
-	 * Read 4 bytes at the current offset of the pointer within the buffer and move the pointer up
+	 * Read 4 bytes at the given address
+	 * @param addr the address to read from
 	 * @return the read bytes as an int
 	 * @throws IOException tried to read out of bounds
 	 */
     public int getInt(int addr) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-        int ch1 = read();
-        int ch2 = read();
-        int ch3 = read();
-        int ch4 = read();
-        inputIndex=temp;
-        return ((ch4 << 24) + (ch3 << 16) + (ch2 << 8) + (ch1 << 0));
+		ByteBuffer data = inputData;
+		return data.getInt(checkBounds(data, addr, 4));
     }
     
 	/**
-	 * Read 8 bytes at the current offset of the pointer within the buffer and move the pointer up
+	 * Read 8 bytes at the given address
+	 * @param addr the address to read from
 	 * @return the read bytes as a long
 	 * @throws IOException tried to read out of bounds
 	 */
     public long getLong(int addr) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-		long result = 0;
-		for(int i=0;i<8;i++)
-			result = (result | (((long)read()) << i*8L));
-        inputIndex=temp;
-        
-        return result;
+		ByteBuffer data = inputData;
+		return data.getLong(checkBounds(data, addr, 8));
     }
     
 	/**
-	 * Read 2 bytes at the current offset of the pointer within the buffer and move the pointer up
+	 * Read 2 bytes at the given address
+	 * @param addr the address to read from
 	 * @return the read bytes as a char
 	 * @throws IOException tried to read out of bounds
 	 */
     public char getChar(int addr) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-        int ch1 = read();
-        int ch2 = read();
-        inputIndex=temp;
-        return (char)((ch2 << 8) + (ch1 << 0));
+		ByteBuffer data = inputData;
+		return data.getChar(checkBounds(data, addr, 2));
     }
 
 	/**
-	 * Read a byte at the current offset of the pointer within the buffer and move the pointer up
+	 * Read a byte at the given address
+	 * @param addr the address to read from
 	 * @return the read byte as a byte
 	 * @throws IOException tried to read out of bounds
 	 */
     public byte getByte(int addr) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-        int ch = read();
-        inputIndex=temp;
-        return (byte)(ch);
+		ByteBuffer data = inputData;
+		return data.get(checkBounds(data, addr, 1));
     }
     
+	/**
+	 * Read bytes at the given address into an array
+	 * @param addr the address to start reading at
+	 * @param dst the array to read into
+	 * @param off the index within the array to start writing at
+	 * @param len the amount of bytes to read
+	 * @throws IOException tried to read out of bounds
+	 */
+	public void getBytes(int addr, byte[] dst, int off, int len) throws IOException {
+		if(len < 0) throw new EOFException();
+		ByteBuffer data = inputData;
+		int position = checkBounds(data, addr, len);
+		ByteBuffer view = data.duplicate();
+		view.position(position);
+		view.get(dst, off, len);
+	}
+	
+	/**
+	 * Find the length of a zero terminated string at the given address
+	 * <br>The terminator is searched a word at a time, so long strings don't need a bounds check per byte
+	 * @param addr the address of the string
+	 * @return the amount of bytes before the null byte
+	 * @throws IOException there is no null byte before the end of the data
+	 */
+	public int getStringLength(int addr) throws IOException {
+		ByteBuffer data = inputData;
+		int start = checkBounds(data, addr, 0);
+		int limit = presentLimit(data, addr);
+		int index = start;
+		while(index + 8 <= limit) {
+			long word = data.getLong(index);
+			long zero = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L; //high bit set in every null byte
+			if(zero != 0)
+				return stringRead(addr, index - start + (Long.numberOfTrailingZeros(zero) >>> 3)); //little endian, the lowest byte comes first
+			index += 8;
+		}
+		for(;index<limit;index++)
+			if(data.get(index) == 0)
+				return stringRead(addr, index - start);
+		if(limit < data.limit()) throw new IOException("String isn't terminated within the present blocks");
+		throw new EOFException();
+	}
+	
+	/**
+	 * Return the end of the data that can be read from an address on without a gap, partial streams end at the first
+	 * block that isn't present
+	 * @param data the current storage of the data, read once by the caller
+	 * @param addr an address within the data
+	 * @return the position within the storage the present data following the address ends at
+	 */
+	private int presentLimit(ByteBuffer data, int addr) {
+		if(blocks == null) return data.limit();
+		int block = addr / MODIFIED_BLOCK_SIZE;
+		while(block < blocks.length && blocks[block] != -1)
+			block++;
+		return block < blocks.length ? blocks[block-1] + MODIFIED_BLOCK_SIZE : data.limit();
+	}
+	
+	/**
+	 * Record the access of a string including its terminator if reads are tracked
+	 * @return the length of the string
+	 */
+	private int stringRead(int addr, int length) {
+		if(accessed != null) markRead(addr, length + 1);
+		return length;
+	}
+	
     /**
      * Read a string at the given address until a null byte is found and return it
+     * <br>Every byte is decoded as one character (ISO-8859-1)
      * @param addr the address to start reading the string
      * @return the read string excluding the null byte
      * @throws IOException tried to read out of bounds
      */
 	public String getString(int addr) throws IOException {
-		String result = "";
-		for(int offset=0;;offset++) {
-			byte b = getByte(addr+offset);
-			if(b == 0) break;
-			result = result + (char)b;
-		}
-		return result;
+		int length = getStringLength(addr);
+		byte[] data = new byte[length];
+		getBytes(addr, data, 0, length);
+		return new String(data, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Return a view of a string at the given address until a null byte without copying or decoding it
+	 * <br>Meant for comparisons that don't need a String object, see {@link AsciiSequence}
+	 * @param addr the address to start reading the string
+	 * @return the string excluding the null byte, sharing its content with this stream
+	 * @throws IOException tried to read out of bounds
+	 */
+	public AsciiSequence getCharSequence(int addr) throws IOException {
+		return new AsciiSequence(getView(addr, getStringLength(addr)));
 	}
 	
 	/**
 	 * Write a string at a given address and zero terminate it
+	 * <br>Every character is written as one byte (ISO-8859-1)
 	 * @param str the string to write
 	 * @throws IOException tried to write out of bounds
 	 */
 	public void writeString(String str) throws IOException {
-		for(int i=0;i<str.length();i++)
-			this.setByte(this.getIndex()+i, (byte)str.charAt(i));
-		this.setByte(this.getIndex()+str.length(),(byte) 0);
-		this.setIndex(this.getIndex()+str.length()+1);
+		int index = getIndex();
+		ByteBuffer data = inputData;
+		int position = checkWrite(data, index, str.length()+1);
+		ByteBuffer view = data.duplicate();
+		view.position(position);
+		view.put(str.getBytes(StandardCharsets.ISO_8859_1));
+		view.put((byte) 0);
+		setIndex(index+str.length()+1);
 	}
 	
 	/**
 	 * Read a unicode string until its null terminator at the given address
+	 * <br>The terminator is searched 4 characters at a time, like the null byte of getStringLength
 	 * @param addr the address to start reading at
 	 * @return the string that was read
 	 * @throws IOException tried to read out of bounds
 	 */
 	public String getUnicodeString(int addr) throws IOException {
-		String result = "";
-		for(int offset=0;;offset=offset+2) {
-			short b = getShort(addr+offset);
-			if(b == 0) break;
-			result = result + (char)b;
+		ByteBuffer data = inputData;
+		int start = checkBounds(data, addr, 0);
+		int limit = presentLimit(data, addr);
+		int index = start;
+		int end = -1;
+		while(index + 8 <= limit) {
+			long word = data.getLong(index);
+			long zero = (word - 0x0001000100010001L) & ~word & 0x8000800080008000L; //high bit set in every null character
+			if(zero != 0) {
+				end = index + ((Long.numberOfTrailingZeros(zero) >>> 4) << 1); //little endian, the lowest character comes first
+				break;
+			}
+			index += 8;
+		}
+		for(;end == -1 && index + 2 <= limit;index+=2)
+			if(data.getShort(index) == 0)
+				end = index;
+		if(end == -1) {
+			if(limit < data.limit()) throw new IOException("String isn't terminated within the present blocks");
+			throw new EOFException();
 		}
-		return result;
+		if(accessed != null) markRead(addr, end - start + 2);
+		ByteBuffer view = data.duplicate();
+		view.limit(end);
+		view.position(start);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer().toString();
 	}
     
 	/**
@@ -289,11 +821,8 @@ public class ExecutableStream {
 	 * @throws IOException tried to write out of bounds
 	 */
 	public void setShort(int addr, int v) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-		write(v >> 0);
-		write(v >> 8);
-        inputIndex=temp;
+		ByteBuffer data = inputData;
+		data.putShort(checkWrite(data, addr, 2), (short) v);
 	}
 	
 	/**
@@ -303,13 +832,8 @@ public class ExecutableStream {
 	 * @throws IOException tried to write out of bounds
 	 */
     public void setInt(int addr, int v) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-		write(v >> 0);
-		write(v >> 8);
-		write(v >> 16);
-		write(v >> 24);
-        inputIndex=temp;
+		ByteBuffer data = inputData;
+		data.putInt(checkWrite(data, addr, 4), v);
     }
     
 	/**
@@ -319,11 +843,8 @@ public class ExecutableStream {
 	 * @throws IOException tried to write out of bounds
 	 */
     public void setLong(int addr, long v) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-		for(int i=0;i<8;i++)
-			write((int)(v >> 8*i));
-        inputIndex=temp;
+		ByteBuffer data = inputData;
+		data.putLong(checkWrite(data, addr, 8), v);
     }
     
 	/**
@@ -333,11 +854,8 @@ public class ExecutableStream {
 	 * @throws IOException tried to write out of bounds
 	 */
     public void setChar(int addr, char v) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-		write(v >> 0);
-		write(v >> 8);
-        inputIndex=temp;
+		ByteBuffer data = inputData;
+		data.putChar(checkWrite(data, addr, 2), v);
     }
 
 	/**
@@ -347,10 +865,8 @@ public class ExecutableStream {
 	 * @throws IOException tried to write out of bounds
 	 */
     public void setByte(int addr, byte v) throws IOException {
-		int temp = inputIndex;
-		inputIndex = addr;
-		write(v);
-        inputIndex=temp;
+		ByteBuffer data = inputData;
+		data.put(checkWrite(data, addr, 1), v);
     }
 
 }
@@ -6,6 +6,7 @@ import pusty.f0xpe.pe.ExecutableReader;
 
 /**
  * Abstract class for defining structures within ExecutableStreams
+ * <br>Reading uses the pointer of the current thread within the stream, so different threads can read objects from the same stream at once
  */
 public abstract class ReadableObject {
 
@@ -21,7 +22,7 @@ public abstract class ReadableObject {
 	
 	/**
 	 * Create a new Object that's readable from a ExecutableReader object
-	 * <br> NOTE: The constructor starts the reading of the object and reading ReadableObjects is NOT THREAD SAFE
+	 * <br> NOTE: The constructor starts the reading of the object at the pointer of the current thread
 	 * @param reader the reader to read from
 	 * @param s the stream to read from (normally the stream is from the reader itself)
 	 * @throws Exception something went wrong while reading the object
@@ -33,7 +34,6 @@ public abstract class ReadableObject {
 	}
 	/**
 	 * Calls the read function of each ReadableObject within wrapper functions to measure size and offset
-	 * <br>NOTE: Reading ReadableObjects is NOT THREAD SAFE
 	 * @param s the stream to read from
 	 * @throws Exception reading the object failed
 	 */
@@ -48,7 +48,7 @@ public abstract class ReadableObject {
 	
 	/**
 	 * Reads the object from an ExecutableStream
-	 * <br>NOTE: Reading ReadableObjects is NOT THREAD SAFE
+	 * <br>NOTE: Only the pointer of the current thread may be used for reading
 	 * @param s the stream to read from
 	 * @throws Exception something went wrong while reading
 	 */
@@ -84,8 +84,7 @@ public abstract class ReadableObject {
 	}
 	
 	/**
-	 * Calculate the offset by initializing a dummy object and reseting the index
-	 * <br>NOTE: NOT THREAD SAFE
+	 * Calculate the offset by initializing a dummy object and reseting the index of the current thread
 	 * <br>NOTE: MAY NOT work for all ReadableObjects
 	 * @param obj the dummy objects
 	 * @return the size of the dummy objects
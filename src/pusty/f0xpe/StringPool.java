@@ -0,0 +1,302 @@
+package pusty.f0xpe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pool of strings read from ExecutableStreams, so names appearing many times (DLL and import names) share one String.
+ * <br>Strings are looked up by their bytes within the stream, a String is only created the first time a name is read.
+ * <br>Every ExecutableReader has its own pool by default, {@link #GLOBAL} can be shared by all readers instead.
+ * <br>The pool is split into segments with their own lock, strings are hashed and compared within the stream itself
+ * before locking, only strings that aren't pooled yet are copied.
+ * <br>NOTE: Every segment keeps two generations of strings, once the current one is full the previous one is dropped.
+ * Strings looked up since then are moved into the current generation, so frequently used strings stay pooled.
+ */
+public class StringPool {
+
+	/** A pool shared by all readers using it, holding up to 65536 strings */
+	public static final StringPool GLOBAL = new StringPool(0x10000);
+
+	/** The amount of segments, selected by the upper bits of the hash */
+	private static final int SEGMENTS = 16;
+	/** Marks a string of the previous generation that moved into the current one */
+	private static final String MOVED = new String();
+
+	/** The maximum amount of strings of one generation of a segment */
+	private final int limit;
+	/** The segments of this pool */
+	private final Segment[] segments;
+
+	/**
+	 * Create a new pool
+	 * @param maximum the maximum amount of strings, older strings not looked up recently are dropped beyond it
+	 */
+	public StringPool(int maximum) {
+		this.limit = Math.max(maximum / (SEGMENTS * 2), 1);
+		segments = new Segment[SEGMENTS];
+		for(int i=0;i<segments.length;i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Create a new pool holding up to 65536 strings
+	 */
+	public StringPool() {
+		this(0x10000);
+	}
+
+	/**
+	 * Remove all strings from this pool
+	 */
+	public void clear() {
+		for(Segment segment:segments)
+			synchronized(segment) {
+				segment.clear();
+			}
+	}
+
+	/**
+	 * Return the amount of strings in this pool
+	 * @return the amount of pooled strings
+	 */
+	public int size() {
+		int size = 0;
+		for(Segment segment:segments)
+			synchronized(segment) {
+				size += segment.count + segment.oldCount;
+			}
+		return size;
+	}
+
+	/**
+	 * Read a zero terminated string (see ExecutableStream.getString) and return the pooled instance of it
+	 * @param stream the stream to read from
+	 * @param addr the address of the string
+	 * @return the string excluding the null byte, the same instance for every string with the same content
+	 * @throws IOException tried to read out of bounds
+	 */
+	public String intern(ExecutableStream stream, int addr) throws IOException {
+		int length = stream.getStringLength(addr);
+		ByteBuffer data = stream.storage();
+		int position = stream.locate(data, addr, length);
+		int hash = hash(data, position, length);
+		Segment segment = segments[hash >>> 28];
+		synchronized(segment) {
+			String string = segment.find(data, position, length, hash);
+			if(string != null) return string;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer view = data.duplicate();
+		view.position(position);
+		view.get(bytes);
+		String string = new String(bytes, StandardCharsets.ISO_8859_1);
+		synchronized(segment) {
+			String pooled = segment.find(data, position, length, hash); //another thread may have added it meanwhile
+			if(pooled != null) return pooled;
+			segment.add(string, hash, limit);
+		}
+		return string;
+	}
+
+	/**
+	 * Return the pooled instance of a string, adding it if it isn't pooled yet
+	 * <br>NOTE: Only strings of single byte characters (ISO-8859-1) are pooled, others are returned as they are
+	 * @param string the string to look up
+	 * @return the pooled string with the same content
+	 */
+	public String intern(String string) {
+		int length = string.length();
+		int hash = 1;
+		for(int i=0;i<length;i++) {
+			char c = string.charAt(i);
+			if(c > 0xFF) return string;
+			hash = 31 * hash + c;
+		}
+		hash = mix(hash);
+		Segment segment = segments[hash >>> 28];
+		synchronized(segment) {
+			String pooled = segment.find(string, hash);
+			if(pooled != null) return pooled;
+			segment.add(string, hash, limit);
+		}
+		return string;
+	}
+
+	/**
+	 * Hash the bytes of a string the same way as {@link #intern(String)} hashes its characters
+	 * @param data the buffer containing the string
+	 * @param position the position of the string within the buffer
+	 * @param length the amount of bytes
+	 * @return the hash of the string
+	 */
+	private static int hash(ByteBuffer data, int position, int length) {
+		int hash = 1;
+		for(int i=0;i<length;i++)
+			hash = 31 * hash + (data.get(position+i) & 0xFF);
+		return mix(hash);
+	}
+
+	/**
+	 * Spread the bits of a hash so the lower bits used for the slots depend on all characters
+	 * @param hash the hash to mix
+	 * @return the mixed hash
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Compare a string to the bytes of a string
+	 * @param string the string to compare
+	 * @param data the buffer containing the bytes to compare to
+	 * @param position the position of the bytes within the buffer
+	 * @param length the amount of bytes
+	 * @return if every character matches its byte
+	 */
+	private static boolean matches(String string, ByteBuffer data, int position, int length) {
+		if(string.length() != length) return false;
+		for(int i=0;i<length;i++)
+			if(string.charAt(i) != (data.get(position+i) & 0xFF)) return false;
+		return true;
+	}
+
+	/**
+	 * One segment of the pool, two tables with open addressing and linear probing for the current and previous generation
+	 * <br>NOTE: Not thread safe, the pool synchronizes on the segment
+	 */
+	private static class Segment {
+
+		/** The strings of the current generation */
+		private String[] strings;
+		/** The hash of every string of the current generation */
+		private int[] hashes;
+		/** The amount of strings of the current generation */
+		private int count;
+		/** The strings of the previous generation, null if there is none */
+		private String[] oldStrings;
+		/** The hash of every string of the previous generation */
+		private int[] oldHashes;
+		/** The amount of strings of the previous generation that didn't move into the current one */
+		private int oldCount;
+
+		/**
+		 * Create an empty segment
+		 */
+		private Segment() {
+			clear();
+		}
+
+		/**
+		 * Remove all strings of both generations
+		 */
+		private void clear() {
+			strings = new String[8];
+			hashes = new int[8];
+			count = 0;
+			oldStrings = null;
+			oldHashes = null;
+			oldCount = 0;
+		}
+
+		/**
+		 * Find a string by its bytes, strings of the previous generation move into the current one
+		 * @return the pooled string, null if it isn't pooled
+		 */
+		private String find(ByteBuffer data, int position, int length, int hash) {
+			int mask = strings.length-1;
+			for(int slot = hash & mask;;slot = (slot+1) & mask) {
+				String string = strings[slot];
+				if(string == null) break;
+				if(hashes[slot] == hash && matches(string, data, position, length))
+					return string;
+			}
+			if(oldStrings == null) return null;
+			mask = oldStrings.length-1;
+			for(int slot = hash & mask;;slot = (slot+1) & mask) {
+				String string = oldStrings[slot];
+				if(string == null) return null;
+				if(string != MOVED && oldHashes[slot] == hash && matches(string, data, position, length))
+					return move(slot);
+			}
+		}
+
+		/**
+		 * Find a string by its content, strings of the previous generation move into the current one
+		 * @return the pooled string, null if it isn't pooled
+		 */
+		private String find(String string, int hash) {
+			int mask = strings.length-1;
+			for(int slot = hash & mask;;slot = (slot+1) & mask) {
+				String pooled = strings[slot];
+				if(pooled == null) break;
+				if(hashes[slot] == hash && pooled.equals(string))
+					return pooled;
+			}
+			if(oldStrings == null) return null;
+			mask = oldStrings.length-1;
+			for(int slot = hash & mask;;slot = (slot+1) & mask) {
+				String pooled = oldStrings[slot];
+				if(pooled == null) return null;
+				if(pooled != MOVED && oldHashes[slot] == hash && pooled.equals(string))
+					return move(slot);
+			}
+		}
+
+		/**
+		 * Move a string of the previous generation into the current one, its old slot keeps probing intact
+		 */
+		private String move(int slot) {
+			String string = oldStrings[slot];
+			oldStrings[slot] = MOVED;
+			oldCount--;
+			add(string, oldHashes[slot], Integer.MAX_VALUE);
+			return string;
+		}
+
+		/**
+		 * Add a string that isn't pooled yet, starting a new generation if the current one holds the limit
+		 */
+		private void add(String string, int hash, int limit) {
+			if(count >= limit) {
+				oldStrings = strings;
+				oldHashes = hashes;
+				oldCount = count;
+				strings = new String[8];
+				hashes = new int[8];
+				count = 0;
+			}
+			if((count+1)*2 > strings.length)
+				grow();
+			insert(string, hash);
+		}
+
+		/**
+		 * Add a string to the current generation
+		 */
+		private void insert(String string, int hash) {
+			int mask = strings.length-1;
+			int slot = hash & mask;
+			while(strings[slot] != null)
+				slot = (slot+1) & mask;
+			strings[slot] = string;
+			hashes[slot] = hash;
+			count++;
+		}
+
+		/**
+		 * Double the size of the table of the current generation
+		 */
+		private void grow() {
+			String[] previousStrings = strings;
+			int[] previousHashes = hashes;
+			strings = new String[previousStrings.length*2];
+			hashes = new int[previousStrings.length*2];
+			count = 0;
+			for(int i=0;i<previousStrings.length;i++)
+				if(previousStrings[i] != null)
+					insert(previousStrings[i], previousHashes[i]);
+		}
+	}
+}
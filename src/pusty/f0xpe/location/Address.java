@@ -2,6 +2,8 @@ package pusty.f0xpe.location;
 
 /**
  * A Wrapper for Addresses (RVAs and absolute)
+ * <br>NOTE: This is only a compatibility layer, all hot paths of the readers and ModifyPE have primitive int/long overloads
+ * which should be preferred as they don't allocate
  */
 public class Address {
 	private long addr64 = 0;
@@ -11,7 +13,7 @@ public class Address {
 	 * @param v address
 	 */
 	public Address(Object object) {
-		this(object.getClass() == Integer.class?(int)object:(long)object);
+		this(object instanceof Integer ? (long)((Integer) object).intValue() : ((Number) object).longValue());
 	}	
 	/**
 	 * Create 32bit Address with given content
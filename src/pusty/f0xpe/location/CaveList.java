@@ -0,0 +1,140 @@
+package pusty.f0xpe.location;
+
+import java.util.Arrays;
+
+import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
+
+/**
+ * A compact list of code caves (runs of a single byte) stored in primitive arrays.
+ */
+public class CaveList {
+
+	//the offset of the first byte of each cave within the binary
+	private int[] offsets;
+	//the amount of bytes of each cave
+	private int[] lengths;
+	//the byte each cave consists of
+	private byte[] values;
+	//the index of the section header each cave is in
+	private short[] sections;
+	//the amount of caves
+	private int size;
+
+	/**
+	 * Create an empty list
+	 */
+	public CaveList() {
+		this(16);
+	}
+
+	/**
+	 * Create an empty list with a given initial capacity
+	 * @param capacity the amount of caves that fit without growing
+	 */
+	public CaveList(int capacity) {
+		capacity = Math.max(capacity, 1);
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		values = new byte[capacity];
+		sections = new short[capacity];
+	}
+
+	/**
+	 * Append a cave
+	 * @param offset the offset of the first byte of the cave
+	 * @param length the amount of bytes of the cave
+	 * @param value the byte the cave consists of
+	 * @param section the index of the section header the cave is in
+	 */
+	public void add(int offset, int length, byte value, int section) {
+		if(size == offsets.length) {
+			int capacity = size*2;
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			values = Arrays.copyOf(values, capacity);
+			sections = Arrays.copyOf(sections, capacity);
+		}
+		offsets[size] = offset;
+		lengths[size] = length;
+		values[size] = value;
+		sections[size] = (short) section;
+		size++;
+	}
+
+	/**
+	 * Append all caves of another list
+	 * @param list the caves to append
+	 */
+	public void addAll(CaveList list) {
+		for(int i=0;i<list.size;i++)
+			add(list.offsets[i], list.lengths[i], list.values[i], list.sections[i]&0xFFFF);
+	}
+
+	/**
+	 * Return the amount of caves
+	 * @return the amount of caves within this list
+	 */
+	public int size() { return size; }
+
+	/**
+	 * Return the offset of a cave within the binary
+	 * @param index the index of the cave
+	 * @return the offset of the first byte of the cave
+	 */
+	public int getOffset(int index) { return offsets[index]; }
+
+	/**
+	 * Return the size of a cave
+	 * @param index the index of the cave
+	 * @return the amount of bytes of the cave
+	 */
+	public int getLength(int index) { return lengths[index]; }
+
+	/**
+	 * Return the byte a cave consists of
+	 * @param index the index of the cave
+	 * @return the byte repeated within the cave (0x00, 0xCC or 0x90)
+	 */
+	public byte getValue(int index) { return values[index]; }
+
+	/**
+	 * Return the section a cave is in
+	 * @param index the index of the cave
+	 * @return the index of the section header
+	 */
+	public int getSectionIndex(int index) { return sections[index]&0xFFFF; }
+
+	/**
+	 * Return the combined size of all caves
+	 * @return the total amount of bytes
+	 */
+	public long getTotalLength() {
+		long total = 0;
+		for(int i=0;i<size;i++)
+			total += lengths[i];
+		return total;
+	}
+
+	/**
+	 * Return the index of the biggest cave
+	 * @return the index of the biggest cave, -1 if empty
+	 */
+	public int getBiggest() {
+		int biggest = -1;
+		for(int i=0;i<size;i++)
+			if(biggest == -1 || lengths[i] > lengths[biggest])
+				biggest = i;
+		return biggest;
+	}
+
+	/**
+	 * Create a MemorySection for a cave
+	 * <br>NOTE: Like the results of SectionSearcher.search the ending offset is the last byte of the cave
+	 * @param index the index of the cave
+	 * @param headers the section headers the list was searched in
+	 * @return the MemorySection of the cave
+	 */
+	public MemorySection toMemorySection(int index, IMAGE_SECTION_HEADER[] headers) {
+		return new MemorySection(offsets[index], offsets[index] + lengths[index] - 1, headers[getSectionIndex(index)]);
+	}
+}
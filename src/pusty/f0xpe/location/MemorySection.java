@@ -1,5 +1,7 @@
 package pusty.f0xpe.location;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 import pusty.f0xpe.pe.ExecutableReader;
@@ -84,6 +86,7 @@ public class MemorySection {
 	
 	/**
 	 * Returns a Address object for the beginning of this section
+	 * <br>NOTE: Compatibility wrapper, {@link #getAddressFrom()} returns the same RVA without allocating
 	 * @param reader the reader this memory section is in
 	 * @return an instance of an address object representing the rva of the start point
 	 */
@@ -91,6 +94,16 @@ public class MemorySection {
 		return reader.offset2rva(getOffsetFrom());
 	}
 	
+	/**
+	 * Return a read-only view of the data of this memory section without copying it
+	 * @param reader the reader this memory section is in
+	 * @return a buffer sharing its content with the stream (see ExecutableStream.getView)
+	 * @throws IOException the memory section is out of bounds
+	 */
+	public ByteBuffer getView(ExecutableReader reader) throws IOException {
+		return reader.getStream().getView(getOffsetFrom(), getSize());
+	}
+	
 	@Override
 	public String toString() {
 		return section.getName()+": "+getSize();
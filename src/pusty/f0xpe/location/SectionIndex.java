@@ -0,0 +1,173 @@
+package pusty.f0xpe.location;
+
+import java.util.Arrays;
+
+import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
+
+/**
+ * An immutable lookup table for translating between RVAs and file offsets using the section table.
+ * <br>The section ranges are sorted and searched binary, if sections overlap the table falls back to
+ * searching them linearly in the order of the section table (the first matching section wins).
+ */
+public class SectionIndex {
+
+	/** First RVA of each section */
+	private final long[] virtualFrom;
+	/** First RVA after each section */
+	private final long[] virtualTo;
+	/** File offset of each section, matching virtualFrom */
+	private final int[] virtualRaw;
+	/** Amount of bytes of each section stored in the file, matching virtualFrom */
+	private final int[] virtualRawSize;
+	/** Whether the virtual ranges are sorted and don't overlap */
+	private final boolean virtualSorted;
+
+	/** First file offset of each section */
+	private final long[] rawFrom;
+	/** First file offset after each section */
+	private final long[] rawTo;
+	/** RVA of each section, matching rawFrom */
+	private final int[] rawVirtual;
+	/** Whether the raw ranges are sorted and don't overlap */
+	private final boolean rawSorted;
+
+	/**
+	 * Create the lookup tables for a section table
+	 * @param sections the section headers to index, may be null
+	 */
+	public SectionIndex(IMAGE_SECTION_HEADER[] sections) {
+		if(sections == null) sections = new IMAGE_SECTION_HEADER[0];
+		long[] vFrom = new long[sections.length];
+		long[] vTo = new long[sections.length];
+		int[] vRaw = new int[sections.length];
+		int[] vRawSize = new int[sections.length];
+		long[] rFrom = new long[sections.length];
+		long[] rTo = new long[sections.length];
+		int[] rVirtual = new int[sections.length];
+		int vCount = 0;
+		int rCount = 0;
+		for(IMAGE_SECTION_HEADER section:sections) {
+			long virtualAddress = section.getVirtualAddress() & 0xFFFFFFFFL;
+			int pointerToRawData = section.getPointerToRawData();
+			int virtualSize = section.getVirtualSize();
+			int sizeOfRawData = section.getSizeOfRawData();
+			if(virtualSize > 0) { //empty ranges can't match anything
+				vFrom[vCount] = virtualAddress;
+				vTo[vCount] = virtualAddress + virtualSize;
+				vRaw[vCount] = pointerToRawData;
+				vRawSize[vCount] = pointerToRawData == 0 ? 0 : Math.max(Math.min(virtualSize, sizeOfRawData), 0);
+				vCount++;
+			}
+			if(pointerToRawData != 0 && sizeOfRawData > 0) {
+				rFrom[rCount] = pointerToRawData & 0xFFFFFFFFL;
+				rTo[rCount] = (pointerToRawData & 0xFFFFFFFFL) + sizeOfRawData;
+				rVirtual[rCount] = (int) virtualAddress;
+				rCount++;
+			}
+		}
+		virtualSorted = sort(vFrom, vTo, vCount, vRaw, vRawSize);
+		rawSorted = sort(rFrom, rTo, rCount, rVirtual);
+		virtualFrom = Arrays.copyOf(vFrom, vCount);
+		virtualTo = Arrays.copyOf(vTo, vCount);
+		virtualRaw = Arrays.copyOf(vRaw, vCount);
+		virtualRawSize = Arrays.copyOf(vRawSize, vCount);
+		rawFrom = Arrays.copyOf(rFrom, rCount);
+		rawTo = Arrays.copyOf(rTo, rCount);
+		rawVirtual = Arrays.copyOf(rVirtual, rCount);
+	}
+
+	/**
+	 * Sort ranges by their start if they don't overlap, otherwise keep them in their original order
+	 * @param from the starts of the ranges
+	 * @param to the ends of the ranges
+	 * @param count the amount of ranges
+	 * @param targets the values associated to the ranges
+	 * @return whether the ranges are sorted now
+	 */
+	private static boolean sort(long[] from, long[] to, int count, int[]... targets) {
+		//sort start and index together, the section table has at most 0xFFFF entries
+		long[] keys = new long[count];
+		for(int i=0;i<count;i++)
+			keys[i] = (from[i] << 16) | i;
+		Arrays.sort(keys);
+		for(int i=1;i<count;i++)
+			if(to[(int)(keys[i-1]&0xFFFF)] > from[(int)(keys[i]&0xFFFF)])
+				return false;
+		long[] fromCopy = Arrays.copyOf(from, count);
+		long[] toCopy = Arrays.copyOf(to, count);
+		for(int i=0;i<count;i++) {
+			int index = (int)(keys[i]&0xFFFF);
+			from[i] = fromCopy[index];
+			to[i] = toCopy[index];
+		}
+		for(int[] target:targets) {
+			int[] targetCopy = Arrays.copyOf(target, count);
+			for(int i=0;i<count;i++)
+				target[i] = targetCopy[(int)(keys[i]&0xFFFF)];
+		}
+		return true;
+	}
+
+	/**
+	 * Find the range containing a value
+	 * @param from the starts of the ranges
+	 * @param to the ends of the ranges
+	 * @param sorted whether the ranges are sorted
+	 * @param value the value to search for
+	 * @return the index of the range, -1 if no range contains the value
+	 */
+	private static int find(long[] from, long[] to, boolean sorted, long value) {
+		if(!sorted) {
+			for(int i=0;i<from.length;i++)
+				if(value >= from[i] && value < to[i])
+					return i;
+			return -1;
+		}
+		int low = 0;
+		int high = from.length-1;
+		while(low <= high) { //search the last range starting at or before the value
+			int mid = (low+high) >>> 1;
+			if(from[mid] <= value)
+				low = mid+1;
+			else
+				high = mid-1;
+		}
+		if(high >= 0 && value < to[high])
+			return high;
+		return -1;
+	}
+
+	/**
+	 * Convert a relative virtual address to an offset within the binary
+	 * @param rva the RVA to convert
+	 * @return the offset within the binary, -1 if the RVA isn't within any section
+	 */
+	public int rva2offset(long rva) {
+		int index = find(virtualFrom, virtualTo, virtualSorted, rva);
+		if(index == -1) return -1;
+		return (int) (rva - virtualFrom[index]) + virtualRaw[index];
+	}
+
+	/**
+	 * Convert a range of relative virtual addresses to an offset within the binary
+	 * @param rva the first RVA of the range
+	 * @param length the amount of bytes in the range
+	 * @return the offset of the range within the binary, -1 if the range isn't within the raw data of a single section
+	 */
+	public int rva2offset(long rva, int length) {
+		int index = find(virtualFrom, virtualTo, virtualSorted, rva);
+		if(index == -1 || length < 0 || rva - virtualFrom[index] + length > virtualRawSize[index]) return -1;
+		return (int) (rva - virtualFrom[index]) + virtualRaw[index];
+	}
+
+	/**
+	 * Convert an offset within the binary to a relative virtual address
+	 * @param offset the offset to convert
+	 * @return the RVA, -1 if the offset isn't within the raw data of any section
+	 */
+	public long offset2rva(long offset) {
+		int index = find(rawFrom, rawTo, rawSorted, offset);
+		if(index == -1) return -1;
+		return (offset - rawFrom[index]) + (rawVirtual[index] & 0xFFFFFFFFL);
+	}
+}
@@ -1,7 +1,11 @@
 package pusty.f0xpe.location;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import pusty.f0xpe.pe.ExecutableReader;
 import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
@@ -11,12 +15,17 @@ import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
  */
 public class SectionSearcher {
 	protected MemorySection[] sections;
+	protected CaveList caves;
 
 	
 	public static final int TYPE_CC = 0x1;
 	public static final int TYPE_00 = 0x2;
 	public static final int TYPE_90 = 0x4;
 
+	private static final long PATTERN_CC = 0xCCCCCCCCCCCCCCCCL;
+	private static final long PATTERN_00 = 0x0000000000000000L;
+	private static final long PATTERN_90 = 0x9090909090909090L;
+
 	public static final int MODE_SAFE = TYPE_CC; // Only searches for 0xCC as
 													// it's not possible for
 													// correct code
@@ -56,66 +65,114 @@ public class SectionSearcher {
 	 * Search for caves for the x86 architecture
 	 * @param reader the ExecutableReader containing the binary
 	 * @param sections the sections to iterate through
-	 * @return an ArrayList containing all the criteria matching MemorySection's
+	 * @param pool the pool to search the sections in parallel with, null to search them in the current thread
+	 * @return a list containing all the criteria matching caves ordered by section and offset
 	 */
-	private ArrayList<MemorySection> searchIntel(ExecutableReader reader, IMAGE_SECTION_HEADER[] sections) {
-		ArrayList<MemorySection> secList = new ArrayList<MemorySection>();
-		try {
-			int secAmount = sections.length;
-			for (int i = 0; i < secAmount; i++) {
-				IMAGE_SECTION_HEADER section = sections[i];
-				int size = section.getSizeOfRawData();
-				int pos = section.getPointerToRawData();
-				if (size == 0)
-					continue;
-				int mem = 0;
-				int start = 0;
-				boolean foundB = false;
-				byte foundByte = 0;
-				for (int b = 0; b < size; b++) {
-					if (foundB == false) {
-						if ((MODE & TYPE_00) != 0) {
-							if (reader.getStream().getData()[pos + b] == 0) {
-								foundB = true;
-								foundByte = 0;
-							}
-						}
-						if ((MODE & TYPE_CC) != 0) {
-							if (reader.getStream().getData()[pos + b] == (byte) 0xCC) {
-								foundB = true;
-								foundByte = (byte) 0xCC;
-							}
-						}
-						if ((MODE & TYPE_90) != 0) {
-							if (reader.getStream().getData()[pos + b] == (byte) 0x90) {
-								foundB = true;
-								foundByte = (byte) 0x90;
-							}
-						}
-					}
-					if (foundB == true) {
-						if (reader.getStream().getData()[pos + b] == foundByte) {
-							if (mem == 0)
-								start = pos + b;
-							mem++;
-						} else {
-							if (mem >= MIN_SIZE)
-								secList.add(new MemorySection(start, pos + b
-										- 1, section));
-							mem = 0;
-							foundB = false;
-							foundByte = 0;
-						}
-					}
+	private CaveList searchIntel(ExecutableReader reader, final IMAGE_SECTION_HEADER[] sections, ForkJoinPool pool) {
+		final ByteBuffer data = reader.getStream().getBuffer();
+		CaveList caves = new CaveList();
+		if(pool == null) {
+			for (int i = 0; i < sections.length; i++)
+				searchSection(data, sections[i], i, caves);
+			return caves;
+		}
+		ArrayList<Future<CaveList>> results = new ArrayList<Future<CaveList>>();
+		for (int i = 0; i < sections.length; i++) {
+			final int index = i;
+			results.add(pool.submit(new Callable<CaveList>() {
+				@Override
+				public CaveList call() {
+					CaveList sectionCaves = new CaveList();
+					searchSection(data.duplicate().order(ByteOrder.LITTLE_ENDIAN), sections[index], index, sectionCaves);
+					return sectionCaves;
 				}
-				if (mem >= MIN_SIZE)
-					secList.add(new MemorySection(start, pos + size - 1,
-							section));
-			}
+			}));
+		}
+		try {
+			for (Future<CaveList> result : results)
+				caves.addAll(result.get());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return secList;
+		return caves;
+	}
+
+	/**
+	 * Search a single section for caves
+	 * <br>Caves of at least 15 bytes always contain a full word, so only words consisting of a single cave byte
+	 * are extended to caves and all other words are skipped without looking at their bytes
+	 * @param data the content of the binary
+	 * @param section the section to search
+	 * @param index the index of the section header
+	 * @param caves the list to add the found caves to
+	 */
+	private void searchSection(ByteBuffer data, IMAGE_SECTION_HEADER section, int index, CaveList caves) {
+		int pos = section.getPointerToRawData();
+		int end = Math.min(pos + section.getSizeOfRawData(), data.limit());
+		if (pos < 0 || end <= pos)
+			return;
+		if (MIN_SIZE < 15) {
+			searchBytes(data, pos, end, index, caves);
+			return;
+		}
+		int lowLimit = pos; // caves can't extend back into the previous cave
+		int b = pos;
+		while (b + 8 <= end) {
+			long word = data.getLong(b);
+			byte value;
+			if ((MODE & TYPE_CC) != 0 && word == PATTERN_CC)
+				value = (byte) 0xCC;
+			else if ((MODE & TYPE_00) != 0 && word == PATTERN_00)
+				value = 0;
+			else if ((MODE & TYPE_90) != 0 && word == PATTERN_90)
+				value = (byte) 0x90;
+			else {
+				b += 8;
+				continue;
+			}
+			int start = b;
+			while (start > lowLimit && data.get(start - 1) == value)
+				start--;
+			int stop = b + 8;
+			while (stop + 8 <= end && data.getLong(stop) == word)
+				stop += 8;
+			while (stop < end && data.get(stop) == value)
+				stop++;
+			if (stop - start >= MIN_SIZE)
+				caves.add(start, stop - start, value, index);
+			lowLimit = stop;
+			b = pos + ((stop - pos + 7) & ~7); // continue at the next word after the cave
+		}
+	}
+
+	/**
+	 * Search a range byte by byte for caves, used for caves too small to span a full word
+	 * @param data the content of the binary
+	 * @param pos the offset to start at
+	 * @param end the offset to stop at
+	 * @param index the index of the section header
+	 * @param caves the list to add the found caves to
+	 */
+	private void searchBytes(ByteBuffer data, int pos, int end, int index, CaveList caves) {
+		boolean allow00 = (MODE & TYPE_00) != 0;
+		boolean allowCC = (MODE & TYPE_CC) != 0;
+		boolean allow90 = (MODE & TYPE_90) != 0;
+		int start = -1;
+		byte value = 0;
+		for (int b = pos; b < end; b++) {
+			byte current = data.get(b);
+			if (start != -1 && current == value)
+				continue;
+			if (start != -1 && b - start >= MIN_SIZE)
+				caves.add(start, b - start, value, index);
+			if ((current == 0 && allow00) || (current == (byte) 0xCC && allowCC) || (current == (byte) 0x90 && allow90)) {
+				start = b;
+				value = current;
+			} else
+				start = -1;
+		}
+		if (start != -1 && end - start >= MIN_SIZE)
+			caves.add(start, end - start, value, index);
 	}
 
 	/**
@@ -124,20 +181,47 @@ public class SectionSearcher {
 	 * @return the total size of all matching code caves
 	 */
 	public int search(ExecutableReader reader) {
-		ArrayList<MemorySection> secList = null;
-		
-		secList = searchIntel(reader, reader.getSectionHeader());
+		return search(reader, null);
+	}
+
+	/**
+	 * Search the memory of the ExecutableReader for code caves fitting it and return the total resulting size of all caves
+	 * @param reader the ExecutableReader containing the binary to search
+	 * @param pool the pool to search the sections in parallel with, null to search them in the current thread
+	 * @return the total size of all matching code caves
+	 */
+	public int search(ExecutableReader reader, ForkJoinPool pool) {
+		IMAGE_SECTION_HEADER[] headers = reader.getSectionHeader();
+		caves = searchIntel(reader, headers, pool);
 		
-		Collections.reverse(secList); // Reverse so it's low address to high
-										// address
-		sections = secList.toArray(new MemorySection[secList.size()]);
+		sections = new MemorySection[caves.size()];
 		int m = 0;
-		for (int i = 0; i < secList.size(); i++)
-			m = m + sections[i].getSize();
+		for (int i = 0; i < sections.length; i++) {
+			sections[sections.length - 1 - i] = caves.toMemorySection(i, headers); // Reverse so it's low address to high address
+			m = m + sections[sections.length - 1 - i].getSize();
+		}
 		return m;
 
 	}
 
+	/**
+	 * Search the memory of the ExecutableReader for code caves without creating MemorySection objects
+	 * @param reader the ExecutableReader containing the binary to search
+	 * @param pool the pool to search the sections in parallel with, null to search them in the current thread
+	 * @return a list containing all matching caves ordered by section and offset
+	 */
+	public CaveList searchCaves(ExecutableReader reader, ForkJoinPool pool) {
+		return searchIntel(reader, reader.getSectionHeader(), pool);
+	}
+
+	/**
+	 * Return the caves found by the last search
+	 * @return a list containing all matching caves ordered by section and offset
+	 */
+	public CaveList getCaves() {
+		return caves;
+	}
+
 	/**
 	 * Returns the biggest code cave matching the mode
 	 * @return a MemorySection object of the biggest match
@@ -68,7 +68,6 @@ public class CreatePE {
 			peFileSections[i].setCharacteristics(0x60500060);
 			
 		}
-		peOptionalHeader.setCheckSum(0x118D9);
 		peHeader.setTimeDateStamp(0x5958EB56);
 		
 		
@@ -88,6 +87,7 @@ public class CreatePE {
 		bis = new ByteArrayInputStream(data);
 		reader = new ExecutableReader(bis);
 		ModifyPE.injectSection(reader, ".data", 0x500, 0xC0300040);
+		ModifyPE.updateCheckSum(reader);
 		bis.close();
 		reader.save(new File("create.exe"));
 		}catch(Exception e) {
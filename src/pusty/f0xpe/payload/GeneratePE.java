@@ -0,0 +1,791 @@
+package pusty.f0xpe.payload;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_FILE_HEADER;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32;
+import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
+
+/**
+ * Generates synthetic but structurally valid PE Files (32bit and 64bit) in memory, meant as reproducible input for
+ * benchmarks and tests of the parser.
+ * <br>A generated file contains a code section (random bytes, code caves and calls through the import address table),
+ * an import section, a resource section, a TLS section, an export section and additional filler sections, depending on
+ * the parameters.
+ * The same parameters and seed always produce the same file.
+ */
+public class GeneratePE {
+
+	public static final int FILE_ALIGNMENT = 0x200;
+	public static final int SECTION_ALIGNMENT = 0x1000;
+
+	protected boolean is64bit = false;
+	protected long imageBase = -1;
+	protected int sections = 0;
+	protected int sectionSize = 0x100;
+	protected int codeSize = 0x1000;
+	protected int dlls = 2;
+	protected int importsPerDll = 5;
+	protected int ordinalEvery = 0;
+	protected int resourceDepth = 2;
+	protected int resourceWidth = 2;
+	protected int resourceSize = 16;
+	protected int tlsCallbacks = 0;
+	protected int exports = 0;
+	protected int forwardEvery = 0;
+	protected boolean relocations = false;
+	protected int functions = 0;
+	protected int caveInterval = 0x400;
+	protected int caveSize = 0x40;
+	protected byte caveByte = (byte) 0xCC;
+	protected int headerSlack = 8;
+	protected long seed = 0;
+
+	/**
+	 * Create a generator for a small 32bit file with 2 DLLs of 5 imports and a resource tree 2 levels deep and wide
+	 */
+	public GeneratePE() {}
+
+	/**
+	 * Create a generator with random parameters within reasonable bounds
+	 * @param seed the seed choosing the parameters and the content
+	 * @return the generator
+	 */
+	public static GeneratePE randomized(long seed) {
+		Random random = new Random(seed * 0x9E3779B97F4A7C15L); //spread consecutive seeds, their first values are similar
+		GeneratePE generator = new GeneratePE();
+		generator.set64bit(random.nextBoolean());
+		generator.setSections(3 + random.nextInt(40));
+		generator.setSectionSize(0x10 + random.nextInt(0x2000));
+		generator.setCodeSize(0x200 + random.nextInt(0x40000));
+		generator.setImports(random.nextInt(30), 1 + random.nextInt(200));
+		generator.setOrdinalEvery(random.nextInt(8));
+		int depth = random.nextInt(5);
+		int width = 1 + random.nextInt(depth <= 2 ? 16 : 6);
+		generator.setResources(depth, width, 1 + random.nextInt(0x100));
+		generator.setTLSCallbacks(random.nextInt(5));
+		byte[] caveBytes = {0x00, (byte) 0xCC, (byte) 0x90};
+		generator.setCaves(random.nextInt(4) == 0 ? 0 : 0x100 << random.nextInt(5), 8 + random.nextInt(0x80), caveBytes[random.nextInt(3)]);
+		generator.setSeed(random.nextLong());
+		return generator;
+	}
+
+	/**
+	 * Set the architecture of the file
+	 * @param is64bit true for PE32+ (AMD64), false for PE32 (i386)
+	 * @return this generator
+	 */
+	public GeneratePE set64bit(boolean is64bit) {
+		this.is64bit = is64bit;
+		return this;
+	}
+
+	/**
+	 * Set the Image Base of the file
+	 * @param imageBase the Image Base, -1 for 0x400000 (32bit) or 0x140000000 (64bit)
+	 * @return this generator
+	 */
+	public GeneratePE setImageBase(long imageBase) {
+		this.imageBase = imageBase;
+		return this;
+	}
+
+	/**
+	 * Set the minimum amount of sections, filler sections are appended until it is reached
+	 * @param sections the minimum amount of sections
+	 * @param size the virtual size of every filler section
+	 * @return this generator
+	 */
+	public GeneratePE setSections(int sections, int size) {
+		this.sections = sections;
+		this.sectionSize = size;
+		return this;
+	}
+
+	/**
+	 * Set the minimum amount of sections, filler sections are appended until it is reached
+	 * @param sections the minimum amount of sections
+	 * @return this generator
+	 */
+	public GeneratePE setSections(int sections) {
+		this.sections = sections;
+		return this;
+	}
+
+	/**
+	 * Set the virtual size of the filler sections
+	 * @param size the virtual size of every filler section
+	 * @return this generator
+	 */
+	public GeneratePE setSectionSize(int size) {
+		this.sectionSize = size;
+		return this;
+	}
+
+	/**
+	 * Set the size of the code section
+	 * @param codeSize the size of the code section in bytes
+	 * @return this generator
+	 */
+	public GeneratePE setCodeSize(int codeSize) {
+		this.codeSize = Math.max(codeSize, 0x10);
+		return this;
+	}
+
+	/**
+	 * Set the imports, no import section is created if there are no DLLs
+	 * @param dlls the amount of imported DLLs
+	 * @param importsPerDll the amount of imports of every DLL
+	 * @return this generator
+	 */
+	public GeneratePE setImports(int dlls, int importsPerDll) {
+		this.dlls = dlls;
+		this.importsPerDll = importsPerDll;
+		return this;
+	}
+
+	/**
+	 * Import every n-th function by ordinal instead of by name
+	 * @param ordinalEvery n, 0 to import everything by name
+	 * @return this generator
+	 */
+	public GeneratePE setOrdinalEvery(int ordinalEvery) {
+		this.ordinalEvery = ordinalEvery;
+		return this;
+	}
+
+	/**
+	 * Set the shape of the resource tree, no resource section is created if the depth is 0
+	 * @param depth the amount of directory levels
+	 * @param width the amount of entries of every directory
+	 * @param size the size of every resource in bytes
+	 * @return this generator
+	 */
+	public GeneratePE setResources(int depth, int width, int size) {
+		this.resourceDepth = depth;
+		this.resourceWidth = Math.max(width, 1);
+		this.resourceSize = Math.max(size, 1);
+		return this;
+	}
+
+	/**
+	 * Set the amount of TLS callbacks, no TLS section is created if there are none
+	 * @param callbacks the amount of TLS callbacks
+	 * @return this generator
+	 */
+	public GeneratePE setTLSCallbacks(int callbacks) {
+		this.tlsCallbacks = callbacks;
+		return this;
+	}
+
+	/**
+	 * Set the amount of exports, no export section is created if there are none
+	 * @param exports the amount of functions exported by name
+	 * @param forwardEvery forward every n-th export to an import, 0 to forward none
+	 * @return this generator
+	 */
+	public GeneratePE setExports(int exports, int forwardEvery) {
+		this.exports = Math.min(exports, 0xFFFF);
+		this.forwardEvery = forwardEvery;
+		return this;
+	}
+
+	/**
+	 * Set whether a base relocation section is created for the absolute addresses in the code and TLS sections
+	 * @param relocations if the file should be relocatable
+	 * @return this generator
+	 */
+	public GeneratePE setRelocations(boolean relocations) {
+		this.relocations = relocations;
+		return this;
+	}
+
+	/**
+	 * Set the amount of functions the code section is split into for the exception table (.pdata)
+	 * <br>Every 8th function chains its unwind information to the previous one like a split cold block
+	 * <br>NOTE: Only used for 64bit files, 32bit x86 files have no exception table
+	 * @param functions the amount of RUNTIME_FUNCTION entries, 0 for no exception table
+	 * @return this generator
+	 */
+	public GeneratePE setFunctions(int functions) {
+		this.functions = functions;
+		return this;
+	}
+
+	/**
+	 * Set the layout of the code caves within the code section, a cave is placed at the end of every interval
+	 * @param interval the distance of the caves, 0 for no caves
+	 * @param size the size of every cave
+	 * @param value the byte the caves consist of
+	 * @return this generator
+	 */
+	public GeneratePE setCaves(int interval, int size, byte value) {
+		this.caveInterval = interval;
+		this.caveSize = Math.min(size, interval);
+		this.caveByte = value;
+		return this;
+	}
+
+	/**
+	 * Set the amount of unused section headers that fit into the headers (room for injecting sections)
+	 * @param headerSlack the amount of additional section headers
+	 * @return this generator
+	 */
+	public GeneratePE setHeaderSlack(int headerSlack) {
+		this.headerSlack = headerSlack;
+		return this;
+	}
+
+	/**
+	 * Set the seed of the random content
+	 * @param seed the seed
+	 * @return this generator
+	 */
+	public GeneratePE setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Generate the file and parse it
+	 * @return a reader containing the generated file
+	 * @throws Exception the file couldn't be parsed
+	 */
+	public ExecutableReader createReader() throws Exception {
+		return ExecutableReader.create(new ExecutableStream(generate()));
+	}
+
+	/**
+	 * Generate the file
+	 * @return the content of the file
+	 */
+	public byte[] generate() {
+		int pointerSize = is64bit?8:4;
+		long base = imageBase != -1 ? imageBase : (is64bit ? 0x140000000L : 0x400000L);
+		int optionalHeaderSize = is64bit?0xF0:0xE0;
+		int sectionTable = 0x98 + optionalHeaderSize;
+
+		//Decide the sections
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		names.add(".text");
+		sizes.add(codeSize);
+		int importSection = -1;
+		if(dlls > 0) {
+			importSection = names.size();
+			names.add(".idata");
+			sizes.add(importSize(pointerSize));
+		}
+		int resourceSection = -1;
+		if(resourceDepth > 0) {
+			resourceSection = names.size();
+			names.add(".rsrc");
+			sizes.add(resourceTableSize());
+		}
+		int tlsSection = -1;
+		if(tlsCallbacks > 0) {
+			tlsSection = names.size();
+			names.add(".tls");
+			sizes.add(tlsSize(pointerSize));
+		}
+		int exportSection = -1;
+		if(exports > 0) {
+			exportSection = names.size();
+			names.add(".edata");
+			sizes.add(exportSize());
+		}
+		int exceptionSection = -1;
+		int functionCount = is64bit ? Math.min(functions, codeSize/16) : 0;
+		if(functionCount > 0) {
+			exceptionSection = names.size();
+			names.add(".pdata");
+			sizes.add(exceptionSize(functionCount));
+		}
+		int relocationSection = -1;
+		int[] codeFixups = new int[0];
+		int[] tlsFixups = new int[0];
+		if(relocations) {
+			if(!is64bit) { //64bit calls are rip relative
+				codeFixups = callPositions(importSection != -1 ? dlls*importsPerDll : 0);
+				for(int i=0;i<codeFixups.length;i++)
+					codeFixups[i] += 2;
+			}
+			if(tlsSection != -1) {
+				tlsFixups = new int[4 + tlsCallbacks];
+				for(int i=0;i<tlsFixups.length;i++)
+					tlsFixups[i] = i < 4 ? i*pointerSize : (is64bit ? 40 : 24) + (i-4)*pointerSize;
+			}
+			relocationSection = names.size();
+			names.add(".reloc");
+			sizes.add(Math.max(relocationSize(codeFixups) + relocationSize(tlsFixups), 8));
+		}
+		while(names.size() < sections) {
+			names.add(".s"+names.size());
+			sizes.add(sectionSize);
+		}
+		int count = names.size();
+		int sizeOfHeaders = ModifyPE.align(sectionTable + (count+headerSlack)*40, FILE_ALIGNMENT);
+		int[] virtualAddress = new int[count];
+		int[] pointerToRawData = new int[count];
+		int rva = ModifyPE.align(sizeOfHeaders, SECTION_ALIGNMENT);
+		int raw = sizeOfHeaders;
+		int sizeOfInitializedData = 0;
+		for(int i=0;i<count;i++) {
+			virtualAddress[i] = rva;
+			pointerToRawData[i] = raw;
+			rva += ModifyPE.align(Math.max(sizes.get(i), 1), SECTION_ALIGNMENT);
+			raw += ModifyPE.align(sizes.get(i), FILE_ALIGNMENT);
+			if(i != 0) sizeOfInitializedData += ModifyPE.align(sizes.get(i), FILE_ALIGNMENT);
+		}
+		ByteBuffer data = ByteBuffer.allocate(raw).order(ByteOrder.LITTLE_ENDIAN);
+
+		//DOS and file header
+		data.putShort(0, (short) 0x5A4D);
+		data.putInt(0x3C, 0x80);
+		data.putInt(0x80, 0x4550);
+		data.putShort(0x84, is64bit ? IMAGE_FILE_HEADER.IMAGE_FILE_MACHINE_AMD64 : IMAGE_FILE_HEADER.IMAGE_FILE_MACHINE_I386);
+		data.putShort(0x86, (short) count);
+		data.putInt(0x88, (int) seed); //time date stamp
+		data.putShort(0x94, (short) optionalHeaderSize);
+		data.putShort(0x96, (short) (is64bit ? 0x22 : 0x102)); //executable, large address aware / 32bit machine
+
+		//Optional header, the fields up to SectionAlignment differ between 32bit and 64bit
+		int opt = 0x98;
+		data.putShort(opt, (short) (is64bit ? 0x20B : 0x10B));
+		data.put(opt+2, (byte) 1);
+		data.putInt(opt+4, ModifyPE.align(codeSize, FILE_ALIGNMENT));
+		data.putInt(opt+8, sizeOfInitializedData);
+		data.putInt(opt+16, virtualAddress[0]);
+		data.putInt(opt+20, virtualAddress[0]);
+		if(is64bit)
+			data.putLong(opt+24, base);
+		else {
+			data.putInt(opt+24, count > 1 ? virtualAddress[1] : virtualAddress[0]);
+			data.putInt(opt+28, (int) base);
+		}
+		data.putInt(opt+32, SECTION_ALIGNMENT);
+		data.putInt(opt+36, FILE_ALIGNMENT);
+		data.putShort(opt+40, (short) (is64bit ? 6 : 4));
+		data.putShort(opt+48, (short) (is64bit ? 6 : 4));
+		data.putInt(opt+56, rva);
+		data.putInt(opt+60, sizeOfHeaders);
+		data.putShort(opt+68, (short) 3); //console
+		if(relocations)
+			data.putShort(opt+70, (short) 0x40); //dynamic base
+		int directories;
+		if(is64bit) {
+			data.putLong(opt+72, 0x100000);
+			data.putLong(opt+80, 0x1000);
+			data.putLong(opt+88, 0x100000);
+			data.putLong(opt+96, 0x1000);
+			data.putInt(opt+108, 16);
+			directories = opt+112;
+		}else {
+			data.putInt(opt+72, 0x100000);
+			data.putInt(opt+76, 0x1000);
+			data.putInt(opt+80, 0x100000);
+			data.putInt(opt+84, 0x1000);
+			data.putInt(opt+92, 16);
+			directories = opt+96;
+		}
+
+		//Section headers
+		for(int i=0;i<count;i++) {
+			int sec = sectionTable + i*40;
+			String name = names.get(i);
+			for(int c=0;c<name.length() && c<8;c++)
+				data.put(sec+c, (byte) name.charAt(c));
+			data.putInt(sec+8, sizes.get(i));
+			data.putInt(sec+12, virtualAddress[i]);
+			data.putInt(sec+16, ModifyPE.align(sizes.get(i), FILE_ALIGNMENT));
+			data.putInt(sec+20, pointerToRawData[i]);
+			if(i == 0)
+				data.putInt(sec+36, IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_EXECUTE | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ);
+			else if(i == importSection || i == tlsSection)
+				data.putInt(sec+36, IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_WRITE);
+			else
+				data.putInt(sec+36, IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ);
+		}
+
+		//Content
+		Random random = new Random(seed);
+		long[] iat = new long[0];
+		if(importSection != -1) {
+			iat = writeImports(data, pointerToRawData[importSection], virtualAddress[importSection], pointerSize, base);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT*8, virtualAddress[importSection]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT*8 + 4, (dlls+1)*20);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT*8, virtualAddress[importSection] + (dlls+1)*20);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT*8 + 4, 2*dlls*(importsPerDll+1)*pointerSize);
+		}
+		if(resourceSection != -1) {
+			writeResources(data, pointerToRawData[resourceSection], virtualAddress[resourceSection], random);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE*8, virtualAddress[resourceSection]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE*8 + 4, sizes.get(resourceSection));
+		}
+		if(tlsSection != -1) {
+			writeTLS(data, pointerToRawData[tlsSection], virtualAddress[tlsSection], pointerSize, base, base + virtualAddress[0]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_TLS*8, virtualAddress[tlsSection]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_TLS*8 + 4, is64bit ? 40 : 24);
+		}
+		if(exportSection != -1) {
+			writeExports(data, pointerToRawData[exportSection], virtualAddress[exportSection], virtualAddress[0]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT*8, virtualAddress[exportSection]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT*8 + 4, sizes.get(exportSection));
+		}
+		if(exceptionSection != -1) {
+			writeExceptions(data, pointerToRawData[exceptionSection], virtualAddress[exceptionSection], virtualAddress[0], functionCount);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION*8, virtualAddress[exceptionSection]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION*8 + 4, functionCount*12);
+		}
+		if(relocationSection != -1) {
+			int type = is64bit ? 10 : 3; //DIR64 or HIGHLOW
+			int end = writeRelocations(data, pointerToRawData[relocationSection], virtualAddress[0], codeFixups, type);
+			if(tlsSection != -1)
+				end = writeRelocations(data, end, virtualAddress[tlsSection], tlsFixups, type);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC*8, virtualAddress[relocationSection]);
+			data.putInt(directories + IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC*8 + 4, end - pointerToRawData[relocationSection]);
+		}
+		writeCode(data, pointerToRawData[0], base + virtualAddress[0], iat, random);
+		return data.array();
+	}
+
+	/**
+	 * Return whether an import is imported by ordinal
+	 */
+	private boolean isOrdinal(int i) {
+		return ordinalEvery > 0 && i % ordinalEvery == ordinalEvery-1;
+	}
+
+	private static String dllName(int d) {
+		return "library"+d+".dll";
+	}
+
+	private static String importName(int d, int i) {
+		return "Function"+d+"_"+i;
+	}
+
+	/**
+	 * Return the size of the import section: descriptors, lookup and address tables, hint/name entries and DLL names
+	 */
+	private int importSize(int pointerSize) {
+		int size = (dlls+1)*20 + 2*dlls*(importsPerDll+1)*pointerSize;
+		for(int d=0;d<dlls;d++) {
+			size += ModifyPE.align(dllName(d).length()+1, 2);
+			for(int i=0;i<importsPerDll;i++)
+				if(!isOrdinal(i))
+					size += ModifyPE.align(2 + importName(d, i).length()+1, 2);
+		}
+		return size;
+	}
+
+	private static String exportName(int i) {
+		return "Export"+i;
+	}
+
+	private boolean isForwarded(int i) {
+		return forwardEvery > 0 && i % forwardEvery == forwardEvery-1;
+	}
+
+	private static String forwarderName(int i) {
+		return "library0.Forwarded"+i;
+	}
+
+	/**
+	 * Return the size of the export section: directory, address, name pointer and ordinal tables, names and forwarders
+	 */
+	private int exportSize() {
+		int size = ModifyPE.align(40 + exports*10, 4) + "generated.dll".length()+1;
+		for(int i=0;i<exports;i++) {
+			size += exportName(i).length()+1;
+			if(isForwarded(i))
+				size += forwarderName(i).length()+1;
+		}
+		return size;
+	}
+
+	/**
+	 * Write the export table, the name pointer table is sorted by name while the ordinals follow the export index
+	 * <br>Exports point into the code section, forwarded exports at their forwarder string
+	 */
+	private void writeExports(ByteBuffer data, int offset, int rva, int code) {
+		int functions = offset + 40;
+		int namePointers = functions + exports*4;
+		int ordinals = namePointers + exports*4;
+		int strings = ModifyPE.align(ordinals + exports*2 - offset, 4) + offset;
+		data.putInt(offset+12, strings - offset + rva);
+		data.putInt(offset+16, 1);
+		data.putInt(offset+20, exports);
+		data.putInt(offset+24, exports);
+		data.putInt(offset+28, functions - offset + rva);
+		data.putInt(offset+32, namePointers - offset + rva);
+		data.putInt(offset+36, ordinals - offset + rva);
+		strings = putString(data, strings, "generated.dll");
+		String[] sorted = new String[exports];
+		for(int i=0;i<exports;i++)
+			sorted[i] = exportName(i);
+		Arrays.sort(sorted);
+		for(int n=0;n<exports;n++) {
+			int i = Integer.parseInt(sorted[n].substring("Export".length()));
+			data.putInt(namePointers + n*4, strings - offset + rva);
+			data.putShort(ordinals + n*2, (short) i);
+			strings = putString(data, strings, sorted[n]);
+		}
+		for(int i=0;i<exports;i++) {
+			if(isForwarded(i)) {
+				data.putInt(functions + i*4, strings - offset + rva);
+				strings = putString(data, strings, forwarderName(i));
+			}else
+				data.putInt(functions + i*4, code + i % codeSize);
+		}
+	}
+
+	/**
+	 * Return the size of the resource section: directories, data entries and data
+	 */
+	private int resourceTableSize() {
+		int directories = 0;
+		int leaves = 1;
+		for(int l=0;l<resourceDepth;l++) {
+			directories += leaves;
+			leaves *= resourceWidth;
+		}
+		return directories*(16+8*resourceWidth) + leaves*(16+ModifyPE.align(resourceSize, 4));
+	}
+
+	/**
+	 * Return the size of the TLS section: directory, callbacks, index and 16 bytes of template data
+	 */
+	private int tlsSize(int pointerSize) {
+		return (is64bit ? 40 : 24) + (tlsCallbacks+1)*pointerSize + 4 + 16;
+	}
+
+	/**
+	 * Write the import table, both thunk arrays are placed directly after the descriptors
+	 * @return the absolute addresses of all imports within the import address table
+	 */
+	private long[] writeImports(ByteBuffer data, int offset, int rva, int pointerSize, long base) {
+		long[] iat = new long[dlls*importsPerDll];
+		int tables = offset + (dlls+1)*20;
+		int strings = tables + 2*dlls*(importsPerDll+1)*pointerSize;
+		for(int d=0;d<dlls;d++) {
+			int lookup = tables + 2*d*(importsPerDll+1)*pointerSize;
+			int address = lookup + (importsPerDll+1)*pointerSize;
+			for(int i=0;i<importsPerDll;i++) {
+				long thunk;
+				if(isOrdinal(i)) {
+					thunk = (is64bit ? 0x8000000000000000L : 0x80000000L) | (i+1);
+				}else {
+					thunk = strings - offset + rva;
+					strings = putString(data, strings+2, importName(d, i));
+					strings = ModifyPE.align(strings - offset, 2) + offset;
+				}
+				putPointer(data, lookup + i*pointerSize, thunk, pointerSize);
+				putPointer(data, address + i*pointerSize, thunk, pointerSize);
+				iat[d*importsPerDll+i] = base + address + i*pointerSize - offset + rva;
+			}
+			int descriptor = offset + d*20;
+			data.putInt(descriptor, lookup - offset + rva);
+			data.putInt(descriptor+12, strings - offset + rva);
+			data.putInt(descriptor+16, address - offset + rva);
+			strings = putString(data, strings, dllName(d));
+			strings = ModifyPE.align(strings - offset, 2) + offset;
+		}
+		return iat;
+	}
+
+	/**
+	 * Write a resource tree of IDs, all directories first (level by level) followed by the data entries and the data
+	 */
+	private void writeResources(ByteBuffer data, int offset, int rva, Random random) {
+		int directorySize = 16+8*resourceWidth;
+		int position = 0; //relative offset of the first directory of the current level
+		int count = 1; //amount of directories of the current level
+		for(int l=0;l<resourceDepth;l++) {
+			int next = position + count*directorySize;
+			for(int k=0;k<count;k++) {
+				int dir = offset + position + k*directorySize;
+				data.putShort(dir+14, (short) resourceWidth);
+				for(int j=0;j<resourceWidth;j++) {
+					int child = k*resourceWidth+j;
+					data.putInt(dir+16+j*8, j+1);
+					if(l+1 < resourceDepth)
+						data.putInt(dir+16+j*8+4, 0x80000000 | (next + child*directorySize));
+					else
+						data.putInt(dir+16+j*8+4, next + child*16);
+				}
+			}
+			position = next;
+			count *= resourceWidth;
+		}
+		//position now points to the data entries of the leaves
+		int content = position + count*16;
+		int stride = ModifyPE.align(resourceSize, 4);
+		for(int i=0;i<count;i++) {
+			data.putInt(offset + position + i*16, rva + content + i*stride);
+			data.putInt(offset + position + i*16 + 4, resourceSize);
+			for(int b=0;b<resourceSize;b++)
+				data.put(offset + content + i*stride + b, (byte) random.nextInt());
+		}
+	}
+
+	/**
+	 * Write the TLS directory, the callbacks point to the returns at the start of the code section
+	 */
+	private void writeTLS(ByteBuffer data, int offset, int rva, int pointerSize, long base, long code) {
+		int directorySize = is64bit ? 40 : 24;
+		int callbacks = offset + directorySize;
+		int index = callbacks + (tlsCallbacks+1)*pointerSize;
+		int template = index + 4;
+		putPointer(data, offset, base + template - offset + rva, pointerSize); //StartAddressOfRawData
+		putPointer(data, offset + pointerSize, base + template + 16 - offset + rva, pointerSize); //EndAddressOfRawData
+		putPointer(data, offset + 2*pointerSize, base + index - offset + rva, pointerSize); //AddressOfIndex
+		putPointer(data, offset + 3*pointerSize, base + callbacks - offset + rva, pointerSize); //AddressOfCallBacks
+		for(int i=0;i<tlsCallbacks;i++)
+			putPointer(data, callbacks + i*pointerSize, code + 1 + i, pointerSize);
+	}
+
+	/**
+	 * Fill the code section with random bytes, code caves and calls to every import
+	 * <br>The entry point and the TLS callbacks are returns at the start of the section
+	 */
+	private void writeCode(ByteBuffer data, int offset, long address, long[] iat, Random random) {
+		byte[] code = new byte[codeSize];
+		random.nextBytes(code);
+		if(caveInterval > 0)
+			for(int i=caveInterval-caveSize;i<codeSize;i+=caveInterval)
+				for(int j=0;j<caveSize && i+j<codeSize;j++)
+					code[i+j] = caveByte;
+		for(int i=0;i<=tlsCallbacks && i<codeSize;i++)
+			code[i] = (byte) 0xC3; //ret
+		int[] positions = callPositions(iat.length);
+		for(int i=0;i<positions.length;i++) { //call [iat] (absolute on 32bit, rip relative on 64bit)
+			int position = positions[i];
+			code[position] = (byte) 0xFF;
+			code[position+1] = (byte) 0x15;
+			int operand = is64bit ? (int) (iat[i] - (address + position + 6)) : (int) iat[i];
+			code[position+2] = (byte) operand;
+			code[position+3] = (byte) (operand >> 8);
+			code[position+4] = (byte) (operand >> 16);
+			code[position+5] = (byte) (operand >> 24);
+		}
+		for(int i=0;i<codeSize;i++)
+			data.put(offset+i, code[i]);
+	}
+
+	/**
+	 * Return the positions of the calls through the import address table within the code section, caves are skipped
+	 * @param calls the amount of imports
+	 * @return the offset of every call that fits into the code section
+	 */
+	private int[] callPositions(int calls) {
+		int[] positions = new int[calls];
+		int position = 0x10 + tlsCallbacks;
+		int count = 0;
+		for(;count<calls;count++) {
+			if(caveInterval > 0 && position % caveInterval + 6 > caveInterval - caveSize)
+				position = (position / caveInterval + 1) * caveInterval;
+			if(position + 6 > codeSize) break;
+			positions[count] = position;
+			position += 8;
+		}
+		return Arrays.copyOf(positions, count);
+	}
+
+	private static boolean isChained(int i) {
+		return i % 8 == 7;
+	}
+
+	/**
+	 * Return the size of the exception section: RUNTIME_FUNCTION entries followed by the UNWIND_INFO of every function
+	 */
+	private static int exceptionSize(int functions) {
+		int size = functions*12;
+		for(int i=0;i<functions;i++)
+			size += isChained(i) ? 16 : 8;
+		return size;
+	}
+
+	/**
+	 * Write the exception table, the code section is split into functions of equal size (16 byte aligned)
+	 * <br>Primary functions describe a "push rbx; sub rsp, 0x20" prolog, chained ones point at the previous function
+	 */
+	private void writeExceptions(ByteBuffer data, int offset, int rva, int code, int functions) {
+		int length = (codeSize / functions) & ~0xF;
+		int unwind = offset + functions*12;
+		for(int i=0;i<functions;i++) {
+			int entry = offset + i*12;
+			data.putInt(entry, code + i*length);
+			data.putInt(entry+4, code + (i+1)*length);
+			data.putInt(entry+8, unwind - offset + rva);
+			if(isChained(i)) {
+				data.put(unwind, (byte) (1 | 0x4 << 3)); //version 1, UNW_FLAG_CHAININFO
+				data.putInt(unwind+4, data.getInt(entry-12));
+				data.putInt(unwind+8, data.getInt(entry-8));
+				data.putInt(unwind+12, data.getInt(entry-4));
+				unwind += 16;
+			}else {
+				data.put(unwind, (byte) 1);
+				data.put(unwind+1, (byte) 5);
+				data.put(unwind+2, (byte) 2);
+				data.putShort(unwind+4, (short) (3 << 12 | 2 << 8 | 5)); //UWOP_ALLOC_SMALL 0x20
+				data.putShort(unwind+6, (short) (3 << 12 | 0 << 8 | 1)); //UWOP_PUSH_NONVOL rbx
+				unwind += 8;
+			}
+		}
+	}
+
+	/**
+	 * Return the size of the relocation blocks for ascending fixups relative to a page aligned section
+	 */
+	private static int relocationSize(int[] fixups) {
+		int size = 0;
+		for(int i=0;i<fixups.length;) {
+			int page = fixups[i] & ~0xFFF;
+			int entries = 0;
+			for(;i<fixups.length && (fixups[i] & ~0xFFF) == page;i++)
+				entries++;
+			size += 8 + ModifyPE.align(entries*2, 4);
+		}
+		return size;
+	}
+
+	/**
+	 * Write the relocation blocks for ascending fixups relative to a page aligned section
+	 * @return the offset after the blocks
+	 */
+	private static int writeRelocations(ByteBuffer data, int offset, int rva, int[] fixups, int type) {
+		for(int i=0;i<fixups.length;) {
+			int page = fixups[i] & ~0xFFF;
+			int block = offset;
+			offset += 8;
+			for(;i<fixups.length && (fixups[i] & ~0xFFF) == page;i++) {
+				data.putShort(offset, (short) (type << 12 | (fixups[i] & 0xFFF)));
+				offset += 2;
+			}
+			offset = ModifyPE.align(offset - block, 4) + block;
+			data.putInt(block, rva + page);
+			data.putInt(block+4, offset - block);
+		}
+		return offset;
+	}
+
+	private static void putPointer(ByteBuffer data, int offset, long value, int pointerSize) {
+		if(pointerSize == 8)
+			data.putLong(offset, value);
+		else
+			data.putInt(offset, (int) value);
+	}
+
+	private static int putString(ByteBuffer data, int offset, String str) {
+		for(int c=0;c<str.length();c++)
+			data.put(offset+c, (byte) str.charAt(c));
+		data.put(offset+str.length(), (byte) 0);
+		return offset+str.length()+1;
+	}
+}
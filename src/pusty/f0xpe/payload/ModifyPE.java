@@ -1,14 +1,17 @@
 package pusty.f0xpe.payload;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.List;
 
 import pusty.f0xpe.ReadableObject;
 import pusty.f0xpe.location.Address;
 import pusty.f0xpe.location.MemorySection;
 import pusty.f0xpe.pe.DescriptorImport;
+import pusty.f0xpe.pe.DescriptorRelocation;
 import pusty.f0xpe.pe.ExecutableReader;
 import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32;
 import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
@@ -146,20 +149,32 @@ public class ModifyPE {
 	 */
 	public static boolean replaceInt(ExecutableReader reader, Payload payload,
 			MemorySection sec, int find, int replace) {
-		for (int i = 0; i < payload.getSize(); i++) {
-			try {
-					if(reader.getStream().getInt(sec.getOffsetFrom() + i)==find) {
-						reader.getStream().setInt(sec.getOffsetFrom() + i, replace);
-						return true;
-					}				
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("[!] Didn't find Replace Value!");
-				return false;
-			}
+		return replace(reader, payload, sec, new ReferencePatcher(ReferencePatcher.WIDTH_32).add(find, replace));
+	}
+	
+	/**
+	 * Searches for all values of a patcher within the section and replaces the first found instance of each in a single pass
+	 * @param reader the mapped binary
+	 * @param payload the payload contained in section (defines upper boarder for searching)
+	 * @param sec the section to search in
+	 * @param patcher the values to find and their replacements
+	 * @return whether all values were found and replaced
+	 */
+	public static boolean replace(ExecutableReader reader, Payload payload,
+			MemorySection sec, ReferencePatcher patcher) {
+		try {
+			int from = sec.getOffsetFrom();
+			patcher.patch(reader.getStream(), from, from + payload.getSize() + patcher.getWidth()-1, sec.getAddressFrom(), true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("[!] Didn't find Replace Value!");
+			return false;
 		}
-		System.out.println("[!] Didn't find Replace Value!");
-		return false;
+		if(patcher.getMissing().length != 0) {
+			System.out.println("[!] Didn't find Replace Value!");
+			return false;
+		}
+		return true;
 	}
 	
 	/**
@@ -169,15 +184,22 @@ public class ModifyPE {
 	 * @param replace the 32bit integer that replaces "find"
 	 */
 	public static void replaceAllInt(ExecutableReader reader, int find, int replace) {
-		for (int i = 0; i < reader.getStream().getData().length-3; i++) {
-			try {
-					if(reader.getStream().getInt(i)==find) {
-						reader.getStream().setInt(i, replace);
-					}				
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("[!] Didn't find Replace Value!");
-			}
+		replaceAll(reader, new ReferencePatcher(ReferencePatcher.WIDTH_32).add(find, replace));
+	}
+	
+	/**
+	 * Searches for all values of a patcher within the whole binary and replaces all found instances in a single pass
+	 * @param reader the mapped binary
+	 * @param patcher the values to find and their replacements
+	 * @return the amount of replaced values
+	 */
+	public static int replaceAll(ExecutableReader reader, ReferencePatcher patcher) {
+		try {
+			return patcher.patch(reader.getStream(), 0, reader.getStream().getSize());
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("[!] Didn't find Replace Value!");
+			return 0;
 		}
 	}
 	
@@ -206,9 +228,9 @@ public class ModifyPE {
 		System.out.println("[!] Didn't find Search Value!");
 		return -1;
 	}
-	
 	/**
 	 * Searches for the 32bit integer "find" within a section and replaces it with the saved return address of the section
+	 * <br>NOTE: Compatibility wrapper around {@link #filterReturn(ExecutableReader, Payload, MemorySection, long)}
 	 * @param reader the mapped binary
 	 * @param payload the payload contained in the section (defines upper border for searching)
 	 * @param sec the section to search in which contains the return address
@@ -217,35 +239,42 @@ public class ModifyPE {
 	 */
 	public static boolean filterReturn(ExecutableReader reader, Payload payload,
 			MemorySection sec, Address find) {
+		return filterReturn(reader, payload, sec, find.getAddr64());
+	}
+	
+	/**
+	 * Searches for the address "find" within a section and replaces it with the saved return address of the section
+	 * @param reader the mapped binary
+	 * @param payload the payload contained in the section (defines upper border for searching)
+	 * @param sec the section to search in which contains the return address
+	 * @param find the address to find and replace (only the lower 32bit are used for 32bit sections)
+	 * @return whether replacing was successful
+	 */
+	public static boolean filterReturn(ExecutableReader reader, Payload payload,
+			MemorySection sec, long find) {
 		if(!reader.is32bit())
-			System.out.println("[*] Trying to replace 0x" + Long.toHexString(find.getAddr64()).toUpperCase() + " with return address");
+			System.out.println("[*] Trying to replace 0x" + Long.toHexString(find).toUpperCase() + " with return address");
 		else
-			System.out.println("[*] Trying to replace 0x" + Integer.toHexString(find.getAddr32()).toUpperCase() + " with return address");
+			System.out.println("[*] Trying to replace 0x" + Integer.toHexString((int) find).toUpperCase() + " with return address");
 		boolean is64bit = (boolean)sec.getData("is64bit");
-		for (int i = 0; i < payload.getSize(); i++) {
-			try {
-				if(is64bit) {
-					if(reader.getStream().getLong(sec.getOffsetFrom() + i)==find.getAddr64()) {
-						reader.getStream().setLong(sec.getOffsetFrom() + i, (long)sec.getData("returnAddr"));
-						return true;
-					}
-				}else {
-					if(reader.getStream().getInt(sec.getOffsetFrom() + i)==find.getAddr32()) {
-						reader.getStream().setInt(sec.getOffsetFrom() + i, (int)sec.getData("returnAddr"));
-						return true;
-					}				
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("[!] Didn't find Replace Address!");
-				return false;
-			}
+		ReferencePatcher patcher;
+		if(is64bit)
+			patcher = new ReferencePatcher(ReferencePatcher.WIDTH_64).add(find, (long)sec.getData("returnAddr"));
+		else
+			patcher = new ReferencePatcher(ReferencePatcher.WIDTH_32).add((int) find, (int)sec.getData("returnAddr"));
+		try {
+			int from = sec.getOffsetFrom();
+			if(patcher.patch(reader.getStream(), from, from + payload.getSize() + patcher.getWidth()-1, 0, true) != 0)
+				return true;
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		System.out.println("[!] Didn't find Replace Address!");
 		return false;
 	}
 	/**
 	 * Try to find "find" within mapped binary section "sec" (up to the size of the payload) and replace it with "jumpTo"
+	 * <br>NOTE: Compatibility wrapper around {@link #filterJump(ExecutableReader, Payload, MemorySection, long, long)}
 	 * @param reader the mapped binary
 	 * @param payload the payload within section (defines upper border for the search)
 	 * @param sec the section to search
@@ -257,8 +286,22 @@ public class ModifyPE {
 			MemorySection sec, Address find, Address jumpTo) {
 		return filterJump(reader, payload.getSize(), sec, find, jumpTo, 0);
 	}
+	/**
+	 * Try to find "find" within mapped binary section "sec" (up to the size of the payload) and replace it with "jumpTo"
+	 * @param reader the mapped binary
+	 * @param payload the payload within section (defines upper border for the search)
+	 * @param sec the section to search
+	 * @param find the 32bit displacement to find
+	 * @param jumpTo the address that replaces "find"
+	 * @return whether replacing was successful
+	 */
+	public static boolean filterJump(ExecutableReader reader, Payload payload,
+			MemorySection sec, long find, long jumpTo) {
+		return filterJump(reader, payload.getSize(), sec, find, jumpTo, 0);
+	}
 	/**
 	 * Try to find "find" within the mapped binary section "sec" from "offset" to "size" and replace it with "jumpTo" if found
+	 * <br>NOTE: Compatibility wrapper around {@link #filterJump(ExecutableReader, int, MemorySection, long, long, int)}
 	 * @param reader the mapped binary
 	 * @param size the size of the section
 	 * @param sec the section to filter
@@ -269,32 +312,35 @@ public class ModifyPE {
 	 */
 	public static boolean filterJump(ExecutableReader reader, int size,
 			MemorySection sec, Address find, Address jumpTo, int offset) {
-		for (int i = offset; i < size; i++) {
-			try {
-				if(!reader.is32bit()) {
-					if(reader.getStream().getInt(sec.getOffsetFrom() + i)==find.getAddr32()) {
-						long toAddr = jumpTo.getAddr64();
-						long fromAddr = sec.getAddressFrom();
-						int result = (int)(toAddr-fromAddr) - (i+4); //calculate offset from current position (a jump) to position
-						reader.getStream().setInt(sec.getOffsetFrom() + i, result);
-						//System.out.println("[*] Replaced 0x" + Integer.toHexString(find.getAddr32()).toUpperCase() + " with relative jump address");
-						return true;
-					}
-				}else {
-					if(reader.getStream().getInt(sec.getOffsetFrom() + i)==find.getAddr32()) {
-						int toAddr = jumpTo.getAddr32();
-						int fromAddr = sec.getAddressFrom();
-						int result = (toAddr-fromAddr) - (i+4); //calculate offset from current position (a jump) to position
-						reader.getStream().setInt(sec.getOffsetFrom() + i, result);
-						System.out.println("[*] Replaced 0x" + Integer.toHexString(result).toUpperCase() + " with relative jump address");
-						return true;
-					}				
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("[!] Didn't find Replace Address!");
-				return false;
+		return filterJump(reader, size, sec, find.getAddr64(), jumpTo.getAddr64(), offset);
+	}
+	/**
+	 * Try to find "find" within the mapped binary section "sec" from "offset" to "size" and replace it with "jumpTo" if found
+	 * @param reader the mapped binary
+	 * @param size the size of the section
+	 * @param sec the section to filter
+	 * @param find the 32bit displacement to find (only the lower 32bit are used)
+	 * @param jumpTo the address that replaces "find" (only the lower 32bit are used for 32bit readers)
+	 * @param offset offset within the section to start searching from
+	 * @return whether replacing was successful
+	 */
+	public static boolean filterJump(ExecutableReader reader, int size,
+			MemorySection sec, long find, long jumpTo, int offset) {
+		//relative jumps use 32bit displacements on both architectures
+		ReferencePatcher patcher = new ReferencePatcher(ReferencePatcher.WIDTH_32);
+		if(!reader.is32bit())
+			patcher.addRelative((int) find, jumpTo);
+		else
+			patcher.addRelative((int) find, (int) jumpTo);
+		try {
+			int from = sec.getOffsetFrom() + offset;
+			if(patcher.patch(reader.getStream(), from, sec.getOffsetFrom() + size + 3, sec.getAddressFrom() + offset, true) != 0) {
+				if(reader.is32bit())
+					System.out.println("[*] Replaced 0x" + Integer.toHexString(reader.getStream().getInt(patcher.getFound((int) find))).toUpperCase() + " with relative jump address");
+				return true;
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		System.out.println("[!] Didn't find Replace Address!");
 		return false;
@@ -402,52 +448,81 @@ public class ModifyPE {
 	public static int injectSection(ExecutableReader reader, String name, int size, int characterisitcs) {
 		return injectSection(reader, name, size, characterisitcs, false);
 	}
+	/**
+	 * Adds a new section to the binary (if there is enough place to add a new section)
+	 * @param reader the mapped binary
+	 * @param name the name of the new section
+	 * @param size the virtual size of the new binary (raw size etc will get aligned)
+	 * @param characterisitcs the characteristics of the new section
+	 * @param onlyVirtual whether the section has no data in the file and is only zero filled memory
+	 * @return the id of the new section, -1 if failed to inject
+	 */
 	public static int injectSection(ExecutableReader reader, String name, int size, int characterisitcs, boolean onlyVirtual) {
-		int sizeOfSection = reader.getSectionHeader()[0].sizeof();
+		ArrayList<NewSection> sections = new ArrayList<NewSection>();
+		sections.add(new NewSection(name, size, characterisitcs, onlyVirtual));
+		return injectSections(reader, sections);
+	}
+	
+	/**
+	 * Adds multiple new sections to the binary at once
+	 * <br>The layout of all sections is calculated first, the file is only grown and the section table only parsed once
+	 * <br>If the section table doesn't fit into the headers they are grown first (see growHeaders)
+	 * @param reader the mapped binary
+	 * @param sections the sections to add in order
+	 * @return the id of the first new section (the others follow in order), -1 if failed to inject
+	 */
+	public static int injectSections(ExecutableReader reader, List<NewSection> sections) {
+		IMAGE_SECTION_HEADER[] headers = reader.getSectionHeader();
+		int sizeOfSection = headers[0].sizeof();
 		//Get offset to section beginning
 		int offset = reader.getOptionalHeader().offset() + reader.getFileHeader().getSizeOfOptionalHeader();
 		//Add all sections to the offset
 		offset = offset + sizeOfSection * reader.getFileHeader().getNumberOfSections();
-		//Check if section can be inserted
-		if(offset+sizeOfSection >= reader.getOptionalHeader().getSizeOfHeaders()) {
+		//Check if all sections can be inserted, otherwise grow the headers
+		int tableEnd = offset+sizeOfSection*sections.size();
+		if(tableEnd >= reader.getOptionalHeader().getSizeOfHeaders() && !growHeaders(reader, tableEnd+1)) {
 			System.out.println("[!] Not enough space for injecting a section");
 			return -1;
 		}
+		clearBoundImports(reader, offset, tableEnd);
 		try {
-			//Set reader to the offset
-			reader.getStream().setIndex(offset);
-			//Start mapping the memory
-			IMAGE_SECTION_HEADER section = new IMAGE_SECTION_HEADER(reader);
-			//Set the name
-			section.setName(name);
-			int vaddr = (int)(reader.getSectionHeader()[reader.getSectionHeader().length-1].getVirtualSize() + reader.getSectionHeader()[reader.getSectionHeader().length-1].getVirtualAddress());
 			int file_alignment = reader.getOptionalHeader().getFileAlignment();
 		    int section_alignment = reader.getOptionalHeader().getSectionAlignment();
-	    	section.setVirtualAddress(align(vaddr,section_alignment));
-			section.setVirtualSize(size);
-			byte[] data = new byte[align(size, file_alignment)];
-			for(int i=0;i<data.length;i++)
-				data[i] = (byte)0x00;
-			
-			if(!onlyVirtual) {
-				section.setSizeOfRawData(data.length);
-				int lastOffset = 0;
-				for(int i=0;i<reader.getSectionHeader().length;i++)
-					if(reader.getSectionHeader()[i].getPointerToRawData() != 0)
-						lastOffset = reader.getSectionHeader()[i].getPointerToRawData()+reader.getSectionHeader()[i].getSizeOfRawData();
-				section.setPointerToRawData(lastOffset);
-			}else {
-				section.setSizeOfRawData(0);
-				section.setPointerToRawData(0);
-				data = new byte[0];
+		    //Layout of the new sections, continuing after the last existing one
+			long vaddr = headers[headers.length-1].getVirtualSize() + headers[headers.length-1].getVirtualAddress();
+			int lastOffset = 0;
+			for(int i=0;i<headers.length;i++)
+				if(headers[i].getPointerToRawData() != 0)
+					lastOffset = headers[i].getPointerToRawData()+headers[i].getSizeOfRawData();
+			int insertAt = lastOffset;
+			int[] pointers = new int[sections.size()];
+			IMAGE_SECTION_HEADER section = null;
+			for(int i=0;i<sections.size();i++) {
+				NewSection n = sections.get(i);
+				//Set reader to the offset and start mapping the memory
+				reader.getStream().setIndex(offset + sizeOfSection * i);
+				section = new IMAGE_SECTION_HEADER(reader);
+				section.setName(n.getName());
+				section.setVirtualAddress(align((int) vaddr, section_alignment));
+				section.setVirtualSize(n.getSize());
+				if(!n.isOnlyVirtual()) {
+					section.setSizeOfRawData(align(n.getSize(), file_alignment));
+					section.setPointerToRawData(lastOffset);
+					lastOffset += section.getSizeOfRawData();
+				}else {
+					section.setSizeOfRawData(0);
+					section.setPointerToRawData(0);
+				}
+				pointers[i] = section.getPointerToRawData();
+				section.setCharacteristics(n.getCharacteristics());
+			    section.setPointerToLinenumbers(0);
+			    section.setNumberOfLinenumbers((short)0);
+			    section.setPointerToRelocations(0);
+			    section.setNumberOfRelocations((short)0);
+			    vaddr = (section.getVirtualAddress() & 0xFFFFFFFFL) + n.getSize();
 			}
-			section.setCharacteristics(characterisitcs);
-		    section.setPointerToLinenumbers(0);
-		    section.setNumberOfLinenumbers((short)0);
-		    section.setPointerToRelocations(0);
-		    section.setNumberOfRelocations((short)0);
 		    
-		    reader.getFileHeader().setNumberOfSections((short) (reader.getFileHeader().getNumberOfSections()+1));
+		    reader.getFileHeader().setNumberOfSections((short) (reader.getFileHeader().getNumberOfSections()+sections.size()));
 		    //Correct Image Size
 		    reader.getOptionalHeader().setSizeOfImage(align(
 		       (int) (   reader.getOptionalHeader().getSizeOfHeaders()
@@ -461,17 +536,20 @@ public class ModifyPE {
 		    reader.getOptionalHeader().setSizeOfInitializedData(0);
 		    reader.getOptionalHeader().setSizeOfUninitializedData(0);
 		    
-		    //Create new array for data
-		    byte[] newdata = new byte[reader.getStream().getData().length+data.length];
-		    //Remap memory
-		    for(int i=0;i<section.getPointerToRawData();i++) //before section
-		    	newdata[i] = reader.getStream().getData()[i];
-		    for(int i=0;i<data.length;i++) //section insert
-		    	newdata[i+section.getPointerToRawData()] = data[i];
-		    for(int i=0;i<reader.getStream().getData().length-section.getPointerToRawData();i++) //after section
-		    	newdata[section.getPointerToRawData()+data.length+i] = reader.getStream().getData()[section.getPointerToRawData()+i];
-		    //Load remapped memory into reader
-		    ExecutableReader.rewrite(reader, newdata);
+		    //Move the data behind the new sections up in place once and parse the new section headers
+		    if(lastOffset != insertAt)
+		    	reader.insert(insertAt, lastOffset - insertAt);
+		    reader.readSectionHeaders();
+		    //Copy the initial content of the sections
+		    for(int i=0;i<sections.size();i++) {
+		    	byte[] data = sections.get(i).getData();
+		    	if(data == null || sections.get(i).isOnlyVirtual()) continue;
+		    	int length = Math.min(data.length, reader.getSectionHeader()[headers.length+i].getSizeOfRawData());
+		    	ByteBuffer view = reader.getStream().getBuffer();
+		    	view.position(pointers[i]);
+		    	view.put(data, 0, length);
+		    	reader.getStream().markModified(pointers[i], length);
+		    }
 		    //Resize the optional header entries
 		    for(int i=0;i<reader.getSectionHeader().length;i++) {
 		    	if((reader.getSectionHeader()[i].getCharacteristics() & IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE) != 0)
@@ -484,13 +562,70 @@ public class ModifyPE {
 		    		reader.getOptionalHeader().setSizeOfUninitializedData(reader.getOptionalHeader().getSizeOfUninitializedData()
 		    	+   reader.getSectionHeader()[i].getSizeOfRawData());
 		    }
-		    return reader.getSectionHeader().length-1;
+		    return headers.length;
 		} catch (Exception e) {
 			e.printStackTrace();
 			return -1;
 		}
 	}
 	
+	/**
+	 * Grow the headers of the binary so they are at least a given size, moving the raw data of all sections up if
+	 * the space between the headers and the first section isn't big enough
+	 * <br>SizeOfHeaders stays a multiple of the FileAlignment, the file offsets within the headers are adjusted (see
+	 * ExecutableReader.insert)
+	 * <br>NOTE: The headers can't grow into the memory of the first section, fails if SizeOfHeaders would exceed its
+	 * virtual address
+	 * @param reader the mapped binary
+	 * @param size the minimum size of the headers
+	 * @return whether the headers are at least the given size now
+	 */
+	public static boolean growHeaders(ExecutableReader reader, int size) {
+		int sizeOfHeaders = reader.getOptionalHeader().getSizeOfHeaders();
+		if(size <= sizeOfHeaders) return true;
+		int alignment = reader.getOptionalHeader().getFileAlignment();
+		int newSize = align(size, alignment);
+		int firstData = reader.getStream().getSize();
+		long firstAddress = 0xFFFFFFFFL;
+		for(IMAGE_SECTION_HEADER section:reader.getSectionHeader()) {
+			if(section.getSizeOfRawData() != 0)
+				firstData = Math.min(firstData, section.getPointerToRawData());
+			firstAddress = Math.min(firstAddress, section.getVirtualAddress() & 0xFFFFFFFFL);
+		}
+		if(newSize > firstAddress) {
+			System.out.println("[!] Headers can't grow into the first section");
+			return false;
+		}
+		try {
+			//only the raw data of the sections is moved, in place and at once
+			//the delta is aligned too, so the raw data stays aligned even if the first section doesn't start aligned
+			if(newSize > firstData) {
+				int delta = align(newSize - firstData, alignment);
+				reader.insert(firstData, align(firstData + delta, alignment) - firstData);
+			}
+			reader.getOptionalHeader().setSizeOfHeaders(newSize);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Remove the bound import directory if it's located within a range of the headers, as it would be overwritten
+	 * <br>Bound imports are only an optimization, the loader resolves the imports normally without them
+	 * @param reader the mapped binary
+	 * @param from the start of the range within the headers
+	 * @param to the end of the range within the headers (exclusive)
+	 */
+	private static void clearBoundImports(ExecutableReader reader, int from, int to) {
+		IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY bound = reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BOUND_IMPORT];
+		int start = bound.getVirtualAddress();
+		if(start == 0 || start >= to || start + bound.getSize() <= from) return;
+		bound.setVirtualAddresss(0);
+		bound.setSize(0);
+	}
+	
 	/**
 	 * Remove the last section of the file. Does nothing if only one section is left.
 	 * @param reader the mapped binary
@@ -514,8 +649,7 @@ public class ModifyPE {
 		    //Create new array for data
 		    for(int i=section.offset();i<section.offset()+section.sizeof();i++) //clean section
 		    	reader.getStream().setByte(i, (byte) 0);
-		    ExecutableReader.rewrite(reader, reader.getStream().getData());
-		    //Load remapped memory into reader
+		    reader.readSectionHeaders();
 		    //Resize the optional header entries
 		    for(int i=0;i<reader.getSectionHeader().length;i++) {
 		    	if((reader.getSectionHeader()[i].getCharacteristics() & IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE) != 0)
@@ -536,89 +670,90 @@ public class ModifyPE {
 	
 	/**
 	 * Replaces references of the current import table to the new one at "newTable"
+	 * <br>Imports are matched by DLL name (ignoring case) and name or ordinal, references to imports missing in the new
+	 * table are replaced with 0xDEADC0DE
 	 * <br>NOTE: NOT THREAD SAFE
-	 * <br>ANOTHER NOTE: (TODO) THIS IS VERY SLOW FOR BIG TABLES
-	 * <br>WARNING: DIDN'T WORK FOR 64bit (TODO)
-	 * <br>THIS IS ONLY EVEN REMOTLY FEASABLE BECAUSE OF JAVA-VM OPTIMIZATION MAGIC
+	 * <br>ANOTHER NOTE: ONLY REPLACES ABSOLUTE REFERENCES WITHIN CODE SECTIONS
 	 * @param reader the binary to read from
 	 * @param newTable the offset of the new import table
 	 */
-	
 	public static void replaceTableReferences(ExecutableReader reader, int newTable) {
 		int tmp = reader.getStream().getIndex();
 		try {
-			//Collect old thunks
-			HashMap<IMAGE_THUNK_DATA, String> originalThunkList = new HashMap<IMAGE_THUNK_DATA, String>();
-			for(IMAGE_IMPORT_DESCRIPTOR desc:reader.getOptionalHeader().getImportDescriptor().getImports()) {
-				IMAGE_THUNK_DATA[] thunkData = desc.parseImportTable();
-				for(IMAGE_THUNK_DATA thunk:thunkData)
-					originalThunkList.put(thunk, desc.getDLLName());
-			}
 			//Collect new thunks
-			HashMap<IMAGE_THUNK_DATA, String> newThunkList = new HashMap<IMAGE_THUNK_DATA, String>();
 			reader.getStream().setIndex(newTable);
 			DescriptorImport descNew = new DescriptorImport(reader);
+			HashMap<String, Long> newThunkList = new HashMap<String, Long>();
 			for(IMAGE_IMPORT_DESCRIPTOR desc:descNew.getImports()) {
-				IMAGE_THUNK_DATA[] thunkData = desc.parseImportTable();
-				for(IMAGE_THUNK_DATA thunk:thunkData)
-					newThunkList.put(thunk,desc.getDLLName());
-			}
-			//Search for matching new thunks
-			for(Entry<IMAGE_THUNK_DATA, String> entry:originalThunkList.entrySet()) {
-				IMAGE_THUNK_DATA found = null;
-				for(Entry<IMAGE_THUNK_DATA, String> search:newThunkList.entrySet()) {
-					if(!entry.getValue().equalsIgnoreCase(search.getValue())) continue;
-					if(entry.getKey().isOrdinal() != search.getKey().isOrdinal()) continue;
-					if(entry.getKey().isOrdinal()) {
-						if(entry.getKey().getOrdinal() == search.getKey().getOrdinal()) {
-							found = search.getKey();
-							break;
-						}continue;
-					}else {
-						if(entry.getKey().getName().equals(search.getKey().getName())) {
-							found = search.getKey();
-							break;
-						}continue;
-					}
+				String dll = desc.getDLLName().toLowerCase();
+				for(IMAGE_THUNK_DATA thunk:desc.parseImportTable()) {
+					String key = thunkKey(dll, thunk);
+					if(!newThunkList.containsKey(key))
+						newThunkList.put(key, thunkAddress(reader, thunk));
 				}
-				//REPLACE REFERENCES TO OLD THUNK WITH NEW ONE (AND ZERO OLD NOT FOUND ONES)
-				//NOTE: ONLY REPLACES REFERENCES BELOW/BEFORE IMPORT TABLE AND WITHIN CODE SECTIONS
-				for(IMAGE_SECTION_HEADER section:reader.getSectionHeader()) {
-					if((section.getCharacteristics()&IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE) == 0)continue;
-					if(reader.is32bit()) {
-						int compare = (reader.offset2rva(entry.getKey().offset()).getAddr32() + reader.getOptionalHeader().getImageBase());
-						int newContent = 0xDEADC0DE;
-						if(found != null)
-							newContent = (reader.offset2rva(found.offset()).getAddr32() + reader.getOptionalHeader().getImageBase());
-						else
-							System.out.println("[?] Lost reference to "+entry.getValue()+": "+(entry.getKey().isOrdinal()?entry.getKey().getOrdinal():entry.getKey().getName()));
-						
-						for(int i=0;i<section.getSizeOfRawData()-3;i++) {
-							if(reader.getStream().getInt(section.getPointerToRawData()+i) == compare) {
-								reader.getStream().setInt(section.getPointerToRawData()+i, newContent);
-							}
-						}
-					}else {
-						long compare = (reader.offset2rva(entry.getKey().offset()).getAddr64() + reader.getOptionalHeader64().getImageBase64());
-						long newContent = 0xDEADC0DE;
-						if(found != null)
-							newContent = (reader.offset2rva(found.offset()).getAddr64() + reader.getOptionalHeader64().getImageBase64());
-						else
-							System.out.println("[?] Lost reference to "+entry.getValue()+": "+(entry.getKey().isOrdinal()?entry.getKey().getOrdinal():entry.getKey().getName()));
-						for(int i=0;i<section.getSizeOfRawData()-7;i++) {
-							if(reader.getStream().getLong(section.getPointerToRawData()+i) == compare) {
-								reader.getStream().setLong(section.getPointerToRawData()+i, newContent);
-							}
-						}
+			}
+			//Map the old thunks to the new ones
+			ReferencePatcher references = new ReferencePatcher(reader.is32bit()?ReferencePatcher.WIDTH_32:ReferencePatcher.WIDTH_64);
+			for(IMAGE_IMPORT_DESCRIPTOR desc:reader.getOptionalHeader().getImportDescriptor().getImports()) {
+				String dll = desc.getDLLName();
+				for(IMAGE_THUNK_DATA thunk:desc.parseImportTable()) {
+					Long found = newThunkList.get(thunkKey(dll.toLowerCase(), thunk));
+					if(found == null) {
+						System.out.println("[?] Lost reference to "+dll+": "+(thunk.isOrdinal()?thunk.getOrdinal():thunk.getName()));
+						found = (long)0xDEADC0DE;
 					}
+					references.add(thunkAddress(reader, thunk), found);
 				}
 			}
+			replaceReferences(reader, references);
 		}catch(Exception e) {
 			e.printStackTrace();
 		}
 		reader.getStream().setIndex(tmp);
 	}
 	
+	/**
+	 * Return the key identifying an import for matching thunks of different tables
+	 * @param dll the lower case name of the DLL the thunk belongs to
+	 * @param thunk the thunk
+	 * @return the key of the import
+	 */
+	private static String thunkKey(String dll, IMAGE_THUNK_DATA thunk) {
+		if(thunk.isOrdinal())
+			return dll+"#"+thunk.getOrdinal();
+		return dll+"!"+thunk.getName();
+	}
+	
+	/**
+	 * Return the absolute address of a thunk when loaded at the Image Base
+	 * @param reader the mapped binary
+	 * @param thunk the thunk
+	 * @return the absolute address of the thunk
+	 */
+	private static long thunkAddress(ExecutableReader reader, IMAGE_THUNK_DATA thunk) {
+		long rva = reader.offset2rva32(thunk.offset())&0xFFFFFFFFL;
+		if(reader.is32bit())
+			return (rva + reader.getOptionalHeader().getImageBase())&0xFFFFFFFFL;
+		return rva + reader.getOptionalHeader64().getImageBase64();
+	}
+	
+	/**
+	 * Replace all absolute references (pointer sized values) within the code sections in a single pass
+	 * <br>NOTE: NOT THREAD SAFE
+	 * @param reader the mapped binary
+	 * @param patcher the values to search and their replacements
+	 * @return the amount of replaced references
+	 * @throws IOException when written out of bounds or other IO Error occurred within the stream
+	 */
+	public static int replaceReferences(ExecutableReader reader, ReferencePatcher patcher) throws IOException {
+		int replaced = 0;
+		for(IMAGE_SECTION_HEADER section:reader.getSectionHeader()) {
+			if((section.getCharacteristics()&IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_CODE) == 0)continue;
+			replaced += patcher.patch(reader.getStream(), section.getPointerToRawData(), section.getPointerToRawData() + section.getSizeOfRawData());
+		}
+		return replaced;
+	}
+	
 	/**
 	 * Clears the current import table and zeros out all references memory of it
 	 * @param reader the mapped binary
@@ -649,7 +784,7 @@ public class ModifyPE {
 			}
 			int length = desc.getDLLName().length();
 			for(int i=0;i<length;i++)
-				reader.getStream().setByte(reader.rva2offset(new Address(desc.getName()))+i, (byte)0);
+				reader.getStream().setByte(reader.rva2offset(desc.getName())+i, (byte)0);
 			
 			desc.setCharacteristics(0);
 			desc.setFirstThunk(0);
@@ -662,7 +797,147 @@ public class ModifyPE {
 		reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT].setSize(0);
 		reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT].setVirtualAddresss(0);
 		reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT].setSize(0);
-		reader.getOptionalHeader().getDirectoryEntries()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT] = null;
+		reader.getOptionalHeader().clearDirectory(IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT);
+	}
+	
+	/**
+	 * Move the binary to a new image base, applying all base relocations in one pass
+	 * <br>The relocations are parsed once and their file offsets cached, rebasing the same reader again only walks the
+	 * cached arrays
+	 * <br>NOTE: Nothing is changed if any fixup can't be applied, see DescriptorRelocation.apply
+	 * @param reader the mapped binary
+	 * @param imageBase the new image base (only the lower 32bit are used for 32bit binaries)
+	 * @return the amount of applied fixups, -1 if the binary has no relocations or rebasing failed
+	 */
+	public static int rebase(ExecutableReader reader, long imageBase) {
+		DescriptorRelocation relocations = reader.getOptionalHeader().getRelocationDescriptor();
+		if(relocations == null) {
+			System.out.println("[!] No relocations to rebase with!");
+			return -1;
+		}
+		try {
+			int applied;
+			if(reader.is32bit()) {
+				int current = reader.getOptionalHeader().getImageBase();
+				applied = relocations.apply((int) imageBase - current);
+				reader.getOptionalHeader().setImageBase((int) imageBase);
+			}else {
+				long current = reader.getOptionalHeader64().getImageBase64();
+				applied = relocations.apply(imageBase - current);
+				reader.getOptionalHeader64().setImageBase64(imageBase);
+			}
+			return applied;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+	
+	/**
+	 * Recompute the checksum of the binary and write it into the optional header
+	 * <br>Only the blocks of the file modified since the last update are summed up again, see PEChecksum. Needed for
+	 * drivers and DLLs loaded at boot, the loader ignores the checksum of other binaries.
+	 * @param reader the mapped binary
+	 * @return the new checksum
+	 */
+	public static int updateCheckSum(ExecutableReader reader) {
+		return reader.getChecksum().apply();
+	}
+	
+	/**
+	 * A section to add to a binary, see injectSections
+	 */
+	public static class NewSection {
+		//the name of the section
+		private final String name;
+		//the virtual size of the section
+		private final int size;
+		//the characteristics of the section
+		private final int characteristics;
+		//the initial content of the section, null if zero filled
+		private final byte[] data;
+		//whether the section has no raw data in the file
+		private final boolean onlyVirtual;
+		
+		/**
+		 * Create a new zero filled section
+		 * @param name the name of the new section
+		 * @param size the virtual size of the new section (raw size etc will get aligned)
+		 * @param characteristics the characteristics of the new section
+		 */
+		public NewSection(String name, int size, int characteristics) {
+			this(name, size, characteristics, null, false);
+		}
+		
+		/**
+		 * Create a new zero filled section
+		 * @param name the name of the new section
+		 * @param size the virtual size of the new section (raw size etc will get aligned)
+		 * @param characteristics the characteristics of the new section
+		 * @param onlyVirtual whether the section has no data in the file and is only zero filled memory
+		 */
+		public NewSection(String name, int size, int characteristics, boolean onlyVirtual) {
+			this(name, size, characteristics, null, onlyVirtual);
+		}
+		
+		/**
+		 * Create a new section containing initial data
+		 * @param name the name of the new section
+		 * @param size the virtual size of the new section, at least the size of the data
+		 * @param characteristics the characteristics of the new section
+		 * @param data the initial content of the section, the rest is zero filled
+		 */
+		public NewSection(String name, int size, int characteristics, byte[] data) {
+			this(name, Math.max(size, data.length), characteristics, data, false);
+		}
+		
+		private NewSection(String name, int size, int characteristics, byte[] data, boolean onlyVirtual) {
+			this.name = name;
+			this.size = size;
+			this.characteristics = characteristics;
+			this.data = data;
+			this.onlyVirtual = onlyVirtual;
+		}
+		
+		/**
+		 * Returns the name of this section
+		 * @return the name of the new section
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Returns the virtual size of this section
+		 * @return the size of the new section in memory
+		 */
+		public int getSize() {
+			return size;
+		}
+		
+		/**
+		 * Returns the characteristics of this section
+		 * @return the characteristics of the new section
+		 */
+		public int getCharacteristics() {
+			return characteristics;
+		}
+		
+		/**
+		 * Returns the initial content of this section
+		 * @return the data copied into the new section, null if zero filled
+		 */
+		public byte[] getData() {
+			return data;
+		}
+		
+		/**
+		 * Returns whether this section only exists in memory
+		 * @return if the new section has no raw data in the file
+		 */
+		public boolean isOnlyVirtual() {
+			return onlyVirtual;
+		}
 	}
 	
 	/**
@@ -717,7 +992,7 @@ public class ModifyPE {
 				//Save strings of the DLL Names
 				reader.getStream().setIndex(offsetAfterDesc);
 				for(int i=0;i<descriptor.length;i++) {
-					stringPosition.add(reader.offset2rva(reader.getStream().getIndex()).getAddr32());
+					stringPosition.add(reader.offset2rva32(reader.getStream().getIndex()));
 					reader.getStream().writeString(entries.get(i).getDLLName());
 				}
 				
@@ -731,7 +1006,7 @@ public class ModifyPE {
 				for(EditableImportEntry entryList:entries) {
 					for(Object entry:entryList.getImport()) {
 						if(entry instanceof String) {
-							nameArray.add(reader.offset2rva(reader.getStream().getIndex()).getAddr32());
+							nameArray.add(reader.offset2rva32(reader.getStream().getIndex()));
 							reader.getStream().setShort(reader.getStream().readAddrShort(), 0);
 							reader.getStream().writeString(entry.toString());
 						}
@@ -745,12 +1020,12 @@ public class ModifyPE {
 				reader.getStream().setIndex(position);
 				for(int i=0;i<descriptor.length;i++) {
 					descriptor[i] = new IMAGE_IMPORT_DESCRIPTOR(reader);
-					descriptor[i].setOriginalFirstThunk(reader.offset2rva(originalArray.get(i)).getAddr32());
+					descriptor[i].setOriginalFirstThunk(reader.offset2rva32(originalArray.get(i)));
 					//descriptor[i].setOriginalFirstThunk(0);
 					descriptor[i].setTimeDateStamp(0);
 					descriptor[i].setForwarderChain(0);
 					descriptor[i].setName(stringPosition.get(i));
-					descriptor[i].setFirstThunk(reader.offset2rva(firstArray.get(i)).getAddr32());
+					descriptor[i].setFirstThunk(reader.offset2rva32(firstArray.get(i)));
 				}
 				
 				IMAGE_IMPORT_DESCRIPTOR none = new IMAGE_IMPORT_DESCRIPTOR(reader);
@@ -769,9 +1044,9 @@ public class ModifyPE {
 				
 				
 				//OK NOW THE NEW IMPORT TABLE IS OFFICIAL
-				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT].setVirtualAddresss(reader.offset2rva(position).getAddr32());
+				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT].setVirtualAddresss(reader.offset2rva32(position));
 				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT].setSize(ReadableObject.sizeof(new IMAGE_IMPORT_DESCRIPTOR(reader)) * (entries.size()));
-				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT].setVirtualAddresss(reader.offset2rva(iat).getAddr32());
+				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT].setVirtualAddresss(reader.offset2rva32(iat));
 				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IAT].setSize((amountOfEntries())*pointerSize);
 				reader.getOptionalHeader().parseImportTable();
 			}catch(Exception e) {
@@ -781,6 +1056,38 @@ public class ModifyPE {
 			return lastIndex;
 		}
 		
+		/**
+		 * Inject a new section fitting this table, write the table into it, re-reference everything and zero the current
+		 * import table
+		 * @param reader the mapped binary
+		 * @param name the name of the new section
+		 * @return the id of the new section, -1 if failed to inject
+		 */
+		public int writeTableToSection(ExecutableReader reader, String name) {
+			int sec = injectSection(reader, name, getTableSize(reader), IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_WRITE | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA);
+			if(sec == -1) return -1;
+			writeTable(reader, reader.getSectionHeader()[sec].getPointerToRawData(), true);
+			return sec;
+		}
+		
+		/**
+		 * Return the amount of bytes writeTable writes for this table
+		 * @param reader the mapped binary
+		 * @return the size of the table in bytes
+		 */
+		public int getTableSize(ExecutableReader reader) {
+			int pointerSize = reader.is32bit()?4:8;
+			int size = 5*4 * (entries.size()+1); //descriptors (5 DWORDs each)
+			size += 2 * (amountOfEntries() + entries.size()) * pointerSize; //both thunk arrays
+			for(EditableImportEntry entryList:entries) {
+				size += entryList.getDLLName().length()+1;
+				for(Object entry:entryList.getImport())
+					if(entry instanceof String)
+						size += 2 + entry.toString().length()+1; //IMAGE_IMPORT_BY_NAME
+			}
+			return size;
+		}
+		
 		/**
 		 * Write a table of of pointers to a specific position into the mapped binary.
 		 * @param reader the mapped binary
@@ -928,4 +1235,187 @@ public class ModifyPE {
 		}
 		
 	}
+	
+	/**
+	 * An editable base relocation table, meant for adding fixups for injected payloads
+	 * <br>Fixups are kept in primitive arrays and grouped into blocks by page when written
+	 */
+	public static class EditableRelocationTable {
+		//the RVA of every fixup
+		private int[] rvas = new int[16];
+		//the type of every fixup, see DescriptorRelocation.IMAGE_REL_BASED_*
+		private byte[] types = new byte[16];
+		//the amount of fixups
+		private int count;
+		
+		/**
+		 * Create an empty table
+		 */
+		public EditableRelocationTable() {}
+		
+		/**
+		 * Add a fixup
+		 * <br>NOTE: HIGHADJ fixups aren't supported, they need a parameter entry following them
+		 * @param rva the RVA of the field to fix up
+		 * @param type the type of the fixup, see DescriptorRelocation.IMAGE_REL_BASED_*
+		 * @throws IllegalArgumentException the type is HIGHADJ
+		 */
+		public void add(int rva, int type) {
+			if(type == DescriptorRelocation.IMAGE_REL_BASED_HIGHADJ)
+				throw new IllegalArgumentException("HIGHADJ fixups need a parameter entry and can't be added");
+			if(count == rvas.length) {
+				rvas = Arrays.copyOf(rvas, count*2);
+				types = Arrays.copyOf(types, count*2);
+			}
+			rvas[count] = rva;
+			types[count] = (byte) type;
+			count++;
+		}
+		
+		/**
+		 * Add a fixup for an absolute address, HIGHLOW for 32bit and DIR64 for 64bit binaries
+		 * @param reader the mapped binary
+		 * @param rva the RVA of the field containing the absolute address
+		 */
+		public void addAddress(ExecutableReader reader, int rva) {
+			add(rva, reader.is32bit() ? DescriptorRelocation.IMAGE_REL_BASED_HIGHLOW : DescriptorRelocation.IMAGE_REL_BASED_DIR64);
+		}
+		
+		/**
+		 * Add fixups for all occurrences of absolute addresses within a section, e.g. the placeholders of an injected
+		 * payload after they were replaced
+		 * @param reader the mapped binary
+		 * @param sec the section containing the addresses
+		 * @param size the amount of bytes to search from the start of the section
+		 * @param address the absolute address to search for
+		 * @return the amount of added fixups
+		 * @throws IOException the section is out of bounds
+		 */
+		public int addOccurrences(ExecutableReader reader, MemorySection sec, int size, long address) throws IOException {
+			int width = reader.is32bit() ? 4 : 8;
+			int added = 0;
+			int end = Math.min(sec.getOffsetFrom() + size, sec.getOffsetTo()) - width;
+			for(int offset=sec.getOffsetFrom();offset<=end;offset++) {
+				long value = width == 4 ? reader.getStream().getInt(offset) & 0xFFFFFFFFL : reader.getStream().getLong(offset);
+				if(value != (width == 4 ? address & 0xFFFFFFFFL : address)) continue;
+				addAddress(reader, reader.offset2rva32(offset));
+				offset += width-1;
+				added++;
+			}
+			return added;
+		}
+		
+		/**
+		 * Return the amount of fixups
+		 * @return the amount of fixups within this table
+		 */
+		public int amountOfEntries() {
+			return count;
+		}
+		
+		/**
+		 * Return the fixups sorted by RVA without duplicates, packed as (unsigned RVA &lt;&lt; 8) | type
+		 * @return the sorted fixups
+		 */
+		private long[] sorted() {
+			long[] packed = new long[count];
+			for(int i=0;i<count;i++)
+				packed[i] = ((rvas[i] & 0xFFFFFFFFL) << 8) | (types[i] & 0xFF);
+			Arrays.sort(packed);
+			int unique = 0;
+			for(int i=0;i<packed.length;i++)
+				if(unique == 0 || packed[unique-1] != packed[i])
+					packed[unique++] = packed[i];
+			return Arrays.copyOf(packed, unique);
+		}
+		
+		/**
+		 * Return the amount of bytes writeTable writes for this table
+		 * @return the size of the table in bytes
+		 */
+		public int getTableSize() {
+			long[] fixups = sorted();
+			int size = 0;
+			for(int i=0;i<fixups.length;) {
+				long page = (fixups[i] >>> 8) & ~0xFFFL;
+				int entries = 0;
+				for(;i<fixups.length && ((fixups[i] >>> 8) & ~0xFFFL) == page;i++)
+					entries++;
+				size += 8 + align(entries*2, 4); //padded to 32bit with an absolute entry
+			}
+			return size;
+		}
+		
+		/**
+		 * Write the table to a specific position and make it the base relocation table of the binary
+		 * <br>NOTE: The old table is left in place, only the directory entry is changed
+		 * @param reader the mapped binary
+		 * @param position the offset to write the table to
+		 * @return the offset after the table, -1 if failed
+		 */
+		public int writeTable(ExecutableReader reader, int position) {
+			try {
+				long[] fixups = sorted();
+				int offset = position;
+				for(int i=0;i<fixups.length;) {
+					long page = (fixups[i] >>> 8) & ~0xFFFL;
+					int block = offset;
+					offset += 8;
+					for(;i<fixups.length && ((fixups[i] >>> 8) & ~0xFFFL) == page;i++) {
+						int entry = (int) ((fixups[i] & 0xFF) << 12 | ((fixups[i] >>> 8) & 0xFFF));
+						reader.getStream().setShort(offset, entry);
+						offset += 2;
+					}
+					if(((offset - block) & 3) != 0) {
+						reader.getStream().setShort(offset, DescriptorRelocation.IMAGE_REL_BASED_ABSOLUTE);
+						offset += 2;
+					}
+					reader.getStream().setInt(block, (int) page);
+					reader.getStream().setInt(block+4, offset - block);
+				}
+				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC].setVirtualAddresss(reader.offset2rva32(position));
+				reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC].setSize(offset - position);
+				reader.getOptionalHeader().parseRelocationTable();
+				return offset;
+			}catch(Exception e) {
+				e.printStackTrace();
+				return -1;
+			}
+		}
+		
+		/**
+		 * Inject a new section fitting this table and write the table into it
+		 * @param reader the mapped binary
+		 * @param name the name of the new section
+		 * @return the id of the new section, -1 if failed to inject
+		 */
+		public int writeTableToSection(ExecutableReader reader, String name) {
+			int sec = injectSection(reader, name, Math.max(getTableSize(), 1), IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_READ | IMAGE_SECTION_HEADER.IMAGE_SCN_MEM_DISCARDABLE | IMAGE_SECTION_HEADER.IMAGE_SCN_CNT_INITIALIZED_DATA);
+			if(sec == -1) return -1;
+			if(writeTable(reader, reader.getSectionHeader()[sec].getPointerToRawData()) == -1) return -1;
+			return sec;
+		}
+		
+		/**
+		 * Parse the current base relocation table of a mapped binary and make an editable table out of it
+		 * <br>NOTE: Tables containing HIGHADJ fixups (only used on MIPS) can't be rebuilt, as the parameter entry
+		 * following every HIGHADJ fixup isn't kept
+		 * @param reader the mapped binary
+		 * @return the relocation table of the binary in a editable format, empty if there are no relocations, null if the
+		 * table contains HIGHADJ fixups
+		 */
+		public static EditableRelocationTable fromReader(ExecutableReader reader) {
+			EditableRelocationTable editableTable = new EditableRelocationTable();
+			DescriptorRelocation table = reader.getOptionalHeader().getRelocationDescriptor();
+			if(table != null)
+				for(int i=0;i<table.getCount();i++) {
+					if(table.getType(i) == DescriptorRelocation.IMAGE_REL_BASED_HIGHADJ) {
+						System.out.println("[!] Relocation tables with HIGHADJ fixups can't be rebuilt");
+						return null;
+					}
+					editableTable.add(table.getRVA(i), table.getType(i));
+				}
+			return editableTable;
+		}
+	}
 }
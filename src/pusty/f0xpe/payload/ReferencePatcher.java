@@ -0,0 +1,237 @@
+package pusty.f0xpe.payload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import pusty.f0xpe.ExecutableStream;
+
+/**
+ * Replaces many 32bit or 64bit values within a binary in a single pass.
+ * <br>The searched values are kept in an open addressing hash table, every position is checked against the range of
+ * the searched values first and only probes the table if it is within that range.
+ * <br>Every offset is checked against the current content, like searching each offset one after another: a value
+ * overlapping a replaced one is found within the replaced bytes and replaced as well.
+ * <br>NOTE: NOT THREAD SAFE
+ */
+public class ReferencePatcher {
+
+	/** Search and replace 32bit values */
+	public static final int WIDTH_32 = 4;
+	/** Search and replace 64bit values */
+	public static final int WIDTH_64 = 8;
+
+	/** Replace the value with the given one */
+	private static final byte TYPE_ABSOLUTE = 1;
+	/** Replace the value with the distance of the given address to the end of the value (relative jumps/calls) */
+	private static final byte TYPE_RELATIVE = 2;
+
+	//the size of the values in bytes
+	private final int width;
+	//the open addressing hash table, a type of 0 marks a free slot
+	private long[] needles;
+	private long[] replacements;
+	private byte[] types;
+	//the position each value was replaced at in the last patch, -1 if not found
+	private int[] found;
+	//the amount of values within the table
+	private int size;
+	//the range of all searched values
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+
+	/**
+	 * Create a new patcher
+	 * @param width the size of the values, either WIDTH_32 or WIDTH_64
+	 */
+	public ReferencePatcher(int width) {
+		if(width != WIDTH_32 && width != WIDTH_64)
+			throw new IllegalArgumentException("Width has to be 4 or 8 bytes");
+		this.width = width;
+		this.needles = new long[16];
+		this.replacements = new long[16];
+		this.types = new byte[16];
+		this.found = new int[16];
+	}
+
+	/**
+	 * Replace a value with another one
+	 * @param needle the value to search for
+	 * @param replacement the value to replace it with
+	 * @return this patcher
+	 */
+	public ReferencePatcher add(long needle, long replacement) {
+		put(normalize(needle), replacement, TYPE_ABSOLUTE);
+		return this;
+	}
+
+	/**
+	 * Replace a value with the relative distance of an address to the end of the value (the operand of a relative jump or call)
+	 * @param needle the value to search for
+	 * @param target the absolute address the jump should lead to
+	 * @return this patcher
+	 */
+	public ReferencePatcher addRelative(long needle, long target) {
+		put(normalize(needle), target, TYPE_RELATIVE);
+		return this;
+	}
+
+	/**
+	 * Return the amount of values to search for
+	 * @return the amount of added values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return the size of the searched values
+	 * @return WIDTH_32 or WIDTH_64
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Replace all occurrences of the values within a range of the binary
+	 * @param stream the binary to patch
+	 * @param from the first offset to search at
+	 * @param to the offset the searched range ends at (values have to end before it)
+	 * @return the amount of replaced values
+	 * @throws IOException when written out of bounds or the stream is read-only
+	 */
+	public int patch(ExecutableStream stream, int from, int to) throws IOException {
+		return patch(stream, from, to, 0, false);
+	}
+
+	/**
+	 * Replace the occurrences of the values within a range of the binary
+	 * @param stream the binary to patch
+	 * @param from the first offset to search at
+	 * @param to the offset the searched range ends at (values have to end before it)
+	 * @param address the virtual address "from" is loaded at, only needed for relative values
+	 * @param firstOnly whether only the first occurrence of each value is replaced
+	 * @return the amount of replaced values
+	 * @throws IOException when written out of bounds or the stream is read-only
+	 */
+	public int patch(ExecutableStream stream, int from, int to, long address, boolean firstOnly) throws IOException {
+		Arrays.fill(found, -1);
+		if(size == 0) return 0;
+		ByteBuffer data = stream.getBuffer();
+		int end = Math.min(to, data.limit()) - width;
+		int mask = needles.length-1;
+		int replaced = 0;
+		int remaining = size;
+		for(int i=Math.max(from, 0);i<=end;i++) {
+			long value = width==WIDTH_32?(data.getInt(i)&0xFFFFFFFFL):data.getLong(i);
+			if(value < min || value > max) continue;
+			int slot = slot(value, mask);
+			while(types[slot] != 0 && needles[slot] != value)
+				slot = (slot+1)&mask;
+			if(types[slot] == 0) continue;
+			if(firstOnly && found[slot] != -1) continue;
+			long replacement = replacements[slot];
+			if(types[slot] == TYPE_RELATIVE)
+				replacement = replacement - (address + (i-from) + width);
+			if(width == WIDTH_32)
+				stream.setInt(i, (int) replacement);
+			else
+				stream.setLong(i, replacement);
+			if(found[slot] == -1) found[slot] = i;
+			replaced++;
+			if(firstOnly && --remaining == 0) break;
+		}
+		return replaced;
+	}
+
+	/**
+	 * Return where a value was replaced first in the last patch
+	 * @param needle the searched value
+	 * @return the offset of the first replaced occurrence, -1 if not found or not added
+	 */
+	public int getFound(long needle) {
+		needle = normalize(needle);
+		int mask = needles.length-1;
+		int slot = slot(needle, mask);
+		while(types[slot] != 0) {
+			if(needles[slot] == needle)
+				return found[slot];
+			slot = (slot+1)&mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the values that weren't found in the last patch
+	 * @return the missing values
+	 */
+	public long[] getMissing() {
+		int amount = 0;
+		for(int i=0;i<types.length;i++)
+			if(types[i] != 0 && found[i] == -1) amount++;
+		long[] missing = new long[amount];
+		amount = 0;
+		for(int i=0;i<types.length;i++)
+			if(types[i] != 0 && found[i] == -1) missing[amount++] = needles[i];
+		return missing;
+	}
+
+	/**
+	 * Cut a value to the width of this patcher
+	 * @param value the value
+	 * @return the value unsigned if 32bit
+	 */
+	private long normalize(long value) {
+		return width==WIDTH_32?(value&0xFFFFFFFFL):value;
+	}
+
+	/**
+	 * Return the slot a value is searched at first
+	 * @param value the value
+	 * @param mask the size of the table minus one
+	 * @return the first slot
+	 */
+	private static int slot(long value, int mask) {
+		long hash = value * 0x9E3779B97F4A7C15L;
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * Insert or overwrite a value within the table
+	 * @param needle the normalized value
+	 * @param replacement the replacement
+	 * @param type how the value gets replaced
+	 */
+	private void put(long needle, long replacement, byte type) {
+		if((size+1)*2 > needles.length)
+			grow();
+		int mask = needles.length-1;
+		int slot = slot(needle, mask);
+		while(types[slot] != 0 && needles[slot] != needle)
+			slot = (slot+1)&mask;
+		if(types[slot] == 0) size++;
+		needles[slot] = needle;
+		replacements[slot] = replacement;
+		types[slot] = type;
+		found[slot] = -1;
+		min = Math.min(min, needle);
+		max = Math.max(max, needle);
+	}
+
+	/**
+	 * Double the size of the table
+	 */
+	private void grow() {
+		long[] oldNeedles = needles;
+		long[] oldReplacements = replacements;
+		byte[] oldTypes = types;
+		needles = new long[oldNeedles.length*2];
+		replacements = new long[oldNeedles.length*2];
+		types = new byte[oldNeedles.length*2];
+		found = new int[oldNeedles.length*2];
+		size = 0;
+		for(int i=0;i<oldTypes.length;i++)
+			if(oldTypes[i] != 0)
+				put(oldNeedles[i], oldReplacements[i], oldTypes[i]);
+	}
+}
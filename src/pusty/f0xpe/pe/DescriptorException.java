@@ -0,0 +1,456 @@
+package pusty.f0xpe.pe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.ReadableObject;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY;
+
+/**
+ * A class representing the x64 Exception Table (.pdata), an array of RUNTIME_FUNCTION structures
+ * <br>The table is kept as primitive begin, end and unwind info arrays sorted by the begin address, so the function
+ * containing any RVA is found with a binary search. The UNWIND_INFO structures are only parsed on access.
+ * <br>NOTE: Only parsed for 64bit binaries, 32bit x86 binaries don't use this table
+ * <br>Reference: https://docs.microsoft.com/en-us/cpp/build/exception-handling-x64
+ */
+public class DescriptorException extends ReadableObject {
+
+	/** The size of a RUNTIME_FUNCTION structure */
+	public static final int RUNTIME_FUNCTION_SIZE = 12;
+
+	/** The amount of functions */
+	protected int count;
+	/** The start RVA of every function (unsigned, ascending) */
+	protected int[] begins;
+	/** The end RVA of every function (exclusive) */
+	protected int[] ends;
+	/** The RVA of the UNWIND_INFO of every function */
+	protected int[] unwinds;
+	/** The parsed UNWIND_INFO structures, created on access */
+	protected UNWIND_INFO[] unwindInfos;
+
+	/**
+	 * Create a new Exception Table at the given index the reader is at
+	 * @param reader the reader to parse the exception table at
+	 * @throws Exception something went wrong
+	 */
+	public DescriptorException(ExecutableReader reader)
+			throws Exception {
+		super(reader);
+	}
+
+	@Override
+	public void read(ExecutableStream s) throws Exception {
+		IMAGE_DATA_DIRECTORY entry = reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION];
+		ByteBuffer table = reader.getRVAView(entry.getVirtualAddress() & 0xFFFFFFFFL, entry.getSize());
+		count = table.limit() / RUNTIME_FUNCTION_SIZE;
+		begins = new int[count];
+		ends = new int[count];
+		unwinds = new int[count];
+		boolean sorted = true;
+		for(int i=0;i<count;i++) {
+			begins[i] = table.getInt(i*RUNTIME_FUNCTION_SIZE);
+			ends[i] = table.getInt(i*RUNTIME_FUNCTION_SIZE+4);
+			unwinds[i] = table.getInt(i*RUNTIME_FUNCTION_SIZE+8);
+			if(i > 0 && Integer.compareUnsigned(begins[i-1], begins[i]) > 0)
+				sorted = false;
+		}
+		if(!sorted) sort();
+		unwindInfos = new UNWIND_INFO[count];
+		s.setIndex(s.getIndex() + count*RUNTIME_FUNCTION_SIZE);
+	}
+
+	/**
+	 * Sort the functions by their begin address, the loader requires a sorted table but the file might not have one
+	 */
+	private void sort() {
+		long[] order = new long[count];
+		for(int i=0;i<count;i++)
+			order[i] = ((begins[i] & 0xFFFFFFFFL) << 32) | i;
+		Arrays.sort(order);
+		int[] b = new int[count];
+		int[] e = new int[count];
+		int[] u = new int[count];
+		for(int i=0;i<count;i++) {
+			int from = (int) order[i];
+			b[i] = begins[from];
+			e[i] = ends[from];
+			u[i] = unwinds[from];
+		}
+		begins = b;
+		ends = e;
+		unwinds = u;
+	}
+
+	/**
+	 * Return the amount of functions in the table
+	 * @return the amount of RUNTIME_FUNCTION entries
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Return the start of a function
+	 * @param i the index of the function
+	 * @return the RVA of the first instruction
+	 */
+	public int getBeginAddress(int i) {
+		return begins[i];
+	}
+
+	/**
+	 * Return the end of a function
+	 * @param i the index of the function
+	 * @return the RVA after the last instruction
+	 */
+	public int getEndAddress(int i) {
+		return ends[i];
+	}
+
+	/**
+	 * Return the address of the unwind information of a function
+	 * @param i the index of the function
+	 * @return the RVA of the UNWIND_INFO structure
+	 */
+	public int getUnwindInfoAddress(int i) {
+		return unwinds[i];
+	}
+
+	/**
+	 * Find the function containing an address with a binary search
+	 * @param rva the RVA to look up
+	 * @return the index of the function, -1 if the address is not within a function of the table
+	 */
+	public int findFunction(int rva) {
+		long address = rva & 0xFFFFFFFFL;
+		int low = 0;
+		int high = count-1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			if((begins[middle] & 0xFFFFFFFFL) <= address)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		if(high < 0 || address >= (ends[high] & 0xFFFFFFFFL)) return -1;
+		return high;
+	}
+
+	/**
+	 * Find the function containing an address and follow chained unwind information to the primary function
+	 * <br>Compilers split functions into several entries (e.g. for cold code), all of them chain to the entry of the
+	 * actual function start
+	 * @param rva the RVA to look up
+	 * @return the index of the primary function, -1 if the address is not within a function of the table
+	 */
+	public int findPrimaryFunction(int rva) {
+		int function = findFunction(rva);
+		for(int depth=0;function != -1 && depth<32;depth++) {
+			UNWIND_INFO info = getUnwindInfo(function);
+			if(info == null || !info.isChained()) break;
+			int next = findFunction(info.getChainedBeginAddress());
+			if(next == function) break;
+			function = next;
+		}
+		return function;
+	}
+
+	/**
+	 * Return the unwind information of a function, parsed on first access
+	 * @param i the index of the function
+	 * @return the UNWIND_INFO structure, null if it is not within the file
+	 */
+	public synchronized UNWIND_INFO getUnwindInfo(int i) {
+		if(unwindInfos[i] == null) {
+			int offset = reader.rva2offset(unwinds[i] & ~1); //bit 0 marks an indirect entry on some compilers
+			if(offset == -1) return null;
+			int temp = reader.getStream().getIndex();
+			try {
+				reader.getStream().setIndex(offset);
+				unwindInfos[i] = new UNWIND_INFO(reader);
+			}catch(Exception e) {
+				e.printStackTrace();
+			}
+			reader.getStream().setIndex(temp);
+		}
+		return unwindInfos[i];
+	}
+
+	/**
+	 * A class representing the UNWIND_INFO structure describing the prolog of a function
+	 */
+	public static class UNWIND_INFO extends ReadableObject {
+
+		/** The function has an exception handler */
+		public static final int UNW_FLAG_EHANDLER  = 0x1;
+		/** The function has a termination handler */
+		public static final int UNW_FLAG_UHANDLER  = 0x2;
+		/** The unwind information continues in the chained RUNTIME_FUNCTION */
+		public static final int UNW_FLAG_CHAININFO = 0x4;
+
+		/** Push a nonvolatile register */
+		public static final int UWOP_PUSH_NONVOL     = 0;
+		/** Allocate a large area on the stack */
+		public static final int UWOP_ALLOC_LARGE     = 1;
+		/** Allocate a small area on the stack */
+		public static final int UWOP_ALLOC_SMALL     = 2;
+		/** Establish the frame pointer register */
+		public static final int UWOP_SET_FPREG       = 3;
+		/** Save a nonvolatile register with a MOV */
+		public static final int UWOP_SAVE_NONVOL     = 4;
+		/** Save a nonvolatile register with a MOV and a long offset */
+		public static final int UWOP_SAVE_NONVOL_FAR = 5;
+		/** Save a nonvolatile XMM register */
+		public static final int UWOP_SAVE_XMM128     = 8;
+		/** Save a nonvolatile XMM register with a long offset */
+		public static final int UWOP_SAVE_XMM128_FAR = 9;
+		/** Push a machine frame */
+		public static final int UWOP_PUSH_MACHFRAME  = 10;
+
+		/** Version (low 3 bits) and flags (high 5 bits) */
+		protected int VersionAndFlags;
+		/** The size of the prolog in bytes */
+		protected int SizeOfProlog;
+		/** The amount of unwind code slots */
+		protected int CountOfCodes;
+		/** Frame register (low 4 bits) and scaled frame offset (high 4 bits) */
+		protected int FrameRegisterAndOffset;
+		/** The first unwind code slot */
+		protected int UnwindCode;
+		/** The exception handler RVA or the chained RUNTIME_FUNCTION, after the unwind codes (aligned to 4 bytes) */
+		protected int Trailer;
+
+		/**
+		 * Create a UNWIND_INFO structure at the given readers index
+		 * @param reader the reader to create this structure at
+		 * @throws Exception something went wrong
+		 */
+		public UNWIND_INFO(ExecutableReader reader)
+				throws Exception {
+			super(reader);
+		}
+
+		@Override
+		public void read(ExecutableStream s) throws Exception {
+			VersionAndFlags = s.readAddrByte();
+			SizeOfProlog = s.readAddrByte();
+			CountOfCodes = s.readAddrByte();
+			FrameRegisterAndOffset = s.readAddrByte();
+			UnwindCode = s.getIndex();
+			int codes = s.getByte(CountOfCodes) & 0xFF;
+			Trailer = UnwindCode + ((codes + 1) & ~1) * 2;
+			s.setIndex(Trailer);
+			if(isChained())
+				s.setIndex(Trailer + RUNTIME_FUNCTION_SIZE);
+			else if((getFlags() & (UNW_FLAG_EHANDLER | UNW_FLAG_UHANDLER)) != 0)
+				s.setIndex(Trailer + 4);
+		}
+
+		/**
+		 * Return the version of this structure
+		 * @return the version, 1 or 2
+		 */
+		public int getVersion() {
+			try {
+				return reader.getStream().getByte(VersionAndFlags) & 0x7;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the flags of this structure
+		 * @return the flags, see UNW_FLAG_* constants
+		 */
+		public int getFlags() {
+			try {
+				return (reader.getStream().getByte(VersionAndFlags) & 0xFF) >>> 3;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return whether the unwind information continues in a chained RUNTIME_FUNCTION
+		 * @return if this is chained unwind information
+		 */
+		public boolean isChained() {
+			return (getFlags() & UNW_FLAG_CHAININFO) != 0;
+		}
+
+		/**
+		 * Return the size of the prolog
+		 * @return the size of the prolog in bytes
+		 */
+		public int getSizeOfProlog() {
+			try {
+				return reader.getStream().getByte(SizeOfProlog) & 0xFF;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the amount of unwind code slots, some operations use two or three slots
+		 * @return the amount of slots
+		 */
+		public int getCountOfCodes() {
+			try {
+				return reader.getStream().getByte(CountOfCodes) & 0xFF;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the frame register
+		 * @return the number of the frame register, 0 if none is used
+		 */
+		public int getFrameRegister() {
+			try {
+				return reader.getStream().getByte(FrameRegisterAndOffset) & 0xF;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the offset of the frame register from RSP
+		 * @return the offset in bytes
+		 */
+		public int getFrameOffset() {
+			try {
+				return ((reader.getStream().getByte(FrameRegisterAndOffset) & 0xFF) >>> 4) * 16;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return an unwind code slot
+		 * @param i the index of the slot
+		 * @return the raw 16 bit slot
+		 */
+		public int getUnwindCode(int i) {
+			try {
+				return reader.getStream().getShort(UnwindCode + i*2) & 0xFFFF;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the prolog offset of an unwind code
+		 * @param i the index of the slot
+		 * @return the offset of the end of the instruction within the prolog
+		 */
+		public int getCodeOffset(int i) {
+			return getUnwindCode(i) & 0xFF;
+		}
+
+		/**
+		 * Return the operation of an unwind code
+		 * @param i the index of the slot
+		 * @return the operation, see UWOP_* constants
+		 */
+		public int getUnwindOp(int i) {
+			return (getUnwindCode(i) >>> 8) & 0xF;
+		}
+
+		/**
+		 * Return the operation info of an unwind code (usually a register)
+		 * @param i the index of the slot
+		 * @return the operation info
+		 */
+		public int getOpInfo(int i) {
+			return getUnwindCode(i) >>> 12;
+		}
+
+		/**
+		 * Return the amount of slots an unwind code uses
+		 * @param i the index of the slot
+		 * @return the amount of slots including the first one
+		 */
+		public int getSlots(int i) {
+			switch(getUnwindOp(i)) {
+			case UWOP_ALLOC_LARGE:
+				return getOpInfo(i) == 0 ? 2 : 3;
+			case UWOP_SAVE_NONVOL:
+			case UWOP_SAVE_XMM128:
+				return 2;
+			case UWOP_SAVE_NONVOL_FAR:
+			case UWOP_SAVE_XMM128_FAR:
+				return 3;
+			default:
+				return 1;
+			}
+		}
+
+		/**
+		 * Return the exception or termination handler
+		 * @return the RVA of the handler, 0 if the function has none
+		 */
+		public int getExceptionHandler() {
+			if(isChained() || (getFlags() & (UNW_FLAG_EHANDLER | UNW_FLAG_UHANDLER)) == 0) return 0;
+			try {
+				return reader.getStream().getInt(Trailer);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the begin address of the chained RUNTIME_FUNCTION
+		 * @return the RVA of the chained function, 0 if not chained
+		 */
+		public int getChainedBeginAddress() {
+			if(!isChained()) return 0;
+			try {
+				return reader.getStream().getInt(Trailer);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the end address of the chained RUNTIME_FUNCTION
+		 * @return the RVA after the chained function, 0 if not chained
+		 */
+		public int getChainedEndAddress() {
+			if(!isChained()) return 0;
+			try {
+				return reader.getStream().getInt(Trailer + 4);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the unwind information address of the chained RUNTIME_FUNCTION
+		 * @return the RVA of the chained UNWIND_INFO, 0 if not chained
+		 */
+		public int getChainedUnwindInfoAddress() {
+			if(!isChained()) return 0;
+			try {
+				return reader.getStream().getInt(Trailer + 8);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+	}
+}
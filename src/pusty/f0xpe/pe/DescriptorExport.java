@@ -0,0 +1,728 @@
+package pusty.f0xpe.pe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import pusty.f0xpe.AsciiSequence;
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.ReadableObject;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY;
+
+/**
+ * A class representing the PE Export Table Structure
+ * <br>Only the IMAGE_EXPORT_DIRECTORY is parsed, the address, name pointer and ordinal tables are read on access.
+ * <br>Names are looked up with a binary search over the sorted name pointer table, {@link #buildIndex()} additionally
+ * creates a hash index for bulk lookups.
+ * <br>Reference: https://docs.microsoft.com/en-us/windows/desktop/debug/pe-format#the-edata-section-image-only
+ */
+public class DescriptorExport extends ReadableObject {
+
+	/** The IMAGE_EXPORT_DIRECTORY structure of this table */
+	protected IMAGE_EXPORT_DIRECTORY directory;
+	/** The RVA of the export directory, functions pointing within the directory are forwarders */
+	protected int directoryStart;
+	/** The size of the export directory */
+	protected int directorySize;
+	/** Offset of the export address table, -1 if not within the file */
+	protected int functionsOffset;
+	/** Offset of the name pointer table, -1 if not within the file */
+	protected int namesOffset;
+	/** Offset of the ordinal table, -1 if not within the file */
+	protected int ordinalsOffset;
+	/** The hash index, null until built */
+	protected volatile ExportIndex index;
+
+	/**
+	 * Create a new Export Table Structure at the given index the reader is at
+	 * @param reader the reader to parse the export table at
+	 * @throws Exception something went wrong
+	 */
+	public DescriptorExport(ExecutableReader reader)
+			throws Exception {
+		super(reader);
+	}
+
+	@Override
+	public void read(ExecutableStream s) throws Exception {
+		IMAGE_DATA_DIRECTORY entry = reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT];
+		directoryStart = entry.getVirtualAddress();
+		directorySize = entry.getSize();
+		directory = new IMAGE_EXPORT_DIRECTORY(reader);
+		functionsOffset = tableOffset(directory.getAddressOfFunctions(), directory.getNumberOfFunctions(), 4);
+		namesOffset = tableOffset(directory.getAddressOfNames(), directory.getNumberOfNames(), 4);
+		ordinalsOffset = tableOffset(directory.getAddressOfNameOrdinals(), directory.getNumberOfNames(), 2);
+	}
+
+	/**
+	 * Return the offset of a table if all of it is within the file
+	 * @param rva the RVA of the table
+	 * @param count the amount of entries
+	 * @param width the size of every entry
+	 * @return the offset of the table, -1 if it isn't within the file
+	 */
+	private int tableOffset(int rva, int count, int width) {
+		if(count <= 0 || rva == 0) return -1;
+		int offset = reader.rva2offset(rva);
+		if(offset == -1 || (long) offset + (long) count * width > reader.getStream().getSize()) return -1;
+		return offset;
+	}
+
+	/**
+	 * Return the IMAGE_EXPORT_DIRECTORY structure of this table
+	 * @return the export directory
+	 */
+	public IMAGE_EXPORT_DIRECTORY getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * The name of the exporting DLL as a String
+	 * @return the name of the DLL
+	 * @throws IOException something went wrong trying to read the name
+	 */
+	public String getDLLName() throws IOException {
+		return reader.getStringPool().intern(reader.getStream(), reader.rva2offset(directory.getName()));
+	}
+
+	/**
+	 * Return the ordinal of the first entry of the export address table
+	 * @return the ordinal base
+	 */
+	public int getBase() {
+		return directory.getBase();
+	}
+
+	/**
+	 * Return the amount of entries in the export address table
+	 * @return the amount of functions, 0 if the table is not within the file
+	 */
+	public int getNumberOfFunctions() {
+		return functionsOffset == -1 ? 0 : directory.getNumberOfFunctions();
+	}
+
+	/**
+	 * Return the amount of exports by name
+	 * @return the amount of names, 0 if the tables are not within the file
+	 */
+	public int getNumberOfNames() {
+		return namesOffset == -1 || ordinalsOffset == -1 ? 0 : directory.getNumberOfNames();
+	}
+
+	/**
+	 * Return the RVA of an exported function
+	 * @param ordinal the ordinal of the function (including the base)
+	 * @return the RVA of the function or forwarder string, 0 if the ordinal isn't used
+	 */
+	public int getFunctionRVA(int ordinal) {
+		ExportIndex index = this.index;
+		int slot = ordinal - getBase();
+		if(index != null)
+			return slot >= 0 && slot < index.functions.length ? index.functions[slot] : 0;
+		if(slot < 0 || slot >= getNumberOfFunctions()) return 0;
+		try {
+			return reader.getStream().getInt(functionsOffset + slot*4);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Return the RVA of a function exported by name
+	 * @param name the name of the function
+	 * @return the RVA of the function or forwarder string, 0 if it is not exported
+	 */
+	public int getFunctionRVA(String name) {
+		int ordinal = getOrdinal(name);
+		return ordinal == -1 ? 0 : getFunctionRVA(ordinal);
+	}
+
+	/**
+	 * Return the ordinal of a function exported by name
+	 * @param name the name of the function
+	 * @return the ordinal of the function (including the base), -1 if it is not exported
+	 */
+	public int getOrdinal(String name) {
+		ExportIndex index = this.index;
+		int i = index != null ? index.find(name) : findName(name);
+		return i == -1 ? -1 : getNameOrdinal(i);
+	}
+
+	/**
+	 * Return the name of an export
+	 * @param i the index within the name pointer table
+	 * @return the name of the export
+	 * @throws IOException something went wrong trying to read the name
+	 */
+	public String getName(int i) throws IOException {
+		ExportIndex index = this.index;
+		if(index != null) return index.names[i];
+		return reader.getStringPool().intern(reader.getStream(), nameOffset(i));
+	}
+
+	/**
+	 * Return the name of an export as a view into the stream, for comparing it without creating a String
+	 * @param i the index within the name pointer table
+	 * @return the name of the export
+	 * @throws IOException something went wrong trying to read the name
+	 */
+	public AsciiSequence getNameSequence(int i) throws IOException {
+		return reader.getStream().getCharSequence(nameOffset(i));
+	}
+
+	/**
+	 * Return the ordinal of an export by name
+	 * @param i the index within the name pointer table
+	 * @return the ordinal of the export (including the base)
+	 */
+	public int getNameOrdinal(int i) {
+		ExportIndex index = this.index;
+		if(index != null) return index.ordinals[i];
+		try {
+			if(i < 0 || i >= getNumberOfNames()) throw new IOException("Name index out of bounds");
+			return getBase() + (reader.getStream().getShort(ordinalsOffset + i*2) & 0xFFFF);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	/**
+	 * Return the offset of an export name
+	 * @param i the index within the name pointer table
+	 * @return the offset of the zero terminated name
+	 * @throws IOException the index or name is out of bounds
+	 */
+	private int nameOffset(int i) throws IOException {
+		if(i < 0 || i >= getNumberOfNames()) throw new IOException("Name index out of bounds");
+		int offset = reader.rva2offset(reader.getStream().getInt(namesOffset + i*4));
+		if(offset == -1) throw new IOException("Name not within the file");
+		return offset;
+	}
+
+	/**
+	 * Search the sorted name pointer table for a name
+	 * <br>NOTE: Relies on the names being sorted (as required by the loader), unsorted tables may miss names
+	 * @param name the name to search for
+	 * @return the index within the name pointer table, -1 if not found
+	 */
+	public int findName(CharSequence name) {
+		if(reader.getStream().isPartial())
+			return findNamePartial(name);
+		ByteBuffer data = reader.getStream().getBuffer();
+		int low = 0;
+		int high = getNumberOfNames()-1;
+		try {
+			while(low <= high) {
+				int middle = (low + high) >>> 1;
+				int offset = reader.rva2offset(data.getInt(namesOffset + middle*4));
+				if(offset == -1) return -1;
+				int cmp = compare(data, offset, name);
+				if(cmp < 0)
+					low = middle + 1;
+				else if(cmp > 0)
+					high = middle - 1;
+				else
+					return middle;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
+
+	/**
+	 * Search the sorted name pointer table of a partial stream for a name, reading every name through the stream
+	 * @param name the name to search for
+	 * @return the index within the name pointer table, -1 if not found
+	 */
+	private int findNamePartial(CharSequence name) {
+		ExecutableStream stream = reader.getStream();
+		int low = 0;
+		int high = getNumberOfNames()-1;
+		try {
+			while(low <= high) {
+				int middle = (low + high) >>> 1;
+				int offset = reader.rva2offset(stream.getInt(namesOffset + middle*4));
+				if(offset == -1) return -1;
+				int cmp = compare(stream.getView(offset, stream.getStringLength(offset)+1), 0, name);
+				if(cmp < 0)
+					low = middle + 1;
+				else if(cmp > 0)
+					high = middle - 1;
+				else
+					return middle;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare a zero terminated string within the data with a name like strcmp (unsigned bytes)
+	 * @param data the data of the stream
+	 * @param offset the offset of the string
+	 * @param name the name to compare with
+	 * @return less than, equal to or greater than 0 if the string is less than, equal to or greater than the name
+	 */
+	private static int compare(ByteBuffer data, int offset, CharSequence name) {
+		int length = name.length();
+		for(int i=0;;i++) {
+			int b = data.get(offset+i) & 0xFF;
+			int c = i < length ? name.charAt(i) : 0;
+			if(b != c) return b - c;
+			if(b == 0) return 0;
+		}
+	}
+
+	/**
+	 * Return whether a function RVA points at a forwarder string instead of code
+	 * @param rva the RVA from the export address table
+	 * @return if the export is forwarded to another DLL
+	 */
+	public boolean isForwarder(int rva) {
+		return rva != 0 && (rva & 0xFFFFFFFFL) - (directoryStart & 0xFFFFFFFFL) >= 0
+				&& (rva & 0xFFFFFFFFL) - (directoryStart & 0xFFFFFFFFL) < (directorySize & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Return the forwarder string of an export ("DLL.Function" or "DLL.#Ordinal")
+	 * @param ordinal the ordinal of the function (including the base)
+	 * @return the forwarder string, null if the export isn't forwarded
+	 * @throws IOException something went wrong trying to read the string
+	 */
+	public String getForwarder(int ordinal) throws IOException {
+		int rva = getFunctionRVA(ordinal);
+		if(!isForwarder(rva)) return null;
+		return reader.getStringPool().intern(reader.getStream(), reader.rva2offset(rva));
+	}
+
+	/**
+	 * Build a hash index of all names and a copy of the export address table
+	 * <br>After this name lookups take constant time instead of a binary search and all tables are kept in memory
+	 * <br>NOTE: The index isn't updated if the table is modified afterwards
+	 * @throws IOException a table or name is out of bounds
+	 */
+	public synchronized void buildIndex() throws IOException {
+		if(index != null) return;
+		ExportIndex index = new ExportIndex(getNumberOfNames(), getNumberOfFunctions());
+		for(int i=0;i<index.functions.length;i++)
+			index.functions[i] = reader.getStream().getInt(functionsOffset + i*4);
+		for(int i=0;i<index.names.length;i++) {
+			index.add(i, reader.getStringPool().intern(reader.getStream(), nameOffset(i)));
+			index.ordinals[i] = getNameOrdinal(i);
+		}
+		this.index = index;
+	}
+
+	/**
+	 * Return whether the hash index has been built
+	 * @return if lookups use the hash index
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+
+	/**
+	 * A hash index of the export names, open addressing with linear probing
+	 */
+	protected static class ExportIndex {
+		/** The names by their index in the name pointer table */
+		protected final String[] names;
+		/** The ordinals (including the base) by the index in the name pointer table */
+		protected final int[] ordinals;
+		/** The index in the name pointer table plus one for every slot, 0 for empty slots */
+		protected final int[] slots;
+		/** The copied export address table */
+		protected final int[] functions;
+
+		/**
+		 * Create an empty index
+		 * @param names the amount of names
+		 * @param functions the amount of functions
+		 */
+		protected ExportIndex(int names, int functions) {
+			this.names = new String[names];
+			this.ordinals = new int[names];
+			this.slots = new int[Integer.highestOneBit(Math.max(names, 1)*2)*2];
+			this.functions = new int[functions];
+		}
+
+		/**
+		 * Add a name, the first of duplicate names wins
+		 * @param i the index within the name pointer table
+		 * @param name the name
+		 */
+		protected void add(int i, String name) {
+			names[i] = name;
+			int mask = slots.length-1;
+			for(int slot = mix(name.hashCode()) & mask;;slot = (slot+1) & mask) {
+				if(slots[slot] == 0) {
+					slots[slot] = i+1;
+					return;
+				}
+				if(names[slots[slot]-1].equals(name)) return;
+			}
+		}
+
+		/**
+		 * Find a name
+		 * @param name the name
+		 * @return the index within the name pointer table, -1 if not found
+		 */
+		protected int find(String name) {
+			int mask = slots.length-1;
+			for(int slot = mix(name.hashCode()) & mask;;slot = (slot+1) & mask) {
+				int i = slots[slot];
+				if(i == 0) return -1;
+				if(names[i-1].equals(name)) return i-1;
+			}
+		}
+
+		private static int mix(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	/**
+	 * A class representing the IMAGE_EXPORT_DIRECTORY structure
+	 */
+	public static class IMAGE_EXPORT_DIRECTORY extends ReadableObject {
+
+		/** Reserved, must be 0 */
+		protected int Characteristics;
+		/** The time the export data was created */
+		protected int TimeDateStamp;
+		/** The major version number, can be set by the user */
+		protected int MajorVersion;
+		/** The minor version number, can be set by the user */
+		protected int MinorVersion;
+		/** RVA to a NULL-terminated ASCII String containing the name of the DLL */
+		protected int Name;
+		/** The starting ordinal number of the exports, usually 1 */
+		protected int Base;
+		/** The number of entries in the export address table */
+		protected int NumberOfFunctions;
+		/** The number of entries in the name pointer and ordinal tables */
+		protected int NumberOfNames;
+		/** RVA of the export address table */
+		protected int AddressOfFunctions;
+		/** RVA of the export name pointer table, sorted lexically */
+		protected int AddressOfNames;
+		/** RVA of the ordinal table, parallel to the name pointer table */
+		protected int AddressOfNameOrdinals;
+
+		/**
+		 * Create a IMAGE_EXPORT_DIRECTORY structure at the given readers index
+		 * @param reader the reader to create this structure at
+		 * @throws Exception something went wrong
+		 */
+		public IMAGE_EXPORT_DIRECTORY(ExecutableReader reader)
+				throws Exception {
+			super(reader);
+		}
+
+		@Override
+		public void read(ExecutableStream s) throws Exception {
+			Characteristics = s.readAddrInt();
+			TimeDateStamp = s.readAddrInt();
+			MajorVersion = s.readAddrShort();
+			MinorVersion = s.readAddrShort();
+			Name = s.readAddrInt();
+			Base = s.readAddrInt();
+			NumberOfFunctions = s.readAddrInt();
+			NumberOfNames = s.readAddrInt();
+			AddressOfFunctions = s.readAddrInt();
+			AddressOfNames = s.readAddrInt();
+			AddressOfNameOrdinals = s.readAddrInt();
+		}
+
+		/**
+		 * Return the characteristics of the export directory
+		 * @return the characteristics, reserved
+		 */
+		public int getCharacteristics() {
+			try {
+				return reader.getStream().getInt(Characteristics);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the characteristics of the export directory
+		 * @param characteristics the new characteristics
+		 */
+		public void setCharacteristics(int characteristics) {
+			try {
+				reader.getStream().setInt(Characteristics, characteristics);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the time the export data was created
+		 * @return the time date stamp
+		 */
+		public int getTimeDateStamp() {
+			try {
+				return reader.getStream().getInt(TimeDateStamp);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the time the export data was created
+		 * @param timeDateStamp the new time date stamp
+		 */
+		public void setTimeDateStamp(int timeDateStamp) {
+			try {
+				reader.getStream().setInt(TimeDateStamp, timeDateStamp);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the major version number
+		 * @return the major version
+		 */
+		public short getMajorVersion() {
+			try {
+				return reader.getStream().getShort(MajorVersion);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the major version number
+		 * @param majorVersion the new major version
+		 */
+		public void setMajorVersion(short majorVersion) {
+			try {
+				reader.getStream().setShort(MajorVersion, majorVersion);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the minor version number
+		 * @return the minor version
+		 */
+		public short getMinorVersion() {
+			try {
+				return reader.getStream().getShort(MinorVersion);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the minor version number
+		 * @param minorVersion the new minor version
+		 */
+		public void setMinorVersion(short minorVersion) {
+			try {
+				reader.getStream().setShort(MinorVersion, minorVersion);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the RVA of the name of the DLL
+		 * @return the RVA of the zero terminated name
+		 */
+		public int getName() {
+			try {
+				return reader.getStream().getInt(Name);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the RVA of the name of the DLL
+		 * @param name the new RVA of the zero terminated name
+		 */
+		public void setName(int name) {
+			try {
+				reader.getStream().setInt(Name, name);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the starting ordinal number of the exports
+		 * @return the ordinal base
+		 */
+		public int getBase() {
+			try {
+				return reader.getStream().getInt(Base);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the starting ordinal number of the exports
+		 * @param base the new ordinal base
+		 */
+		public void setBase(int base) {
+			try {
+				reader.getStream().setInt(Base, base);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the number of entries in the export address table
+		 * @return the amount of functions
+		 */
+		public int getNumberOfFunctions() {
+			try {
+				return reader.getStream().getInt(NumberOfFunctions);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the number of entries in the export address table
+		 * @param numberOfFunctions the new amount of functions
+		 */
+		public void setNumberOfFunctions(int numberOfFunctions) {
+			try {
+				reader.getStream().setInt(NumberOfFunctions, numberOfFunctions);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the number of entries in the name pointer and ordinal tables
+		 * @return the amount of names
+		 */
+		public int getNumberOfNames() {
+			try {
+				return reader.getStream().getInt(NumberOfNames);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the number of entries in the name pointer and ordinal tables
+		 * @param numberOfNames the new amount of names
+		 */
+		public void setNumberOfNames(int numberOfNames) {
+			try {
+				reader.getStream().setInt(NumberOfNames, numberOfNames);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the RVA of the export address table
+		 * @return the RVA of the function table
+		 */
+		public int getAddressOfFunctions() {
+			try {
+				return reader.getStream().getInt(AddressOfFunctions);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the RVA of the export address table
+		 * @param addressOfFunctions the new RVA of the function table
+		 */
+		public void setAddressOfFunctions(int addressOfFunctions) {
+			try {
+				reader.getStream().setInt(AddressOfFunctions, addressOfFunctions);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the RVA of the name pointer table
+		 * @return the RVA of the name table
+		 */
+		public int getAddressOfNames() {
+			try {
+				return reader.getStream().getInt(AddressOfNames);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the RVA of the name pointer table
+		 * @param addressOfNames the new RVA of the name table
+		 */
+		public void setAddressOfNames(int addressOfNames) {
+			try {
+				reader.getStream().setInt(AddressOfNames, addressOfNames);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		/**
+		 * Return the RVA of the ordinal table
+		 * @return the RVA of the ordinal table
+		 */
+		public int getAddressOfNameOrdinals() {
+			try {
+				return reader.getStream().getInt(AddressOfNameOrdinals);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Set the RVA of the ordinal table
+		 * @param addressOfNameOrdinals the new RVA of the ordinal table
+		 */
+		public void setAddressOfNameOrdinals(int addressOfNameOrdinals) {
+			try {
+				reader.getStream().setInt(AddressOfNameOrdinals, addressOfNameOrdinals);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+	}
+}
@@ -1,11 +1,12 @@
 package pusty.f0xpe.pe;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 
+import pusty.f0xpe.AsciiSequence;
 import pusty.f0xpe.ExecutableStream;
 import pusty.f0xpe.ReadableObject;
-import pusty.f0xpe.location.Address;
 import pusty.f0xpe.pe.ExecutableReader;
 
 /** 
@@ -35,7 +36,10 @@ public class DescriptorImport extends ReadableObject {
 	public void read(ExecutableStream s) throws Exception {
 		ArrayList<IMAGE_IMPORT_DESCRIPTOR> imports = new ArrayList<IMAGE_IMPORT_DESCRIPTOR>();
 		IMAGE_IMPORT_DESCRIPTOR tempDesc = new IMAGE_IMPORT_DESCRIPTOR(reader);
-		while(!tempDesc.isEmpy()) { //While the entry isn't empty read new ones
+		while(true) {
+			if(tempDesc.offset() < 0 || tempDesc.offset() > s.getSize() - tempDesc.sizeof())
+				throw new EOFException(); //the table isn't terminated within the file
+			if(tempDesc.isEmpy()) break; //read new entries until the empty one
 			imports.add(tempDesc);
 			tempDesc = new IMAGE_IMPORT_DESCRIPTOR(reader);
 		}
@@ -100,7 +104,16 @@ public class DescriptorImport extends ReadableObject {
 		 * @throws IOException something went wrong trying to read the name
 		 */
 		public String getDLLName() throws IOException {
-			return reader.getStream().getString(reader.rva2offset(new Address(this.getName())));
+			return reader.getStringPool().intern(reader.getStream(), reader.rva2offset(this.getName()));
+		}
+		
+		/** 
+		 * The name of this DLL as a view into the stream, for comparing it without creating a String
+		 * @return the name of the imported DLL represented by this structure
+		 * @throws IOException something went wrong trying to read the name
+		 */
+		public AsciiSequence getDLLNameSequence() throws IOException {
+			return reader.getStream().getCharSequence(reader.rva2offset(this.getName()));
 		}
 		
 		/**
@@ -146,7 +159,7 @@ public class DescriptorImport extends ReadableObject {
 		 * @return the OrginalFirstThunk as an offset instead of an RVA
 		 */
 		public int getOriginalFirstThunkOffset() {
-			return reader.rva2offset(new Address(getOriginalFirstThunk()));
+			return reader.rva2offset(getOriginalFirstThunk());
 		}
 		
 		/**
@@ -154,7 +167,7 @@ public class DescriptorImport extends ReadableObject {
 		 * @return the FirstThunk as an offset instead of an RVA
 		 */
 		public int getFirstThunkOffset() {
-			return reader.rva2offset(new Address(getFirstThunk()));
+			return reader.rva2offset(getFirstThunk());
 		}
 	
 		/**
@@ -345,7 +358,7 @@ public class DescriptorImport extends ReadableObject {
 		public void read(ExecutableStream s) throws Exception {
 			Hint = s.readAddrShort();
 			Name = s.getIndex();
-			NameStr = s.getString(Name);
+			NameStr = reader.getStringPool().intern(s, Name);
 			s.setIndex(Name+NameStr.length()+1);
 		}
 		
@@ -373,7 +386,7 @@ public class DescriptorImport extends ReadableObject {
 						reader.getStream().setByte(Name+i, (byte)(str.charAt(i)&0xFF));
 				//Zero terminate the new string
 				reader.getStream().setByte(Name+str.length(), (byte)0);
-				NameStr = reader.getStream().getString(Name);
+				NameStr = reader.getStringPool().intern(reader.getStream(), Name);
 				reader.getStream().setIndex(Name+NameStr.length()+1);
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -602,7 +615,7 @@ public class DescriptorImport extends ReadableObject {
 		public int getNameOffset() {
 			if(isOrdinal()) return -1;
 			try {
-				return reader.rva2offset(new Address(reader.getStream().getInt(ForwarderString)));
+				return reader.rva2offset(reader.getStream().getInt(ForwarderString));
 			} catch (IOException e) {
 				e.printStackTrace();
 				return -1;
@@ -642,7 +655,7 @@ public class DescriptorImport extends ReadableObject {
 		@Override
 		public void setNameOffset(int o) {
 			try {
-				reader.getStream().setInt(ForwarderString, reader.offset2rva(o).getAddr32());
+				reader.getStream().setInt(ForwarderString, reader.offset2rva32(o));
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -750,7 +763,7 @@ public class DescriptorImport extends ReadableObject {
 		public int getNameOffset() {
 			if(isOrdinal()) return -1;
 			try {
-				return reader.rva2offset(new Address(reader.getStream().getLong(ForwarderString)));
+				return reader.rva2offset(reader.getStream().getLong(ForwarderString));
 			} catch (IOException e) {
 				e.printStackTrace();
 				return -1;
@@ -790,7 +803,7 @@ public class DescriptorImport extends ReadableObject {
 		@Override
 		public void setNameOffset(int o) {
 			try {
-				reader.getStream().setLong(ForwarderString, reader.offset2rva(o).getAddr64());
+				reader.getStream().setLong(ForwarderString, (reader.offset2rva32(o)&0xFFFFFFFFL));
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -0,0 +1,212 @@
+package pusty.f0xpe.pe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.ReadableObject;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY;
+
+/**
+ * A class representing the PE Base Relocation Table
+ * <br>All blocks are parsed at once into primitive arrays (RVA, type and file offset of every fixup), padding entries
+ * are dropped.
+ * <br>Reference: https://docs.microsoft.com/en-us/windows/desktop/debug/pe-format#the-reloc-section-image-only
+ */
+public class DescriptorRelocation extends ReadableObject {
+
+	/** Padding entry, skipped */
+	public static final int IMAGE_REL_BASED_ABSOLUTE = 0;
+	/** Add the high 16 bits of the difference to the 16 bit field */
+	public static final int IMAGE_REL_BASED_HIGH     = 1;
+	/** Add the low 16 bits of the difference to the 16 bit field */
+	public static final int IMAGE_REL_BASED_LOW      = 2;
+	/** Add the difference to the 32 bit field */
+	public static final int IMAGE_REL_BASED_HIGHLOW  = 3;
+	/** High 16 bits adjusted by the low 16 bits in the following entry, not applied when rebasing
+	 * <br>NOTE: The following parameter entry isn't kept, so tables containing it can't be rebuilt */
+	public static final int IMAGE_REL_BASED_HIGHADJ  = 4;
+	/** Add the difference to the 64 bit field */
+	public static final int IMAGE_REL_BASED_DIR64    = 10;
+
+	/** The amount of relocation blocks */
+	protected int blocks;
+	/** The amount of fixups */
+	protected int count;
+	/** The RVA of every fixup */
+	protected int[] rvas;
+	/** The type of every fixup, see IMAGE_REL_BASED_* constants */
+	protected byte[] types;
+	/** The file offset of every fixup, -1 if the fixed up field is not within the file */
+	protected int[] offsets;
+
+	/**
+	 * Create a new Base Relocation Table at the given index the reader is at
+	 * @param reader the reader to parse the relocation table at
+	 * @throws Exception something went wrong
+	 */
+	public DescriptorRelocation(ExecutableReader reader)
+			throws Exception {
+		super(reader);
+	}
+
+	@Override
+	public void read(ExecutableStream s) throws Exception {
+		IMAGE_DATA_DIRECTORY entry = reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC];
+		ByteBuffer table = reader.getRVAView(entry.getVirtualAddress() & 0xFFFFFFFFL, entry.getSize());
+		int capacity = Math.max(table.limit()/2, 0); //upper bound of entries, trimmed afterwards
+		rvas = new int[capacity];
+		types = new byte[capacity];
+		int position = 0;
+		while(position + 8 <= table.limit()) {
+			int page = table.getInt(position);
+			int size = table.getInt(position+4);
+			if(size < 8 || position + size > table.limit()) break;
+			for(int i=position+8;i+2<=position+size;i+=2) {
+				int value = table.getShort(i) & 0xFFFF;
+				int type = value >>> 12;
+				if(type == IMAGE_REL_BASED_ABSOLUTE) continue;
+				rvas[count] = page + (value & 0xFFF);
+				types[count] = (byte) type;
+				count++;
+				if(type == IMAGE_REL_BASED_HIGHADJ) i+=2; //the next entry is the parameter
+			}
+			blocks++;
+			position += size;
+		}
+		rvas = Arrays.copyOf(rvas, count);
+		types = Arrays.copyOf(types, count);
+		offsets = new int[count];
+		for(int i=0;i<count;i++)
+			offsets[i] = fieldOffset(rvas[i], width(types[i]));
+		s.setIndex(s.getIndex() + position);
+	}
+
+	/**
+	 * Return the offset of a fixed up field if it is completely within the file
+	 * @param rva the RVA of the field
+	 * @param width the size of the field
+	 * @return the offset of the field, -1 if not within the file
+	 */
+	private int fieldOffset(int rva, int width) {
+		long address = rva & 0xFFFFFFFFL;
+		int offset = reader.getSectionIndex().rva2offset(address, width);
+		if(offset == -1 && address + width <= reader.getOptionalHeader().getSizeOfHeaders())
+			offset = (int) address;
+		return offset;
+	}
+
+	/**
+	 * Return the size of the field a fixup type modifies
+	 * @param type the fixup type
+	 * @return the size in bytes
+	 */
+	public static int width(int type) {
+		switch(type) {
+		case IMAGE_REL_BASED_HIGHLOW:
+			return 4;
+		case IMAGE_REL_BASED_DIR64:
+			return 8;
+		default:
+			return 2;
+		}
+	}
+
+	/**
+	 * Return the amount of relocation blocks (one for every page containing fixups)
+	 * @return the amount of blocks
+	 */
+	public int getBlockCount() {
+		return blocks;
+	}
+
+	/**
+	 * Return the amount of fixups, excluding padding entries
+	 * @return the amount of fixups
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Return the RVA of a fixup
+	 * @param i the index of the fixup
+	 * @return the RVA of the fixed up field
+	 */
+	public int getRVA(int i) {
+		return rvas[i];
+	}
+
+	/**
+	 * Return the type of a fixup
+	 * @param i the index of the fixup
+	 * @return the type, see IMAGE_REL_BASED_* constants
+	 */
+	public int getType(int i) {
+		return types[i];
+	}
+
+	/**
+	 * Return the file offset of a fixup
+	 * @param i the index of the fixup
+	 * @return the offset of the fixed up field, -1 if not within the file (e.g. uninitialized data)
+	 */
+	public int getOffset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * Add a difference to all fixed up fields within the file in one pass
+	 * <br>The image base is not changed, see ModifyPE.rebase
+	 * <br>The fixed up fields are reported to ExecutableStream.markModified
+	 * <br>All fixups are checked before the first field is written, nothing is changed if any of them can't be applied
+	 * <br>NOTE: HIGHADJ fixups (only used on MIPS), unknown types and fields outside the file can't be applied
+	 * @param delta the difference between the new and the old image base
+	 * @return the amount of applied fixups
+	 * @throws IOException the stream is read-only or a fixup can't be applied
+	 */
+	public int apply(long delta) throws IOException {
+		if(reader.getStream().isReadOnly()) throw new IOException("Can't rebase a read-only stream");
+		ExecutableStream stream = reader.getStream();
+		for(int i=0;i<count;i++) {
+			switch(types[i]) {
+			case IMAGE_REL_BASED_HIGHLOW:
+			case IMAGE_REL_BASED_DIR64:
+			case IMAGE_REL_BASED_HIGH:
+			case IMAGE_REL_BASED_LOW:
+				break;
+			default:
+				throw new IOException("Can't apply fixup of type "+types[i]+" at RVA 0x"+Integer.toHexString(rvas[i]));
+			}
+			if(offsets[i] == -1 || offsets[i] > stream.getSize() - width(types[i]))
+				throw new IOException("Can't apply fixup outside of the file at RVA 0x"+Integer.toHexString(rvas[i]));
+		}
+		ByteBuffer data = stream.getBuffer();
+		boolean tracked = stream.isTrackingModifications();
+		int low = (int) delta;
+		short high = (short) (delta >>> 16);
+		int applied = 0;
+		for(int i=0;i<count;i++) {
+			int offset = offsets[i];
+			switch(types[i]) {
+			case IMAGE_REL_BASED_HIGHLOW:
+				data.putInt(offset, data.getInt(offset) + low);
+				break;
+			case IMAGE_REL_BASED_DIR64:
+				data.putLong(offset, data.getLong(offset) + delta);
+				break;
+			case IMAGE_REL_BASED_HIGH:
+				data.putShort(offset, (short) (data.getShort(offset) + high));
+				break;
+			case IMAGE_REL_BASED_LOW:
+				data.putShort(offset, (short) (data.getShort(offset) + (short) low));
+				break;
+			}
+			if(tracked) stream.markModified(offset, width(types[i]));
+			applied++;
+		}
+		return applied;
+	}
+}
@@ -1,6 +1,7 @@
 package pusty.f0xpe.pe;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import pusty.f0xpe.ExecutableStream;
 import pusty.f0xpe.ReadableObject;
@@ -382,11 +383,8 @@ public class DescriptorResource extends ReadableObject{
 			int offset = (getName()&~IMAGE_ORDINAL_FLAG32);
 			offset = offset + reader.getOptionalHeader().getResourceOffset();
 			try {
-				int size = reader.getStream().getShort(offset); //This is a IMAGE_RESOURCE_DIR_STRING_U structure
-				char[] str = new char[size];                //I don't think it's necessary to create that as a new class
-				for(int i=0;i<size;i++)
-					str[i] = (char) reader.getStream().getShort(offset+2+2*i);
-				return new String(str);
+				int size = reader.getStream().getShort(offset)&0xFFFF; //This is a IMAGE_RESOURCE_DIR_STRING_U structure
+				return reader.getStream().getView(offset+2, size*2).asCharBuffer().toString(); //I don't think it's necessary to create that as a new class
 			} catch (IOException e) {
 				e.printStackTrace();
 				return null;
@@ -486,14 +484,23 @@ public class DescriptorResource extends ReadableObject{
 		 */
 		public byte[] getData() throws IOException {
 			byte[] data = new byte[getSize()];
+			getDataView().get(data);
+			return data;
+		}
+		
+		/**
+		 * Return a read-only view of the data of this resource without copying it
+		 * <br>The view can be written to NIO channels directly for extracting the resource
+		 * @return a buffer sharing its content with the stream (see ExecutableStream.getView)
+		 * @throws IOException the data is out of bounds
+		 */
+		public ByteBuffer getDataView() throws IOException {
 			//???
 			//why do I have to subtract the VIRTUAL ADDRESS of this offset?
 			//and why do I only have to do this for the data entries data?!
 			//Weird.
-			int offset = getOffsetToData() - reader.offset2rva(reader.getOptionalHeader().getResourceOffset()).getAddr32() +reader.getOptionalHeader().getResourceOffset();
-			for(int i=0;i<data.length;i++)
-				data[i] = reader.getStream().getByte(offset+i);
-			return data;
+			int offset = getOffsetToData() - reader.offset2rva32(reader.getOptionalHeader().getResourceOffset()) +reader.getOptionalHeader().getResourceOffset();
+			return reader.getStream().getView(offset, getSize());
 		}
 		
 		/**
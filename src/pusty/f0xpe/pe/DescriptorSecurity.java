@@ -0,0 +1,254 @@
+package pusty.f0xpe.pe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.ReadableObject;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY;
+
+/**
+ * A class representing the Attribute Certificate Table (Security Directory), a list of WIN_CERTIFICATE structures
+ * <br>Unlike all other directories the security directory contains a file offset instead of an RVA, the table isn't
+ * loaded into memory.
+ * <br>Also computes the Authenticode image digest the signatures within the certificates are made over, see
+ * {@link #digest(ExecutableReader, MessageDigest)}.
+ * <br>Reference: https://docs.microsoft.com/en-us/windows/desktop/debug/pe-format#the-attribute-certificate-table-image-only
+ */
+public class DescriptorSecurity extends ReadableObject {
+
+	/** The certificates within the table */
+	protected WIN_CERTIFICATE[] certificates;
+
+	/**
+	 * Create a new Attribute Certificate Table at the given index the reader is at
+	 * @param reader the reader to parse the certificate table at
+	 * @throws Exception something went wrong
+	 */
+	public DescriptorSecurity(ExecutableReader reader)
+			throws Exception {
+		super(reader);
+	}
+
+	@Override
+	public void read(ExecutableStream s) throws Exception {
+		IMAGE_DATA_DIRECTORY entry = reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_SECURITY];
+		int start = s.getIndex();
+		long end = (long) start + (entry.getSize() & 0xFFFFFFFFL);
+		if(end > s.getSize()) throw new IOException("Certificate table exceeds the file");
+		ArrayList<WIN_CERTIFICATE> list = new ArrayList<WIN_CERTIFICATE>();
+		int position = start;
+		while(position + 8 <= end) {
+			s.setIndex(position);
+			WIN_CERTIFICATE certificate = new WIN_CERTIFICATE(reader);
+			long length = certificate.getLength() & 0xFFFFFFFFL;
+			if(length < 8 || position + length > end) break;
+			list.add(certificate);
+			position = (position + (int) length + 7) & ~7; //entries are quadword aligned
+		}
+		certificates = list.toArray(new WIN_CERTIFICATE[list.size()]);
+		s.setIndex((int) end);
+	}
+
+	/**
+	 * Return the certificates within the table
+	 * @return the array of WIN_CERTIFICATE structures
+	 */
+	public WIN_CERTIFICATE[] getCertificates() {
+		return certificates;
+	}
+
+	/**
+	 * Compute the Authenticode image digest of a file with a given algorithm
+	 * @param reader the file to hash
+	 * @param algorithm the name of the digest algorithm, e.g. "SHA-256"
+	 * @return the digest, null if the algorithm isn't available or the file can't be hashed
+	 */
+	public static byte[] digest(ExecutableReader reader, String algorithm) {
+		try {
+			MessageDigest md = MessageDigest.getInstance(algorithm);
+			if(!digest(reader, md)) return null;
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Feed the Authenticode image digest of a file into a message digest
+	 * <br>Hashed are the headers without the CheckSum field and the security directory entry, the raw data of all
+	 * sections sorted by file offset and the data behind the last section without the certificate table.
+	 * <br>The ranges are handed to the digest as views of the stream buffer, the file is never copied. Heap backed
+	 * streams are hashed from their array directly, mapped streams in chunks by the digest itself.
+	 * @param reader the file to hash
+	 * @param md the digest to update
+	 * @return whether the file could be hashed, false if the headers or sections exceed the file
+	 */
+	public static boolean digest(ExecutableReader reader, MessageDigest md) {
+		ByteBuffer data = reader.getStream().getBuffer();
+		int size = data.limit();
+		IMAGE_OPTIONAL_HEADER32 header = reader.getOptionalHeader();
+		int checksum = header.CheckSum;
+		IMAGE_DATA_DIRECTORY security = header.getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_SECURITY];
+		int entry = security.offset();
+		int headers = header.getSizeOfHeaders();
+		if(headers > size || entry + 8 > headers || checksum + 4 > entry) return false;
+		update(md, data, 0, checksum);
+		update(md, data, checksum + 4, entry);
+		update(md, data, entry + 8, headers);
+
+		//Sections sorted by their raw data, sections without raw data aren't hashed
+		IMAGE_SECTION_HEADER[] sections = reader.getSectionHeader();
+		long[] order = new long[sections.length];
+		int count = 0;
+		for(int i=0;i<sections.length;i++) {
+			if(sections[i].getSizeOfRawData() == 0) continue;
+			order[count++] = ((sections[i].getPointerToRawData() & 0xFFFFFFFFL) << 32) | i;
+		}
+		order = Arrays.copyOf(order, count);
+		Arrays.sort(order);
+		long hashed = headers;
+		for(long value:order) {
+			IMAGE_SECTION_HEADER section = sections[(int) value];
+			long start = section.getPointerToRawData() & 0xFFFFFFFFL;
+			long end = start + (section.getSizeOfRawData() & 0xFFFFFFFFL);
+			if(end > size) return false;
+			update(md, data, (int) start, (int) end);
+			hashed = Math.max(hashed, end);
+		}
+
+		//Data behind the sections (e.g. overlays), without the certificate table
+		long table = security.getVirtualAddress() & 0xFFFFFFFFL;
+		long tableEnd = table + (security.getSize() & 0xFFFFFFFFL);
+		if(table == 0 || tableEnd > size || table < hashed) {
+			update(md, data, (int) hashed, size);
+		}else {
+			update(md, data, (int) hashed, (int) table);
+			update(md, data, (int) tableEnd, size);
+		}
+		return true;
+	}
+
+	/**
+	 * Feed a range of a buffer into a digest without copying it
+	 */
+	private static void update(MessageDigest md, ByteBuffer data, int from, int to) {
+		if(to <= from) return;
+		data.limit(to);
+		data.position(from);
+		md.update(data);
+	}
+
+	/**
+	 * A class representing the WIN_CERTIFICATE structure, the header of one attribute certificate
+	 */
+	public static class WIN_CERTIFICATE extends ReadableObject {
+
+		/** Legacy version of the structure */
+		public static final int WIN_CERT_REVISION_1_0 = 0x0100;
+		/** Current version of the structure */
+		public static final int WIN_CERT_REVISION_2_0 = 0x0200;
+
+		/** X.509 certificate (not supported by Windows) */
+		public static final int WIN_CERT_TYPE_X509             = 0x0001;
+		/** PKCS#7 SignedData structure (Authenticode signature) */
+		public static final int WIN_CERT_TYPE_PKCS_SIGNED_DATA = 0x0002;
+		/** Reserved */
+		public static final int WIN_CERT_TYPE_RESERVED_1       = 0x0003;
+		/** Terminal Server Protocol Stack Certificate signing */
+		public static final int WIN_CERT_TYPE_TS_STACK_SIGNED  = 0x0004;
+
+		/** The length of the structure including the certificate */
+		protected int dwLength;
+		/** The version of the structure */
+		protected int wRevision;
+		/** The type of the certificate */
+		protected int wCertificateType;
+		/** The certificate data */
+		protected int bCertificate;
+
+		/**
+		 * Create a WIN_CERTIFICATE structure at the given readers index
+		 * @param reader the reader to create this structure at
+		 * @throws Exception something went wrong
+		 */
+		public WIN_CERTIFICATE(ExecutableReader reader)
+				throws Exception {
+			super(reader);
+		}
+
+		@Override
+		public void read(ExecutableStream s) throws Exception {
+			dwLength = s.readAddrInt();
+			wRevision = s.readAddrShort();
+			wCertificateType = s.readAddrShort();
+			bCertificate = s.getIndex();
+		}
+
+		/**
+		 * Return the length of this structure including the certificate
+		 * @return the length in bytes
+		 */
+		public int getLength() {
+			try {
+				return reader.getStream().getInt(dwLength);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the version of this structure
+		 * @return the revision, see WIN_CERT_REVISION_* constants
+		 */
+		public int getRevision() {
+			try {
+				return reader.getStream().getShort(wRevision) & 0xFFFF;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the type of the certificate
+		 * @return the type, see WIN_CERT_TYPE_* constants
+		 */
+		public int getCertificateType() {
+			try {
+				return reader.getStream().getShort(wCertificateType) & 0xFFFF;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return 0;
+			}
+		}
+
+		/**
+		 * Return the file offset of the certificate data
+		 * @return the offset of the first byte after the header
+		 */
+		public int getCertificateOffset() {
+			return bCertificate;
+		}
+
+		/**
+		 * Return a read-only view of the certificate data (e.g. the DER encoded PKCS#7 SignedData) without copying it
+		 * @return the certificate, null if it exceeds the file
+		 */
+		public ByteBuffer getCertificate() {
+			try {
+				return reader.getStream().getView(bCertificate, getLength() - 8);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+}
@@ -15,8 +15,8 @@ public class DescriptorTLS extends ReadableObject{
 
 	/** The architecture dependent IMAGE_TLS_DIRECTORY structure of this abstraction */
 	protected IMAGE_TLS_DIRECTORY tls;
-	/** The parsed callbacks */
-	protected Address[] callbacks;
+	/** The parsed callbacks, 32bit callbacks are zero extended */
+	protected long[] callbacks;
 	
 	/**
 	 * Create a new Thread Local Storage Structure at the given index the reader is at
@@ -31,32 +31,63 @@ public class DescriptorTLS extends ReadableObject{
 	@Override
 	public void read(ExecutableStream s) throws Exception {
 		if(reader.is32bit()) {
-			tls = new IMAGE_TLS_DIRECTORY32(reader);
-			int addr = reader.addr2offset(tls.getAddressOfCallBacks());
+			IMAGE_TLS_DIRECTORY32 tls32 = new IMAGE_TLS_DIRECTORY32(reader);
+			tls = tls32;
+			int addr = reader.addr2offset(tls32.getAddressOfCallBacks32() & 0xFFFFFFFFL);
 			int offset = 0;
 			int size = 0;
 			for(offset=0;reader.getStream().getInt(addr+offset) != 0;offset+=4,size++);
-			callbacks = new Address[size];
+			callbacks = new long[size];
 			for(offset=0;offset < size*4;offset+=4)
-				callbacks[offset/4] = new Address(reader.getStream().getInt(addr+offset));
+				callbacks[offset/4] = reader.getStream().getInt(addr+offset) & 0xFFFFFFFFL;
 		} else {
-			tls = new IMAGE_TLS_DIRECTORY64(reader);
-			int addr = reader.addr2offset(tls.getAddressOfCallBacks());
+			IMAGE_TLS_DIRECTORY64 tls64 = new IMAGE_TLS_DIRECTORY64(reader);
+			tls = tls64;
+			int addr = reader.addr2offset(tls64.getAddressOfCallBacks64());
 			int offset = 0;
 			int size = 0;
 			for(offset=0;reader.getStream().getLong(addr+offset) != 0;offset+=8,size++);
-			callbacks = new Address[size];
+			callbacks = new long[size];
 			for(offset=0;offset < size*8;offset+=8)
-				callbacks[offset/8] = new Address(reader.getStream().getLong(addr+offset));
+				callbacks[offset/8] = reader.getStream().getLong(addr+offset);
 		}
 	}
 	
 	/**
 	 * Returns the callbacks noted in the TLS (addresses not RVAs or offsets)
+	 * <br>NOTE: Compatibility wrapper allocating a new array on every call, see {@link #getTLSCallback(int)}
 	 * @return the callbacks of the TLS directory
 	 */
 	public Address[] getTLSCallbacks() {
-		return callbacks;
+		Address[] addresses = new Address[callbacks.length];
+		for(int i=0;i<callbacks.length;i++)
+			addresses[i] = reader.is32bit() ? new Address((int) callbacks[i]) : new Address(callbacks[i]);
+		return addresses;
+	}
+	
+	/**
+	 * Return the amount of callbacks noted in the TLS
+	 * @return the amount of TLS callbacks
+	 */
+	public int getTLSCallbackCount() {
+		return callbacks.length;
+	}
+	
+	/**
+	 * Return a callback noted in the TLS (address not RVA or offset)
+	 * @param index the index of the callback
+	 * @return the address of the callback, zero extended for 32bit
+	 */
+	public long getTLSCallback(int index) {
+		return callbacks[index];
+	}
+	
+	/**
+	 * Return the callbacks noted in the TLS (addresses not RVAs or offsets)
+	 * @return a copy of the addresses of all callbacks, zero extended for 32bit
+	 */
+	public long[] getTLSCallbackAddresses() {
+		return callbacks.clone();
 	}
 	
 	/**
@@ -119,6 +150,12 @@ public class DescriptorTLS extends ReadableObject{
 		 */
 		public abstract void setEndAddressOfRawData(Address endAddressOfRawData);
 		
+		/**
+		 * Return the size of the raw TLS data (the distance between the start and end address)
+		 * @return the size of the raw TLS data
+		 */
+		public abstract long getSizeOfRawData();
+		
 		/**
 		 * Return the virtual address that will contain the TLS index written by the loader.
 		 * @return the address of the index
@@ -295,6 +332,11 @@ public class DescriptorTLS extends ReadableObject{
 			setEndAddressOfRawData32(endAddressOfRawData.getAddr32());
 		}
 		
+		@Override
+		public long getSizeOfRawData() {
+			return (getEndAddressOfRawData32() & 0xFFFFFFFFL) - (getStartAddressOfRawData32() & 0xFFFFFFFFL);
+		}
+		
 		/**
 		 * Return the raw 32bit address of the TLS index
 		 * @return the raw TLS index address
@@ -467,6 +509,11 @@ public class DescriptorTLS extends ReadableObject{
 			setEndAddressOfRawData64(endAddressOfRawData.getAddr64());
 		}
 		
+		@Override
+		public long getSizeOfRawData() {
+			return getEndAddressOfRawData64() - getStartAddressOfRawData64();
+		}
+		
 		/**
 		 * Return the raw 64bit address of the TLS index
 		 * @return the raw TLS index address
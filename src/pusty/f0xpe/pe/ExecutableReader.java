@@ -1,14 +1,19 @@
 package pusty.f0xpe.pe;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
 
 import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.StringPool;
 import pusty.f0xpe.location.Address;
+import pusty.f0xpe.location.SectionIndex;
 
 /** 
  *  Parser for 32bit PE Windows Executables
@@ -33,6 +38,11 @@ public class ExecutableReader  {
 	protected IMAGE_SECTION_HEADER[] peFileSections; //the section headers
 	
 	protected ExecutableStream exStr; //the stream of this reader
+	protected boolean headersOnly; //whether the directories are only parsed on first access
+	protected boolean strict; //whether broken headers and directories throw instead of being printed
+	protected volatile SectionIndex sectionIndex; //lookup table for the section headers, null if outdated
+	protected volatile StringPool stringPool; //pool of the DLL and import names, created on first use
+	protected volatile PEChecksum checksum; //block sums of the file for incremental checksum updates, created on first use
 	
 	/**
 	 * Create a new ExecutableReader by supplying an InputStream to read the 32bit PE File from
@@ -50,7 +60,33 @@ public class ExecutableReader  {
 	 * @throws Exception something went wrong
 	 */
 	public ExecutableReader(ExecutableStream stream) throws Exception {
+		this(stream, false);
+	}
+	
+	/**
+	 * Create a new ExecutableReader by supplying an already buffered ExecutableStream containing a 32bit PE File
+	 * <br>If only the headers are parsed the directories (imports, resources, TLS) are parsed on first access
+	 * @param stream the ExecutableStream with the binary inside
+	 * @param headersOnly whether to only parse the DOS, file, optional and section headers
+	 * @throws Exception something went wrong
+	 */
+	public ExecutableReader(ExecutableStream stream, boolean headersOnly) throws Exception {
+		this(stream, headersOnly, false);
+	}
+	
+	/**
+	 * Create a new ExecutableReader by supplying an already buffered ExecutableStream containing a 32bit PE File
+	 * <br>A strict reader throws on broken headers and on directories that fail to parse instead of printing them
+	 * <br>NOTE: Directories parsed on first access can't throw, check {@link IMAGE_OPTIONAL_HEADER32#getParseFailure()} after accessing them
+	 * @param stream the ExecutableStream with the binary inside
+	 * @param headersOnly whether to only parse the DOS, file, optional and section headers
+	 * @param strict whether to throw on broken headers and directories
+	 * @throws Exception something went wrong, for strict readers also the headers or directories are broken
+	 */
+	public ExecutableReader(ExecutableStream stream, boolean headersOnly, boolean strict) throws Exception {
 		exStr = stream;
+		this.headersOnly = headersOnly;
+		this.strict = strict;
 		read(stream);
 	}
 	
@@ -73,9 +109,14 @@ public class ExecutableReader  {
 	 * @throws Exception something went wrong when trying to write to the file
 	 */
 	public void save(File file) throws Exception {
-		FileOutputStream fos = new FileOutputStream(file);		
-		fos.write(getStream().getData());
-		fos.close();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			ByteBuffer data = getStream().getBuffer(); //avoids copying mapped streams onto the heap
+			while(data.hasRemaining())
+				fos.getChannel().write(data);
+		} finally {
+			fos.close();
+		}
 	}
 	
 	/**
@@ -92,11 +133,16 @@ public class ExecutableReader  {
 			signature = dosHeader.getE_magic();
 			getStream().setIndex(getStream().getIndex()+2); //MZ only reads short but int must be read
 		}else {
+			if(strict) throw new IOException("File isn't an executable");
 			System.err.println("[!] File isn't an executable."); return;
 		}
-		if(getSignature()!=0x4550){System.out.println("[!] Signature isn't PE00 format."); return;}
+		if(getSignature()!=0x4550){
+			if(strict) throw new IOException("Signature isn't PE00 format");
+			System.out.println("[!] Signature isn't PE00 format."); return;
+		}
 		peHeader = new IMAGE_FILE_HEADER(this); //parse the file header and check if this is a 32bit binary
 		if(peHeader.getMachine() != IMAGE_FILE_HEADER.IMAGE_FILE_MACHINE_I386) {
+			if(strict) throw new IOException("Isn't a 32bit executable");
 			System.err.println("[!] Isn't a 32bit executable");
 			return;
 		}
@@ -104,57 +150,329 @@ public class ExecutableReader  {
 		peFileSections = new IMAGE_SECTION_HEADER[peHeader.getNumberOfSections()];
 		for(int i=0;i<peFileSections.length;i++)
 			peFileSections[i]	= new IMAGE_SECTION_HEADER(this); //parse the sections
+		invalidateSectionIndex();
 		
-		peOptionalHeader.parseDirectories(); //parse the directories of this PE File
+		if(!headersOnly)
+			parseDirectories(); //parse the directories of this PE File
+	}
+	
+	/**
+	 * Parse the directories of the optional header, strict readers throw the first directory that failed
+	 * @throws IOException a directory of a strict reader failed to parse
+	 */
+	protected void parseDirectories() throws IOException {
+		peOptionalHeader.parseDirectories();
+		if(strict && peOptionalHeader.getParseFailure() != null)
+			throw peOptionalHeader.getParseFailure();
 	}
 	
 	
 	/**
 	 * Convert an absolute Address object to a offset within the binary relative to the Image Base
+	 * <br>NOTE: Compatibility wrapper around {@link #addr2offset(long)}
 	 * @param address the absolute address object to convert
 	 * @return the offset within the binary
 	 */
 	public int addr2offset(Address address) {
-		return rva2offset(new Address(address.getAddr32()-peOptionalHeader.getImageBase()));
+		return addr2offset(address.getAddr64());
 	}
 	
+	/**
+	 * Convert an absolute address to a offset within the binary relative to the Image Base
+	 * @param address the absolute address to convert
+	 * @return the offset within the binary
+	 */
+	public int addr2offset(long address) {
+		return rva2offset((int) address - peOptionalHeader.getImageBase());
+	}
 	
 	/**
 	 * Convert a relative virtual address to an offset within the binary.
+	 * <br>NOTE: Compatibility wrapper around {@link #rva2offset(int)}
 	 * @param address the RVA to convert
 	 * @return the offset within the binary
 	 */
 	public int rva2offset(Address address) {
-		int offset = -1;
-		for(IMAGE_SECTION_HEADER section:peFileSections) {
-			if(address.getAddr32() >= section.getVirtualAddress()
-			&& address.getAddr32() < section.getVirtualAddress() + section.getVirtualSize()) {
-				offset = address.getAddr32() - section.getVirtualAddress() + section.getPointerToRawData();
-				return offset;
-			}
-		}
-		if(address.getAddr32() < peOptionalHeader.getSizeOfHeaders())
-			return address.getAddr32();
-		return offset;
+		return rva2offset(address.getAddr32());
+	}
+	
+	/**
+	 * Convert a relative virtual address to an offset within the binary.
+	 * @param rva the RVA to convert (unsigned)
+	 * @return the offset within the binary, -1 if not within a section or the headers
+	 */
+	public int rva2offset(int rva) {
+		return rva2offset(rva & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Convert a relative virtual address to an offset within the binary.
+	 * @param rva the RVA to convert
+	 * @return the offset within the binary, -1 if not within a section or the headers
+	 */
+	public int rva2offset(long rva) {
+		int offset = getSectionIndex().rva2offset(rva);
+		if(offset != -1)
+			return offset;
+		if(rva >= 0 && rva < peOptionalHeader.getSizeOfHeaders())
+			return (int) rva;
+		return -1;
 	}
 	
 	/**
 	 * Convert a offset within the binary to a relative virtual address.
+	 * <br>NOTE: Compatibility wrapper around {@link #offset2rva32(int)}
 	 * @param offset the offset within the binary
-	 * @return the calculated RVA
+	 * @return the calculated RVA, null if not within a section or the headers
 	 */
 	public Address offset2rva(int offset) {
+		long rva = offset2rva32(offset) & 0xFFFFFFFFL;
+		if(rva == 0xFFFFFFFFL)
+			return null;
+		return new Address((int) rva);
+	}
+	
+	/**
+	 * Convert a offset within the binary to a relative virtual address.
+	 * @param offset the offset within the binary
+	 * @return the calculated RVA, -1 if not within a section or the headers
+	 */
+	public int offset2rva32(int offset) {
+		long rva = getSectionIndex().offset2rva(offset);
+		if(rva != -1)
+			return (int) rva;
+		if(offset >= 0 && offset < peOptionalHeader.getSizeOfHeaders())
+			return offset;
+		return -1;
+	}
+	
+	/**
+	 * Return a read-only view of a range of the image by its RVA without copying it
+	 * <br>NOTE: The whole range has to be within the raw data of one section or the headers, memory that is only zero
+	 * filled when loaded can't be viewed
+	 * @param rva the RVA of the first byte of the range
+	 * @param length the amount of bytes in the range
+	 * @return a buffer sharing its content with the stream of this reader (see ExecutableStream.getView)
+	 * @throws IOException the range isn't stored contiguously in the file
+	 */
+	public ByteBuffer getRVAView(long rva, int length) throws IOException {
+		int offset = getSectionIndex().rva2offset(rva, length);
+		if(offset == -1 && rva >= 0 && length >= 0 && rva + length <= peOptionalHeader.getSizeOfHeaders())
+			offset = (int) rva;
+		if(offset == -1) throw new EOFException();
+		return exStr.getView(offset, length);
+	}
+	
+	/**
+	 * Return the lookup table of the section headers used for translating addresses, rebuilding it if outdated
+	 * @return the current lookup table
+	 */
+	public SectionIndex getSectionIndex() {
+		SectionIndex index = sectionIndex;
+		if(index == null) {
+			index = new SectionIndex(peFileSections);
+			sectionIndex = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Mark the lookup table of the section headers as outdated, called whenever the section table changes
+	 */
+	public void invalidateSectionIndex() {
+		sectionIndex = null;
+	}
+	
+	/**
+	 * Parse the section table again, e.g. after the amount of sections in the file header changed
+	 * <br>The headers before the section table are kept, the directories are not parsed again
+	 * @throws Exception something went wrong
+	 */
+	public void readSectionHeaders() throws Exception {
+		int temp = exStr.getIndex();
+		try {
+			exStr.setIndex(peOptionalHeader.offset() + peHeader.getSizeOfOptionalHeader());
+			IMAGE_SECTION_HEADER[] sections = new IMAGE_SECTION_HEADER[peHeader.getNumberOfSections() & 0xFFFF];
+			for(int i=0;i<sections.length;i++)
+				sections[i] = new IMAGE_SECTION_HEADER(this);
+			peFileSections = sections;
+			invalidateSectionIndex();
+		} finally {
+			exStr.setIndex(temp);
+		}
+	}
+	
+	/**
+	 * Insert a range of zero bytes into the file and keep the parsed headers valid
+	 * <br>The raw data of all sections behind the offset and the security directory move up by the length, a section
+	 * containing the offset grows by the length
+	 * <br>The data is moved in place, inserting multiple times doesn't copy the whole file every time (see
+	 * ExecutableStream.insert)
+	 * <br>NOTE: If the data of a section moved the directories are parsed again on next access
+	 * @param offset the offset to insert the bytes at, not within the headers
+	 * @param length the amount of bytes to insert
+	 * @throws IOException the offset is within the headers or out of bounds
+	 */
+	public void insert(int offset, int length) throws IOException {
+		if(offset < peOptionalHeader.getSizeOfHeaders()) throw new IOException("Can't insert into the headers");
+		exStr.insert(offset, length);
+		shift(offset, length);
+	}
+	
+	/**
+	 * Remove a range of bytes from the file and keep the parsed headers valid
+	 * <br>The raw data of all sections behind the range and the security directory move down by the length, a section
+	 * containing the range shrinks by the length
+	 * <br>NOTE: If the data of a section moved the directories are parsed again on next access
+	 * @param offset the offset of the first byte to remove, not within the headers
+	 * @param length the amount of bytes to remove
+	 * @throws IOException the range is within the headers, out of bounds or only partly overlaps a section
+	 */
+	public void remove(int offset, int length) throws IOException {
+		if(offset < peOptionalHeader.getSizeOfHeaders()) throw new IOException("Can't remove from the headers");
 		for(IMAGE_SECTION_HEADER section:peFileSections) {
-			if(section.getPointerToRawData() != 0 && offset >= section.getPointerToRawData()
-			&& offset < section.getPointerToRawData() + section.getSizeOfRawData()) {
-				return new Address(offset - section.getPointerToRawData() + section.getVirtualAddress());
+			int start = section.getPointerToRawData();
+			int end = start + section.getSizeOfRawData();
+			if(start == end) continue;
+			boolean inside = offset >= start && offset + length <= end;
+			boolean before = offset + length <= start;
+			boolean after = offset >= end;
+			if(!inside && !before && !after)
+				throw new IOException("Range only partly overlaps section "+section.getName().trim());
+		}
+		exStr.remove(offset, length);
+		shift(offset, -length);
+	}
+	
+	/**
+	 * Adjust the file offsets within the headers after bytes were inserted or removed
+	 * @param offset the offset the bytes were inserted or removed at
+	 * @param delta the amount of bytes inserted, negative if removed
+	 */
+	private void shift(int offset, int delta) {
+		boolean moved = false;
+		for(IMAGE_SECTION_HEADER section:peFileSections) {
+			if(section.getPointerToRelocations() != 0 && section.getPointerToRelocations() >= offset)
+				section.setPointerToRelocations(section.getPointerToRelocations() + delta);
+			if(section.getPointerToLinenumbers() != 0 && section.getPointerToLinenumbers() >= offset)
+				section.setPointerToLinenumbers(section.getPointerToLinenumbers() + delta);
+			int start = section.getPointerToRawData();
+			int size = section.getSizeOfRawData();
+			if(size == 0) continue;
+			if(start >= offset + Math.max(-delta, 0)) { //behind the inserted or removed range
+				section.setPointerToRawData(start + delta);
+				moved = true;
+			}else if(offset >= start && offset < start + size && (delta < 0 || offset > start)) { //containing the range
+				section.setSizeOfRawData(size + delta);
+				moved = true;
 			}
 		}
-		if(offset < peOptionalHeader.getSizeOfHeaders())
-			return new Address(offset);
-		return null;
+		IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY security = peOptionalHeader.getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_SECURITY];
+		if(security.getVirtualAddress() != 0 && security.getVirtualAddress() >= offset) { //the only directory using a file offset
+			security.setVirtualAddresss(security.getVirtualAddress() + delta);
+			moved = true;
+		}
+		if(peHeader.getPointerToSymbolTable() != 0 && peHeader.getPointerToSymbolTable() >= offset)
+			peHeader.setPointerToSymbolTable(peHeader.getPointerToSymbolTable() + delta);
+		invalidateSectionIndex();
+		shiftDebugDirectory(offset, delta);
+		if(moved)
+			peOptionalHeader.invalidateDirectories();
 	}
 	
+	/**
+	 * Adjust the file offsets of the raw data of all IMAGE_DEBUG_DIRECTORY entries after bytes were inserted or removed
+	 * @param offset the offset the bytes were inserted or removed at
+	 * @param delta the amount of bytes inserted, negative if removed
+	 */
+	private void shiftDebugDirectory(int offset, int delta) {
+		IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY debug = peOptionalHeader.getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_DEBUG];
+		if(debug.getVirtualAddress() == 0) return;
+		int position = rva2offset(debug.getVirtualAddress());
+		if(position == -1) return;
+		try {
+			//IMAGE_DEBUG_DIRECTORY entries are 28 bytes long with the file offset of their data at the end
+			for(int entry=position;entry+28<=position+debug.getSize();entry+=28) {
+				int pointer = exStr.getInt(entry+24);
+				if(pointer != 0 && pointer >= offset)
+					exStr.setInt(entry+24, pointer + delta);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Return the pool the DLL and import names of this reader are interned in, creating a pool of its own on first use
+	 * @return the string pool of this reader
+	 */
+	public StringPool getStringPool() {
+		StringPool pool = stringPool;
+		if(pool == null) {
+			synchronized(this) {
+				if(stringPool == null)
+					stringPool = new StringPool();
+				pool = stringPool;
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * Return the checksum of this reader, creating it on first use
+	 * <br>From then on the modifications of the stream are tracked so later updates only sum up the changed blocks
+	 * @return the incremental checksum of this reader
+	 */
+	public PEChecksum getChecksum() {
+		PEChecksum sum = checksum;
+		if(sum == null) {
+			synchronized(this) {
+				if(checksum == null)
+					checksum = new PEChecksum(this);
+				sum = checksum;
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Profile the raw data of every section in parallel: digests, byte histogram, entropy and optionally the entropy of
+	 * windows within the section, all collected in a single pass over each section (see SectionProfile)
+	 * @param algorithms the names of the digest algorithms to compute, e.g. "MD5" and "SHA-256", may be empty
+	 * @param window the size of the windows to compute the entropy of, 0 for none
+	 * @return the profile of every section in the order of the section headers, null if an algorithm isn't available
+	 */
+	public SectionProfile[] profileSections(String[] algorithms, int window) {
+		try {
+			return SectionProfile.profile(this, algorithms, window);
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Set the pool the DLL and import names of this reader are interned in, e.g. StringPool.GLOBAL to share names
+	 * between readers
+	 * <br>NOTE: Names that were already parsed stay in the previous pool
+	 * @param pool the new string pool
+	 */
+	public void setStringPool(StringPool pool) {
+		stringPool = pool;
+	}
+	
+	/**
+	 * Return whether this reader only parsed the headers and parses the directories on first access
+	 * @return if the directories are parsed lazily
+	 */
+	public boolean isHeadersOnly() { return headersOnly; }
+	
+	/**
+	 * Return whether this reader throws on broken headers and directories instead of printing them
+	 * @return if this reader is strict
+	 */
+	public boolean isStrict() { return strict; }
+	
 	/**
 	 * Return the IMAGE_DOS_HEADER of the PE File represented by this ExecutableReader.
 	 * @return the DOS/MZ Header of this reader
@@ -252,17 +570,33 @@ public class ExecutableReader  {
 	 * Returns a dummy address fitting the architecture of the reader
 	 * <br> Currently Supported Dummy Addresses:
 	 * <br> "A", "B", "C", "D", "E", "F"
+	 * <br>NOTE: Compatibility wrapper around {@link #getDummyValue(String)}
 	 * 
 	 * @return a fitting dummy address meant for dynamic replacement of values
 	 */
 	public Address getDummyAddress(String name) {
-		     if(name.equalsIgnoreCase("A")) return new Address(0xAAAAAAAA);
-		else if(name.equalsIgnoreCase("B")) return new Address(0xBBBBBBBB);
-		else if(name.equalsIgnoreCase("C")) return new Address(0xCCCCCCCC);
-		else if(name.equalsIgnoreCase("D")) return new Address(0xDDDDDDDD);
-		else if(name.equalsIgnoreCase("E")) return new Address(0xEEEEEEEE);
-		else if(name.equalsIgnoreCase("F")) return new Address(0xFFFFFFFF);
-		return new Address(0);
+		long value = getDummyValue(name);
+		if(is32bit())
+			return new Address((int) value);
+		return new Address(value);
+	}
+	
+	/**
+	 * Returns a dummy value fitting the architecture of the reader
+	 * <br> Currently Supported Dummy Addresses:
+	 * <br> "A", "B", "C", "D", "E", "F"
+	 * <br>NOTE: For 32bit readers the value is zero extended, use the lower 32bits of it
+	 * 
+	 * @return a fitting dummy value meant for dynamic replacement of values
+	 */
+	public long getDummyValue(String name) {
+		     if(name.equalsIgnoreCase("A")) return 0xAAAAAAAAL;
+		else if(name.equalsIgnoreCase("B")) return 0xBBBBBBBBL;
+		else if(name.equalsIgnoreCase("C")) return 0xCCCCCCCCL;
+		else if(name.equalsIgnoreCase("D")) return 0xDDDDDDDDL;
+		else if(name.equalsIgnoreCase("E")) return 0xEEEEEEEEL;
+		else if(name.equalsIgnoreCase("F")) return 0xFFFFFFFFL;
+		return 0;
 	}
 	
 	/**
@@ -306,6 +640,7 @@ public class ExecutableReader  {
 	
 	/**
 	 * Reload a generic ExecutableReader
+	 * <br>The reloaded reader parses the same way (headers only, strict) as the original one
 	 * @param in the 32bit or 64bit ExecutableReader to reload
 	 * @return the reloaded executable reader
 	 * @throws Exception something went wrong
@@ -314,9 +649,9 @@ public class ExecutableReader  {
 		ByteArrayInputStream bis = new ByteArrayInputStream(in.getStream().getData());
 		ExecutableReader reader = null;
 		if(in.is32bit())
-			reader = new ExecutableReader(bis);
+			reader = new ExecutableReader(new ExecutableStream(bis), in.isHeadersOnly(), in.isStrict());
 		else
-			reader = new ExecutableReader64(bis);
+			reader = new ExecutableReader64(new ExecutableStream(bis), in.isHeadersOnly(), in.isStrict());
 		bis.close();
 		return reader;
 	}
@@ -329,10 +664,8 @@ public class ExecutableReader  {
 	 * @throws Exception something went wrong
 	 */
 	public static int identify(File file) throws Exception {
-		FileInputStream fis = new FileInputStream(file);
-		int result = identify(new ExecutableStream(fis));
-		fis.close();
-		return result;
+		//only the headers are read, so mapping is cheaper than buffering the whole file
+		return identify(ExecutableStream.fromFile(file, ExecutableStream.LOAD_MAPPED_READ_ONLY));
 	}
 	
 	/**
@@ -372,10 +705,31 @@ public class ExecutableReader  {
 	 * @throws Exception something went wrong
 	 */
 	public static ExecutableReader create(File file) throws Exception {
-		FileInputStream fis = new FileInputStream(file);
-		ExecutableReader reader = create(new ExecutableStream(fis));
-		fis.close();
-		return reader;
+		return create(file, ExecutableStream.LOAD_BUFFERED);
+	}
+	
+	/**
+	 * Create a generic ExecutableReader based on a file that is either buffered or memory mapped
+	 * <br>NOTE: Read-only mapped readers can't be modified, use copy-on-write to modify them without touching the file
+	 * @param file the file to turn into an ExecutableReader
+	 * @param mode how to load the file, see ExecutableStream.LOAD_* constants for further information
+	 * @return either a 32bit ExecutableReader or a 64bit ExecutableReader or null
+	 * @throws Exception something went wrong
+	 */
+	public static ExecutableReader create(File file, int mode) throws Exception {
+		return create(ExecutableStream.fromFile(file, mode));
+	}
+	
+	/**
+	 * Create a generic ExecutableReader based on a file that is either buffered or memory mapped
+	 * @param file the file to turn into an ExecutableReader
+	 * @param mode how to load the file, see ExecutableStream.LOAD_* constants for further information
+	 * @param headersOnly whether to only parse the headers and parse the directories on first access
+	 * @return either a 32bit ExecutableReader or a 64bit ExecutableReader or null
+	 * @throws Exception something went wrong
+	 */
+	public static ExecutableReader create(File file, int mode, boolean headersOnly) throws Exception {
+		return create(ExecutableStream.fromFile(file, mode), headersOnly);
 	}
 	
 	/**
@@ -385,16 +739,41 @@ public class ExecutableReader  {
 	 * @throws Exception something went wrong
 	 */
 	public static ExecutableReader create(ExecutableStream str) throws Exception {
+		return create(str, false);
+	}
+	
+	/**
+	 * Create a generic ExecutableReader based on an ExecutableStream
+	 * @param str the ExecutableStream to turn into an ExecutableReader
+	 * @param headersOnly whether to only parse the headers and parse the directories on first access
+	 * @return either a 32bit ExecutableReader or a 64bit ExecutableReader or null
+	 * @throws Exception something went wrong
+	 */
+	public static ExecutableReader create(ExecutableStream str, boolean headersOnly) throws Exception {
+		return create(str, headersOnly, false);
+	}
+	
+	/**
+	 * Create a generic ExecutableReader based on an ExecutableStream
+	 * <br>A strict reader throws on broken headers and on directories that fail to parse instead of printing them
+	 * @param str the ExecutableStream to turn into an ExecutableReader
+	 * @param headersOnly whether to only parse the headers and parse the directories on first access
+	 * @param strict whether to throw on unsupported architectures, broken headers and directories
+	 * @return either a 32bit ExecutableReader or a 64bit ExecutableReader, null if not strict and the architecture isn't supported
+	 * @throws Exception something went wrong
+	 */
+	public static ExecutableReader create(ExecutableStream str, boolean headersOnly, boolean strict) throws Exception {
 		int identify = identify(str);
 		ExecutableReader reader = null;
 		switch(identify) {
 			case TYPEID_PE_x86:
-				reader = new ExecutableReader(str);
+				reader = new ExecutableReader(str, headersOnly, strict);
 			break;
 			case TYPEID_PE_x64:
-				reader = new ExecutableReader64(str);
+				reader = new ExecutableReader64(str, headersOnly, strict);
 			break;
 			default:
+				if(strict) throw new IOException("Arch not supported (Error: "+identify+")");
 				System.out.println("[!] Arch not supported (Error: "+identify+")");
 		}
 		return reader;
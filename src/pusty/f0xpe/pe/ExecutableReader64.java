@@ -2,6 +2,7 @@ package pusty.f0xpe.pe;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import pusty.f0xpe.ExecutableStream;
@@ -31,6 +32,29 @@ public class ExecutableReader64 extends ExecutableReader {
 		super(stream);
 	}
 	
+	/**
+	 * Create a new ExecutableReader by supplying an already buffered ExecutableStream containing a 64bit PE File
+	 * <br>If only the headers are parsed the directories (imports, resources, TLS) are parsed on first access
+	 * @param stream the ExecutableStream with the binary inside
+	 * @param headersOnly whether to only parse the DOS, file, optional and section headers
+	 * @throws Exception something went wrong
+	 */
+	public ExecutableReader64(ExecutableStream stream, boolean headersOnly) throws Exception {
+		super(stream, headersOnly);
+	}
+	
+	/**
+	 * Create a new ExecutableReader by supplying an already buffered ExecutableStream containing a 64bit PE File
+	 * <br>A strict reader throws on broken headers and on directories that fail to parse instead of printing them
+	 * @param stream the ExecutableStream with the binary inside
+	 * @param headersOnly whether to only parse the DOS, file, optional and section headers
+	 * @param strict whether to throw on broken headers and directories
+	 * @throws Exception something went wrong, for strict readers also the headers or directories are broken
+	 */
+	public ExecutableReader64(ExecutableStream stream, boolean headersOnly, boolean strict) throws Exception {
+		super(stream, headersOnly, strict);
+	}
+	
 	@Override
 	public ExecutableStream getStream() {
 		return exStr;
@@ -50,11 +74,16 @@ public class ExecutableReader64 extends ExecutableReader {
 			signature = dosHeader.getE_magic();
 			getStream().setIndex(getStream().getIndex()+2); //MZ only reads short but int must be read
 		}else {
+			if(strict) throw new IOException("File isn't an executable");
 			System.out.println("[!] File isn't an executable."); return;
 		}
-		if(getSignature()!=0x4550){System.out.println("[!] Signature isn't PE00 format."); return;}
+		if(getSignature()!=0x4550){
+			if(strict) throw new IOException("Signature isn't PE00 format");
+			System.out.println("[!] Signature isn't PE00 format."); return;
+		}
 		peHeader = new IMAGE_FILE_HEADER(this); //parse the file header and check if this is a 64bit binary
 		if(peHeader.getMachine() != IMAGE_FILE_HEADER.IMAGE_FILE_MACHINE_AMD64) {
+			if(strict) throw new IOException("Isn't a 64bit executable");
 			System.out.println("[!] Isn't a 64bit executable");
 			return;
 		}
@@ -62,46 +91,22 @@ public class ExecutableReader64 extends ExecutableReader {
 		peFileSections = new IMAGE_SECTION_HEADER[peHeader.getNumberOfSections()];
 		for(int i=0;i<peFileSections.length;i++)
 			peFileSections[i]	= new IMAGE_SECTION_HEADER(this); //parse the sections
+		invalidateSectionIndex();
 
-		
-		peOptionalHeader.parseDirectories(); //parse the directories of this PE File
+		if(!headersOnly)
+			parseDirectories(); //parse the directories of this PE File
 	}
 	
 	@Override
-	public int addr2offset(Address address) {
-		return rva2offset(new Address(address.getAddr64()-((IMAGE_OPTIONAL_HEADER64)peOptionalHeader).getImageBase64()));
+	public int addr2offset(long address) {
+		return rva2offset(address-((IMAGE_OPTIONAL_HEADER64)peOptionalHeader).getImageBase64());
 	}
 	
 	@Override
 	public int rva2offset(Address address) {
-		int offset = -1;
-		for(IMAGE_SECTION_HEADER section:peFileSections) {
-			if(address.getAddr64() >= section.getVirtualAddress()
-			&& address.getAddr64() < section.getVirtualAddress() + section.getVirtualSize()) {
-				offset = (int) (address.getAddr64() - section.getVirtualAddress() + section.getPointerToRawData());
-				return offset;
-			}
-		}
-		if(address.getAddr64() < peOptionalHeader.getSizeOfHeaders())
-			return (int) address.getAddr64();
-		return offset;
+		return rva2offset(address.getAddr64());
 	}
 	
-	@Override
-	public Address offset2rva(int offset) {
-		for(IMAGE_SECTION_HEADER section:peFileSections) {
-			if(section.getPointerToRawData() != 0 && offset >= section.getPointerToRawData()
-			&& offset < section.getPointerToRawData() + section.getSizeOfRawData()) {
-				return new Address(offset - section.getPointerToRawData() + section.getVirtualAddress());
-			}
-		}
-		if(offset < peOptionalHeader.getSizeOfHeaders())
-			return new Address(offset);
-		System.out.println(Integer.toHexString(offset));
-		return null;
-	}
-	
-	
 	@Override
 	public IMAGE_OPTIONAL_HEADER32 getOptionalHeader32() { return null; }
 	@Override
@@ -117,14 +122,14 @@ public class ExecutableReader64 extends ExecutableReader {
 	}
 	
 	@Override
-	public Address getDummyAddress(String name) {
-		     if(name.equalsIgnoreCase("A")) return new Address(0xAAAAAAAAAAAAAAAAL);
-		else if(name.equalsIgnoreCase("B")) return new Address(0xBBBBBBBBBBBBBBBBL);
-		else if(name.equalsIgnoreCase("C")) return new Address(0xCCCCCCCCCCCCCCCCL);
-		else if(name.equalsIgnoreCase("D")) return new Address(0xDDDDDDDDDDDDDDDDL);
-		else if(name.equalsIgnoreCase("E")) return new Address(0xEEEEEEEEEEEEEEEEL);
-		else if(name.equalsIgnoreCase("F")) return new Address(0xFFFFFFFFFFFFFFFFL);
-		return new Address(0);
+	public long getDummyValue(String name) {
+		     if(name.equalsIgnoreCase("A")) return 0xAAAAAAAAAAAAAAAAL;
+		else if(name.equalsIgnoreCase("B")) return 0xBBBBBBBBBBBBBBBBL;
+		else if(name.equalsIgnoreCase("C")) return 0xCCCCCCCCCCCCCCCCL;
+		else if(name.equalsIgnoreCase("D")) return 0xDDDDDDDDDDDDDDDDL;
+		else if(name.equalsIgnoreCase("E")) return 0xEEEEEEEEEEEEEEEEL;
+		else if(name.equalsIgnoreCase("F")) return 0xFFFFFFFFFFFFFFFFL;
+		return 0;
 	}
 	
 	/**
@@ -0,0 +1,281 @@
+package pusty.f0xpe.pe;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pusty.f0xpe.ExecutableStream;
+
+/**
+ * Parses many PE Files in parallel and hands every parsed ExecutableReader to a consumer.
+ * <br>Files that don't match the PE signature are skipped before being parsed, files that fail to parse are
+ * reported to the consumer without stopping the scan.
+ * <br>The files are parsed by strict readers, so broken headers and directories fail the file instead of being printed,
+ * see {@link ExecutableReader#isStrict()}
+ * <br>NOTE: When only the headers are parsed the directories can still fail on first access within the consumer,
+ * see {@link IMAGE_OPTIONAL_HEADER32#getParseFailure()}
+ */
+public class ExecutableScanner {
+
+	/**
+	 * Receives the results of a scan
+	 * <br>NOTE: The functions are called from the worker threads of the scanner and have to be thread safe
+	 */
+	public static interface ScanConsumer {
+
+		/**
+		 * Called for every file that was parsed successfully
+		 * @param file the parsed file
+		 * @param reader the reader containing the parsed file
+		 * @throws Exception something went wrong, the file will be reported as failed
+		 */
+		public void accept(File file, ExecutableReader reader) throws Exception;
+
+		/**
+		 * Called for every file that matched the PE signature but couldn't be parsed or consumed
+		 * @param file the file that failed
+		 * @param e the reason
+		 */
+		public void failed(File file, Exception e);
+	}
+
+	/** The amount of worker threads */
+	protected final int threads;
+	/** The maximum amount of files being parsed or consumed at once, scanning waits until files are finished */
+	protected final int maxPending;
+	/** How the files are loaded, see ExecutableStream.LOAD_* constants */
+	protected final int mode;
+	/** Whether only the headers are parsed, see {@link ExecutableReader#isHeadersOnly()} */
+	protected final boolean headersOnly;
+
+	/** The amount of files parsed and consumed */
+	protected final AtomicLong parsed = new AtomicLong();
+	/** The amount of files skipped by the signature check or for being too small to hold the signature */
+	protected final AtomicLong skipped = new AtomicLong();
+	/** The amount of files that failed */
+	protected final AtomicLong failed = new AtomicLong();
+	/** The amount of bytes of all parsed and consumed files */
+	protected final AtomicLong bytes = new AtomicLong();
+	/** The time spent scanning in nanoseconds */
+	protected final AtomicLong time = new AtomicLong();
+
+	/**
+	 * Create a new scanner
+	 * @param threads the amount of worker threads
+	 * @param maxPending the maximum amount of files that are parsed or waiting to be consumed at once
+	 * @param mode how the files are loaded, see ExecutableStream.LOAD_* constants for further information
+	 * @param headersOnly whether to only parse the headers and parse the directories on first access
+	 */
+	public ExecutableScanner(int threads, int maxPending, int mode, boolean headersOnly) {
+		this.threads = Math.max(threads, 1);
+		this.maxPending = Math.max(maxPending, this.threads);
+		this.mode = mode;
+		this.headersOnly = headersOnly;
+	}
+
+	/**
+	 * Create a new scanner using all processors, mapping the files read-only and parsing them fully
+	 */
+	public ExecutableScanner() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors()*4, ExecutableStream.LOAD_MAPPED_READ_ONLY, false);
+	}
+
+	/**
+	 * Scan a file or all files within a directory
+	 * <br>Links to directories are followed, every directory is only scanned once so link cycles don't loop
+	 * @param file the file or directory to scan
+	 * @param recursive whether to also scan sub directories
+	 * @param consumer the consumer receiving the results
+	 * @throws InterruptedException the scan was interrupted while waiting for files to finish
+	 */
+	public void scan(File file, boolean recursive, ScanConsumer consumer) throws InterruptedException {
+		if(!file.isDirectory()) {
+			scan(Arrays.asList(file), consumer);
+			return;
+		}
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore pending = new Semaphore(maxPending);
+		try {
+			ArrayDeque<File> directories = new ArrayDeque<File>();
+			HashSet<String> visited = new HashSet<String>(); //canonical paths, links resolved
+			directories.push(file);
+			while(!directories.isEmpty()) {
+				File directory = directories.pop();
+				try {
+					if(!visited.add(directory.getCanonicalPath())) continue;
+				} catch (IOException e) {
+					e.printStackTrace();
+					continue;
+				}
+				File[] content = directory.listFiles();
+				if(content == null) continue;
+				for(File f:content) {
+					if(f.isDirectory()) {
+						if(recursive) directories.push(f);
+					}else
+						submit(pool, pending, f, consumer);
+				}
+			}
+			pending.acquire(maxPending); //wait for all files to finish
+			pending.release(maxPending);
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			time.addAndGet(System.nanoTime()-start);
+		}
+	}
+
+	/**
+	 * Scan a list of files
+	 * @param files the files to scan
+	 * @param consumer the consumer receiving the results
+	 * @throws InterruptedException the scan was interrupted while waiting for files to finish
+	 */
+	public void scan(Collection<File> files, ScanConsumer consumer) throws InterruptedException {
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore pending = new Semaphore(maxPending);
+		try {
+			for(File f:files)
+				submit(pool, pending, f, consumer);
+			pending.acquire(maxPending); //wait for all files to finish
+			pending.release(maxPending);
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			time.addAndGet(System.nanoTime()-start);
+		}
+	}
+
+	/**
+	 * Wait for a free slot and hand a file to the workers
+	 * @param pool the workers
+	 * @param pending the free slots
+	 * @param file the file to parse
+	 * @param consumer the consumer receiving the result
+	 * @throws InterruptedException interrupted while waiting for a free slot
+	 */
+	private void submit(ForkJoinPool pool, final Semaphore pending, final File file, final ScanConsumer consumer) throws InterruptedException {
+		pending.acquire();
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					parse(file, consumer);
+				} finally {
+					pending.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Check the signature of a file, parse it and hand it to the consumer
+	 * @param file the file to parse
+	 * @param consumer the consumer receiving the result
+	 */
+	protected void parse(File file, ScanConsumer consumer) {
+		ExecutableStream stream = null;
+		try {
+			int identify;
+			if(mode == ExecutableStream.LOAD_BUFFERED) {
+				identify = ExecutableReader.identify(file); //maps the file, so nothing is buffered for non PE files
+			}else {
+				stream = ExecutableStream.fromFile(file, mode);
+				identify = ExecutableReader.identify(stream);
+			}
+			if(identify != ExecutableReader.TYPEID_PE_x86 && identify != ExecutableReader.TYPEID_PE_x64) {
+				skipped.incrementAndGet();
+				return;
+			}
+		}catch(EOFException e) { //too small to contain the signature, not a PE File worth parsing
+			skipped.incrementAndGet();
+			return;
+		}catch(Exception e) { //unreadable file
+			failed.incrementAndGet();
+			consumer.failed(file, e);
+			return;
+		}
+		try {
+			if(stream == null)
+				stream = ExecutableStream.fromFile(file, mode);
+			ExecutableReader reader = ExecutableReader.create(stream, headersOnly, true);
+			consumer.accept(file, reader);
+			bytes.addAndGet(stream.getSize());
+			parsed.incrementAndGet();
+		}catch(Exception e) {
+			failed.incrementAndGet();
+			consumer.failed(file, e);
+		}
+	}
+
+	/**
+	 * Return the amount of files parsed and consumed successfully
+	 * @return the amount of parsed files
+	 */
+	public long getParsed() {
+		return parsed.get();
+	}
+
+	/**
+	 * Return the amount of files that didn't match the PE signature
+	 * @return the amount of skipped files
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * Return the amount of files that failed to parse or to be consumed
+	 * @return the amount of failed files
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Return the amount of bytes of all parsed and consumed files
+	 * @return the size of all parsed files combined
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Return the time spent scanning
+	 * @return the time spent in all scans in milliseconds
+	 */
+	public long getTime() {
+		return TimeUnit.NANOSECONDS.toMillis(time.get());
+	}
+
+	/**
+	 * Return the throughput of all scans
+	 * @return the amount of files (parsed, skipped and failed) per second
+	 */
+	public double getFilesPerSecond() {
+		long nanos = time.get();
+		if(nanos == 0) return 0;
+		return (getParsed()+getSkipped()+getFailed()) * 1e9 / nanos;
+	}
+
+	/**
+	 * Reset all counters
+	 */
+	public void resetCounters() {
+		parsed.set(0);
+		skipped.set(0);
+		failed.set(0);
+		bytes.set(0);
+		time.set(0);
+	}
+}
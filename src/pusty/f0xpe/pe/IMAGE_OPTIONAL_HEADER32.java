@@ -4,7 +4,6 @@ import java.io.IOException;
 
 import pusty.f0xpe.ExecutableStream;
 import pusty.f0xpe.ReadableObject;
-import pusty.f0xpe.location.Address;
 import pusty.f0xpe.pe.ExecutableReader;
 import pusty.f0xpe.pe.DescriptorImport.IMAGE_IMPORT_DESCRIPTOR;
 import pusty.f0xpe.pe.DescriptorImport.IMAGE_THUNK_DATA;
@@ -131,6 +130,10 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 	protected IMAGE_DATA_DIRECTORY DataDirectory[];
 	/** An array containing the objects trying to abstract the directories. */
 	protected Object       DirectoryEntries[];
+	/** A bitmask marking which of the abstract directory objects have already been parsed (bit n = directory n). */
+	protected volatile int DirectoryParsed;
+	/** The first directory that failed to parse in a strict reader, see {@link ExecutableReader#isStrict()} */
+	protected volatile IOException parseFailure;
 	
 	
     /**
@@ -181,12 +184,38 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 			DataDirectory[i] = new IMAGE_DATA_DIRECTORY(reader);
 	}
 	
+	/**
+	 * Dump the Export Table to stdout
+	 */
+	public void printExportTable() {
+		//Exit if no export table is found
+		if(getExportDescriptor() == null) {
+			System.out.println("[*] No Export Table Entry found");
+			return;
+		}
+		System.out.println("[*] Dumping Exports:");
+		DescriptorExport exports = getExportDescriptor();
+		try {
+			System.out.println(exports.getDLLName()+":");
+			for(int i=0;i<exports.getNumberOfNames();i++) {
+				int ordinal = exports.getNameOrdinal(i);
+				String forwarder = exports.getForwarder(ordinal);
+				if(forwarder != null)
+					System.out.println("   "+ordinal+": "+exports.getName(i)+" -> "+forwarder);
+				else
+					System.out.println("   "+ordinal+": "+exports.getName(i)+" at 0x"+Integer.toHexString(exports.getFunctionRVA(ordinal)));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * Dump the Import Table (not the Hint Table) to stdout
 	 */
 	public void printImportTable() {
 		//Exit if no import table is found
-		if(DirectoryEntries[IMAGE_DIRECTORY_ENTRY_IMPORT] == null) {
+		if(getImportDescriptor() == null) {
 			System.out.println("[*] No Import Table Entry found");
 			return;
 		}
@@ -215,7 +244,7 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 	 */
 	public void printResourceTable() {
 		//Exit if no resource table is found
-		if(DirectoryEntries[IMAGE_DIRECTORY_ENTRY_RESOURCE] == null) {
+		if(getResourceDescriptor() == null) {
 			System.out.println("[*] No Resource Table Entry found");
 			return;
 		}
@@ -246,21 +275,18 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 	 */
 	public void printTLS() {
 		//Exit if no import table is found
-		if(DirectoryEntries[IMAGE_DIRECTORY_ENTRY_TLS] == null) {
+		if(getTLSDescriptor() == null) {
 			System.out.println("[*] No Thread Local Storage found");
 			return;
 		}
 		System.out.println("[*] Dumping TLS:");
-		System.out.println("   Size of "+(getTLSDescriptor().getTLS().getEndAddressOfRawData().getAddr64()-getTLSDescriptor().getTLS().getStartAddressOfRawData().getAddr64())+ " bytes");
-		if(getTLSDescriptor().getTLSCallbacks().length == 0)
+		System.out.println("   Size of "+getTLSDescriptor().getTLS().getSizeOfRawData()+ " bytes");
+		if(getTLSDescriptor().getTLSCallbackCount() == 0)
 			System.out.println("   No Callbacks");
 		else {
 			System.out.println("   Following Callbacks are present:");
-			for(int i=0;i<getTLSDescriptor().getTLSCallbacks().length;i++)
-				if(reader.is32bit())
-					System.out.println("      "+(i+1)+". at 0x"+Integer.toHexString(getTLSDescriptor().getTLSCallbacks()[i].getAddr32()));
-				else
-					System.out.println("      "+(i+1)+". at 0x"+Long.toHexString(getTLSDescriptor().getTLSCallbacks()[i].getAddr64()));
+			for(int i=0;i<getTLSDescriptor().getTLSCallbackCount();i++)
+				System.out.println("      "+(i+1)+". at 0x"+Long.toHexString(getTLSDescriptor().getTLSCallback(i)));
 		}
 	}
 	
@@ -272,44 +298,182 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 		return DataDirectory;
 	}
 	
+	/**
+	 * Return the abstract Export Directory Object if existent, else null
+	 * <br>NOTE: Parses the directory on first access if the reader only parsed the headers
+ 	 * @return the abstract export directory
+	 */
+	public DescriptorExport getExportDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_EXPORT))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_EXPORT)) parseExportTable();
+			}
+		return (DescriptorExport) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_EXPORT];
+	}
+	
 	/**
 	 * Return the abstract Import Directory Object if existent, else null
+	 * <br>NOTE: Parses the directory on first access if the reader only parsed the headers
  	 * @return the abstract import directory
 	 */
 	public DescriptorImport getImportDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_IMPORT))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_IMPORT)) parseImportTable();
+			}
 		return (DescriptorImport) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_IMPORT];
 	}
 	
 	/**
 	 * Return the abstract Resource Directory Object if existent, else null
+	 * <br>NOTE: Parses the directory on first access if the reader only parsed the headers
  	 * @return the abstract resource directory
 	 */
 	public DescriptorResource getResourceDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_RESOURCE))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_RESOURCE)) parseResourceTable();
+			}
 		return (DescriptorResource) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_RESOURCE];
 	}
 	
 	/**
 	 * Return the abstract TLS Directory Object if existent, else null
+	 * <br>NOTE: Parses the directory on first access if the reader only parsed the headers
  	 * @return the abstract TLS directory
 	 */
 	public DescriptorTLS getTLSDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_TLS))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_TLS)) parseTLS();
+			}
 		return (DescriptorTLS) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_TLS];
 	}
 	
+	/**
+	 * Return the abstract Base Relocation Directory Object if existent, else null
+	 * <br>NOTE: Parses the directory on first access, it isn't parsed together with the other directories
+ 	 * @return the abstract base relocation directory
+	 */
+	public DescriptorRelocation getRelocationDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_BASERELOC))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_BASERELOC)) parseRelocationTable();
+			}
+		return (DescriptorRelocation) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_BASERELOC];
+	}
+	
+	/**
+	 * Return the abstract Security Directory Object (Attribute Certificate Table) if existent, else null
+	 * <br>NOTE: Parses the directory on first access, it isn't parsed together with the other directories
+ 	 * @return the abstract security directory
+	 */
+	public DescriptorSecurity getSecurityDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_SECURITY))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_SECURITY)) parseSecurityTable();
+			}
+		return (DescriptorSecurity) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_SECURITY];
+	}
+	
+	/**
+	 * Return the abstract Exception Directory Object (.pdata) if existent, else null
+	 * <br>NOTE: Parses the directory on first access, it isn't parsed together with the other directories
+	 * <br>NOTE: Always null for 32bit files
+ 	 * @return the abstract exception directory
+	 */
+	public DescriptorException getExceptionDescriptor() {
+		if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_EXCEPTION))
+			synchronized(this) {
+				if(!isDirectoryParsed(IMAGE_DIRECTORY_ENTRY_EXCEPTION)) parseExceptionTable();
+			}
+		return (DescriptorException) DirectoryEntries[IMAGE_DIRECTORY_ENTRY_EXCEPTION];
+	}
+	
 	/**
 	 * Return the array of abstract directory objects
+	 * <br>NOTE: Directories that weren't parsed yet are null, use the getters of the directories to parse them on access
 	 * @return the array of abstract directory objects
 	 */
 	public Object[] getDirectoryEntries() {
 		return DirectoryEntries;
 	}
 	
+	/**
+	 * Remove the abstract object of a directory without parsing it again on next access
+	 * <br>Used after the directory itself was removed from the file
+	 * @param directory the index of the directory, see IMAGE_DIRECTORY_ENTRY_* constants
+	 */
+	public synchronized void clearDirectory(int directory) {
+		DirectoryEntries[directory] = null;
+		DirectoryParsed |= 1 << directory;
+	}
+	
+	/**
+	 * Return whether the abstract object of a directory has already been parsed
+	 * @param directory the index of the directory, see IMAGE_DIRECTORY_ENTRY_* constants
+	 * @return if the directory was parsed
+	 */
+	public boolean isDirectoryParsed(int directory) {
+		return (DirectoryParsed & (1 << directory)) != 0;
+	}
+	
+	/**
+	 * Forget all parsed abstract directory objects so they are parsed again on next access
+	 * <br>Called whenever the data of the sections moved within the file
+	 * <br>NOTE: Directory objects obtained before calling this still point at the old offsets
+	 */
+	public synchronized void invalidateDirectories() {
+		for(int i=0;i<DirectoryEntries.length;i++)
+			DirectoryEntries[i] = null;
+		DirectoryParsed = 0;
+		parseFailure = null;
+	}
+	
+	/**
+	 * Return the first directory that failed to parse
+	 * <br>NOTE: Only strict readers keep the failure, others print it and leave the directory empty
+	 * @return the failure of the first directory that couldn't be parsed or null if all parsed directories are fine
+	 */
+	public IOException getParseFailure() {
+		return parseFailure;
+	}
+	
+	/**
+	 * Convert the RVA of a directory to the offset it is parsed at
+	 * @param rva the RVA of the directory
+	 * @return the offset of the directory within the file
+	 * @throws IOException the directory isn't within a section or the headers of the file
+	 */
+	protected int directoryOffset(int rva) throws IOException {
+		int offset = reader.rva2offset(rva);
+		if(offset < 0 || offset >= reader.getStream().getSize())
+			throw new IOException("Directory RVA 0x"+Integer.toHexString(rva)+" isn't within the file");
+		return offset;
+	}
+	
+	/**
+	 * Handle a directory that failed to parse, the directory is left empty
+	 * <br>Strict readers keep the first failure, see {@link #getParseFailure()}, otherwise the failure is printed
+	 * @param table the name of the table that failed
+	 * @param e the reason
+	 */
+	protected void failed(String table, Exception e) {
+		if(reader.isStrict()) {
+			if(parseFailure == null)
+				parseFailure = new IOException("Failed Reading "+table+" Table", e);
+			return;
+		}
+		e.printStackTrace();
+		System.err.println("Failed Reading "+table+" Table");
+	}
+	
 	/**
 	 * Offset for reading the resources the correct way
 	 * @return file offset to resources if they exist (0 if not)
 	 */
 	public int getResourceOffset() {
-		return reader.rva2offset(new Address(getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE].getVirtualAddress()));
+		return reader.rva2offset(getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE].getVirtualAddress());
 	}
 	
 	/**
@@ -320,33 +484,56 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 
 	/**
 	 * Parse Directories of the PE File <br>
-	 * Current Implemented: ImportTable, ResourceTable<br>
-	 * NOTE: NOT THREAD SAFE
+	 * Current Implemented: ExportTable, ImportTable, ResourceTable, TLS<br>
+	 * The base relocations, exception and security table are only parsed on access, see
+	 * {@link #getRelocationDescriptor()}, {@link #getExceptionDescriptor()} and {@link #getSecurityDescriptor()}<br>
 	 * @throws Exception Something went wrong while parsing
 	 */
 	public void parseDirectories() {
+		parseExportTable();
 		parseImportTable();
 		parseResourceTable();
 		parseTLS();
 	}
 	
+	/**
+	 * Parse the export directory
+	 */
+	public synchronized void parseExportTable() {
+		int temp = reader.getStream().getIndex();	
+		try {
+			//EXPORT DIRECTORY
+			int rva = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT].getVirtualAddress();
+			
+			if(rva != 0) {
+				reader.getStream().setIndex(directoryOffset(rva));
+				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT] = new DescriptorExport(reader);
+			}
+		}catch(Exception e) {
+			failed("Export", e);
+		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT;
+		//Restore reader
+		reader.getStream().setIndex(temp);
+	}
+	
 	/**
 	 * Parse the import directory
 	 */
-	public void parseImportTable() {
+	public synchronized void parseImportTable() {
 		int temp = reader.getStream().getIndex();	
 		try {
 			//IMPORT DIRECTORY
-			Address rva = new Address(getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT].getVirtualAddress());
+			int rva = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT].getVirtualAddress();
 			
-			if(!rva.isNull()) {
-				reader.getStream().setIndex(reader.rva2offset(rva));
+			if(rva != 0) {
+				reader.getStream().setIndex(directoryOffset(rva));
 				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT] = new DescriptorImport(reader);
 			}
 		}catch(Exception e) {
-			e.printStackTrace();
-			System.err.println("Failed Reading Import Table");
+			failed("Import", e);
 		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_IMPORT;
 		//Restore reader
 		reader.getStream().setIndex(temp);
 	}
@@ -354,19 +541,19 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 	/**
 	 * Parse the resource directory
 	 */
-	public void parseResourceTable() {
+	public synchronized void parseResourceTable() {
 		int temp = reader.getStream().getIndex();	
 		try {
 			//RESOURCE DIRECTORY
-			Address rva = new Address(getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE].getVirtualAddress());
-			if(!rva.isNull()) {
-				reader.getStream().setIndex(reader.rva2offset(rva));
+			int rva = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE].getVirtualAddress();
+			if(rva != 0) {
+				reader.getStream().setIndex(directoryOffset(rva));
 				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE] = new DescriptorResource(reader);
 			}
 		}catch(Exception e) {
-			e.printStackTrace();
-			System.err.println("Failed Reading Resource Table");
+			failed("Resource", e);
 		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_RESOURCE;
 		//Restore reader
 		reader.getStream().setIndex(temp);
 	}
@@ -374,20 +561,83 @@ public class IMAGE_OPTIONAL_HEADER32 extends ReadableObject{
 	/**
 	 * Parse the TLS directory
 	 */
-	public void parseTLS() {
+	public synchronized void parseTLS() {
 		int temp = reader.getStream().getIndex();	
 		try {
 			//IMPORT DIRECTORY
-			Address rva = new Address(getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_TLS].getVirtualAddress());
+			int rva = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_TLS].getVirtualAddress();
 			
-			if(!rva.isNull()) {
-				reader.getStream().setIndex(reader.rva2offset(rva));
+			if(rva != 0) {
+				reader.getStream().setIndex(directoryOffset(rva));
 				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_TLS] = new DescriptorTLS(reader);
 			}
 		}catch(Exception e) {
-			e.printStackTrace();
-			System.err.println("Failed Reading TLS Table");
+			failed("TLS", e);
+		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_TLS;
+		//Restore reader
+		reader.getStream().setIndex(temp);
+	}
+	
+	/**
+	 * Parse the base relocation directory
+	 */
+	public synchronized void parseRelocationTable() {
+		int temp = reader.getStream().getIndex();	
+		try {
+			//BASERELOC DIRECTORY
+			int rva = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC].getVirtualAddress();
+			
+			if(rva != 0) {
+				reader.getStream().setIndex(directoryOffset(rva));
+				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC] = new DescriptorRelocation(reader);
+			}
+		}catch(Exception e) {
+			failed("Relocation", e);
+		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC;
+		//Restore reader
+		reader.getStream().setIndex(temp);
+	}
+	
+	/**
+	 * Parse the exception directory of 64bit files
+	 */
+	public synchronized void parseExceptionTable() {
+		int temp = reader.getStream().getIndex();	
+		try {
+			//EXCEPTION DIRECTORY
+			int rva = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION].getVirtualAddress();
+			
+			if(rva != 0 && !is32bit()) {
+				reader.getStream().setIndex(directoryOffset(rva));
+				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION] = new DescriptorException(reader);
+			}
+		}catch(Exception e) {
+			failed("Exception", e);
+		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION;
+		//Restore reader
+		reader.getStream().setIndex(temp);
+	}
+	
+	/**
+	 * Parse the security directory, its address is a file offset
+	 */
+	public synchronized void parseSecurityTable() {
+		int temp = reader.getStream().getIndex();	
+		try {
+			//SECURITY DIRECTORY
+			int offset = getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_SECURITY].getVirtualAddress();
+			
+			if(offset != 0) {
+				reader.getStream().setIndex(offset);
+				DirectoryEntries[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_SECURITY] = new DescriptorSecurity(reader);
+			}
+		}catch(Exception e) {
+			failed("Security", e);
 		}	
+		DirectoryParsed |= 1 << IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_SECURITY;
 		//Restore reader
 		reader.getStream().setIndex(temp);
 	}
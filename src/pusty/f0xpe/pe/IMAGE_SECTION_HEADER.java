@@ -1,6 +1,7 @@
 package pusty.f0xpe.pe;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import pusty.f0xpe.ExecutableStream;
@@ -25,6 +26,8 @@ public class IMAGE_SECTION_HEADER extends ReadableObject {
 	public static final int IMAGE_SCN_MEM_WRITE = 0x80000000;
 	/** The section can be shared in memory. */
 	public static final int IMAGE_SCN_MEM_SHARED = 0x10000000;	
+	/** The section can be discarded as needed (e.g. relocations). */
+	public static final int IMAGE_SCN_MEM_DISCARDABLE = 0x02000000;
 	/** The section contains uninitialized data. */
 	public static final int IMAGE_SCN_CNT_UNINITIALIZED_DATA = 0x00000080;
 	/** The section contains initialized data. */
@@ -114,6 +117,22 @@ public class IMAGE_SECTION_HEADER extends ReadableObject {
 		}
 	}
 	
+	/**
+	 * Return a read-only view of the raw data of this section without copying it
+	 * <br>Raw data extending beyond the end of the file is cut off
+	 * @return a buffer sharing its content with the stream (see ExecutableStream.getView), null on error
+	 */
+	public ByteBuffer getRawDataView() {
+		try {
+			int pointer = getPointerToRawData();
+			int size = Math.min(getSizeOfRawData(), reader.getStream().getSize() - pointer);
+			return reader.getStream().getView(pointer, Math.max(size, 0));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
 	/**
 	 * Return the size this section has when loaded into memory.
 	 * Everything outside of the SizeOfRawData will be 0 filled
@@ -139,6 +158,7 @@ public class IMAGE_SECTION_HEADER extends ReadableObject {
 			e.printStackTrace();
 			return;
 		}
+		reader.invalidateSectionIndex();
 	}
 	
 	/**
@@ -165,6 +185,7 @@ public class IMAGE_SECTION_HEADER extends ReadableObject {
 			e.printStackTrace();
 			return;
 		}
+		reader.invalidateSectionIndex();
 	}
 	
 	/**
@@ -191,6 +212,7 @@ public class IMAGE_SECTION_HEADER extends ReadableObject {
 			e.printStackTrace();
 			return;
 		}
+		reader.invalidateSectionIndex();
 	}
 	
 	/**
@@ -217,6 +239,7 @@ public class IMAGE_SECTION_HEADER extends ReadableObject {
 			e.printStackTrace();
 			return;
 		}
+		reader.invalidateSectionIndex();
 	}
 	
 	/**
@@ -0,0 +1,488 @@
+package pusty.f0xpe.pe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.StringPool;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_IMPORT_DESCRIPTOR;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_THUNK_DATA;
+
+/**
+ * The fingerprint of the imports of a file: the normalized "dll.function" list, its MD5 (imphash) and a fast 64bit hash
+ * <br>The list follows the imphash scheme: DLL names without the .dll/.ocx/.sys extension, imports by ordinal resolved by
+ * name where known (else "ordN"), everything lower case and joined by ','.
+ * <br>The ordinals of ws2_32/wsock32 and oleaut32 are resolved by the same tables as pefile (ordlookup), so the imphash
+ * matches the one of pefile and the tools based on it.
+ * <br>Files sharing the same imports (same DLL names, function names and ordinals in the same order) share their
+ * fingerprint through a {@link FingerprintCache}, so the list and hashes are only computed once.
+ * <br>Reference: https://www.mandiant.com/resources/blog/tracking-malware-import-hashing
+ */
+public class ImportFingerprint {
+
+	/** DLL extensions removed from the DLL names */
+	private static final String[] EXTENSIONS = {"dll", "ocx", "sys"};
+
+	/** Names of the ordinals of ws2_32.dll and wsock32.dll */
+	private static final Map<Integer, String> WS2_32 = new HashMap<Integer, String>();
+	/** Names of the ordinals of oleaut32.dll */
+	private static final Map<Integer, String> OLEAUT32 = new HashMap<Integer, String>();
+
+	static {
+		put(WS2_32, 1, "accept", "bind", "closesocket", "connect", "getpeername", "getsockname", "getsockopt", "htonl",
+				"htons", "ioctlsocket", "inet_addr", "inet_ntoa", "listen", "ntohl", "ntohs", "recv", "recvfrom",
+				"select", "send", "sendto", "setsockopt", "shutdown", "socket", "GetAddrInfoW", "GetNameInfoW",
+				"WSApSetPostRoutine", "FreeAddrInfoW", "WPUCompleteOverlappedRequest", "WSAAccept",
+				"WSAAddressToStringA", "WSAAddressToStringW", "WSACloseEvent", "WSAConnect", "WSACreateEvent",
+				"WSADuplicateSocketA", "WSADuplicateSocketW", "WSAEnumNameSpaceProvidersA",
+				"WSAEnumNameSpaceProvidersW", "WSAEnumNetworkEvents", "WSAEnumProtocolsA", "WSAEnumProtocolsW",
+				"WSAEventSelect", "WSAGetOverlappedResult", "WSAGetQOSByName", "WSAGetServiceClassInfoA",
+				"WSAGetServiceClassInfoW", "WSAGetServiceClassNameByClassIdA", "WSAGetServiceClassNameByClassIdW",
+				"WSAHtonl", "WSAHtons", "gethostbyaddr", "gethostbyname", "getprotobyname", "getprotobynumber",
+				"getservbyname", "getservbyport", "gethostname", "WSAInstallServiceClassA", "WSAInstallServiceClassW",
+				"WSAIoctl", "WSAJoinLeaf", "WSALookupServiceBeginA", "WSALookupServiceBeginW", "WSALookupServiceEnd",
+				"WSALookupServiceNextA", "WSALookupServiceNextW", "WSANSPIoctl", "WSANtohl", "WSANtohs",
+				"WSAProviderConfigChange", "WSARecv", "WSARecvDisconnect", "WSARecvFrom", "WSARemoveServiceClass",
+				"WSAResetEvent", "WSASend", "WSASendDisconnect", "WSASendTo", "WSASetEvent", "WSASetServiceA",
+				"WSASetServiceW", "WSASocketA", "WSASocketW", "WSAStringToAddressA", "WSAStringToAddressW",
+				"WSAWaitForMultipleEvents", "WSCDeinstallProvider", "WSCEnableNSProvider", "WSCEnumProtocols",
+				"WSCGetProviderPath", "WSCInstallNameSpace", "WSCInstallProvider", "WSCUnInstallNameSpace",
+				"WSCUpdateProvider", "WSCWriteNameSpaceOrder", "WSCWriteProviderOrder", "freeaddrinfo", "getaddrinfo",
+				"getnameinfo");
+		put(WS2_32, 101, "WSAAsyncSelect", "WSAAsyncGetHostByAddr", "WSAAsyncGetHostByName",
+				"WSAAsyncGetProtoByNumber", "WSAAsyncGetProtoByName", "WSAAsyncGetServByPort", "WSAAsyncGetServByName",
+				"WSACancelAsyncRequest", "WSASetBlockingHook", "WSAUnhookBlockingHook", "WSAGetLastError",
+				"WSASetLastError", "WSACancelBlockingCall", "WSAIsBlocking", "WSAStartup", "WSACleanup");
+		put(WS2_32, 151, "__WSAFDIsSet");
+		put(WS2_32, 500, "WEP");
+		put(OLEAUT32, 2, "SysAllocString", "SysReAllocString", "SysAllocStringLen", "SysReAllocStringLen",
+				"SysFreeString", "SysStringLen", "VariantInit", "VariantClear", "VariantCopy", "VariantCopyInd",
+				"VariantChangeType", "VariantTimeToDosDateTime", "DosDateTimeToVariantTime", "SafeArrayCreate",
+				"SafeArrayDestroy", "SafeArrayGetDim", "SafeArrayGetElemsize", "SafeArrayGetUBound",
+				"SafeArrayGetLBound", "SafeArrayLock", "SafeArrayUnlock", "SafeArrayAccessData",
+				"SafeArrayUnaccessData", "SafeArrayGetElement", "SafeArrayPutElement", "SafeArrayCopy", "DispGetParam",
+				"DispGetIDsOfNames", "DispInvoke", "CreateDispTypeInfo", "CreateStdDispatch", "RegisterActiveObject",
+				"RevokeActiveObject", "GetActiveObject", "SafeArrayAllocDescriptor", "SafeArrayAllocData",
+				"SafeArrayDestroyDescriptor", "SafeArrayDestroyData", "SafeArrayRedim", "SafeArrayAllocDescriptorEx",
+				"SafeArrayCreateEx", "SafeArrayCreateVectorEx", "SafeArraySetRecordInfo", "SafeArrayGetRecordInfo",
+				"VarParseNumFromStr", "VarNumFromParseNum", "VarI2FromUI1", "VarI2FromI4", "VarI2FromR4",
+				"VarI2FromR8", "VarI2FromCy", "VarI2FromDate", "VarI2FromStr", "VarI2FromDisp", "VarI2FromBool",
+				"SafeArraySetIID", "VarI4FromUI1", "VarI4FromI2", "VarI4FromR4", "VarI4FromR8", "VarI4FromCy",
+				"VarI4FromDate", "VarI4FromStr", "VarI4FromDisp", "VarI4FromBool", "SafeArrayGetIID", "VarR4FromUI1",
+				"VarR4FromI2", "VarR4FromI4", "VarR4FromR8", "VarR4FromCy", "VarR4FromDate", "VarR4FromStr",
+				"VarR4FromDisp", "VarR4FromBool", "SafeArrayGetVartype", "VarR8FromUI1", "VarR8FromI2", "VarR8FromI4",
+				"VarR8FromR4", "VarR8FromCy", "VarR8FromDate", "VarR8FromStr", "VarR8FromDisp", "VarR8FromBool",
+				"VarFormat", "VarDateFromUI1", "VarDateFromI2", "VarDateFromI4", "VarDateFromR4", "VarDateFromR8",
+				"VarDateFromCy", "VarDateFromStr", "VarDateFromDisp", "VarDateFromBool", "VarFormatDateTime",
+				"VarCyFromUI1", "VarCyFromI2", "VarCyFromI4", "VarCyFromR4", "VarCyFromR8", "VarCyFromDate",
+				"VarCyFromStr", "VarCyFromDisp", "VarCyFromBool", "VarFormatNumber", "VarBstrFromUI1", "VarBstrFromI2",
+				"VarBstrFromI4", "VarBstrFromR4", "VarBstrFromR8", "VarBstrFromCy", "VarBstrFromDate",
+				"VarBstrFromDisp", "VarBstrFromBool", "VarFormatPercent", "VarBoolFromUI1", "VarBoolFromI2",
+				"VarBoolFromI4", "VarBoolFromR4", "VarBoolFromR8", "VarBoolFromDate", "VarBoolFromCy",
+				"VarBoolFromStr", "VarBoolFromDisp", "VarFormatCurrency", "VarWeekdayName", "VarMonthName",
+				"VarUI1FromI2", "VarUI1FromI4", "VarUI1FromR4", "VarUI1FromR8", "VarUI1FromCy", "VarUI1FromDate",
+				"VarUI1FromStr", "VarUI1FromDisp", "VarUI1FromBool", "VarFormatFromTokens", "VarTokenizeFormatString",
+				"VarAdd", "VarAnd", "VarDiv", "DllCanUnloadNow", "DllGetClassObject", "DispCallFunc",
+				"VariantChangeTypeEx", "SafeArrayPtrOfIndex", "SysStringByteLen", "SysAllocStringByteLen",
+				"DllRegisterServer", "VarEqv", "VarIdiv", "VarImp", "VarMod", "VarMul", "VarOr", "VarPow", "VarSub",
+				"CreateTypeLib", "LoadTypeLib", "LoadRegTypeLib", "RegisterTypeLib", "QueryPathOfRegTypeLib",
+				"LHashValOfNameSys", "LHashValOfNameSysA", "VarXor", "VarAbs", "VarFix", "OaBuildVersion",
+				"ClearCustData", "VarInt", "VarNeg", "VarNot", "VarRound", "VarCmp", "VarDecAdd", "VarDecDiv",
+				"VarDecMul", "CreateTypeLib2", "VarDecSub", "VarDecAbs", "LoadTypeLibEx", "SystemTimeToVariantTime",
+				"VariantTimeToSystemTime", "UnRegisterTypeLib", "VarDecFix", "VarDecInt", "VarDecNeg", "VarDecFromUI1",
+				"VarDecFromI2", "VarDecFromI4", "VarDecFromR4", "VarDecFromR8", "VarDecFromDate", "VarDecFromCy",
+				"VarDecFromStr", "VarDecFromDisp", "VarDecFromBool", "GetErrorInfo", "SetErrorInfo", "CreateErrorInfo",
+				"VarDecRound", "VarDecCmp", "VarI2FromI1", "VarI2FromUI2", "VarI2FromUI4", "VarI2FromDec",
+				"VarI4FromI1", "VarI4FromUI2", "VarI4FromUI4", "VarI4FromDec", "VarR4FromI1", "VarR4FromUI2",
+				"VarR4FromUI4", "VarR4FromDec", "VarR8FromI1", "VarR8FromUI2", "VarR8FromUI4", "VarR8FromDec",
+				"VarDateFromI1", "VarDateFromUI2", "VarDateFromUI4", "VarDateFromDec", "VarCyFromI1", "VarCyFromUI2",
+				"VarCyFromUI4", "VarCyFromDec", "VarBstrFromI1", "VarBstrFromUI2", "VarBstrFromUI4", "VarBstrFromDec",
+				"VarBoolFromI1", "VarBoolFromUI2", "VarBoolFromUI4", "VarBoolFromDec", "VarUI1FromI1", "VarUI1FromUI2",
+				"VarUI1FromUI4", "VarUI1FromDec", "VarDecFromI1", "VarDecFromUI2", "VarDecFromUI4", "VarI1FromUI1",
+				"VarI1FromI2", "VarI1FromI4", "VarI1FromR4", "VarI1FromR8", "VarI1FromDate", "VarI1FromCy",
+				"VarI1FromStr", "VarI1FromDisp", "VarI1FromBool", "VarI1FromUI2", "VarI1FromUI4", "VarI1FromDec",
+				"VarUI2FromUI1", "VarUI2FromI2", "VarUI2FromI4", "VarUI2FromR4", "VarUI2FromR8", "VarUI2FromDate",
+				"VarUI2FromCy", "VarUI2FromStr", "VarUI2FromDisp", "VarUI2FromBool", "VarUI2FromI1", "VarUI2FromUI4",
+				"VarUI2FromDec", "VarUI4FromUI1", "VarUI4FromI2", "VarUI4FromI4", "VarUI4FromR4", "VarUI4FromR8",
+				"VarUI4FromDate", "VarUI4FromCy", "VarUI4FromStr", "VarUI4FromDisp", "VarUI4FromBool", "VarUI4FromI1",
+				"VarUI4FromUI2", "VarUI4FromDec", "BSTR_UserSize", "BSTR_UserMarshal", "BSTR_UserUnmarshal",
+				"BSTR_UserFree", "VARIANT_UserSize", "VARIANT_UserMarshal", "VARIANT_UserUnmarshal",
+				"VARIANT_UserFree", "LPSAFEARRAY_UserSize", "LPSAFEARRAY_UserMarshal", "LPSAFEARRAY_UserUnmarshal",
+				"LPSAFEARRAY_UserFree", "LPSAFEARRAY_Size", "LPSAFEARRAY_Marshal", "LPSAFEARRAY_Unmarshal",
+				"VarDecCmpR8", "VarCyAdd", "DllUnregisterServer", "OACreateTypeLib2");
+		put(OLEAUT32, 303, "VarCyMul", "VarCyMulI4", "VarCySub", "VarCyAbs", "VarCyFix", "VarCyInt", "VarCyNeg",
+				"VarCyRound", "VarCyCmp", "VarCyCmpR8", "VarBstrCat", "VarBstrCmp", "VarR8Pow", "VarR4CmpR8",
+				"VarR8Round", "VarCat", "VarDateFromUdateEx");
+		put(OLEAUT32, 322, "GetRecordInfoFromGuids", "GetRecordInfoFromTypeInfo");
+		put(OLEAUT32, 325, "SetVarConversionLocaleSetting", "GetVarConversionLocaleSetting", "SetOaNoCache");
+		put(OLEAUT32, 329, "VarCyMulI8", "VarDateFromUdate", "VarUdateFromDate", "GetAltMonthNames", "VarI8FromUI1",
+				"VarI8FromI2", "VarI8FromR4", "VarI8FromR8", "VarI8FromCy", "VarI8FromDate", "VarI8FromStr",
+				"VarI8FromDisp", "VarI8FromBool", "VarI8FromI1", "VarI8FromUI2", "VarI8FromUI4", "VarI8FromDec",
+				"VarI2FromI8", "VarI2FromUI8", "VarI4FromI8", "VarI4FromUI8");
+		put(OLEAUT32, 360, "VarR4FromI8", "VarR4FromUI8", "VarR8FromI8", "VarR8FromUI8", "VarDateFromI8",
+				"VarDateFromUI8", "VarCyFromI8", "VarCyFromUI8", "VarBstrFromI8", "VarBstrFromUI8", "VarBoolFromI8",
+				"VarBoolFromUI8", "VarUI1FromI8", "VarUI1FromUI8", "VarDecFromI8", "VarDecFromUI8", "VarI1FromI8",
+				"VarI1FromUI8", "VarUI2FromI8", "VarUI2FromUI8");
+		put(OLEAUT32, 401, "OleLoadPictureEx", "OleLoadPictureFileEx");
+		put(OLEAUT32, 411, "SafeArrayCreateVector", "SafeArrayCopyData", "VectorFromBstr", "BstrFromVector",
+				"OleIconToCursor", "OleCreatePropertyFrameIndirect", "OleCreatePropertyFrame", "OleLoadPicture",
+				"OleCreatePictureIndirect", "OleCreateFontIndirect", "OleTranslateColor", "OleLoadPictureFile",
+				"OleSavePictureFile", "OleLoadPicturePath", "VarUI4FromI8", "VarUI4FromUI8", "VarI8FromUI8",
+				"VarUI8FromI8", "VarUI8FromUI1", "VarUI8FromI2", "VarUI8FromR4", "VarUI8FromR8", "VarUI8FromCy",
+				"VarUI8FromDate", "VarUI8FromStr", "VarUI8FromDisp", "VarUI8FromBool", "VarUI8FromI1", "VarUI8FromUI2",
+				"VarUI8FromUI4", "VarUI8FromDec", "RegisterTypeLibForUser", "UnRegisterTypeLibForUser");
+	}
+
+	/**
+	 * Add the names of consecutive ordinals
+	 * @param names the table to add to
+	 * @param first the ordinal of the first name
+	 * @param functions the names of the ordinals from the first one on
+	 */
+	private static void put(Map<Integer, String> names, int first, String... functions) {
+		for(int i=0;i<functions.length;i++)
+			names.put(first+i, functions[i]);
+	}
+
+	/** The normalized imports */
+	protected final String[] imports;
+	/** The MD5 of the normalized imports as lower case hex */
+	protected final String imphash;
+	/** The 64bit FNV-1a hash of the normalized imports */
+	protected final long fastHash;
+
+	/**
+	 * Create a fingerprint of normalized imports
+	 * @param imports the normalized "dll.function" entries
+	 */
+	protected ImportFingerprint(String[] imports) {
+		this.imports = imports;
+		StringBuilder joined = new StringBuilder();
+		for(int i=0;i<imports.length;i++) {
+			if(i != 0) joined.append(',');
+			joined.append(imports[i]);
+		}
+		byte[] data = joined.toString().getBytes(StandardCharsets.ISO_8859_1);
+		String md5 = null;
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+			StringBuilder hex = new StringBuilder(32);
+			for(byte b:digest)
+				hex.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			md5 = hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		}
+		this.imphash = md5;
+		long hash = 0xCBF29CE484222325L;
+		for(byte b:data)
+			hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+		this.fastHash = hash;
+	}
+
+	/**
+	 * Return the fingerprint of the imports of a file, using the global cache
+	 * @param reader the file to fingerprint
+	 * @return the fingerprint, null if the file has no import table
+	 */
+	public static ImportFingerprint of(ExecutableReader reader) {
+		return of(reader, FingerprintCache.GLOBAL);
+	}
+
+	/**
+	 * Return the fingerprint of the imports of a file
+	 * @param reader the file to fingerprint
+	 * @param cache the cache to look the imports up in and add new fingerprints to, null to always compute it
+	 * @return the fingerprint, null if the file has no import table or it couldn't be read
+	 */
+	public static ImportFingerprint of(ExecutableReader reader, FingerprintCache cache) {
+		DescriptorImport descriptor = reader.getOptionalHeader().getImportDescriptor();
+		if(descriptor == null) return null;
+		try {
+			if(cache == null)
+				return compute(reader, descriptor);
+			TableKey key = new TableKey(reader, descriptor);
+			ImportFingerprint fingerprint = cache.get(key);
+			if(fingerprint == null) {
+				fingerprint = compute(reader, descriptor);
+				cache.put(key, fingerprint);
+			}
+			return fingerprint;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Build the normalized import list from the parsed import table
+	 * <br>The DLL and function names come from the string pool of the reader, the normalized entries are pooled too
+	 */
+	private static ImportFingerprint compute(ExecutableReader reader, DescriptorImport descriptor) throws Exception {
+		StringPool pool = reader.getStringPool();
+		ArrayList<String> list = new ArrayList<String>();
+		for(IMAGE_IMPORT_DESCRIPTOR dll:descriptor.getImports()) {
+			String name = dll.getDLLName().toLowerCase(Locale.ROOT);
+			String library = name;
+			int dot = name.lastIndexOf('.');
+			if(dot != -1 && Arrays.asList(EXTENSIONS).contains(name.substring(dot+1)))
+				library = name.substring(0, dot);
+			IMAGE_THUNK_DATA[] thunks = dll.getOriginalFirstThunk() != 0 ? dll.parseHintNameTable() : dll.parseImportTable();
+			for(IMAGE_THUNK_DATA thunk:thunks) {
+				String function = thunk.isOrdinal() ? ordinalName(name, thunk.getOrdinal() & 0xFFFF) : thunk.getName();
+				if(function == null || function.isEmpty()) continue;
+				list.add(pool.intern(library + "." + function.toLowerCase(Locale.ROOT)));
+			}
+		}
+		return new ImportFingerprint(list.toArray(new String[list.size()]));
+	}
+
+	/**
+	 * Return the name of an import by ordinal
+	 * @param dll the lower case name of the DLL including its extension
+	 * @param ordinal the ordinal
+	 * @return the known name of the ordinal, else "ordN"
+	 */
+	private static String ordinalName(String dll, int ordinal) {
+		String name = null;
+		if(dll.equals("ws2_32.dll") || dll.equals("wsock32.dll"))
+			name = WS2_32.get(ordinal);
+		else if(dll.equals("oleaut32.dll"))
+			name = OLEAUT32.get(ordinal);
+		return name != null ? name : "ord" + ordinal;
+	}
+
+	/**
+	 * Return the normalized imports
+	 * @return a copy of the "dll.function" entries in the order of the import table
+	 */
+	public String[] getImports() {
+		return imports.clone();
+	}
+
+	/**
+	 * Return the amount of normalized imports
+	 * @return the amount of entries
+	 */
+	public int getImportCount() {
+		return imports.length;
+	}
+
+	/**
+	 * Return the imphash
+	 * @return the MD5 of the comma separated imports as lower case hex
+	 */
+	public String getImphash() {
+		return imphash;
+	}
+
+	/**
+	 * Return a fast 64bit hash of the comma separated imports (FNV-1a), e.g. for hash tables of fingerprints
+	 * @return the 64bit hash
+	 */
+	public long getFastHash() {
+		return fastHash;
+	}
+
+	@Override
+	public String toString() {
+		return imphash;
+	}
+
+	/**
+	 * The raw content of an import table: DLL names and the name or ordinal of every import, without any RVAs
+	 * <br>Read straight from the stream without parsing the thunks or creating strings, tables at different addresses
+	 * with the same imports have equal keys
+	 */
+	public static class TableKey {
+
+		/** The tagged content: 'D' DLL name, 'N' function name (both zero terminated), 'O' 16bit ordinal */
+		private byte[] data = new byte[256];
+		/** The amount of used bytes */
+		private int length;
+		/** The hash of the content */
+		private final int hash;
+
+		/**
+		 * Read the key of an import table
+		 * @param reader the file containing the import table
+		 * @param descriptor the parsed import table
+		 * @throws IOException the names or thunks are out of bounds
+		 */
+		public TableKey(ExecutableReader reader, DescriptorImport descriptor) throws IOException {
+			ExecutableStream stream = reader.getStream();
+			boolean wide = !reader.is32bit();
+			for(IMAGE_IMPORT_DESCRIPTOR dll:descriptor.getImports()) {
+				appendString('D', stream, reader.rva2offset(dll.getName()), 0);
+				int thunk = dll.getOriginalFirstThunk() != 0 ? dll.getOriginalFirstThunkOffset() : dll.getFirstThunkOffset();
+				if(thunk == -1) throw new IOException("Import thunks are not within the file");
+				while(true) {
+					long value = wide ? stream.getLong(thunk) : stream.getInt(thunk) & 0xFFFFFFFFL;
+					thunk += wide ? 8 : 4;
+					if(value == 0) break;
+					boolean ordinal = wide ? value < 0 : (value & 0x80000000L) != 0;
+					if(ordinal) {
+						ensure(3);
+						data[length++] = 'O';
+						data[length++] = (byte) value;
+						data[length++] = (byte) (value >>> 8);
+					}else
+						appendString('N', stream, reader.rva2offset((int) value), 2); //skip the hint
+				}
+			}
+			data = Arrays.copyOf(data, length);
+			ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			long h = length;
+			int i = 0;
+			for(;i+8<=length;i+=8) //8 bytes at a time, keys of large tables are hashed on every lookup
+				h = (h ^ words.getLong(i)) * 0x100000001B3L;
+			for(;i<length;i++)
+				h = (h ^ data[i]) * 0x100000001B3L;
+			hash = (int) (h ^ (h >>> 32));
+		}
+
+		private void appendString(char tag, ExecutableStream stream, int offset, int skip) throws IOException {
+			if(offset < 0) throw new IOException("Import name is not within the file");
+			offset += skip;
+			int size = stream.getStringLength(offset);
+			ensure(size + 2);
+			data[length++] = (byte) tag;
+			stream.getBytes(offset, data, length, size);
+			length += size;
+			data[length++] = 0;
+		}
+
+		private void ensure(int size) {
+			if(length + size > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + size));
+		}
+
+		/**
+		 * Return the size of the key
+		 * @return the amount of bytes of the content
+		 */
+		public int size() {
+			return data.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof TableKey)) return false;
+			TableKey other = (TableKey) o;
+			return hash == other.hash && Arrays.equals(data, other.data);
+		}
+	}
+
+	/**
+	 * A size bounded cache of fingerprints by the content of their import tables, least recently used ones are evicted
+	 * <br>Can be shared by threads, e.g. by the consumer of an ExecutableScanner
+	 */
+	public static class FingerprintCache {
+
+		/** A cache shared by all users of it, holding up to 16384 fingerprints or 64MB of keys */
+		public static final FingerprintCache GLOBAL = new FingerprintCache(0x4000, 64 << 20);
+
+		/** The maximum amount of fingerprints */
+		private final int maximum;
+		/** The maximum amount of key bytes */
+		private final long maximumBytes;
+		/** The cached fingerprints in the order of their last use */
+		private final LinkedHashMap<TableKey, ImportFingerprint> entries = new LinkedHashMap<TableKey, ImportFingerprint>(16, 0.75f, true);
+		/** The amount of key bytes held */
+		private long bytes;
+		/** The amount of successful lookups */
+		private long hits;
+		/** The amount of failed lookups */
+		private long misses;
+
+		/**
+		 * Create a new cache
+		 * @param maximum the maximum amount of fingerprints
+		 * @param maximumBytes the maximum amount of bytes of all keys
+		 */
+		public FingerprintCache(int maximum, long maximumBytes) {
+			this.maximum = maximum;
+			this.maximumBytes = maximumBytes;
+		}
+
+		/**
+		 * Look up the fingerprint of an import table
+		 * @param key the content of the import table
+		 * @return the cached fingerprint, null if not cached
+		 */
+		public synchronized ImportFingerprint get(TableKey key) {
+			ImportFingerprint fingerprint = entries.get(key);
+			if(fingerprint == null)
+				misses++;
+			else
+				hits++;
+			return fingerprint;
+		}
+
+		/**
+		 * Add the fingerprint of an import table, evicting the least recently used ones if the cache is full
+		 * @param key the content of the import table
+		 * @param fingerprint the fingerprint
+		 */
+		public synchronized void put(TableKey key, ImportFingerprint fingerprint) {
+			if(key.size() > maximumBytes) return;
+			ImportFingerprint previous = entries.put(key, fingerprint);
+			if(previous == null)
+				bytes += key.size();
+			Iterator<TableKey> eldest = entries.keySet().iterator();
+			while(entries.size() > maximum || bytes > maximumBytes) {
+				TableKey evicted = eldest.next();
+				bytes -= evicted.size();
+				eldest.remove();
+			}
+		}
+
+		/**
+		 * Remove all fingerprints
+		 */
+		public synchronized void clear() {
+			entries.clear();
+			bytes = 0;
+		}
+
+		/**
+		 * Return the amount of cached fingerprints
+		 * @return the amount of entries
+		 */
+		public synchronized int size() {
+			return entries.size();
+		}
+
+		/**
+		 * Return the amount of lookups that found a fingerprint
+		 * @return the amount of hits
+		 */
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		/**
+		 * Return the amount of lookups that didn't find a fingerprint
+		 * @return the amount of misses
+		 */
+		public synchronized long getMisses() {
+			return misses;
+		}
+	}
+}
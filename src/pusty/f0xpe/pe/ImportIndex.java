@@ -0,0 +1,579 @@
+package pusty.f0xpe.pe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_IMPORT_DESCRIPTOR;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_THUNK_DATA;
+
+/**
+ * An inverted index from imported DLLs, imported functions and exported functions to the files referencing them
+ * <br>Files are numbered in the order they are added, every name maps to the compressed set of numbers of the files
+ * referencing it (see {@link PostingList}). Queries combine these sets with AND and OR instead of rescanning files,
+ * e.g. <code>ImportIndex.and(index.importing("VirtualProtect"), index.importing("LoadLibraryA"))</code>.
+ * <br>DLL names are compared case insensitive, function names case sensitive. Imports by ordinal are indexed as
+ * "#ordinal" for their DLL only.
+ * <br>Files can be added from multiple threads, e.g. by the consumer of an ExecutableScanner.
+ */
+public class ImportIndex {
+
+	/** Prefix of the terms of imported DLLs */
+	private static final String DLL = "d:";
+	/** Prefix of the terms of imported functions regardless of their DLL */
+	private static final String FUNCTION = "f:";
+	/** Prefix of the terms of imported functions of a DLL, "dll!function" */
+	private static final String QUALIFIED = "q:";
+	/** Prefix of the terms of exported functions */
+	private static final String EXPORT = "e:";
+
+	/** The names of the indexed files by their number */
+	protected final ArrayList<String> files = new ArrayList<String>();
+	/** The files referencing every term */
+	protected final HashMap<String, PostingList> postings = new HashMap<String, PostingList>();
+
+	/**
+	 * Add the imports and exports of a file to the index
+	 * <br>The names are collected before the index is locked, only inserting them is serialized
+	 * @param name the name of the file returned by queries, e.g. its path or hash
+	 * @param reader the parsed file
+	 * @return the number of the file within the index
+	 * @throws IOException the names couldn't be read
+	 */
+	public int add(String name, ExecutableReader reader) throws IOException {
+		HashSet<String> terms = new HashSet<String>();
+		IMAGE_OPTIONAL_HEADER32 header = reader.getOptionalHeader();
+		DescriptorImport imports = header.getImportDescriptor();
+		if(imports != null)
+			for(IMAGE_IMPORT_DESCRIPTOR dll:imports.getImports()) {
+				String library = dll.getDLLName().toLowerCase(Locale.ROOT);
+				terms.add(DLL + library);
+				IMAGE_THUNK_DATA[] thunks;
+				try {
+					thunks = dll.getOriginalFirstThunk() != 0 ? dll.parseHintNameTable() : dll.parseImportTable();
+				} catch (Exception e) {
+					throw new IOException("Failed reading the imports of "+library, e);
+				}
+				for(IMAGE_THUNK_DATA thunk:thunks) {
+					if(thunk.isOrdinal()) {
+						terms.add(QUALIFIED + library + "!#" + (thunk.getOrdinal() & 0xFFFF));
+						continue;
+					}
+					String function = thunk.getName();
+					if(function == null) continue;
+					terms.add(FUNCTION + function);
+					terms.add(QUALIFIED + library + "!" + function);
+				}
+			}
+		DescriptorExport exports = header.getExportDescriptor();
+		if(exports != null)
+			for(int i=0;i<exports.getNumberOfNames();i++)
+				terms.add(EXPORT + exports.getName(i));
+		return add(name, terms);
+	}
+
+	/**
+	 * Number a file and add it to the posting lists of its terms
+	 */
+	private synchronized int add(String name, HashSet<String> terms) {
+		int id = files.size();
+		files.add(name);
+		for(String term:terms) {
+			PostingList list = postings.get(term);
+			if(list == null) {
+				list = new PostingList();
+				postings.put(term, list);
+			}
+			list.add(id);
+		}
+		return id;
+	}
+
+	/**
+	 * Return the files importing a function from any DLL
+	 * @param function the name of the function
+	 * @return a copy of the set of files
+	 */
+	public PostingList importing(String function) {
+		return lookup(FUNCTION + function);
+	}
+
+	/**
+	 * Return the files importing a function from a DLL
+	 * @param dll the name of the DLL including its extension
+	 * @param function the name of the function, or "#ordinal" for imports by ordinal
+	 * @return a copy of the set of files
+	 */
+	public PostingList importing(String dll, String function) {
+		return lookup(QUALIFIED + dll.toLowerCase(Locale.ROOT) + "!" + function);
+	}
+
+	/**
+	 * Return the files importing anything from a DLL
+	 * @param dll the name of the DLL including its extension
+	 * @return a copy of the set of files
+	 */
+	public PostingList importingDLL(String dll) {
+		return lookup(DLL + dll.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Return the files exporting a function by name
+	 * @param function the name of the function
+	 * @return a copy of the set of files
+	 */
+	public PostingList exporting(String function) {
+		return lookup(EXPORT + function);
+	}
+
+	/**
+	 * Return the files importing all of the given functions
+	 * @param functions the names of the functions
+	 * @return the set of files
+	 */
+	public synchronized PostingList importingAll(String... functions) {
+		return and(get(FUNCTION, functions));
+	}
+
+	/**
+	 * Return the files importing any of the given functions
+	 * @param functions the names of the functions
+	 * @return the set of files
+	 */
+	public synchronized PostingList importingAny(String... functions) {
+		return or(get(FUNCTION, functions));
+	}
+
+	/**
+	 * Return a copy of the posting list of a term, so queries don't race with files being added
+	 */
+	private synchronized PostingList lookup(String term) {
+		PostingList list = postings.get(term);
+		return list == null ? new PostingList() : list.copy();
+	}
+
+	/**
+	 * Return the posting lists of terms without copying them, only valid while the index is locked
+	 */
+	private PostingList[] get(String prefix, String[] names) {
+		PostingList[] lists = new PostingList[names.length];
+		for(int i=0;i<names.length;i++) {
+			lists[i] = postings.get(prefix + names[i]);
+			if(lists[i] == null) lists[i] = new PostingList();
+		}
+		return lists;
+	}
+
+	/**
+	 * Return the files within all of the given sets, the smallest sets are intersected first
+	 * @param lists the sets of files
+	 * @return the intersection, empty if no sets are given
+	 */
+	public static PostingList and(PostingList... lists) {
+		if(lists.length == 0) return new PostingList();
+		lists = lists.clone();
+		Arrays.sort(lists, new Comparator<PostingList>() {
+			@Override
+			public int compare(PostingList a, PostingList b) {
+				return Long.compare(a.getCardinality(), b.getCardinality());
+			}
+		});
+		PostingList result = lists[0];
+		for(int i=1;i<lists.length && !result.isEmpty();i++)
+			result = result.and(lists[i]);
+		return result == lists[0] ? result.copy() : result;
+	}
+
+	/**
+	 * Return the files within any of the given sets
+	 * @param lists the sets of files
+	 * @return the union, empty if no sets are given
+	 */
+	public static PostingList or(PostingList... lists) {
+		PostingList result = new PostingList();
+		for(PostingList list:lists)
+			result = result.or(list);
+		return result;
+	}
+
+	/**
+	 * Return the name of a file
+	 * @param id the number of the file
+	 * @return the name the file was added with
+	 */
+	public synchronized String getFile(int id) {
+		return files.get(id);
+	}
+
+	/**
+	 * Return the names of a set of files
+	 * @param list the set of files, e.g. the result of a query
+	 * @return the names in the order of their numbers
+	 */
+	public synchronized List<String> getFiles(PostingList list) {
+		int[] ids = list.toArray();
+		ArrayList<String> names = new ArrayList<String>(ids.length);
+		for(int id:ids)
+			names.add(files.get(id));
+		return names;
+	}
+
+	/**
+	 * Return the amount of indexed files
+	 * @return the amount of files added
+	 */
+	public synchronized int getFileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Return the amount of distinct DLLs, functions and qualified imports and exports indexed
+	 * @return the amount of posting lists
+	 */
+	public synchronized int getTermCount() {
+		return postings.size();
+	}
+
+	/**
+	 * A compressed set of file numbers (a roaring bitmap)
+	 * <br>The numbers are split into chunks by their upper 16 bits, every chunk stores its lower 16 bits either as a
+	 * sorted array (up to 4096 numbers, 2 bytes each) or as a bitmap of 8KB, whichever is smaller. Sparse sets (rare
+	 * imports) and dense sets (kernel32.dll) both stay small, AND and OR work on whole chunks at once.
+	 * <br>Reference: https://arxiv.org/abs/1402.6407
+	 * <br>NOTE: Not thread safe, the lists returned by the index are copies
+	 */
+	public static class PostingList {
+
+		/** The largest amount of numbers a chunk stores as an array */
+		private static final int ARRAY_MAX = 4096;
+		/** The amount of longs of a bitmap chunk */
+		private static final int BITMAP_WORDS = 1024;
+
+		/** The upper 16 bits of every chunk, ascending */
+		private char[] keys;
+		/** The chunks */
+		private Chunk[] chunks;
+		/** The amount of used chunks */
+		private int size;
+
+		/**
+		 * Create an empty set
+		 */
+		public PostingList() {
+			keys = new char[4];
+			chunks = new Chunk[4];
+		}
+
+		private PostingList(int capacity) {
+			keys = new char[Math.max(capacity, 1)];
+			chunks = new Chunk[Math.max(capacity, 1)];
+		}
+
+		/**
+		 * Add a number to the set
+		 * <br>Adding numbers in ascending order (as the index does) only appends to the last chunk
+		 * @param value the number to add, not negative
+		 */
+		public void add(int value) {
+			char key = (char) (value >>> 16);
+			int index;
+			if(size > 0 && keys[size-1] == key)
+				index = size-1;
+			else {
+				index = search(key);
+				if(index < 0) {
+					index = -index-1;
+					insert(index, key, new Chunk());
+				}
+			}
+			chunks[index] = chunks[index].add((char) value);
+		}
+
+		/**
+		 * Return whether a number is within the set
+		 * @param value the number to look up
+		 * @return if it was added
+		 */
+		public boolean contains(int value) {
+			int index = search((char) (value >>> 16));
+			return index >= 0 && chunks[index].contains((char) value);
+		}
+
+		/**
+		 * Return the amount of numbers within the set
+		 * @return the cardinality
+		 */
+		public long getCardinality() {
+			long cardinality = 0;
+			for(int i=0;i<size;i++)
+				cardinality += chunks[i].cardinality;
+			return cardinality;
+		}
+
+		/**
+		 * Return whether the set is empty
+		 * @return if there are no numbers in the set
+		 */
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * Return the numbers within the set
+		 * @return the numbers in ascending order
+		 */
+		public int[] toArray() {
+			int[] values = new int[(int) getCardinality()];
+			int count = 0;
+			for(int i=0;i<size;i++)
+				count = chunks[i].toArray(keys[i] << 16, values, count);
+			return values;
+		}
+
+		/**
+		 * Return the numbers within this and another set
+		 * @param other the other set
+		 * @return a new set containing the intersection
+		 */
+		public PostingList and(PostingList other) {
+			PostingList result = new PostingList(Math.min(size, other.size));
+			int i = 0, j = 0;
+			while(i < size && j < other.size) {
+				if(keys[i] < other.keys[j]) i++;
+				else if(keys[i] > other.keys[j]) j++;
+				else {
+					Chunk chunk = chunks[i].and(other.chunks[j]);
+					if(chunk.cardinality > 0)
+						result.insert(result.size, keys[i], chunk);
+					i++;
+					j++;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Return the numbers within this or another set
+		 * @param other the other set
+		 * @return a new set containing the union
+		 */
+		public PostingList or(PostingList other) {
+			PostingList result = new PostingList(size + other.size);
+			int i = 0, j = 0;
+			while(i < size || j < other.size) {
+				if(j == other.size || (i < size && keys[i] < other.keys[j]))
+					result.insert(result.size, keys[i], chunks[i++].copy());
+				else if(i == size || keys[i] > other.keys[j])
+					result.insert(result.size, other.keys[j], other.chunks[j++].copy());
+				else
+					result.insert(result.size, keys[i], chunks[i++].or(other.chunks[j++]));
+			}
+			return result;
+		}
+
+		/**
+		 * Return a copy of this set
+		 * @return a new set containing the same numbers
+		 */
+		public PostingList copy() {
+			PostingList result = new PostingList(size);
+			for(int i=0;i<size;i++)
+				result.insert(i, keys[i], chunks[i].copy());
+			return result;
+		}
+
+		/**
+		 * Return the approximate amount of memory used by the numbers
+		 * @return the size of the chunks in bytes
+		 */
+		public long getSizeInBytes() {
+			long bytes = 0;
+			for(int i=0;i<size;i++)
+				bytes += 2 + (chunks[i].bitmap != null ? BITMAP_WORDS*8 : chunks[i].array.length*2);
+			return bytes;
+		}
+
+		private int search(char key) {
+			return Arrays.binarySearch(keys, 0, size, key);
+		}
+
+		private void insert(int index, char key, Chunk chunk) {
+			if(size == keys.length) {
+				keys = Arrays.copyOf(keys, size*2);
+				chunks = Arrays.copyOf(chunks, size*2);
+			}
+			System.arraycopy(keys, index, keys, index+1, size-index);
+			System.arraycopy(chunks, index, chunks, index+1, size-index);
+			keys[index] = key;
+			chunks[index] = chunk;
+			size++;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(toArray());
+		}
+
+		/**
+		 * The lower 16 bits of the numbers sharing their upper 16 bits, either as a sorted array or a bitmap
+		 */
+		private static class Chunk {
+
+			/** The sorted values, null if this is a bitmap */
+			char[] array;
+			/** One bit for every value, null if this is an array */
+			long[] bitmap;
+			/** The amount of values */
+			int cardinality;
+
+			Chunk() {
+				array = new char[4];
+			}
+
+			private Chunk(char[] array, long[] bitmap, int cardinality) {
+				this.array = array;
+				this.bitmap = bitmap;
+				this.cardinality = cardinality;
+			}
+
+			boolean contains(char value) {
+				if(bitmap != null)
+					return (bitmap[value >>> 6] & (1L << value)) != 0;
+				return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+			}
+
+			/**
+			 * Add a value, turning the array into a bitmap once it gets too large
+			 * @return this chunk
+			 */
+			Chunk add(char value) {
+				if(bitmap != null) {
+					long bit = 1L << value;
+					if((bitmap[value >>> 6] & bit) == 0) {
+						bitmap[value >>> 6] |= bit;
+						cardinality++;
+					}
+					return this;
+				}
+				int index = cardinality > 0 && array[cardinality-1] < value ? -cardinality-1 : Arrays.binarySearch(array, 0, cardinality, value);
+				if(index >= 0) return this;
+				index = -index-1;
+				if(cardinality == ARRAY_MAX) {
+					toBitmap();
+					return add(value);
+				}
+				if(cardinality == array.length)
+					array = Arrays.copyOf(array, Math.min(Math.max(array.length*2, 4), ARRAY_MAX));
+				System.arraycopy(array, index, array, index+1, cardinality-index);
+				array[index] = value;
+				cardinality++;
+				return this;
+			}
+
+			private void toBitmap() {
+				bitmap = new long[BITMAP_WORDS];
+				for(int i=0;i<cardinality;i++)
+					bitmap[array[i] >>> 6] |= 1L << array[i];
+				array = null;
+			}
+
+			Chunk copy() {
+				return new Chunk(array == null ? null : Arrays.copyOf(array, cardinality), bitmap == null ? null : bitmap.clone(), cardinality);
+			}
+
+			Chunk and(Chunk other) {
+				if(bitmap != null && other.bitmap != null) {
+					long[] words = new long[BITMAP_WORDS];
+					int count = 0;
+					for(int i=0;i<BITMAP_WORDS;i++) {
+						words[i] = bitmap[i] & other.bitmap[i];
+						count += Long.bitCount(words[i]);
+					}
+					return count > ARRAY_MAX ? new Chunk(null, words, count) : fromBitmap(words, count);
+				}
+				if(bitmap != null || other.bitmap != null) { //filter the array by the bitmap
+					Chunk small = bitmap == null ? this : other;
+					Chunk large = bitmap == null ? other : this;
+					char[] values = new char[small.cardinality];
+					int count = 0;
+					for(int i=0;i<small.cardinality;i++)
+						if(large.contains(small.array[i]))
+							values[count++] = small.array[i];
+					return new Chunk(values, null, count);
+				}
+				char[] values = new char[Math.min(cardinality, other.cardinality)];
+				int count = 0;
+				for(int i=0, j=0;i<cardinality && j<other.cardinality;) {
+					if(array[i] < other.array[j]) i++;
+					else if(array[i] > other.array[j]) j++;
+					else {
+						values[count++] = array[i];
+						i++;
+						j++;
+					}
+				}
+				return new Chunk(values, null, count);
+			}
+
+			Chunk or(Chunk other) {
+				if(bitmap != null || other.bitmap != null) {
+					long[] words = bitmap != null ? bitmap.clone() : other.bitmap.clone();
+					Chunk rest = bitmap != null ? other : this;
+					if(rest.bitmap != null)
+						for(int i=0;i<BITMAP_WORDS;i++)
+							words[i] |= rest.bitmap[i];
+					else
+						for(int i=0;i<rest.cardinality;i++)
+							words[rest.array[i] >>> 6] |= 1L << rest.array[i];
+					int count = 0;
+					for(long word:words)
+						count += Long.bitCount(word);
+					return new Chunk(null, words, count);
+				}
+				char[] values = new char[cardinality + other.cardinality];
+				int count = 0;
+				int i = 0, j = 0;
+				while(i < cardinality || j < other.cardinality) {
+					if(j == other.cardinality || (i < cardinality && array[i] < other.array[j]))
+						values[count++] = array[i++];
+					else if(i == cardinality || array[i] > other.array[j])
+						values[count++] = other.array[j++];
+					else {
+						values[count++] = array[i++];
+						j++;
+					}
+				}
+				Chunk chunk = new Chunk(values, null, count);
+				if(count > ARRAY_MAX)
+					chunk.toBitmap();
+				return chunk;
+			}
+
+			private static Chunk fromBitmap(long[] words, int count) {
+				char[] values = new char[count];
+				int index = 0;
+				for(int i=0;i<BITMAP_WORDS;i++)
+					for(long word=words[i];word!=0;word&=word-1)
+						values[index++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+				return new Chunk(values, null, count);
+			}
+
+			int toArray(int high, int[] values, int count) {
+				if(bitmap == null) {
+					for(int i=0;i<cardinality;i++)
+						values[count++] = high | array[i];
+					return count;
+				}
+				for(int i=0;i<BITMAP_WORDS;i++)
+					for(long word=bitmap[i];word!=0;word&=word-1)
+						values[count++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+				return count;
+			}
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package pusty.f0xpe.pe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pusty.f0xpe.ExecutableStream;
+
+/**
+ * Computes the PE checksum (IMAGE_OPTIONAL_HEADER.CheckSum) of a file
+ * <br>The checksum is the folded one's complement sum of all 16bit words of the file, skipping the CheckSum field, plus
+ * the file size. As the one's complement sum doesn't depend on the order of the words, the file is summed up in blocks
+ * of ExecutableStream.MODIFIED_BLOCK_SIZE bytes, 8 bytes at a time, large files in parallel.
+ * <br>An instance keeps the sum of every block and only sums up the blocks written to since the last update again
+ * (see ExecutableStream.trackModifications).
+ * <br>Reference: https://docs.microsoft.com/en-us/windows/desktop/api/imagehlp/nf-imagehlp-checksummappedfile
+ */
+public class PEChecksum {
+
+	/** The size of the blocks summed up separately */
+	public static final int BLOCK_SIZE = ExecutableStream.MODIFIED_BLOCK_SIZE;
+	/** The amount of blocks a single task sums up, files with more blocks are summed up in parallel */
+	private static final int BLOCKS_PER_TASK = 64;
+
+	/** The reader the checksum is computed for */
+	private final ExecutableReader reader;
+	/** The folded sum of every block, null if not computed yet */
+	private int[] blocks;
+	/** The offset of the CheckSum field the block sums were computed without */
+	private int field;
+
+	/**
+	 * Create a checksum for a reader and start tracking the modifications of its stream
+	 * <br>NOTE: Writes into the array of ExecutableStream.getData or the buffer of ExecutableStream.getBuffer have to be
+	 * reported with ExecutableStream.markModified
+	 * @param reader the reader to compute the checksum of
+	 */
+	public PEChecksum(ExecutableReader reader) {
+		this.reader = reader;
+		reader.getStream().trackModifications();
+	}
+
+	/**
+	 * Compute the checksum of the current content, only summing up the blocks modified since the last update again
+	 * @return the checksum of the file
+	 */
+	public synchronized int update() {
+		ExecutableStream stream = reader.getStream();
+		ByteBuffer data = stream.getBuffer();
+		int offset = checkSumOffset(reader);
+		BitSet modified = stream.takeModified();
+		int count = blockCount(data.limit());
+		if(blocks == null || offset != field || modified == null) {
+			blocks = new int[count];
+			field = offset;
+			sum(data, field, blocks, null, 0, count);
+		}else {
+			int previous = blocks.length;
+			if(count != previous) {
+				blocks = Arrays.copyOf(blocks, count);
+				if(previous > 0 && count > previous)
+					modified.set(previous-1, count); //the last block was partial
+			}
+			int[] dirty = new int[modified.cardinality()];
+			int amount = 0;
+			for(int i=modified.nextSetBit(0);i>=0 && i<count;i=modified.nextSetBit(i+1))
+				dirty[amount++] = i;
+			sum(data, field, blocks, dirty, 0, amount);
+		}
+		return finish(blocks, data.limit());
+	}
+
+	/**
+	 * Compute the checksum and write it into the optional header
+	 * @return the written checksum
+	 */
+	public int apply() {
+		int checksum = update();
+		reader.getOptionalHeader().setCheckSum(checksum);
+		return checksum;
+	}
+
+	/**
+	 * Compute the checksum of a file once without keeping the block sums
+	 * @param reader the reader to compute the checksum of
+	 * @return the checksum of the file
+	 */
+	public static int compute(ExecutableReader reader) {
+		return compute(reader.getStream().getBuffer(), checkSumOffset(reader));
+	}
+
+	/**
+	 * Compute the checksum of a file once without keeping the block sums
+	 * @param data the file, from 0 to its limit
+	 * @param field the offset of the CheckSum field to skip
+	 * @return the checksum of the file
+	 */
+	public static int compute(ByteBuffer data, int field) {
+		int[] sums = new int[blockCount(data.limit())];
+		sum(data, field, sums, null, 0, sums.length);
+		return finish(sums, data.limit());
+	}
+
+	/**
+	 * Return the offset of the CheckSum field of a reader
+	 */
+	private static int checkSumOffset(ExecutableReader reader) {
+		return reader.getOptionalHeader().CheckSum;
+	}
+
+	private static int blockCount(int size) {
+		return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	/**
+	 * Add up the block sums, fold them and add the file size
+	 */
+	private static int finish(int[] sums, int size) {
+		long sum = 0;
+		for(int value:sums)
+			sum += value;
+		return fold(sum) + size;
+	}
+
+	/**
+	 * Fold a sum of 16bit words into a 16bit one's complement sum
+	 */
+	private static int fold(long sum) {
+		while((sum >>> 16) != 0)
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		return (int) sum;
+	}
+
+	/**
+	 * Sum up a range of blocks, in parallel if there are many
+	 * @param indices the blocks to sum up, null to sum up the blocks from to directly
+	 */
+	private static void sum(ByteBuffer data, int field, int[] sums, int[] indices, int from, int to) {
+		if(to - from <= BLOCKS_PER_TASK) {
+			for(int i=from;i<to;i++) {
+				int block = indices == null ? i : indices[i];
+				sums[block] = blockSum(data, field, block);
+			}
+		}else
+			ForkJoinPool.commonPool().invoke(new BlockTask(data, field, sums, indices, from, to));
+	}
+
+	/**
+	 * Return the folded sum of a block, skipping the CheckSum field
+	 */
+	private static int blockSum(ByteBuffer data, int field, int block) {
+		int start = block * BLOCK_SIZE;
+		int end = Math.min(start + BLOCK_SIZE, data.limit());
+		if(field + 4 <= start || field >= end)
+			return fold(wordSum(data, start, end));
+		return fold(wordSum(data, start, Math.max(field, start)) + wordSum(data, Math.min(field + 4, end), end));
+	}
+
+	/**
+	 * Sum up the 16bit words of a range, 8 bytes at a time
+	 * <br>Bytes at odd offsets are the high byte of their word, a trailing byte is padded with zero
+	 */
+	private static long wordSum(ByteBuffer data, int from, int to) {
+		long sum = 0;
+		int i = from;
+		if((i & 1) != 0 && i < to) {
+			sum += (data.get(i) & 0xFF) << 8;
+			i++;
+		}
+		//2^16 is 1 in one's complement arithmetic, so the 32bit halves can be added directly
+		for(;i+8<=to;i+=8) {
+			long value = data.getLong(i);
+			sum += (value & 0xFFFFFFFFL) + (value >>> 32);
+		}
+		for(;i+2<=to;i+=2)
+			sum += data.getShort(i) & 0xFFFF;
+		if(i < to)
+			sum += data.get(i) & 0xFF;
+		return sum;
+	}
+
+	/**
+	 * Sums up a range of blocks by splitting it in halves until it is small enough
+	 */
+	private static class BlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer data;
+		private final int field;
+		private final int[] sums;
+		private final int[] indices;
+		private final int from;
+		private final int to;
+
+		BlockTask(ByteBuffer data, int field, int[] sums, int[] indices, int from, int to) {
+			this.data = data;
+			this.field = field;
+			this.sums = sums;
+			this.indices = indices;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= BLOCKS_PER_TASK) {
+				sum(data, field, sums, indices, from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new BlockTask(data, field, sums, indices, from, middle), new BlockTask(data, field, sums, indices, middle, to));
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package pusty.f0xpe.pe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_IMPORT_DESCRIPTOR;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_THUNK_DATA;
+import pusty.f0xpe.pe.DescriptorResource.IMAGE_RESOURCE_DIRECTORY;
+import pusty.f0xpe.pe.DescriptorResource.IMAGE_RESOURCE_DIRECTORY_ENTRY;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY;
+
+/**
+ * A persistent cache of parse summaries in a directory, keyed by the hash and size of the original files
+ * <br>A summary only contains the blocks of ExecutableStream.MODIFIED_BLOCK_SIZE bytes parsing reads: the headers, the
+ * section table and the export, import, resource and TLS directories including all names. A cache hit maps the blocks
+ * read-only as a partial stream, so the summary is parsed by the same code as the file itself without touching it.
+ * <br>Summaries are parsed as strict as the original files (see {@link ExecutableReader#isStrict()}), so a directory that
+ * fails to parse fails the same way on a hit, as every block read while parsing the original file is summarized.
+ * <br>NOTE: Readers of summaries only contain the summarized blocks, everything else (e.g. code, resource data,
+ * relocations, exceptions and certificates) fails to read instead of reading as zeros. Functions
+ * needing the whole file (e.g. checksums, digests, searching and profiling sections) throw an
+ * UnsupportedOperationException, use the original file for these, see {@link ExecutableStream#isPartial()}
+ * <br>Summary format (little endian): the magic "F0XC", the format version, the block size, the length of the hash,
+ * the size of the original file, the offset of the blocks, the amount of runs of summarized blocks, the hash, the runs
+ * as pairs of first and last block (exclusive) and the blocks of all runs packed one after another.
+ */
+public class ParseCache {
+
+	/** The magic at the start of every summary ("F0XC") */
+	public static final int MAGIC = 0x43583046;
+	/** The version of the summary format, summaries of other versions are ignored and replaced */
+	public static final int VERSION = 2;
+	/** The size of the summarized blocks */
+	public static final int BLOCK_SIZE = ExecutableStream.MODIFIED_BLOCK_SIZE;
+	/** The size of the fixed part of the summary header */
+	private static final int HEADER_SIZE = 32;
+
+	/** The directory the summaries are stored in */
+	protected final File directory;
+	/** Whether files and summaries are parsed by strict readers */
+	protected final boolean strict;
+
+	/** The amount of readers returned from summaries */
+	protected final AtomicLong hits = new AtomicLong();
+	/** The amount of lookups without a valid summary */
+	protected final AtomicLong misses = new AtomicLong();
+	/** The amount of summaries written */
+	protected final AtomicLong stored = new AtomicLong();
+
+	/**
+	 * Create a cache storing its summaries in a directory
+	 * @param directory the directory of the cache, created if it doesn't exist
+	 */
+	public ParseCache(File directory) {
+		this(directory, false);
+	}
+
+	/**
+	 * Create a cache storing its summaries in a directory
+	 * <br>Strict caches throw on broken files instead of storing their summary, see {@link ExecutableReader#isStrict()}
+	 * @param directory the directory of the cache, created if it doesn't exist
+	 * @param strict whether to parse files and summaries by strict readers
+	 */
+	public ParseCache(File directory, boolean strict) {
+		this.directory = directory;
+		this.strict = strict;
+	}
+
+	/**
+	 * Return the reader of a file, from its summary if cached or else by parsing the file and storing its summary
+	 * <br>The hash is usually already known (e.g. from the index of a corpus), a cache hit doesn't access the file
+	 * @param file the file to parse on a cache miss
+	 * @param hash the hash of the file (e.g. SHA-256)
+	 * @return the partial reader of the summary on a hit, the reader of the file mapped read-only on a miss, null if the file
+	 * isn't a supported PE file
+	 * @throws Exception the file couldn't be read or parsed, for strict caches also the file is broken
+	 */
+	public ExecutableReader load(File file, byte[] hash) throws Exception {
+		ExecutableReader reader = get(hash, file.length());
+		if(reader != null) return reader;
+		return store(ExecutableStream.fromFile(file, ExecutableStream.LOAD_MAPPED_READ_ONLY), hash);
+	}
+
+	/**
+	 * Return the reader of a cached summary
+	 * @param hash the hash of the original file
+	 * @param size the size of the original file
+	 * @return the read-only reader of the partial stream of the summary, null if there is no valid summary for this file
+	 */
+	public ExecutableReader get(byte[] hash, long size) {
+		File summary = getSummaryFile(hash, size);
+		if(!summary.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			ExecutableStream stream = open(summary, hash, size);
+			ExecutableReader reader = stream == null ? null : ExecutableReader.create(stream, false, strict);
+			if(reader == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return reader;
+		} catch (Exception e) {
+			e.printStackTrace();
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Map the blocks of a summary if it belongs to the file
+	 * @return the read-only partial stream of the blocks, null if the summary has another version or belongs to another file
+	 */
+	private static ExecutableStream open(File summary, byte[] hash, long size) throws IOException {
+		FileChannel channel = FileChannel.open(summary.toPath(), StandardOpenOption.READ);
+		try {
+			if(channel.size() < HEADER_SIZE || size > Integer.MAX_VALUE) return null;
+			ByteBuffer header = read(channel, (int) Math.min(channel.size(), BLOCK_SIZE));
+			if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != BLOCK_SIZE) return null;
+			int hashLength = header.getInt(12);
+			long imageSize = header.getLong(16);
+			long dataOffset = header.getLong(24);
+			if(imageSize != size || hashLength != hash.length || HEADER_SIZE + hashLength + 4 > header.limit()) return null;
+			byte[] stored = new byte[hashLength];
+			header.position(HEADER_SIZE);
+			header.get(stored);
+			if(!Arrays.equals(stored, hash)) return null;
+			int runs = header.getInt();
+			long headerSize = header.position() + runs*8L;
+			if(runs < 0 || headerSize > Integer.MAX_VALUE || dataOffset < headerSize || dataOffset > channel.size()) return null;
+			if(headerSize > header.limit()) {
+				//the run table of fragmented summaries doesn't fit into the first block
+				int position = header.position();
+				header = read(channel, (int) headerSize);
+				header.position(position);
+			}
+			BitSet present = new BitSet();
+			int count = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			for(int i=0;i<runs;i++) {
+				int start = header.getInt();
+				int end = header.getInt();
+				if(start < 0 || start > end || end > count) return null;
+				present.set(start, end);
+			}
+			//the mapping stays valid after the channel is closed
+			MappedByteBuffer data = channel.map(MapMode.READ_ONLY, dataOffset, channel.size() - dataOffset);
+			return new ExecutableStream(data, (int) size, present);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Read the start of a channel
+	 * @return a little endian buffer with the bytes read
+	 */
+	private static ByteBuffer read(FileChannel channel, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Parse a file and store its summary
+	 * <br>The file is parsed fully while recording the accessed blocks of the stream, then all names of the parsed
+	 * directories are read so they are summarized too.
+	 * @param stream the content of the file
+	 * @param hash the hash of the file
+	 * @return the reader of the file, null if it isn't a supported PE file
+	 * @throws Exception the file couldn't be parsed, for strict caches also the file is broken
+	 */
+	public ExecutableReader store(ExecutableStream stream, byte[] hash) throws Exception {
+		BitSet blocks;
+		ExecutableReader reader;
+		stream.trackReads();
+		try {
+			reader = ExecutableReader.create(stream, false, strict);
+			if(reader != null) touch(reader);
+		} finally {
+			blocks = stream.stopTrackingReads();
+		}
+		if(reader == null) return null;
+		try {
+			write(stream, hash, blocks);
+			stored.incrementAndGet();
+		} catch (IOException e) {
+			e.printStackTrace(); //the reader is still usable
+		}
+		return reader;
+	}
+
+	/**
+	 * Read everything the parsed structures refer to and parsing itself doesn't read
+	 */
+	private static void touch(ExecutableReader reader) throws Exception {
+		ExecutableStream stream = reader.getStream();
+		IMAGE_OPTIONAL_HEADER32 header = reader.getOptionalHeader();
+		stream.markRead(0, Math.min(header.getSizeOfHeaders(), stream.getSize()));
+
+		DescriptorImport imports = header.getImportDescriptor();
+		if(imports != null)
+			for(IMAGE_IMPORT_DESCRIPTOR dll:imports.getImports()) {
+				dll.getDLLName();
+				if(dll.getOriginalFirstThunk() != 0)
+					touch(dll.parseHintNameTable());
+				touch(dll.parseImportTable());
+			}
+
+		DescriptorExport exports = header.getExportDescriptor();
+		if(exports != null) {
+			IMAGE_DATA_DIRECTORY entry = header.getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT];
+			stream.markRead(reader.rva2offset(entry.getVirtualAddress()), Math.min(entry.getSize(), stream.getSize()));
+			for(int i=0;i<exports.getNumberOfNames();i++) {
+				exports.getName(i);
+				exports.getNameOrdinal(i);
+			}
+			for(int i=0;i<exports.getNumberOfFunctions();i++) {
+				int ordinal = exports.getBase() + i;
+				if(exports.isForwarder(exports.getFunctionRVA(ordinal)))
+					exports.getForwarder(ordinal);
+			}
+		}
+
+		DescriptorResource resources = header.getResourceDescriptor();
+		if(resources != null)
+			touch(resources.getRoot());
+	}
+
+	/**
+	 * Read the names of imports
+	 */
+	private static void touch(IMAGE_THUNK_DATA[] thunks) {
+		for(IMAGE_THUNK_DATA thunk:thunks)
+			if(!thunk.isOrdinal())
+				thunk.getName();
+	}
+
+	/**
+	 * Read the names of a resource directory and its sub directories
+	 */
+	private static void touch(IMAGE_RESOURCE_DIRECTORY directory) {
+		if(directory == null || directory.getEntires() == null) return;
+		for(IMAGE_RESOURCE_DIRECTORY_ENTRY entry:directory.getEntires()) {
+			if(!entry.isOrdinal())
+				entry.getNameStr();
+			if(entry.isDirectory())
+				touch(entry.getDir());
+		}
+	}
+
+	/**
+	 * Write the summary of a file into a temporary file and move it into place
+	 */
+	private void write(ExecutableStream stream, byte[] hash, BitSet blocks) throws IOException {
+		int size = stream.getSize();
+		int count = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] runs = new int[blocks.cardinality()*2];
+		int amount = 0;
+		for(int start=blocks.nextSetBit(0);start>=0 && start<count;start=blocks.nextSetBit(start)) {
+			int end = Math.min(blocks.nextClearBit(start), count);
+			runs[amount++] = start;
+			runs[amount++] = end;
+			start = end;
+		}
+		int headerSize = HEADER_SIZE + hash.length + 4 + amount*4;
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_SIZE).putInt(hash.length);
+		header.putLong(size).putLong(headerSize);
+		header.put(hash);
+		header.putInt(amount/2);
+		for(int i=0;i<amount;i++)
+			header.putInt(runs[i]);
+		header.flip();
+
+		File summary = getSummaryFile(hash, size);
+		File parent = summary.getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+			throw new IOException("Can't create cache directory "+parent);
+		File temporary = File.createTempFile(summary.getName(), ".tmp", parent);
+		try {
+			FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE);
+			try {
+				write(channel, header, 0);
+				long position = headerSize;
+				for(int i=0;i<amount;i+=2) {
+					int from = runs[i] * BLOCK_SIZE;
+					int length = (int) Math.min((long) runs[i+1] * BLOCK_SIZE, size) - from;
+					write(channel, stream.getView(from, length), position);
+					position += length;
+				}
+			} finally {
+				channel.close();
+			}
+			//concurrent writers of the same summary write the same content, the last move wins
+			Files.move(temporary.toPath(), summary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Write a buffer to a position within a channel until it is fully written
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * Return the file of the summary of a file, within a sub directory named after the first byte of the hash
+	 * @param hash the hash of the original file
+	 * @param size the size of the original file
+	 * @return the summary file, which doesn't necessarily exist
+	 */
+	public File getSummaryFile(byte[] hash, long size) {
+		StringBuilder name = new StringBuilder(hash.length*2 + 16);
+		for(byte b:hash)
+			name.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		String prefix = name.length() >= 2 ? name.substring(0, 2) : "00";
+		name.append('-').append(size).append(".f0xc");
+		return new File(new File(directory, prefix), name.toString());
+	}
+
+	/**
+	 * Return the amount of readers returned from summaries
+	 * @return the amount of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Return the amount of lookups without a valid summary
+	 * @return the amount of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Return the amount of summaries written
+	 * @return the amount of stored summaries
+	 */
+	public long getStored() {
+		return stored.get();
+	}
+}
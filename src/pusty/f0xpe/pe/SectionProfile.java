@@ -0,0 +1,292 @@
+package pusty.f0xpe.pe;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The content profile of the raw data of one section: message digests, byte histogram and Shannon entropy, optionally
+ * the entropy of every window of a fixed size (e.g. to find packed or encrypted regions within a section)
+ * <br>All values are collected in a single pass over the data, the sections of a file are profiled in parallel, see
+ * {@link #profile(ExecutableReader, String[], int)}.
+ */
+public class SectionProfile {
+
+	/** The amount of bytes read from the stream at once */
+	private static final int CHUNK_SIZE = 0x10000;
+	/** The largest count the window entropy is looked up for instead of computing a logarithm */
+	private static final int MAX_TABLE = 0x10000;
+
+	/** The profiled section */
+	protected final IMAGE_SECTION_HEADER section;
+	/** The file offset of the profiled data */
+	protected final int offset;
+	/** The amount of profiled bytes, the raw size of the section cut off at the end of the file */
+	protected final int size;
+	/** The names of the digest algorithms */
+	protected final String[] algorithms;
+	/** The digest of the data for every algorithm */
+	protected final byte[][] digests;
+	/** The amount of every byte value */
+	protected final long[] histogram = new long[256];
+	/** The Shannon entropy of the data in bits per byte */
+	protected double entropy;
+	/** The size of the entropy windows, 0 if no windows are computed */
+	protected final int window;
+	/** The entropy of every window, the last window may be shorter */
+	protected final double[] windowEntropy;
+
+	/**
+	 * Create an empty profile of a section
+	 */
+	private SectionProfile(IMAGE_SECTION_HEADER section, int offset, int size, String[] algorithms, int window) {
+		this.section = section;
+		this.offset = offset;
+		this.size = size;
+		this.algorithms = algorithms;
+		this.digests = new byte[algorithms.length][];
+		this.window = window;
+		this.windowEntropy = window > 0 ? new double[(int) (((long) size + window - 1) / window)] : null;
+	}
+
+	/**
+	 * Profile the raw data of all sections of a file in parallel
+	 * @param reader the file to profile
+	 * @param algorithms the names of the digest algorithms to compute, e.g. "MD5" and "SHA-256", may be empty
+	 * @param window the size of the windows to compute the entropy of, 0 for none
+	 * @return the profile of every section, in the order of the section headers
+	 * @throws NoSuchAlgorithmException one of the algorithms isn't available
+	 */
+	public static SectionProfile[] profile(ExecutableReader reader, String[] algorithms, int window) throws NoSuchAlgorithmException {
+		for(String algorithm:algorithms) //fail before starting any work
+			MessageDigest.getInstance(algorithm);
+		ByteBuffer data = reader.getStream().getBuffer();
+		IMAGE_SECTION_HEADER[] sections = reader.getSectionHeader();
+		SectionProfile[] profiles = new SectionProfile[sections.length];
+		final ArrayList<ProfileTask> tasks = new ArrayList<ProfileTask>(sections.length);
+		for(int i=0;i<sections.length;i++) {
+			long start = Math.min(sections[i].getPointerToRawData() & 0xFFFFFFFFL, data.limit());
+			long end = Math.min(start + (sections[i].getSizeOfRawData() & 0xFFFFFFFFL), data.limit());
+			profiles[i] = new SectionProfile(sections[i], (int) start, (int) (end - start), algorithms, window);
+			tasks.add(new ProfileTask(profiles[i], data));
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+		return profiles;
+	}
+
+	/**
+	 * Read the data once in chunks and feed every chunk into the digests, the histogram and the windows
+	 * @param data the content of the file
+	 * @throws NoSuchAlgorithmException one of the algorithms isn't available
+	 */
+	private void compute(ByteBuffer data) throws NoSuchAlgorithmException {
+		MessageDigest[] md = new MessageDigest[algorithms.length];
+		for(int i=0;i<md.length;i++)
+			md[i] = MessageDigest.getInstance(algorithms[i]);
+		byte[] chunk;
+		int base;
+		if(data.hasArray()) { //heap streams are read from their array directly
+			chunk = data.array();
+			base = data.arrayOffset();
+		}else {
+			chunk = new byte[Math.min(CHUNK_SIZE, size)];
+			base = 0;
+		}
+		long[] windowHistogram = window > 0 ? new long[256] : null;
+		double[] table = window > 0 ? entropyTable(Math.min(window, MAX_TABLE)) : null;
+		int windowFill = 0;
+		int windows = 0;
+		for(int position=0;position<size;position+=CHUNK_SIZE) {
+			int length = Math.min(CHUNK_SIZE, size - position);
+			int from;
+			if(data.hasArray()) {
+				from = base + offset + position;
+			}else {
+				ByteBuffer view = data.duplicate();
+				view.position(offset + position);
+				view.get(chunk, 0, length);
+				from = 0;
+			}
+			for(MessageDigest digest:md)
+				digest.update(chunk, from, length);
+			if(windowHistogram == null) {
+				for(int i=from;i<from+length;i++)
+					histogram[chunk[i] & 0xFF]++;
+				continue;
+			}
+			//Count into the window only, the window is added to the whole histogram once it is full
+			for(int i=from;i<from+length;) {
+				int count = Math.min(from + length - i, window - windowFill);
+				for(int end=i+count;i<end;i++)
+					windowHistogram[chunk[i] & 0xFF]++;
+				windowFill += count;
+				if(windowFill == window) {
+					windowEntropy[windows++] = finishWindow(windowHistogram, window, table);
+					windowFill = 0;
+				}
+			}
+		}
+		if(windowFill > 0)
+			windowEntropy[windows] = finishWindow(windowHistogram, windowFill, table);
+		entropy = entropy(histogram, size);
+		for(int i=0;i<md.length;i++)
+			digests[i] = md[i].digest();
+	}
+
+	/**
+	 * Add a window to the histogram of the section, compute its entropy and clear it
+	 * @return the entropy of the window in bits per byte
+	 */
+	private double finishWindow(long[] windowHistogram, int total, double[] table) {
+		double sum = 0; //entropy = log2(total) - sum(c*log2(c))/total
+		for(int i=0;i<256;i++) {
+			long count = windowHistogram[i];
+			if(count == 0) continue;
+			histogram[i] += count;
+			sum += count < table.length ? table[(int) count] : count * Math.log(count) / Math.log(2);
+			windowHistogram[i] = 0;
+		}
+		return Math.log(total) / Math.log(2) - sum / total;
+	}
+
+	/**
+	 * Return c*log2(c) for every count up to a limit
+	 */
+	private static double[] entropyTable(int limit) {
+		double[] table = new double[limit+1];
+		for(int c=2;c<=limit;c++)
+			table[c] = c * Math.log(c) / Math.log(2);
+		return table;
+	}
+
+	/**
+	 * Compute the Shannon entropy of a histogram
+	 * @param histogram the amount of every byte value
+	 * @param total the sum of the histogram
+	 * @return the entropy in bits per byte, between 0 and 8
+	 */
+	public static double entropy(long[] histogram, long total) {
+		if(total == 0) return 0;
+		double entropy = 0;
+		for(long count:histogram) {
+			if(count == 0) continue;
+			double p = (double) count / total;
+			entropy -= p * Math.log(p);
+		}
+		return entropy / Math.log(2);
+	}
+
+	/**
+	 * Return the profiled section
+	 * @return the section header
+	 */
+	public IMAGE_SECTION_HEADER getSection() {
+		return section;
+	}
+
+	/**
+	 * Return the file offset of the profiled data
+	 * @return the offset of the raw data
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Return the amount of profiled bytes
+	 * @return the raw size of the section, cut off at the end of the file
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Return the digest of the data
+	 * @param algorithm the name of the algorithm as passed to profile
+	 * @return the digest, null if the algorithm wasn't computed
+	 */
+	public byte[] getDigest(String algorithm) {
+		for(int i=0;i<algorithms.length;i++)
+			if(algorithms[i].equalsIgnoreCase(algorithm))
+				return digests[i].clone();
+		return null;
+	}
+
+	/**
+	 * Return the amount of every byte value
+	 * @return a copy of the 256 entry histogram
+	 */
+	public long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * Return the amount of a byte value
+	 * @param value the byte value
+	 * @return the amount of occurrences
+	 */
+	public long getCount(int value) {
+		return histogram[value & 0xFF];
+	}
+
+	/**
+	 * Return the Shannon entropy of the data
+	 * <br>NOTE: Values close to 8 indicate compressed or encrypted data
+	 * @return the entropy in bits per byte, between 0 and 8
+	 */
+	public double getEntropy() {
+		return entropy;
+	}
+
+	/**
+	 * Return the size of the entropy windows
+	 * @return the window size, 0 if no windows were computed
+	 */
+	public int getWindowSize() {
+		return window;
+	}
+
+	/**
+	 * Return the entropy of every window, the last window may be shorter
+	 * @return a copy of the entropy curve, null if no windows were computed
+	 */
+	public double[] getWindowEntropy() {
+		return windowEntropy == null ? null : windowEntropy.clone();
+	}
+
+	/**
+	 * Profiles one section
+	 */
+	private static class ProfileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SectionProfile profile;
+		private final ByteBuffer data;
+
+		ProfileTask(SectionProfile profile, ByteBuffer data) {
+			this.profile = profile;
+			this.data = data;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				profile.compute(data);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e); //checked before the tasks are started
+			}
+		}
+	}
+}
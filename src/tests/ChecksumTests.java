@@ -0,0 +1,126 @@
+package tests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.payload.ModifyPE;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
+import pusty.f0xpe.pe.PEChecksum;
+
+/**
+ * Tests of the full and incremental checksum against a plain recompute of the whole file
+ */
+public class ChecksumTests {
+
+	public static void add(List<Test> tests) {
+		tests.add(compute("PEChecksum.compute"));
+		tests.add(update("PEChecksum.update", false));
+		tests.add(update("PEChecksum.update/64bit", true));
+	}
+
+	/**
+	 * Compute the checksum like the loader does: add up all 16bit words except the CheckSum field with the carries folded
+	 * back in, then add the file size
+	 */
+	static int reference(byte[] file) {
+		ByteBuffer data = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+		int field = data.getInt(0x3C) + 4 + 20 + 64;
+		long sum = 0;
+		for(int i=0;i<file.length;i+=2) {
+			if(i >= field && i < field+4) continue;
+			int word = file[i] & 0xFF;
+			if(i+1 < file.length) word |= (file[i+1] & 0xFF) << 8;
+			sum += word;
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		}
+		return (int) (sum + file.length);
+	}
+
+	/** The checksum of files of different sizes, including ones with a trailing odd byte */
+	private static Test compute(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				GeneratePE[] generators = {
+					new GeneratePE().setSeed(1),
+					new GeneratePE().set64bit(true).setSeed(2),
+					new GeneratePE().setImports(50, 100).setCodeSize(0x40000).setSeed(3),
+					new GeneratePE().set64bit(true).setCodeSize(0x100000).setFunctions(10000).setSeed(4),
+				};
+				Random random = new Random(1);
+				for(GeneratePE generator:generators) {
+					byte[] generated = generator.generate();
+					for(int extra=0;extra<4;extra++) {
+						byte[] file = Arrays.copyOf(generated, generated.length + extra);
+						for(int i=generated.length;i<file.length;i++)
+							file[i] = (byte) random.nextInt();
+						ExecutableReader reader = ExecutableReader.create(new ExecutableStream(file));
+						checkEquals(reference(file), PEChecksum.compute(reader), "checksum of "+file.length+" bytes");
+						checkEquals(reference(file), reader.getChecksum().update(), "first update of "+file.length+" bytes");
+					}
+				}
+			}
+		};
+	}
+
+	/** The incremental checksum after writes, section injection, insertion, removal and rebasing */
+	private static Test update(String name, final boolean is64bit) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] file = new GeneratePE().set64bit(is64bit).setImports(10, 20).setTLSCallbacks(2).setCodeSize(0x20000).setRelocations(true).setSeed(1).generate();
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(file));
+				PEChecksum checksum = reader.getChecksum();
+				checkEquals(reference(reader.getStream().getData()), checksum.update(), "initial checksum");
+				Random random = new Random(1);
+				for(int step=0;step<300;step++) {
+					ExecutableStream stream = reader.getStream();
+					IMAGE_SECTION_HEADER code = reader.getSectionHeader()[0];
+					String operation;
+					switch(random.nextInt(9)) {
+					case 0:
+						operation = "rebase";
+						check(ModifyPE.rebase(reader, (random.nextInt(0x1000) + 1) * 0x10000L) > 0, "rebased");
+						break;
+					case 1:
+						operation = "injectSection";
+						if(reader.getSectionHeader().length < 12)
+							check(ModifyPE.injectSection(reader, ".t"+step, 0x200 + random.nextInt(0x2000), 0x60000020) != -1, "section injected");
+						break;
+					case 2:
+						operation = "insert";
+						reader.insert(code.getPointerToRawData() + random.nextInt(code.getSizeOfRawData()), 1 + random.nextInt(0x1800));
+						break;
+					case 3:
+						operation = "remove";
+						if(code.getSizeOfRawData() > 0x4000)
+							reader.remove(code.getPointerToRawData() + random.nextInt(0x1000), 1 + random.nextInt(0x1800));
+						break;
+					case 4:
+						operation = "apply";
+						int value = checksum.apply();
+						checkEquals(reference(stream.getData()), value, "applied checksum");
+						checkEquals(value, reader.getOptionalHeader().getCheckSum(), "written checksum");
+						break;
+					case 5:
+						operation = "setCheckSum";
+						reader.getOptionalHeader().setCheckSum(random.nextInt());
+						break;
+					default:
+						operation = "setInt";
+						for(int i=0;i<1+random.nextInt(8);i++) //only the code, the other sections are still parsed
+							stream.setInt(code.getPointerToRawData() + random.nextInt(code.getSizeOfRawData()-3), random.nextInt());
+						break;
+					}
+					checkEquals(reference(reader.getStream().getData()), checksum.update(), "checksum after step "+step+" ("+operation+")");
+				}
+			}
+		};
+	}
+}
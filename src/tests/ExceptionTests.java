@@ -0,0 +1,130 @@
+package tests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.pe.DescriptorException;
+import pusty.f0xpe.pe.DescriptorException.UNWIND_INFO;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32;
+
+/**
+ * Tests of the exception table lookups against a linear scan of the table the generator wrote
+ */
+public class ExceptionTests {
+
+	public static void add(List<Test> tests) {
+		tests.add(findFunction("DescriptorException.findFunction", false));
+		tests.add(findFunction("DescriptorException.findFunction/unsorted", true));
+		tests.add(findPrimaryFunction("DescriptorException.findPrimaryFunction"));
+	}
+
+	/** Return the file offset of the exception table */
+	private static int table(byte[] file) throws Exception {
+		ExecutableReader reader = ExecutableReader.create(new ExecutableStream(file));
+		return reader.rva2offset(reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXCEPTION].getVirtualAddress());
+	}
+
+	/** Return the index of the function containing an address in the raw table by scanning all entries, -1 if none */
+	private static int scan(ByteBuffer table, int count, int rva) {
+		long address = rva & 0xFFFFFFFFL;
+		for(int i=0;i<count;i++) {
+			long begin = table.getInt(i*12) & 0xFFFFFFFFL;
+			long end = table.getInt(i*12+4) & 0xFFFFFFFFL;
+			if(begin <= address && address < end) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Every address is found in the function containing it, also with gaps between functions and an unsorted table
+	 */
+	private static Test findFunction(String name, final boolean shuffle) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] file = new GeneratePE().set64bit(true).setCodeSize(0x10000).setFunctions(500).setSeed(1).generate();
+				int count = 500;
+				ByteBuffer table = ByteBuffer.wrap(file, table(file), count*12).slice().order(ByteOrder.LITTLE_ENDIAN);
+				Random random = new Random(1);
+				for(int i=0;i<count;i+=3) //leave a gap after every third function
+					table.putInt(i*12+4, table.getInt(i*12+4) - 1 - random.nextInt(16));
+				if(shuffle) {
+					for(int i=count-1;i>0;i--) {
+						int j = random.nextInt(i+1);
+						for(int k=0;k<12;k+=4) {
+							int temp = table.getInt(i*12+k);
+							table.putInt(i*12+k, table.getInt(j*12+k));
+							table.putInt(j*12+k, temp);
+						}
+					}
+				}
+
+				DescriptorException exceptions = ExecutableReader.create(new ExecutableStream(file)).getOptionalHeader().getExceptionDescriptor();
+				checkEquals(count, exceptions.getCount(), "functions");
+				for(int i=1;i<count;i++)
+					check(Integer.compareUnsigned(exceptions.getBeginAddress(i-1), exceptions.getBeginAddress(i)) < 0, "functions sorted");
+
+				int[] rvas = new int[count*4 + 10000];
+				int n = 0;
+				for(int i=0;i<count;i++) {
+					rvas[n++] = exceptions.getBeginAddress(i);
+					rvas[n++] = exceptions.getBeginAddress(i) - 1;
+					rvas[n++] = exceptions.getEndAddress(i);
+					rvas[n++] = exceptions.getEndAddress(i) - 1;
+				}
+				int first = exceptions.getBeginAddress(0);
+				int last = exceptions.getEndAddress(count-1);
+				while(n < rvas.length - 2)
+					rvas[n++] = first - 0x100 + random.nextInt(last - first + 0x200);
+				rvas[n++] = 0;
+				rvas[n++] = -1;
+
+				for(int rva:rvas) {
+					int expected = scan(table, count, rva);
+					int found = exceptions.findFunction(rva);
+					if(expected == -1) {
+						checkEquals(-1, found, "function of 0x"+Integer.toHexString(rva));
+						continue;
+					}
+					check(found != -1, "function of 0x"+Integer.toHexString(rva)+" found");
+					checkEquals(table.getInt(expected*12), exceptions.getBeginAddress(found), "begin of the function of 0x"+Integer.toHexString(rva));
+					checkEquals(table.getInt(expected*12+4), exceptions.getEndAddress(found), "end of the function of 0x"+Integer.toHexString(rva));
+					checkEquals(table.getInt(expected*12+8), exceptions.getUnwindInfoAddress(found), "unwind info of the function of 0x"+Integer.toHexString(rva));
+				}
+			}
+		};
+	}
+
+	/** Every eighth function is chained to the previous one, which is its primary function */
+	private static Test findPrimaryFunction(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] file = new GeneratePE().set64bit(true).setCodeSize(0x10000).setFunctions(500).setSeed(1).generate();
+				DescriptorException exceptions = ExecutableReader.create(new ExecutableStream(file)).getOptionalHeader().getExceptionDescriptor();
+				for(int i=0;i<exceptions.getCount();i++) {
+					UNWIND_INFO info = exceptions.getUnwindInfo(i);
+					check(info != null, "unwind info of function "+i);
+					int middle = (exceptions.getBeginAddress(i) + exceptions.getEndAddress(i)) >>> 1;
+					checkEquals(i, exceptions.findFunction(middle), "function of 0x"+Integer.toHexString(middle));
+					if(i % 8 == 7) {
+						check(info.isChained(), "function "+i+" chained");
+						checkEquals(exceptions.getBeginAddress(i-1), info.getChainedBeginAddress(), "chained function of "+i);
+						checkEquals(i-1, exceptions.findPrimaryFunction(middle), "primary function of "+i);
+					}else {
+						check(!info.isChained(), "function "+i+" not chained");
+						checkEquals(5, info.getSizeOfProlog(), "prolog of function "+i);
+						checkEquals(2, info.getCountOfCodes(), "unwind codes of function "+i);
+						checkEquals(i, exceptions.findPrimaryFunction(middle), "primary function of "+i);
+					}
+				}
+				checkEquals(-1, exceptions.findPrimaryFunction(exceptions.getEndAddress(exceptions.getCount()-1)), "primary function after the last one");
+			}
+		};
+	}
+}
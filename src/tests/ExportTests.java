@@ -0,0 +1,93 @@
+package tests;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.List;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.pe.DescriptorExport;
+import pusty.f0xpe.pe.ExecutableReader;
+
+/**
+ * Tests of the export lookups against a linear scan of the name pointer table
+ */
+public class ExportTests {
+
+	public static void add(List<Test> tests) {
+		tests.add(lookup("DescriptorExport.lookup", false));
+		tests.add(lookup("DescriptorExport.lookup/indexed", true));
+		tests.add(lookup("DescriptorExport.lookup/partial", false, true));
+		tests.add(forwarders("DescriptorExport.forwarders"));
+	}
+
+	private static DescriptorExport parse(byte[] file, boolean indexed, boolean partial) throws Exception {
+		ExecutableStream stream = new ExecutableStream(file);
+		if(partial) { //all blocks present, names are read through the stream instead of the buffer
+			BitSet present = new BitSet();
+			present.set(0, (file.length + ExecutableStream.MODIFIED_BLOCK_SIZE - 1) / ExecutableStream.MODIFIED_BLOCK_SIZE);
+			stream = new ExecutableStream(ByteBuffer.wrap(file), file.length, present);
+		}
+		DescriptorExport exports = ExecutableReader.create(stream).getOptionalHeader().getExportDescriptor();
+		if(indexed) exports.buildIndex();
+		return exports;
+	}
+
+	private static Test lookup(String name, boolean indexed) {
+		return lookup(name, indexed, false);
+	}
+
+	/** Every name is found at the ordinal the generator gave it, names which aren't exported aren't found */
+	private static Test lookup(String name, final boolean indexed, final boolean partial) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] file = new GeneratePE().setExports(1000, 7).setSeed(1).generate();
+				DescriptorExport exports = parse(file, indexed, partial);
+				checkEquals(indexed, exports.isIndexed(), "indexed");
+				checkEquals("generated.dll", exports.getDLLName(), "DLL name");
+				checkEquals(1000, exports.getNumberOfNames(), "names");
+				checkEquals(1000, exports.getNumberOfFunctions(), "functions");
+				for(int i=0;i<exports.getNumberOfNames();i++) {
+					String export = exports.getName(i);
+					int ordinal = exports.getNameOrdinal(i);
+					checkEquals(Integer.parseInt(export.substring("Export".length())) + exports.getBase(), ordinal, "ordinal of "+export);
+					checkEquals(ordinal, exports.getOrdinal(export), "lookup of "+export);
+					checkEquals(exports.getFunctionRVA(ordinal), exports.getFunctionRVA(export), "RVA of "+export);
+				}
+				String[] missing = {"", "Export", "Export1000", "Export-1", "export1", "Export00", "Export1\u00FF", "ZZZ"};
+				for(String export:missing) {
+					checkEquals(-1, exports.getOrdinal(export), "lookup of missing "+export);
+					checkEquals(0, exports.getFunctionRVA(export), "RVA of missing "+export);
+				}
+				checkEquals(0, exports.getFunctionRVA(exports.getBase()-1), "RVA below the ordinal base");
+				checkEquals(0, exports.getFunctionRVA(exports.getBase()+1000), "RVA above the last ordinal");
+			}
+		};
+	}
+
+	/** Every 7th export is forwarded, the others point into the code section */
+	private static Test forwarders(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] file = new GeneratePE().setExports(1000, 7).setSeed(1).generate();
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(file));
+				DescriptorExport exports = reader.getOptionalHeader().getExportDescriptor();
+				int code = reader.getSectionHeader()[0].getVirtualAddress();
+				for(int i=0;i<1000;i++) {
+					int ordinal = exports.getOrdinal("Export"+i);
+					int rva = exports.getFunctionRVA(ordinal);
+					if(i % 7 == 6) {
+						check(exports.isForwarder(rva), "Export"+i+" is forwarded");
+						checkEquals("library0.Forwarded"+i, exports.getForwarder(ordinal), "forwarder of Export"+i);
+					}else {
+						check(!exports.isForwarder(rva), "Export"+i+" isn't forwarded");
+						checkEquals(null, exports.getForwarder(ordinal), "forwarder of Export"+i);
+						checkEquals(code + i % 0x1000, rva, "RVA of Export"+i);
+					}
+				}
+			}
+		};
+	}
+}
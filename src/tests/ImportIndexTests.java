@@ -0,0 +1,198 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.ImportIndex;
+import pusty.f0xpe.pe.ImportIndex.PostingList;
+
+/**
+ * Tests of the posting lists against BitSet and of the index queries on generated files
+ */
+public class ImportIndexTests {
+
+	/** The densities of the chunks, from sparse arrays over full arrays to bitmaps */
+	private static final double[] DENSITIES = {0, 0.0001, 0.01, 0.0625, 0.07, 0.5, 1};
+
+	public static void add(List<Test> tests) {
+		tests.add(postingList("PostingList.add"));
+		tests.add(operations("PostingList.and/or"));
+		tests.add(varargs("ImportIndex.and/or"));
+		tests.add(queries("ImportIndex.queries"));
+	}
+
+	/**
+	 * Fill a posting list and a BitSet with the same random numbers, every chunk of 65536 numbers with a random density
+	 * @param ascending add the numbers in ascending order, else in a random order with duplicates
+	 */
+	private static PostingList random(Random random, BitSet set, int chunks, boolean ascending) {
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		for(int chunk=0;chunk<chunks;chunk++) {
+			double density = DENSITIES[random.nextInt(DENSITIES.length)];
+			for(int i=0;i<0x10000;i++)
+				if(density == 1 || random.nextDouble() < density)
+					values.add(chunk << 16 | i);
+		}
+		if(!ascending) {
+			for(int i=values.size()/10;i>0;i--)
+				values.add(values.get(random.nextInt(values.size())));
+			Collections.shuffle(values, random);
+		}
+		PostingList list = new PostingList();
+		for(int value:values) {
+			list.add(value);
+			set.set(value);
+		}
+		return list;
+	}
+
+	/** Fail if a posting list doesn't contain exactly the numbers of a BitSet */
+	static void checkSet(BitSet expected, PostingList actual, String message) {
+		Test.checkEquals(expected.cardinality(), actual.getCardinality(), message+": cardinality");
+		Test.checkEquals(expected.isEmpty(), actual.isEmpty(), message+": empty");
+		int[] array = actual.toArray();
+		Test.checkEquals(expected.cardinality(), array.length, message+": numbers");
+		int i = 0;
+		for(int value=expected.nextSetBit(0);value>=0;value=expected.nextSetBit(value+1))
+			Test.checkEquals(value, array[i++], message+": number "+(i-1));
+		int end = expected.length() + 0x20000;
+		for(int value=0;value<end;value+=7)
+			Test.check(expected.get(value) == actual.contains(value), message+": contains "+value);
+	}
+
+	/** Adding in any order with duplicates equals setting the bits */
+	private static Test postingList(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				Random random = new Random(1);
+				for(int round=0;round<20;round++) {
+					BitSet set = new BitSet();
+					PostingList list = random(random, set, 1 + random.nextInt(6), round % 2 == 0);
+					checkSet(set, list, "round "+round);
+					PostingList copy = list.copy();
+					copy.add(set.length() + 0x10000);
+					checkSet(set, list, "round "+round+" after changing the copy");
+				}
+				checkSet(new BitSet(), new PostingList(), "empty list");
+			}
+		};
+	}
+
+	/** AND and OR of random lists equal the BitSet operations and leave their inputs unchanged */
+	private static Test operations(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				Random random = new Random(2);
+				for(int round=0;round<40;round++) {
+					BitSet a = new BitSet();
+					BitSet b = new BitSet();
+					PostingList listA = random(random, a, 1 + random.nextInt(6), true);
+					PostingList listB = random(random, b, 1 + random.nextInt(6), round % 3 == 0);
+
+					BitSet and = (BitSet) a.clone();
+					and.and(b);
+					checkSet(and, listA.and(listB), "round "+round+" a AND b");
+					checkSet(and, listB.and(listA), "round "+round+" b AND a");
+					BitSet or = (BitSet) a.clone();
+					or.or(b);
+					checkSet(or, listA.or(listB), "round "+round+" a OR b");
+					checkSet(or, listB.or(listA), "round "+round+" b OR a");
+
+					checkSet(a, listA.and(listA), "round "+round+" a AND a");
+					checkSet(a, listA.or(listA), "round "+round+" a OR a");
+					checkSet(new BitSet(), listA.and(new PostingList()), "round "+round+" a AND empty");
+					checkSet(a, listA.or(new PostingList()), "round "+round+" a OR empty");
+					checkSet(a, listA, "round "+round+" a unchanged");
+					checkSet(b, listB, "round "+round+" b unchanged");
+				}
+			}
+		};
+	}
+
+	/** The static operations of any amount of lists */
+	private static Test varargs(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				Random random = new Random(3);
+				for(int round=0;round<10;round++) {
+					int count = 1 + random.nextInt(4);
+					PostingList[] lists = new PostingList[count];
+					BitSet and = null;
+					BitSet or = new BitSet();
+					for(int i=0;i<count;i++) {
+						BitSet set = new BitSet();
+						lists[i] = random(random, set, 1 + random.nextInt(4), true);
+						if(and == null) and = (BitSet) set.clone();
+						else and.and(set);
+						or.or(set);
+					}
+					checkSet(and, ImportIndex.and(lists), "round "+round+" AND of "+count);
+					checkSet(or, ImportIndex.or(lists), "round "+round+" OR of "+count);
+				}
+				checkSet(new BitSet(), ImportIndex.or(), "OR of none");
+			}
+		};
+	}
+
+	/**
+	 * Query an index of generated files, file i imports Function{d}_{f} for d below 1+i%4 and f below 5+i and exports
+	 * Export0 to Export{3i-1}
+	 */
+	private static Test queries(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				ImportIndex index = new ImportIndex();
+				int files = 12;
+				for(int i=0;i<files;i++) {
+					byte[] data = new GeneratePE().setImports(1 + i%4, 5 + i).setExports(i*3, 0).setSeed(i).generate();
+					checkEquals(i, index.add("file"+i, ExecutableReader.create(new ExecutableStream(data))), "number of file "+i);
+				}
+				checkEquals(files, index.getFileCount(), "files");
+				checkEquals("file3", index.getFile(3), "name of file 3");
+
+				for(int d=0;d<5;d++) {
+					for(int f=0;f<5+files;f+=3) {
+						BitSet expected = new BitSet();
+						for(int i=0;i<files;i++)
+							if(d < 1 + i%4 && f < 5 + i)
+								expected.set(i);
+						checkSet(expected, index.importing("Function"+d+"_"+f), "importing Function"+d+"_"+f);
+						checkSet(expected, index.importing("LIBRARY"+d+".DLL", "Function"+d+"_"+f), "importing library"+d+".dll!Function"+d+"_"+f);
+					}
+					BitSet expected = new BitSet();
+					for(int i=0;i<files;i++)
+						if(d < 1 + i%4)
+							expected.set(i);
+					checkSet(expected, index.importingDLL("library"+d+".dll"), "importing library"+d+".dll");
+				}
+				BitSet expected = new BitSet();
+				for(int i=0;i<files;i++)
+					if(10 < i*3)
+						expected.set(i);
+				checkSet(expected, index.exporting("Export10"), "exporting Export10");
+
+				expected.clear();
+				for(int i=0;i<files;i++)
+					if(i%4 >= 2 && 7 < 5 + i)
+						expected.set(i);
+				checkSet(expected, index.importingAll("Function0_0", "Function2_1", "Function1_7"), "importing all");
+				expected.clear();
+				for(int i=0;i<files;i++)
+					if(i%4 >= 3 || 10 < 5 + i)
+						expected.set(i);
+				checkSet(expected, index.importingAny("Function3_0", "Function0_10", "Missing"), "importing any");
+				checkSet(new BitSet(), index.importingAll("Function0_0", "Missing"), "importing all with a missing function");
+			}
+		};
+	}
+}
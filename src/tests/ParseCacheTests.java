@@ -0,0 +1,248 @@
+package tests;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.List;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.pe.DescriptorExport;
+import pusty.f0xpe.pe.DescriptorImport;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_IMPORT_DESCRIPTOR;
+import pusty.f0xpe.pe.DescriptorImport.IMAGE_THUNK_DATA;
+import pusty.f0xpe.pe.DescriptorResource;
+import pusty.f0xpe.pe.DescriptorResource.IMAGE_RESOURCE_DIRECTORY;
+import pusty.f0xpe.pe.DescriptorResource.IMAGE_RESOURCE_DIRECTORY_ENTRY;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32;
+import pusty.f0xpe.pe.IMAGE_SECTION_HEADER;
+import pusty.f0xpe.pe.ParseCache;
+
+/**
+ * Tests of the parse cache: hit and miss counts, the content of readers from summaries and rejected summaries
+ */
+public class ParseCacheTests {
+
+	public static void add(List<Test> tests) {
+		tests.add(load("ParseCache.load"));
+		tests.add(invalid("ParseCache.get/invalid"));
+		tests.add(broken("ParseCache.load/broken", false));
+		tests.add(broken("ParseCache.load/broken/strict", true));
+		tests.add(fragmented("ParseCache.get/fragmented"));
+	}
+
+	private static byte[] sha256(byte[] data) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(data);
+	}
+
+	/** Delete a directory and everything within it */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null)
+			for(File child:children)
+				delete(child);
+		file.delete();
+	}
+
+	/** Return a description of everything the cache summarizes, equal for readers of the same file */
+	static String dump(ExecutableReader reader) throws Exception {
+		StringBuilder builder = new StringBuilder();
+		IMAGE_OPTIONAL_HEADER32 header = reader.getOptionalHeader();
+		builder.append(header.getAddressOfEntryPoint()).append(' ').append(header.getSizeOfImage()).append('\n');
+		for(IMAGE_SECTION_HEADER section:reader.getSectionHeader())
+			builder.append(section.getName()).append(' ').append(section.getVirtualAddress()).append(' ').append(section.getSizeOfRawData()).append('\n');
+		DescriptorImport imports = header.getImportDescriptor();
+		if(imports != null)
+			for(IMAGE_IMPORT_DESCRIPTOR dll:imports.getImports()) {
+				builder.append(dll.getDLLName()).append(':');
+				for(IMAGE_THUNK_DATA thunk:dll.parseImportTable())
+					builder.append(thunk.isOrdinal() ? "#"+thunk.getOrdinal() : thunk.getName()).append(',');
+				builder.append('\n');
+			}
+		DescriptorExport exports = header.getExportDescriptor();
+		if(exports != null) {
+			builder.append(exports.getDLLName()).append('\n');
+			for(int i=0;i<exports.getNumberOfNames();i++) {
+				int ordinal = exports.getNameOrdinal(i);
+				builder.append(exports.getName(i)).append('=').append(exports.getFunctionRVA(ordinal));
+				builder.append(' ').append(exports.getForwarder(ordinal)).append('\n');
+			}
+		}
+		DescriptorResource resources = header.getResourceDescriptor();
+		if(resources != null)
+			dump(builder, resources.getRoot(), "");
+		return builder.toString();
+	}
+
+	private static void dump(StringBuilder builder, IMAGE_RESOURCE_DIRECTORY directory, String path) {
+		for(IMAGE_RESOURCE_DIRECTORY_ENTRY entry:directory.getEntires()) {
+			String name = path + "/" + (entry.isOrdinal() ? String.valueOf(entry.getID()) : entry.getNameStr());
+			if(entry.isDirectory())
+				dump(builder, entry.getDir(), name);
+			else
+				builder.append(name).append(' ').append(entry.getData().getOffsetToData()).append(' ').append(entry.getData().getSize()).append('\n');
+		}
+	}
+
+	/** The first load parses and stores the file, later loads return the same structures from the summary */
+	private static Test load(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				File directory = Files.createTempDirectory("f0xpe").toFile();
+				try {
+					byte[] data = new GeneratePE().setImports(20, 50).setOrdinalEvery(4).setResources(3, 5, 300).setTLSCallbacks(3)
+							.setExports(300, 7).setRelocations(true).setCodeSize(0x100000).setSeed(1).generate();
+					File file = new File(directory, "input.exe");
+					Files.write(file.toPath(), data);
+					byte[] hash = sha256(data);
+					String expected = dump(ExecutableReader.create(new ExecutableStream(data)));
+					ParseCache cache = new ParseCache(new File(directory, "cache"));
+
+					ExecutableReader miss = cache.load(file, hash);
+					checkEquals(0, cache.getHits(), "hits after the first load");
+					checkEquals(1, cache.getMisses(), "misses after the first load");
+					checkEquals(1, cache.getStored(), "stored after the first load");
+					check(!miss.getStream().isPartial(), "the file itself is parsed on a miss");
+					checkEquals(expected, dump(miss), "structures of the parsed file");
+					File summary = cache.getSummaryFile(hash, data.length);
+					check(summary.isFile(), "summary stored");
+					check(summary.length() < data.length / 4, "summary without the code section");
+
+					for(int i=0;i<3;i++) {
+						ExecutableReader hit = cache.load(file, hash);
+						checkEquals(i+1, cache.getHits(), "hits after load "+(i+2));
+						checkEquals(1, cache.getMisses(), "misses after load "+(i+2));
+						checkEquals(1, cache.getStored(), "stored after load "+(i+2));
+						check(hit.getStream().isPartial() && hit.getStream().isReadOnly(), "read-only partial stream on a hit");
+						checkEquals(expected, dump(hit), "structures of the summary");
+					}
+				} finally {
+					delete(directory);
+				}
+			}
+		};
+	}
+
+	/** Summaries of other files, other versions or truncated ones are misses */
+	private static Test invalid(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				File directory = Files.createTempDirectory("f0xpe").toFile();
+				try {
+					byte[] data = new GeneratePE().setImports(5, 10).setSeed(2).generate();
+					byte[] hash = sha256(data);
+					ParseCache cache = new ParseCache(directory);
+					check(cache.get(hash, data.length) == null, "nothing cached yet");
+					checkEquals(1, cache.getMisses(), "misses without summary");
+					cache.store(new ExecutableStream(data), hash);
+					checkEquals(1, cache.getStored(), "stored");
+
+					byte[] other = hash.clone();
+					other[other.length-1] ^= 1;
+					check(cache.get(other, data.length) == null, "other hash");
+					check(cache.get(hash, data.length + 1) == null, "other size");
+					check(cache.get(new byte[20], data.length) == null, "other hash length");
+					checkEquals(4, cache.getMisses(), "misses of other files");
+					check(cache.get(hash, data.length) != null, "own summary");
+					checkEquals(1, cache.getHits(), "hits");
+
+					File summary = cache.getSummaryFile(hash, data.length);
+					//a summary stored under the name of another file
+					Files.copy(summary.toPath(), cache.getSummaryFile(other, data.length).toPath());
+					check(cache.get(other, data.length) == null, "summary of another file");
+
+					RandomAccessFile file = new RandomAccessFile(summary, "rw");
+					try {
+						file.seek(4);
+						file.writeInt(Integer.reverseBytes(ParseCache.VERSION + 1));
+						check(cache.get(hash, data.length) == null, "other version");
+						file.seek(4);
+						file.writeInt(Integer.reverseBytes(ParseCache.VERSION));
+						check(cache.get(hash, data.length) != null, "version restored");
+						file.setLength(file.length() - 1);
+						check(cache.get(hash, data.length) == null, "truncated data");
+						file.setLength(20);
+						check(cache.get(hash, data.length) == null, "truncated header");
+					} finally {
+						file.close();
+					}
+					checkEquals(8, cache.getMisses(), "misses of invalid summaries");
+					checkEquals(2, cache.getHits(), "hits");
+				} finally {
+					delete(directory);
+				}
+			}
+		};
+	}
+
+	/**
+	 * A file with a broken export directory is summarized by lenient caches like any other file, strict caches throw
+	 * and store nothing
+	 */
+	private static Test broken(String name, final boolean strict) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				File directory = Files.createTempDirectory("f0xpe").toFile();
+				try {
+					ExecutableReader reader = ExecutableReader.create(new ExecutableStream(new GeneratePE().setImports(5, 20).setExports(30, 5).setSeed(3).generate()));
+					reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_EXPORT].setVirtualAddresss(0x7FFF0000);
+					File file = new File(directory, "broken.exe");
+					reader.save(file);
+					byte[] hash = sha256(Files.readAllBytes(file.toPath()));
+					ParseCache cache = new ParseCache(new File(directory, "cache"), strict);
+					for(int i=0;i<3;i++) {
+						ExecutableReader loaded;
+						try {
+							loaded = cache.load(file, hash);
+						} catch (Exception e) {
+							check(strict, "only strict caches throw: "+e);
+							continue;
+						}
+						check(!strict, "strict caches throw");
+						checkEquals(null, loaded.getOptionalHeader().getExportDescriptor(), "export directory");
+						checkEquals(5, loaded.getOptionalHeader().getImportDescriptor().getImports().length, "imports");
+					}
+					checkEquals(strict ? 0 : 2, cache.getHits(), "hits");
+					checkEquals(strict ? 3 : 1, cache.getMisses(), "misses");
+					checkEquals(strict ? 0 : 1, cache.getStored(), "stored");
+				} finally {
+					delete(directory);
+				}
+			}
+		};
+	}
+
+	/** Summaries of every other block have a run table larger than the first block of the summary */
+	private static Test fragmented(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				File directory = Files.createTempDirectory("f0xpe").toFile();
+				try {
+					byte[] data = new GeneratePE().setCodeSize(0x800000).setSeed(4).generate();
+					byte[] hash = sha256(data);
+					ParseCache cache = new ParseCache(directory);
+					ExecutableStream stream = new ExecutableStream(data);
+					stream.trackReads();
+					for(int i=0;i<data.length;i+=2*ExecutableStream.MODIFIED_BLOCK_SIZE)
+						stream.markRead(i, 1);
+					cache.store(stream, hash);
+					checkEquals(1, cache.getStored(), "stored");
+					ExecutableReader hit = cache.get(hash, data.length);
+					check(hit != null, "fragmented summary found");
+					checkEquals(1, cache.getHits(), "hits");
+					checkEquals(0, cache.getMisses(), "misses");
+					for(int i=0;i<data.length;i+=2*ExecutableStream.MODIFIED_BLOCK_SIZE)
+						checkEquals(data[i], hit.getStream().getByte(i), "byte of block "+i/ExecutableStream.MODIFIED_BLOCK_SIZE);
+				} finally {
+					delete(directory);
+				}
+			}
+		};
+	}
+}
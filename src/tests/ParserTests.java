@@ -0,0 +1,41 @@
+package tests;
+
+import java.util.ArrayList;
+
+/**
+ * Behavioural tests of the parser and modification functions on synthetic inputs (see {@link pusty.f0xpe.payload.GeneratePE}).
+ * <br>Usage: ParserTests [filter]
+ * <br>Only tests whose name contains the filter are run, the exit code is 1 if any of them failed.
+ */
+public class ParserTests {
+
+	public static void main(String[] args) {
+		String filter = args.length > 0 ? args[0] : "";
+
+		ArrayList<Test> tests = new ArrayList<Test>();
+		ExportTests.add(tests);
+		RelocationTests.add(tests);
+		ExceptionTests.add(tests);
+		ChecksumTests.add(tests);
+		SecurityTests.add(tests);
+		ParseCacheTests.add(tests);
+		ImportIndexTests.add(tests);
+
+		int failed = 0;
+		int run = 0;
+		for(Test test:tests) {
+			if(!test.getName().contains(filter)) continue;
+			run++;
+			try {
+				test.run();
+				System.out.println("[+] "+test.getName());
+			} catch (Throwable e) {
+				failed++;
+				System.out.println("[!] "+test.getName()+": "+e);
+				e.printStackTrace(System.out);
+			}
+		}
+		System.out.println((run-failed)+"/"+run+" tests passed");
+		if(failed > 0) System.exit(1);
+	}
+}
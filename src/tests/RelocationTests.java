@@ -0,0 +1,138 @@
+package tests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.payload.ModifyPE;
+import pusty.f0xpe.payload.ModifyPE.EditableRelocationTable;
+import pusty.f0xpe.pe.DescriptorRelocation;
+import pusty.f0xpe.pe.ExecutableReader;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32;
+import pusty.f0xpe.pe.IMAGE_OPTIONAL_HEADER32.IMAGE_DATA_DIRECTORY;
+
+/**
+ * Tests of the relocation parsing and rebasing against files generated at the new image base
+ */
+public class RelocationTests {
+
+	public static void add(List<Test> tests) {
+		tests.add(rebase("ModifyPE.rebase/32bit", new GeneratePE().setImports(10, 20).setTLSCallbacks(3), 0x10000000L));
+		tests.add(rebase("ModifyPE.rebase/32bit/down", new GeneratePE().setImports(10, 20).setTLSCallbacks(3), 0x10000L));
+		tests.add(rebase("ModifyPE.rebase/64bit", new GeneratePE().set64bit(true).setTLSCallbacks(3), 0x7FF612340000L));
+		tests.add(readOnly("ModifyPE.rebase/readOnly"));
+		tests.add(unknownType("ModifyPE.rebase/unknownType"));
+		tests.add(highAdjust("DescriptorRelocation.read/highAdjust"));
+	}
+
+	/** Rebasing equals generating at the new base, the fixups are exactly the fields that differ */
+	private static Test rebase(String name, final GeneratePE generator, final long imageBase) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] original = generator.setRelocations(true).setSeed(1).setImageBase(-1).generate();
+				byte[] expected = generator.setImageBase(imageBase).generate();
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(original.clone()));
+				DescriptorRelocation relocations = reader.getOptionalHeader().getRelocationDescriptor();
+				check(relocations != null, "relocations parsed");
+				check(relocations.getCount() > 0, "fixups parsed");
+				checkEquals(changedFields(reader, original, expected), relocations.getCount(), "fixups of the fields that differ");
+
+				checkEquals(relocations.getCount(), ModifyPE.rebase(reader, imageBase), "applied fixups");
+				check(Arrays.equals(expected, reader.getStream().getData()), "rebased file equals the file generated at the new base");
+
+				//the cached offsets are reused when moving back
+				checkEquals(relocations.getCount(), ModifyPE.rebase(reader, reader.is32bit() ? 0x400000L : 0x140000000L), "applied fixups");
+				check(Arrays.equals(original, reader.getStream().getData()), "file rebased back equals the original");
+			}
+		};
+	}
+
+	/**
+	 * Count the fixups whose field differs between the two files, fail if any other byte besides the image base differs
+	 */
+	private static int changedFields(ExecutableReader reader, byte[] original, byte[] expected) {
+		DescriptorRelocation relocations = reader.getOptionalHeader().getRelocationDescriptor();
+		boolean[] covered = new boolean[original.length];
+		int imageBase = ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN).getInt(0x3C) + 24 + (reader.is32bit() ? 28 : 24);
+		for(int i=imageBase;i<imageBase+(reader.is32bit() ? 4 : 8);i++)
+			covered[i] = true;
+		int changed = 0;
+		for(int i=0;i<relocations.getCount();i++) {
+			int offset = relocations.getOffset(i);
+			Test.check(offset != -1, "fixup "+i+" within the file");
+			int width = DescriptorRelocation.width(relocations.getType(i));
+			boolean differs = false;
+			for(int j=offset;j<offset+width;j++) {
+				covered[j] = true;
+				differs |= original[j] != expected[j];
+			}
+			if(differs) changed++;
+		}
+		for(int i=0;i<original.length;i++)
+			Test.check(covered[i] || original[i] == expected[i], "byte 0x"+Integer.toHexString(i)+" without fixup differs");
+		return changed;
+	}
+
+	/** Rebasing a read-only stream fails without changing anything */
+	private static Test readOnly(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] original = new GeneratePE().setImports(10, 20).setRelocations(true).setSeed(1).generate();
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(ByteBuffer.wrap(original.clone()).asReadOnlyBuffer()));
+				checkEquals(-1, ModifyPE.rebase(reader, 0x10000000L), "applied fixups");
+				checkEquals(0x400000, reader.getOptionalHeader().getImageBase(), "image base");
+				check(Arrays.equals(original, reader.getStream().getData()), "file unchanged");
+			}
+		};
+	}
+
+	/** A fixup of an unknown type fails the whole rebase before the first field is written */
+	private static Test unknownType(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] original = new GeneratePE().setImports(10, 20).setTLSCallbacks(3).setRelocations(true).setSeed(1).generate();
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(original));
+				IMAGE_DATA_DIRECTORY directory = reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC];
+				int table = reader.rva2offset(directory.getVirtualAddress());
+				int size = directory.getSize();
+				//last entry of the last block, after all fixups that could be applied
+				int entry = table + size - 2;
+				while(original[entry] == 0 && original[entry+1] == 0) entry -= 2;
+				original[entry+1] = (byte) (original[entry+1] & 0x0F | 9 << 4);
+
+				reader = ExecutableReader.create(new ExecutableStream(original.clone()));
+				checkEquals(-1, ModifyPE.rebase(reader, 0x10000000L), "applied fixups");
+				checkEquals(0x400000, reader.getOptionalHeader().getImageBase(), "image base");
+				check(Arrays.equals(original, reader.getStream().getData()), "file unchanged");
+			}
+		};
+	}
+
+	/** The entry after a HIGHADJ fixup is its parameter and no fixup of its own, the fixup itself can't be applied */
+	private static Test highAdjust(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] original = new GeneratePE().setImports(10, 20).setRelocations(true).setSeed(1).generate();
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(original));
+				int count = reader.getOptionalHeader().getRelocationDescriptor().getCount();
+				int entry = reader.rva2offset(reader.getOptionalHeader().getDataDirectory()[IMAGE_OPTIONAL_HEADER32.IMAGE_DIRECTORY_ENTRY_BASERELOC].getVirtualAddress()) + 8;
+				original[entry+1] = (byte) (original[entry+1] & 0x0F | DescriptorRelocation.IMAGE_REL_BASED_HIGHADJ << 4);
+
+				reader = ExecutableReader.create(new ExecutableStream(original.clone()));
+				DescriptorRelocation relocations = reader.getOptionalHeader().getRelocationDescriptor();
+				checkEquals(count-1, relocations.getCount(), "fixups without the parameter");
+				checkEquals(DescriptorRelocation.IMAGE_REL_BASED_HIGHADJ, relocations.getType(0), "type of the first fixup");
+				checkEquals(-1, ModifyPE.rebase(reader, 0x10000000L), "applied fixups");
+				check(Arrays.equals(original, reader.getStream().getData()), "file unchanged");
+				check(EditableRelocationTable.fromReader(reader) == null, "HIGHADJ tables aren't rebuilt");
+			}
+		};
+	}
+}
@@ -0,0 +1,204 @@
+package tests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import pusty.f0xpe.ExecutableStream;
+import pusty.f0xpe.payload.GeneratePE;
+import pusty.f0xpe.pe.DescriptorSecurity;
+import pusty.f0xpe.pe.DescriptorSecurity.WIN_CERTIFICATE;
+import pusty.f0xpe.pe.ExecutableReader;
+
+/**
+ * Tests of the certificate table and the Authenticode digest against hashing the ranges of a copy of the file
+ */
+public class SecurityTests {
+
+	public static void add(List<Test> tests) {
+		tests.add(digest("DescriptorSecurity.digest", false));
+		tests.add(digest("DescriptorSecurity.digest/64bit", true));
+		tests.add(excluded("DescriptorSecurity.digest/excluded"));
+		tests.add(unsorted("DescriptorSecurity.digest/unsorted"));
+		tests.add(certificates("DescriptorSecurity.certificates"));
+	}
+
+	/**
+	 * Append an overlay and a certificate table of two certificates to a file and point the security directory at it
+	 */
+	private static byte[] sign(byte[] file, Random random) {
+		int overlay = 0x333;
+		int table = (file.length + overlay + 7) & ~7;
+		int[] lengths = {8 + 0x51, 8 + 0x200};
+		int size = ((lengths[0] + 7) & ~7) + lengths[1];
+		byte[] signed = Arrays.copyOf(file, table + size);
+		for(int i=file.length;i<table+size;i++)
+			signed[i] = (byte) random.nextInt();
+		ByteBuffer data = ByteBuffer.wrap(signed).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i=0,position=table;i<lengths.length;i++) {
+			data.putInt(position, lengths[i]);
+			data.putShort(position+4, (short) WIN_CERTIFICATE.WIN_CERT_REVISION_2_0);
+			data.putShort(position+6, (short) WIN_CERTIFICATE.WIN_CERT_TYPE_PKCS_SIGNED_DATA);
+			position = (position + lengths[i] + 7) & ~7;
+		}
+		data.putInt(securityEntry(signed), table);
+		data.putInt(securityEntry(signed)+4, size);
+		return signed;
+	}
+
+	/** Return the offset of the optional header */
+	private static int optionalHeader(byte[] file) {
+		return ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN).getInt(0x3C) + 4 + 20;
+	}
+
+	/** Return the offset of the security directory entry */
+	private static int securityEntry(byte[] file) {
+		int opt = optionalHeader(file);
+		boolean is64bit = (ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN).getShort(opt) & 0xFFFF) == 0x20B;
+		return opt + (is64bit ? 112 : 96) + 4*8;
+	}
+
+	/**
+	 * Compute the Authenticode digest of a copy of the file by hashing the ranges one by one: the headers without the
+	 * CheckSum field and security directory entry, the sections in file order and the rest without the certificate table
+	 */
+	static byte[] reference(byte[] file, String algorithm) throws Exception {
+		ByteBuffer data = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+		MessageDigest md = MessageDigest.getInstance(algorithm);
+		int opt = optionalHeader(file);
+		int checksum = opt + 64;
+		int entry = securityEntry(file);
+		int headers = data.getInt(opt + 60);
+		md.update(file, 0, checksum);
+		md.update(file, checksum+4, entry-checksum-4);
+		md.update(file, entry+8, headers-entry-8);
+		int sections = data.getShort(opt - 20 + 2) & 0xFFFF;
+		int table = opt + (data.getShort(opt - 20 + 16) & 0xFFFF);
+		int[][] ranges = new int[sections][];
+		for(int i=0;i<sections;i++)
+			ranges[i] = new int[] {data.getInt(table + i*40 + 20), data.getInt(table + i*40 + 16)};
+		Arrays.sort(ranges, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return Integer.compare(a[0], b[0]);
+			}
+		});
+		int hashed = headers;
+		for(int[] range:ranges) {
+			if(range[1] == 0) continue;
+			md.update(file, range[0], range[1]);
+			hashed = Math.max(hashed, range[0] + range[1]);
+		}
+		int certificates = data.getInt(entry);
+		int end = certificates != 0 ? certificates : file.length;
+		md.update(file, hashed, end-hashed);
+		if(certificates != 0)
+			md.update(file, certificates + data.getInt(entry+4), file.length - certificates - data.getInt(entry+4));
+		return md.digest();
+	}
+
+	private static byte[] digest(byte[] file, String algorithm) throws Exception {
+		return DescriptorSecurity.digest(ExecutableReader.create(new ExecutableStream(file)), algorithm);
+	}
+
+	/** The digest of unsigned and signed files equals hashing the ranges, also for direct buffers */
+	private static Test digest(String name, final boolean is64bit) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				Random random = new Random(1);
+				byte[] unsigned = new GeneratePE().set64bit(is64bit).setImports(10, 20).setSections(6).setSeed(1).generate();
+				byte[] signed = sign(unsigned, random);
+				for(String algorithm:new String[] {"MD5", "SHA-1", "SHA-256"}) {
+					check(Arrays.equals(reference(unsigned, algorithm), digest(unsigned, algorithm)), algorithm+" digest of the unsigned file");
+					check(Arrays.equals(reference(signed, algorithm), digest(signed, algorithm)), algorithm+" digest of the signed file");
+				}
+				ByteBuffer direct = ByteBuffer.allocateDirect(signed.length);
+				direct.put(signed).flip();
+				check(Arrays.equals(reference(signed, "SHA-256"), DescriptorSecurity.digest(ExecutableReader.create(new ExecutableStream(direct)), "SHA-256")),
+						"digest of a direct buffer");
+			}
+		};
+	}
+
+	/** The CheckSum field, the security directory entry and the certificates aren't hashed, everything else is */
+	private static Test excluded(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				Random random = new Random(2);
+				byte[] signed = sign(new GeneratePE().setImports(10, 20).setSeed(2).generate(), random);
+				byte[] expected = digest(signed, "SHA-256");
+				ByteBuffer data = ByteBuffer.wrap(signed).order(ByteOrder.LITTLE_ENDIAN);
+				int entry = securityEntry(signed);
+				int table = data.getInt(entry);
+				int size = data.getInt(entry+4);
+
+				int[] excluded = {optionalHeader(signed) + 64, optionalHeader(signed) + 67, table + 8, table + 0x30, table + size - 1};
+				for(int offset:excluded) {
+					byte[] modified = signed.clone();
+					modified[offset] ^= 0x55;
+					check(Arrays.equals(expected, digest(modified, "SHA-256")), "digest unchanged by byte 0x"+Integer.toHexString(offset));
+				}
+				byte[] moved = signed.clone();
+				ByteBuffer.wrap(moved).order(ByteOrder.LITTLE_ENDIAN).putInt(entry+4, size + 8);
+				moved = Arrays.copyOf(moved, moved.length + 8);
+				check(Arrays.equals(expected, digest(moved, "SHA-256")), "digest unchanged by a larger certificate table");
+
+				int section = data.getInt(optionalHeader(signed) + (data.getShort(optionalHeader(signed) - 20 + 16) & 0xFFFF) + 20);
+				int[] included = {0x40, optionalHeader(signed) + 2, section, section + 0x123, table - 1};
+				for(int offset:included) {
+					byte[] modified = signed.clone();
+					modified[offset] ^= 0x55;
+					check(!Arrays.equals(expected, digest(modified, "SHA-256")), "digest changed by byte 0x"+Integer.toHexString(offset));
+				}
+			}
+		};
+	}
+
+	/** Sections are hashed in the order of their raw data, not of the section table */
+	private static Test unsorted(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] file = sign(new GeneratePE().setImports(10, 20).setSections(6).setSeed(3).generate(), new Random(3));
+				ByteBuffer data = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+				int table = optionalHeader(file) + (data.getShort(optionalHeader(file) - 20 + 16) & 0xFFFF);
+				int sections = data.getShort(optionalHeader(file) - 20 + 2) & 0xFFFF;
+				for(int i=0;i<sections/2;i++) { //reverse the section table
+					for(int k=0;k<40;k++) {
+						byte temp = file[table + i*40 + k];
+						file[table + i*40 + k] = file[table + (sections-1-i)*40 + k];
+						file[table + (sections-1-i)*40 + k] = temp;
+					}
+				}
+				check(Arrays.equals(reference(file, "SHA-256"), digest(file, "SHA-256")), "digest of a reversed section table");
+			}
+		};
+	}
+
+	/** The certificates are parsed at their quadword aligned positions */
+	private static Test certificates(String name) {
+		return new Test(name) {
+			@Override
+			public void run() throws Exception {
+				byte[] signed = sign(new GeneratePE().setSeed(4).generate(), new Random(4));
+				ExecutableReader reader = ExecutableReader.create(new ExecutableStream(signed));
+				DescriptorSecurity security = reader.getOptionalHeader().getSecurityDescriptor();
+				check(security != null, "certificate table parsed");
+				WIN_CERTIFICATE[] certificates = security.getCertificates();
+				checkEquals(2, certificates.length, "certificates");
+				checkEquals(8 + 0x51, certificates[0].getLength(), "length of the first certificate");
+				checkEquals(8 + 0x200, certificates[1].getLength(), "length of the second certificate");
+				for(WIN_CERTIFICATE certificate:certificates) {
+					checkEquals(WIN_CERTIFICATE.WIN_CERT_REVISION_2_0, certificate.getRevision(), "revision");
+					checkEquals(WIN_CERTIFICATE.WIN_CERT_TYPE_PKCS_SIGNED_DATA, certificate.getCertificateType(), "type");
+				}
+			}
+		};
+	}
+}
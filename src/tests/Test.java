@@ -0,0 +1,64 @@
+package tests;
+
+/**
+ * A minimal test case, failing by throwing an exception (usually an AssertionError from the check functions).
+ * <br>Tests build their inputs with GeneratePE, so they don't depend on any files and are reproducible.
+ */
+public abstract class Test {
+
+	/** The name printed in the results */
+	protected final String name;
+
+	/**
+	 * Create a test
+	 * @param name the name printed in the results
+	 */
+	public Test(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Run the test
+	 * @throws Exception the test failed
+	 */
+	public abstract void run() throws Exception;
+
+	/**
+	 * Return the name of this test
+	 * @return the name printed in the results
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Fail if a condition doesn't hold
+	 * @param condition the condition
+	 * @param message the reason printed if it fails
+	 */
+	protected static void check(boolean condition, String message) {
+		if(!condition) throw new AssertionError(message);
+	}
+
+	/**
+	 * Fail if two values differ
+	 * @param expected the expected value
+	 * @param actual the actual value
+	 * @param message what is compared, printed with both values if it fails
+	 */
+	protected static void checkEquals(long expected, long actual, String message) {
+		if(expected != actual)
+			throw new AssertionError(message+": expected "+expected+" (0x"+Long.toHexString(expected)+") but was "+actual+" (0x"+Long.toHexString(actual)+")");
+	}
+
+	/**
+	 * Fail if two objects aren't equal
+	 * @param expected the expected object
+	 * @param actual the actual object
+	 * @param message what is compared, printed with both objects if it fails
+	 */
+	protected static void checkEquals(Object expected, Object actual, String message) {
+		if(expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(message+": expected "+expected+" but was "+actual);
+	}
+}